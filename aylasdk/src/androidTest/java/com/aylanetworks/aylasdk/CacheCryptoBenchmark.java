@@ -0,0 +1,141 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures encryption and decryption of 200 LAN configs by the AylaCacheCrypto, compared with
+ * the per-call key derivation and Cipher creation used by earlier versions of the AylaCache.
+ * No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CacheCryptoBenchmark {
+    private static final String LOG_TAG = "CacheCryptoBenchmark";
+
+    private static final int CONFIG_COUNT = 200;
+    private static final int ITERATIONS = 5;
+    private static final String AUTH_HEADER = "auth_token 0123456789abcdef0123456789abcdef";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private List<byte[]> _configs;
+
+    @Before
+    public void setUp() {
+        _configs = new ArrayList<>();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            String config = "{\"lanip_key_id\":" + (4000 + i) + ",\"lanip_key\":" +
+                    "\"IbTfqQOtdYBLmq+oVI2GX0TKgCaJbqRG" + i + "\",\"keep_alive\":30," +
+                    "\"auto_sync\":1,\"status\":\"enable\"}";
+            _configs.add(config.getBytes(UTF8));
+        }
+    }
+
+    @Test
+    public void testEncryptDecrypt() throws Exception {
+        AylaCacheCrypto crypto = new AylaCacheCrypto();
+
+        long bestNs = Long.MAX_VALUE;
+        long bestLegacyNs = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (byte[] config : _configs) {
+                byte[] encrypted = crypto.encrypt(AUTH_HEADER, config);
+                assertTrue(Arrays.equals(config, crypto.decrypt(AUTH_HEADER, encrypted)));
+            }
+            bestNs = Math.min(bestNs, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (byte[] config : _configs) {
+                byte[] encrypted = legacyCrypt(Cipher.ENCRYPT_MODE, config);
+                assertTrue(Arrays.equals(config, legacyCrypt(Cipher.DECRYPT_MODE, encrypted)));
+            }
+            bestLegacyNs = Math.min(bestLegacyNs, System.nanoTime() - start);
+        }
+
+        Log.i(LOG_TAG, String.format("%d LAN configs encrypted and decrypted: %d us, " +
+                        "previous implementation %d us", CONFIG_COUNT,
+                TimeUnit.NANOSECONDS.toMicros(bestNs),
+                TimeUnit.NANOSECONDS.toMicros(bestLegacyNs)));
+    }
+
+    @Test
+    public void testNonceIsRandom() {
+        AylaCacheCrypto crypto = new AylaCacheCrypto();
+        byte[] config = _configs.get(0);
+        byte[] first = crypto.encrypt(AUTH_HEADER, config);
+        byte[] second = crypto.encrypt(AUTH_HEADER, config);
+
+        assertEquals(AylaCacheCrypto.ENVELOPE_VERSION_GCM, first[0]);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void testLegacyEntriesReadable() throws Exception {
+        AylaCacheCrypto crypto = new AylaCacheCrypto();
+        for (byte[] config : _configs) {
+            byte[] legacy = legacyCrypt(Cipher.ENCRYPT_MODE, config);
+            assertTrue(Arrays.equals(config, crypto.decrypt(AUTH_HEADER, legacy)));
+        }
+    }
+
+    @Test
+    public void testAuthorizationChange() {
+        AylaCacheCrypto crypto = new AylaCacheCrypto();
+        byte[] config = _configs.get(0);
+        byte[] encrypted = crypto.encrypt(AUTH_HEADER, config);
+        assertTrue(Arrays.equals(config, crypto.decrypt(AUTH_HEADER, encrypted)));
+
+        // Data is not readable once the authorization has changed
+        assertFalse(Arrays.equals(config, crypto.decrypt(AUTH_HEADER + "refreshed", encrypted)));
+        assertTrue(Arrays.equals(config, crypto.decrypt(AUTH_HEADER, encrypted)));
+    }
+
+    /**
+     * Encryption as performed by earlier versions of the AylaCache, deriving the key and IV
+     * and creating a Cipher for every call.
+     */
+    private static byte[] legacyCrypt(int mode, byte[] data) throws Exception {
+        byte[] auth = AUTH_HEADER.getBytes();
+        SHA256Digest digest = new SHA256Digest();
+        byte[] keyHash = new byte[digest.getDigestSize()];
+        digest.update(auth, 0, auth.length);
+        digest.doFinal(keyHash, 0);
+
+        digest = new SHA256Digest();
+        byte[] salt = "lanconfig-iv-salt".getBytes();
+        byte[] ivHash = new byte[digest.getDigestSize()];
+        digest.update(auth, 0, auth.length);
+        digest.update(salt, 0, salt.length);
+        digest.doFinal(ivHash, 0);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(mode, new SecretKeySpec(Arrays.copyOf(keyHash, 16), "AES"),
+                new IvParameterSpec(Arrays.copyOf(ivHash, 16)));
+        return cipher.doFinal(data);
+    }
+}
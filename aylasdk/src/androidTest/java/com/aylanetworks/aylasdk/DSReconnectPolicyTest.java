@@ -0,0 +1,79 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the retry delays and reconnect latency histogram of the AylaDSReconnectPolicy. No
+ * account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DSReconnectPolicyTest {
+
+    @Test
+    public void testDelaysAreBoundedAndCapped() {
+        AylaDSReconnectPolicy policy = new AylaDSReconnectPolicy(new Random(1));
+        for (int attempt = 0; attempt < AylaDSReconnectPolicy.MAX_ATTEMPTS; attempt++) {
+            long bound = Math.min(AylaDSReconnectPolicy.INITIAL_DELAY_MS << attempt,
+                    AylaDSReconnectPolicy.MAX_DELAY_MS);
+            long delay = policy.nextRetryDelayMs();
+            assertTrue("attempt " + attempt + " delay " + delay,
+                    delay >= AylaDSReconnectPolicy.MIN_DELAY_MS && delay <= bound);
+        }
+
+        // Retries are given up once, until the connection opens again
+        assertEquals(-1, policy.nextRetryDelayMs());
+        assertEquals(-1, policy.nextRetryDelayMs());
+        assertEquals(1, policy.getStats().getAbandonedCount());
+
+        policy.connected();
+        assertEquals(0, policy.getAttemptCount());
+        assertTrue(policy.nextRetryDelayMs() <= AylaDSReconnectPolicy.INITIAL_DELAY_MS);
+    }
+
+    @Test
+    public void testNoRetriesWithoutNetwork() {
+        AylaDSReconnectPolicy policy = new AylaDSReconnectPolicy(new Random(1));
+        policy.nextRetryDelayMs();
+        policy.nextRetryDelayMs();
+        policy.networkChanged(false);
+        assertEquals(-1, policy.nextRetryDelayMs());
+
+        policy.networkChanged(true);
+        assertEquals(0, policy.getAttemptCount());
+        assertTrue(policy.nextRetryDelayMs() >= 0);
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        AylaDSReconnectPolicy policy = new AylaDSReconnectPolicy();
+        assertEquals(-1, policy.connected());
+
+        policy.disconnected();
+        assertTrue(policy.connected() >= 0);
+
+        policy.recordLatency(300);
+        policy.recordLatency(1000);
+        policy.recordLatency(500000);
+
+        AylaDSReconnectPolicy.Stats stats = policy.getStats();
+        assertEquals(4, stats.getReconnectCount());
+        // Percentiles are reported within the 25% precision of the registry histograms
+        long p50 = stats.getLatencies().getP50();
+        assertTrue("p50 " + p50, p50 >= 300 && p50 <= 375);
+        assertEquals(500000, stats.getLatencies().getP99());
+        assertEquals(500000, stats.getMaxLatencyMs());
+    }
+}
@@ -0,0 +1,342 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.aylanetworks.aylasdk.auth.AylaAuthorization;
+import com.aylanetworks.aylasdk.auth.UsernameAuthProvider;
+import com.aylanetworks.aylasdk.error.RequestFuture;
+import com.aylanetworks.aylasdk.simulator.CloudSimulator;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests detection of missed Device Stream Service messages by the AylaDSSequenceTracker. A local
+ * websocket server stands in for the service and sends datapoint messages framed as the service
+ * does, dropping and repeating some of them. The resync on reconnect is tested against the
+ * {@link CloudSimulator}. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DSSequenceGapTest {
+    private static final String STREAM_KEY = "stream-key";
+    private static final String OTHER_STREAM_KEY = "other-stream-key";
+    private static final String DSN = "AC000W000000001";
+    private static final int MESSAGE_COUNT = 20;
+
+    private static final String EMAIL = "sequence@example.com";
+    private static final String SESSION_NAME = "sequence";
+    private static final int PROPERTY_COUNT = 2;
+    private static final String CHANGED_PROPERTY = "prop_1";
+    private static final long TIMEOUT_MS = 30000;
+
+    private MockWebServer _server;
+    private OkHttpClient _client;
+    private AylaDSSequenceTracker _tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        _server = new MockWebServer();
+        _server.start();
+        _client = new OkHttpClient();
+        _tracker = new AylaDSSequenceTracker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _server.shutdown();
+    }
+
+    @Test
+    public void testDroppedMessagesDetected() throws Exception {
+        Set<Integer> dropped = new HashSet<>(Arrays.asList(5, 11, 12));
+        List<AylaDSSequenceTracker.Result> results = streamMessages(dropped,
+                Collections.singleton(15));
+
+        AylaDSSequenceTracker.Stats stats = _tracker.getStats();
+        assertEquals(MESSAGE_COUNT - dropped.size() + 1, stats.getMessageCount());
+        assertEquals(2, stats.getGapCount());
+        assertEquals(dropped.size(), stats.getMissedMessageCount());
+        assertEquals(1, stats.getDuplicateCount());
+        assertEquals(2, Collections.frequency(results, AylaDSSequenceTracker.Result.Gap));
+        assertEquals(1, Collections.frequency(results,
+                AylaDSSequenceTracker.Result.Duplicate));
+    }
+
+    @Test
+    public void testReconnectDetected() throws Exception {
+        streamMessages(Collections.<Integer>emptySet(), Collections.<Integer>emptySet());
+
+        // The second connection numbers its messages from the start, which is not a duplicate
+        assertTrue(_tracker.streamOpened(STREAM_KEY));
+        assertEquals(AylaDSSequenceTracker.Result.Reset,
+                _tracker.messageReceived(STREAM_KEY, 1));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, 2));
+
+        AylaDSSequenceTracker.Stats stats = _tracker.getStats();
+        assertEquals(1, stats.getReconnectCount());
+        assertEquals(1, stats.getResetCount());
+        assertEquals(0, stats.getGapCount());
+        assertEquals(0, stats.getDuplicateCount());
+    }
+
+    @Test
+    public void testMessagesMissedWhileDisconnected() throws Exception {
+        streamMessages(Collections.<Integer>emptySet(), Collections.<Integer>emptySet());
+
+        // The service carried on numbering while we were disconnected
+        assertTrue(_tracker.streamOpened(STREAM_KEY));
+        assertEquals(AylaDSSequenceTracker.Result.Gap,
+                _tracker.messageReceived(STREAM_KEY, MESSAGE_COUNT + 3));
+        assertEquals(2, _tracker.getStats().getMissedMessageCount());
+    }
+
+    /**
+     * Drops the stream of a signed-in session and changes a property while it is down. The
+     * device sends no further message, so the property can only be brought up to date by the
+     * resync done on reconnect.
+     */
+    @Test
+    public void testReconnectResyncsDevices() throws Exception {
+        CloudSimulator cloud = new CloudSimulator();
+        CloudSimulator.Device simulatedDevice = cloud.addDevice(EMAIL, DSN, PROPERTY_COUNT);
+        cloud.start();
+        AylaSessionManager sessionManager = null;
+        try {
+            sessionManager = signIn(cloud);
+            AylaDSManager dsManager = sessionManager.getDSManager();
+            waitFor(dsManager, true);
+            AylaDevice device = sessionManager.getDeviceManager().deviceWithDSN(DSN);
+
+            cloud.closeStreams();
+            waitFor(dsManager, false);
+            Object value = simulatedDevice.changeProperty(CHANGED_PROPERTY);
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!value.equals(device.getProperty(CHANGED_PROPERTY).getValue()) &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(value, device.getProperty(CHANGED_PROPERTY).getValue());
+
+            AylaDSSequenceTracker.Stats stats = dsManager.getSequenceStats();
+            assertTrue(stats.getReconnectCount() >= 1);
+            assertTrue(stats.getResyncCount() >= 1);
+        } finally {
+            if (sessionManager != null) {
+                RequestFuture<AylaAPIRequest.EmptyResponse> future = RequestFuture.newFuture();
+                sessionManager.shutDown(future, future);
+                future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+            AylaNetworks.shutDown();
+            cloud.shutdown();
+        }
+    }
+
+    @Test
+    public void testSequenceIsPerStream() {
+        // Messages about different devices are numbered in one sequence
+        assertFalse(_tracker.streamOpened(STREAM_KEY));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, 1));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, 2));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(OTHER_STREAM_KEY, 1));
+        assertEquals(AylaDSSequenceTracker.Result.Gap,
+                _tracker.messageReceived(STREAM_KEY, 4));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(OTHER_STREAM_KEY, 2));
+        assertEquals(1, _tracker.getStats().getGapCount());
+    }
+
+    @Test
+    public void testLargeBackwardsJumpIsReset() {
+        assertFalse(_tracker.streamOpened(STREAM_KEY));
+        long last = 1000;
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, last));
+
+        // A recent sequence number is a repeat
+        assertEquals(AylaDSSequenceTracker.Result.Duplicate,
+                _tracker.messageReceived(STREAM_KEY, last - 1));
+
+        // One far behind means the service started over, which must not drop its messages
+        assertEquals(AylaDSSequenceTracker.Result.Reset,
+                _tracker.messageReceived(STREAM_KEY, 1));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, 2));
+
+        AylaDSSequenceTracker.Stats stats = _tracker.getStats();
+        assertEquals(1, stats.getResetCount());
+        assertEquals(1, stats.getDuplicateCount());
+    }
+
+    @Test
+    public void testMessagesWithoutSequence() {
+        assertEquals(-1, AylaDSSequenceTracker.parseSequence(null));
+        assertEquals(-1, AylaDSSequenceTracker.parseSequence("abc"));
+        assertEquals(42, AylaDSSequenceTracker.parseSequence("42"));
+        assertEquals(AylaDSSequenceTracker.Result.InOrder,
+                _tracker.messageReceived(STREAM_KEY, -1));
+    }
+
+    /**
+     * Connects to the stand-in service, which sends MESSAGE_COUNT datapoint messages followed by
+     * a keep-alive, and feeds each message received to the tracker as the AylaDSManager does.
+     *
+     * @param dropped Sequence numbers of messages the service drops
+     * @param repeated Sequence numbers of messages the service sends twice
+     * @return the tracker results for each datapoint message received
+     */
+    private List<AylaDSSequenceTracker.Result> streamMessages(final Set<Integer> dropped,
+                                                               final Set<Integer> repeated)
+            throws Exception {
+        _server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                for (int seq = 1; seq <= MESSAGE_COUNT; seq++) {
+                    if (dropped.contains(seq)) {
+                        continue;
+                    }
+                    String message = frame(seq);
+                    webSocket.send(message);
+                    if (repeated.contains(seq)) {
+                        webSocket.send(message);
+                    }
+                }
+                webSocket.send("1|X");
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(code, null);
+            }
+        }));
+
+        final Gson gson = new Gson();
+        final List<AylaDSSequenceTracker.Result> results = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        assertFalse(_tracker.streamOpened(STREAM_KEY));
+
+        WebSocket webSocket = _client.newWebSocket(new okhttp3.Request.Builder()
+                .url(_server.url("/stream?stream_key=" + STREAM_KEY)).build(),
+                new WebSocketListener() {
+                    @Override
+                    public void onMessage(WebSocket webSocket, String payload) {
+                        if (payload.equals("1|X")) {
+                            done.countDown();
+                            return;
+                        }
+                        String message = payload.substring(payload.indexOf('|') + 1);
+                        AylaDataStream dataStream = gson.fromJson(message, AylaDataStream.class);
+                        results.add(_tracker.messageReceived(STREAM_KEY,
+                                AylaDSSequenceTracker.parseSequence(dataStream.getSeq())));
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        webSocket.close(1000, null);
+        return results;
+    }
+
+    /**
+     * Signs in to the simulated service with the data stream allowed, and waits for the device
+     * manager to be ready
+     */
+    private AylaSessionManager signIn(CloudSimulator cloud) throws Exception {
+        AylaSystemSettings settings = new AylaSystemSettings();
+        settings.context = InstrumentationRegistry.getContext();
+        settings.appId = "simulator-id";
+        settings.appSecret = "simulator-secret";
+        settings.serviceLocation = AylaSystemSettings.ServiceLocation.USA;
+        settings.serviceType = AylaSystemSettings.ServiceType.Development;
+        settings.allowDSS = true;
+        settings.dssSubscriptionTypes = new String[]{
+                AylaDSManager.AylaDSSubscriptionType.AylaDSSubscriptionTypeDatapoint
+                        .stringValue()};
+        settings.disableMetricsService = true;
+        settings.listenerExecutor = AylaListenerDelivery.background();
+        settings.deviceDetailProvider = new AylaSystemSettings.DeviceDetailProvider() {
+            @Override
+            public String[] getManagedPropertyNames(AylaDevice device) {
+                String[] names = new String[PROPERTY_COUNT];
+                for (int i = 0; i < PROPERTY_COUNT; i++) {
+                    names[i] = "prop_" + i;
+                }
+                return names;
+            }
+        };
+        AylaNetworks.initialize(settings);
+
+        RequestFuture<AylaAuthorization> future = RequestFuture.newFuture();
+        AylaNetworks.sharedInstance().getLoginManager().signIn(
+                new UsernameAuthProvider(EMAIL, "password"), SESSION_NAME, future, future);
+        assertNotNull(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        AylaSessionManager sessionManager = AylaNetworks.sharedInstance()
+                .getSessionManager(SESSION_NAME);
+        assertNotNull(sessionManager);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (sessionManager.getDeviceManager().getState() !=
+                AylaDeviceManager.DeviceManagerState.Ready &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(AylaDeviceManager.DeviceManagerState.Ready,
+                sessionManager.getDeviceManager().getState());
+        return sessionManager;
+    }
+
+    /**
+     * Waits for the data stream to connect or disconnect
+     */
+    private static void waitFor(AylaDSManager dsManager, boolean connected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (dsManager.isConnected() != connected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(connected, dsManager.isConnected());
+    }
+
+    /**
+     * Frames a datapoint message as the service does, prefixed with its length
+     */
+    private static String frame(int seq) {
+        String json = "{\"seq\":\"" + seq + "\",\"metadata\":{\"dsn\":\"" + DSN + "\"," +
+                "\"property_name\":\"Blue_LED\",\"event_type\":\"datapoint\"}," +
+                "\"datapoint\":{\"value\":" + (seq % 2) + "}}";
+        return json.length() + "|" + json;
+    }
+}
@@ -0,0 +1,117 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how the AylaDSShardManager assigns devices to DSS subscriptions as the device list
+ * changes. Only assignments are tested, no subscriptions are made and no account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DSShardRebalanceTest {
+    private static final int SHARD_SIZE = 1000;
+
+    private AylaDSShardManager _shardManager;
+    private List<String> _dsns;
+
+    @Before
+    public void setUp() {
+        _shardManager = new AylaDSShardManager(null, SHARD_SIZE, null);
+        _dsns = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            _dsns.add(dsn(i));
+        }
+    }
+
+    @Test
+    public void testInitialAssignment() {
+        List<AylaDSShard> retired = new ArrayList<>();
+        Set<AylaDSShard> changed = _shardManager.rebalance(_dsns, retired);
+
+        assertEquals(3, _shardManager.getShards().size());
+        assertEquals(3, changed.size());
+        assertTrue(retired.isEmpty());
+        assertAllAssigned();
+    }
+
+    @Test
+    public void testOnlyAffectedShardsChange() {
+        List<AylaDSShard> retired = new ArrayList<>();
+        _shardManager.rebalance(_dsns, retired);
+
+        // New devices go to the least loaded shard
+        for (int i = 2500; i < 2510; i++) {
+            _dsns.add(dsn(i));
+        }
+        Set<AylaDSShard> changed = _shardManager.rebalance(_dsns, retired);
+        assertEquals(1, changed.size());
+        assertEquals(3, _shardManager.getShards().size());
+
+        // Removing devices only changes the shard they were in
+        AylaDSShard shard = _shardManager.getShard(dsn(0));
+        List<String> removed = new ArrayList<>(shard.getDsns()).subList(0, 5);
+        _dsns.removeAll(removed);
+        changed = _shardManager.rebalance(_dsns, retired);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains(shard));
+        assertTrue(retired.isEmpty());
+        assertAllAssigned();
+    }
+
+    @Test
+    public void testShardRetiredWhenOthersHaveRoom() {
+        List<AylaDSShard> retired = new ArrayList<>();
+        _shardManager.rebalance(_dsns, retired);
+
+        // 1500 devices fit into two shards
+        _dsns = _dsns.subList(0, 1500);
+        Set<AylaDSShard> changed = _shardManager.rebalance(_dsns, retired);
+
+        assertEquals(1, retired.size());
+        assertEquals(0, retired.get(0).size());
+        assertEquals(2, _shardManager.getShards().size());
+        assertEquals(2, changed.size());
+        assertAllAssigned();
+
+        // Everything removed retires every shard
+        _dsns = new ArrayList<>();
+        retired.clear();
+        _shardManager.rebalance(_dsns, retired);
+        assertEquals(2, retired.size());
+        assertTrue(_shardManager.getShards().isEmpty());
+    }
+
+    private void assertAllAssigned() {
+        int total = 0;
+        for (AylaDSShard shard : _shardManager.getShards()) {
+            assertTrue(shard.size() <= SHARD_SIZE);
+            total += shard.size();
+        }
+        assertEquals(_dsns.size(), total);
+        for (String dsn : _dsns) {
+            AylaDSShard shard = _shardManager.getShard(dsn);
+            assertNotNull(shard);
+            assertTrue(shard.getDsns().contains(dsn));
+        }
+    }
+
+    private static String dsn(int i) {
+        return String.format("AC000W%09d", i);
+    }
+}
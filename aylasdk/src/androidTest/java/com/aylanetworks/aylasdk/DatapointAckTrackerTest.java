@@ -0,0 +1,134 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.ServerError;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the poll back-off, early acks and ack latency percentiles of the
+ * AylaDatapointAckTracker. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatapointAckTrackerTest {
+
+    @Test
+    public void testPollBackoff() {
+        assertEquals(250, AylaDatapointAckTracker.pollDelayMs(0));
+        assertEquals(500, AylaDatapointAckTracker.pollDelayMs(1));
+        assertEquals(1000, AylaDatapointAckTracker.pollDelayMs(2));
+        assertEquals(AylaDatapointAckTracker.MAX_POLL_DELAY_MS,
+                AylaDatapointAckTracker.pollDelayMs(10));
+        assertEquals(AylaDatapointAckTracker.MAX_POLL_DELAY_MS,
+                AylaDatapointAckTracker.pollDelayMs(100));
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        AylaDatapointAckTracker tracker = new AylaDatapointAckTracker(null, null);
+        for (int i = 1; i <= 100; i++) {
+            tracker.recordLatency("Blue_LED", i * 10,
+                    i % 2 == 0 ? AylaDatapointAckTracker.AckSource.DSS :
+                            AylaDatapointAckTracker.AckSource.POLL);
+        }
+        tracker.recordLatency("Green_LED", 40, AylaDatapointAckTracker.AckSource.LAN);
+
+        List<AylaDatapointAckTracker.Stats> stats = tracker.getStats();
+        assertEquals(2, stats.size());
+        AylaDatapointAckTracker.Stats blue = stats.get(0).getPropertyName().equals("Blue_LED") ?
+                stats.get(0) : stats.get(1);
+        // Percentiles are reported within the 25% precision of the registry histograms
+        assertWithin(500, blue.getP50Ms());
+        assertWithin(900, blue.getP90Ms());
+        assertWithin(990, blue.getP99Ms());
+        assertEquals(1000, blue.getMaxMs());
+        assertEquals(50, blue.getAckCount(AylaDatapointAckTracker.AckSource.DSS));
+        assertEquals(50, blue.getAckCount(AylaDatapointAckTracker.AckSource.POLL));
+        assertEquals(0, blue.getAckCount(AylaDatapointAckTracker.AckSource.LAN));
+    }
+
+    @Test
+    public void testNoAcksHaveNoPercentiles() {
+        AylaDatapointAckTracker tracker = new AylaDatapointAckTracker(null, null);
+        tracker.recordLatency("Blue_LED", 100, AylaDatapointAckTracker.AckSource.DSS);
+        AylaDatapointAckTracker.Stats stats = tracker.getStats().get(0);
+        assertWithin(100, stats.getP99Ms());
+
+        stats = new AylaDatapointAckTracker.Stats("Green_LED",
+                new AylaMetricsRegistry.Histogram().snapshot(),
+                new long[AylaDatapointAckTracker.AckSource.values().length], 1);
+        assertEquals(-1, stats.getP50Ms());
+        assertEquals(-1, stats.getP99Ms());
+        assertEquals(1, stats.getTimeoutCount());
+    }
+
+    @Test
+    public void testUnknownAckIgnored() {
+        AylaDatapointAckTracker tracker = new AylaDatapointAckTracker(null, null);
+        AylaDatapoint<Integer> datapoint = new AylaDatapoint<>(1);
+        assertFalse(tracker.ackReceived(datapoint));
+        datapoint.setAckedAt("2016-01-01T00:00:00Z");
+        assertFalse(tracker.ackReceived(datapoint));
+        assertEquals(0, tracker.getPendingCount());
+    }
+
+    @Test
+    public void testAckBeforeTrackCompletes() {
+        Gson gson = new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                .create();
+        AylaProperty property = gson.fromJson("{\"name\":\"Blue_LED\"}", AylaProperty.class);
+        AylaDatapoint created = gson.fromJson("{\"id\":\"dp-1\"}", AylaDatapoint.class);
+        AylaDatapoint acked = gson.fromJson("{\"id\":\"dp-1\",\"ack_status\":500}",
+                AylaDatapoint.class);
+        acked.setAckedAt("2016-01-01T00:00:00Z");
+
+        // The datastream delivers the ack before the response creating the datapoint
+        AylaDatapointAckTracker tracker = new AylaDatapointAckTracker(null, null);
+        assertFalse(tracker.ackReceived(acked));
+
+        final List<AylaError> errors = new ArrayList<>();
+        tracker.track(property, created, null, 10, new Response.Listener() {
+            @Override
+            public void onResponse(Object response) {
+                fail("NAK reported as success");
+            }
+        }, new ErrorListener() {
+            @Override
+            public void onErrorResponse(AylaError error) {
+                errors.add(error);
+            }
+        });
+        assertEquals(1, errors.size());
+        assertEquals(500, ((ServerError) errors.get(0)).getServerResponseCode());
+        assertEquals(0, tracker.getPendingCount());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 5 / 4);
+    }
+}
@@ -0,0 +1,199 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.PreconditionError;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how the AylaDatapointWriteCoalescer merges datapoints into batches and delivers the
+ * results to each caller. Batches are answered locally, no account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatapointWriteCoalescerTest {
+    private final Gson _gson = new GsonBuilder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    private AylaDatapointWriteCoalescer _coalescer;
+    private List<AylaDatapointBatchRequest[]> _batches;
+    private Response.Listener<AylaDatapointBatchResponse[]> _batchListener;
+    private AylaProperty<Integer> _blue;
+    private AylaProperty<Integer> _green;
+
+    private final List<Object> _results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        _batches = new ArrayList<>();
+        _coalescer = new AylaDatapointWriteCoalescer(null, 0,
+                new AylaDatapointWriteCoalescer.BatchSender() {
+                    @Override
+                    public AylaAPIRequest sendBatch(AylaDatapointBatchRequest[] requests,
+                                                    Response.Listener<AylaDatapointBatchResponse[]>
+                                                            successListener,
+                                                    ErrorListener errorListener) {
+                        _batches.add(requests);
+                        _batchListener = successListener;
+                        return AylaAPIRequest.dummyRequest(AylaDatapointBatchResponse[].class,
+                                successListener, errorListener);
+                    }
+                });
+
+        AylaDevice device = _gson.fromJson("{\"dsn\":\"AC000W000000001\"}", AylaDevice.class);
+        _blue = property(device, "Blue_LED");
+        _green = property(device, "Green_LED");
+    }
+
+    @SuppressWarnings("unchecked")
+    private AylaProperty<Integer> property(AylaDevice device, String name) {
+        AylaProperty<Integer> property = _gson.fromJson("{\"name\":\"" + name +
+                "\",\"base_type\":\"integer\"}", AylaProperty.class);
+        property.setOwner(device);
+        return property;
+    }
+
+    private AylaAPIRequest add(AylaProperty<Integer> property, int value) {
+        return _coalescer.add(property, value, AylaProperty.DEFAULT_ACK_WAIT_TIME,
+                new Response.Listener<AylaDatapoint<Integer>>() {
+                    @Override
+                    public void onResponse(AylaDatapoint<Integer> response) {
+                        _results.add(response);
+                    }
+                },
+                new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        _results.add(error);
+                    }
+                });
+    }
+
+    private AylaDatapointBatchResponse response(String name, int status, int value) {
+        return _gson.fromJson("{\"dsn\":\"AC000W000000001\",\"name\":\"" + name +
+                "\",\"status\":" + status + ",\"datapoint\":{\"value\":" + value + "}}",
+                AylaDatapointBatchResponse.class);
+    }
+
+    @Test
+    public void testSupersededValuesCollapse() throws Exception {
+        add(_blue, 1);
+        add(_blue, 2);
+        add(_green, 1);
+        add(_blue, 3);
+        assertEquals(2, _coalescer.getPendingCount());
+        _coalescer.flush();
+
+        assertEquals(1, _batches.size());
+        AylaDatapointBatchRequest[] batch = _batches.get(0);
+        assertEquals(2, batch.length);
+        JSONObject blue = batch[0].toJSONObject();
+        assertEquals("Blue_LED", blue.getString("name"));
+        assertEquals(3, blue.getJSONObject("datapoint").getInt("value"));
+
+        _batchListener.onResponse(new AylaDatapointBatchResponse[]{
+                response("Green_LED", 201, 1), response("Blue_LED", 201, 3)});
+        assertEquals(4, _results.size());
+        for (Object result : _results) {
+            assertTrue(result instanceof AylaDatapoint);
+        }
+
+        AylaDatapointWriteCoalescer.Stats stats = _coalescer.getStats();
+        assertEquals(4, stats.getDatapointCount());
+        assertEquals(2, stats.getSupersededCount());
+        assertEquals(1, stats.getBatchCount());
+        assertEquals(0, stats.getFailedCount());
+    }
+
+    @Test
+    public void testFailuresDeliveredPerProperty() {
+        add(_blue, 1);
+        add(_green, 1);
+        _coalescer.flush();
+
+        // Blue fails, and the service says nothing about green
+        _batchListener.onResponse(new AylaDatapointBatchResponse[]{
+                response("Blue_LED", 422, 1), null});
+        assertEquals(2, _results.size());
+        assertTrue(_results.get(0) instanceof AylaError);
+        assertTrue(_results.get(1) instanceof AylaError);
+        assertEquals(2, _coalescer.getStats().getFailedCount());
+    }
+
+    @Test
+    public void testCanceledCallers() {
+        add(_blue, 1).cancel();
+        add(_blue, 2).cancel();
+        AylaAPIRequest green = add(_green, 1);
+        add(_green, 2);
+        green.cancel();
+        _coalescer.flush();
+
+        // Blue is dropped, green is sent but only delivered to the caller that did not cancel
+        assertEquals(1, _batches.size());
+        assertEquals(1, _batches.get(0).length);
+        _batchListener.onResponse(new AylaDatapointBatchResponse[]{
+                response("Green_LED", 201, 2)});
+        assertEquals(1, _results.size());
+
+        _coalescer.flush();
+        assertEquals(1, _batches.size());
+    }
+
+    @Test
+    public void testResetNotifiesCallers() {
+        add(_blue, 1);
+        add(_blue, 2);
+        add(_green, 1).cancel();
+        _coalescer.reset();
+
+        // Nothing is sent, and every caller that did not cancel hears about it
+        assertEquals(0, _coalescer.getPendingCount());
+        assertEquals(2, _results.size());
+        for (Object result : _results) {
+            assertTrue(result instanceof PreconditionError);
+        }
+        _coalescer.flush();
+        assertTrue(_batches.isEmpty());
+    }
+
+    @Test
+    public void testCanBatch() {
+        assertTrue(AylaDatapointWriteCoalescer.canBatch(_blue, 1, null));
+        assertFalse(AylaDatapointWriteCoalescer.canBatch(_blue, null, null));
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("source", "dimmer");
+        assertFalse(AylaDatapointWriteCoalescer.canBatch(_blue, 1, metadata));
+
+        AylaProperty<Integer> unowned = _gson.fromJson(
+                "{\"name\":\"Blue_LED\",\"base_type\":\"integer\"}", AylaProperty.class);
+        assertNull(unowned.getOwner());
+        assertFalse(AylaDatapointWriteCoalescer.canBatch(unowned, 1, null));
+    }
+}
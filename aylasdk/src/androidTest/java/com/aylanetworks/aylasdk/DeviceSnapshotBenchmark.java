@@ -0,0 +1,260 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures cold start loading of a 200 device account from an AylaDeviceSnapshot, compared
+ * with parsing the same data from the JSON entries of the AylaCache. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceSnapshotBenchmark {
+    private static final String LOG_TAG = "SnapshotBenchmark";
+
+    private static final int DEVICE_COUNT = 200;
+    private static final int PROPERTIES_PER_DEVICE = 20;
+    private static final int ITERATIONS = 5;
+
+    private static final String AUTH_HEADER_VALUE = "auth_token benchmark";
+
+    private Gson _gson;
+    private AylaCache _cache;
+    private File _file;
+    private String _devicesJson;
+    private Map<String, String> _propertiesJson;
+
+    @Before
+    public void setUp() throws Exception {
+        AylaSystemSettings systemSettings =
+                new AylaSystemSettings(TestConstants.US_DEVICE_DEV_SYSTEM_SETTINGS);
+        systemSettings.context = InstrumentationRegistry.getContext();
+        AylaNetworks.initialize(systemSettings);
+        _gson = AylaNetworks.sharedInstance().getGson();
+        _file = new File(InstrumentationRegistry.getContext().getCacheDir(),
+                "benchmark.snapshot");
+
+        // Encrypts as the cache of a session would, without needing one
+        final AylaCacheCrypto crypto = new AylaCacheCrypto();
+        _cache = new AylaCache(null) {
+            @Override
+            byte[] encryptBytes(byte[] data) {
+                return crypto.encrypt(AUTH_HEADER_VALUE, data);
+            }
+
+            @Override
+            byte[] decryptBytes(byte[] data) {
+                return crypto.decrypt(AUTH_HEADER_VALUE, data);
+            }
+        };
+
+        // JSON as it is stored in the AylaCache
+        StringBuilder devices = new StringBuilder("[");
+        _propertiesJson = new HashMap<>();
+        for (int i = 0; i < DEVICE_COUNT; i++) {
+            String dsn = String.format("AC000W%09d", i);
+            if (i > 0) {
+                devices.append(',');
+            }
+            devices.append("{\"dsn\":\"").append(dsn).append("\",\"product_name\":\"Device ")
+                    .append(i).append("\",\"model\":\"AY001MRT1\",\"oem_model\":\"ledevb\",")
+                    .append("\"connection_status\":\"Online\",\"key\":").append(1000 + i)
+                    .append(",\"lan_ip\":\"192.168.1.").append(i % 250).append("\",")
+                    .append("\"lan_enabled\":true,\"device_type\":\"Wifi\"}");
+
+            StringBuilder properties = new StringBuilder("[");
+            for (int j = 0; j < PROPERTIES_PER_DEVICE; j++) {
+                if (j > 0) {
+                    properties.append(',');
+                }
+                properties.append("{\"name\":\"prop_").append(j).append("\",")
+                        .append("\"base_type\":\"integer\",\"value\":").append(j)
+                        .append(",\"direction\":\"input\",\"read_only\":false,")
+                        .append("\"data_updated_at\":\"2020-01-01T00:00:00Z\",")
+                        .append("\"display_name\":\"Property ").append(j).append("\"}");
+            }
+            properties.append(']');
+            _propertiesJson.put(dsn, properties.toString());
+        }
+        devices.append(']');
+        _devicesJson = devices.toString();
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+    }
+
+    @Test
+    public void testSnapshotStartup() throws Exception {
+        AylaDeviceSnapshot snapshot = new AylaDeviceSnapshot(_file, _gson, _cache);
+        snapshot.write(parseFromCacheJson().values());
+
+        long bestSnapshotNs = Long.MAX_VALUE;
+        long bestJsonNs = Long.MAX_VALUE;
+        Map<String, AylaDevice> loaded = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            AylaDeviceSnapshot.Contents contents = snapshot.read();
+            assertNotNull(contents);
+            loaded = new HashMap<>();
+            for (AylaDevice device : contents.getDevices()) {
+                loaded.put(device.getDsn(), device);
+            }
+            bestSnapshotNs = Math.min(bestSnapshotNs, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            parseFromCacheJson();
+            bestJsonNs = Math.min(bestJsonNs, System.nanoTime() - start);
+        }
+
+        long snapshotMs = TimeUnit.NANOSECONDS.toMillis(bestSnapshotNs);
+        Log.i(LOG_TAG, String.format("%d devices, %d properties each: snapshot %d ms, " +
+                        "JSON cache entries %d ms, snapshot size %d bytes", DEVICE_COUNT,
+                PROPERTIES_PER_DEVICE, snapshotMs, TimeUnit.NANOSECONDS.toMillis(bestJsonNs),
+                _file.length()));
+
+        assertEquals(DEVICE_COUNT, loaded.size());
+
+        // Properties are decoded on first access
+        AylaDevice device = loaded.get(String.format("AC000W%09d", 7));
+        assertNotNull(device._pendingProperties);
+        AylaProperty property = device.getProperty("prop_5");
+        assertNotNull(property);
+        assertEquals(5, ((Number) property.getValue()).intValue());
+        assertEquals(PROPERTIES_PER_DEVICE, device.getProperties().size());
+        assertNull(device._pendingProperties);
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws Exception {
+        AylaDeviceSnapshot snapshot = new AylaDeviceSnapshot(_file, _gson, _cache);
+        snapshot.write(parseFromCacheJson().values());
+
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.seek(file.length() / 2);
+        int value = file.read();
+        file.seek(file.length() / 2);
+        file.write(value ^ 0xff);
+        file.close();
+
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testSnapshotIsEncrypted() throws Exception {
+        AylaDeviceSnapshot snapshot = new AylaDeviceSnapshot(_file, _gson, _cache);
+        snapshot.write(parseFromCacheJson().values());
+
+        byte[] bytes = new byte[(int) _file.length()];
+        RandomAccessFile file = new RandomAccessFile(_file, "r");
+        file.readFully(bytes);
+        file.close();
+        String contents = new String(bytes, "ISO-8859-1");
+        assertFalse(contents.contains(String.format("AC000W%09d", 7)));
+        assertFalse(contents.contains("prop_5"));
+
+        // Without the key of the session the snapshot cannot be read
+        assertNull(new AylaDeviceSnapshot(_file, _gson, new AylaCache(null) {
+            @Override
+            byte[] decryptBytes(byte[] data) {
+                return new AylaCacheCrypto().decrypt("auth_token other", data);
+            }
+        }).read());
+    }
+
+    @Test
+    public void testChangeDuringWriteIsWritten() throws Exception {
+        final Map<String, AylaDevice> devices = parseFromCacheJson();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        AylaDeviceSnapshot snapshot = new AylaDeviceSnapshot(_file, _gson, _cache);
+        snapshot.scheduleWrite(new AylaDeviceSnapshot.DeviceSource() {
+            @Override
+            public Collection<AylaDevice> getDevices() {
+                Collection<AylaDevice> all = new ArrayList<>(devices.values());
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return all;
+            }
+        });
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // A device is removed while the first write is running
+        final AylaDevice removed = devices.remove(String.format("AC000W%09d", 7));
+        snapshot.scheduleWrite(new AylaDeviceSnapshot.DeviceSource() {
+            @Override
+            public Collection<AylaDevice> getDevices() {
+                return devices.values();
+            }
+        });
+        release.countDown();
+
+        AylaDeviceSnapshot.Contents contents = null;
+        long deadline = System.currentTimeMillis() + 15000;
+        while (System.currentTimeMillis() < deadline) {
+            contents = snapshot.read();
+            if (contents != null && contents.getDevices().length == DEVICE_COUNT - 1) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        snapshot.shutDown();
+
+        assertNotNull(contents);
+        assertEquals(DEVICE_COUNT - 1, contents.getDevices().length);
+        for (AylaDevice device : contents.getDevices()) {
+            assertFalse(device.getDsn().equals(removed.getDsn()));
+        }
+    }
+
+    /**
+     * Parses devices and properties the way the AylaDeviceManager does from AylaCache entries
+     */
+    private Map<String, AylaDevice> parseFromCacheJson() {
+        Map<String, AylaDevice> result = new HashMap<>();
+        AylaDevice[] devices = _gson.fromJson(_devicesJson, AylaDevice[].class);
+        for (AylaDevice device : devices) {
+            AylaProperty[] properties = _gson.fromJson(_propertiesJson.get(device.getDsn()),
+                    AylaProperty[].class);
+            for (AylaProperty property : properties) {
+                property.setOwner(device);
+                device._propertyMap.put(property.getName(), property);
+            }
+            result.put(device.getDsn(), device);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how the AylaLanSessionOrchestrator keeps the last-used times of devices. No account is
+ * needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LanSessionOrchestratorTest {
+    private static final String DSN = "AC000W000000001";
+
+    @Before
+    public void setUp() throws Exception {
+        AylaSystemSettings systemSettings =
+                new AylaSystemSettings(TestConstants.US_DEVICE_DEV_SYSTEM_SETTINGS);
+        systemSettings.context = InstrumentationRegistry.getContext();
+        AylaNetworks.initialize(systemSettings);
+    }
+
+    @Test
+    public void testRemovedDeviceIsForgotten() {
+        AylaDevice device = AylaNetworks.sharedInstance().getGson().fromJson(
+                "{\"dsn\":\"" + DSN + "\"}", AylaDevice.class);
+        AylaLanSessionOrchestrator orchestrator = new AylaLanSessionOrchestrator(null);
+        orchestrator.deviceUsed(device);
+        assertTrue(orchestrator.getLastUsed(DSN) > 0);
+        assertTrue(new AylaLanSessionOrchestrator(null).getLastUsed(DSN) > 0);
+
+        orchestrator.remove(DSN);
+        assertEquals(0, orchestrator.getLastUsed(DSN));
+        // Nor is it loaded from the preferences again
+        assertEquals(0, new AylaLanSessionOrchestrator(null).getLastUsed(DSN));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreTrimmed() {
+        Map<String, Long> lastUsed = new HashMap<>();
+        lastUsed.put("a", 40L);
+        lastUsed.put("b", 10L);
+        lastUsed.put("c", 30L);
+        lastUsed.put("d", 20L);
+
+        List<String> removed = AylaLanSessionOrchestrator.trimLastUsed(lastUsed, 2);
+        assertEquals(new HashSet<>(Arrays.asList("b", "d")), new HashSet<>(removed));
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), lastUsed.keySet());
+
+        assertTrue(AylaLanSessionOrchestrator.trimLastUsed(lastUsed, 2).isEmpty());
+        assertEquals(2, lastUsed.size());
+    }
+}
@@ -0,0 +1,77 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the executors offered by AylaListenerDelivery. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListenerDeliveryTest {
+
+    @Test
+    public void testDirect() {
+        final Thread caller = Thread.currentThread();
+        final List<Thread> ranOn = new ArrayList<>();
+        AylaListenerDelivery.direct().execute(new Runnable() {
+            @Override
+            public void run() {
+                ranOn.add(Thread.currentThread());
+            }
+        });
+        assertEquals(1, ranOn.size());
+        assertSame(caller, ranOn.get(0));
+    }
+
+    @Test
+    public void testBackgroundIsSerial() throws InterruptedException {
+        Executor executor = AylaListenerDelivery.background();
+        assertSame(executor, AylaListenerDelivery.background());
+
+        final int count = 1000;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch done = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    threads.add(Thread.currentThread());
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(1, threads.size());
+        Thread thread = threads.iterator().next();
+        assertTrue(thread.isDaemon());
+        assertFalse(thread == Thread.currentThread());
+    }
+}
@@ -0,0 +1,149 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the AylaMetricsRegistry histograms and endpoint templates, and the recording of request
+ * network times. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetricsRegistryTest {
+
+    @Test
+    public void testPercentiles() {
+        AylaMetricsRegistry.Histogram histogram = new AylaMetricsRegistry.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        AylaMetricsRegistry.HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertWithin(500, snapshot.getP50());
+        assertWithin(900, snapshot.getP90());
+        assertWithin(990, snapshot.getP99());
+        assertEquals(0, new AylaMetricsRegistry.Histogram().snapshot().getP99());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.25);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final AylaMetricsRegistry registry = new AylaMetricsRegistry();
+        final int threads = 4;
+        final int count = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        registry.histogram("latency").record(i % 100);
+                        registry.counter("requests").increment();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        AylaMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(threads * count, (long) snapshot.getCounters().get("requests"));
+        assertEquals(threads * count, snapshot.getHistograms().get("latency").getCount());
+        assertEquals(99, snapshot.getHistograms().get("latency").getMax());
+    }
+
+    @Test
+    public void testMetricCap() {
+        AylaMetricsRegistry registry = new AylaMetricsRegistry();
+        for (int i = 0; i < AylaMetricsRegistry.MAX_METRICS + 10; i++) {
+            registry.counter("counter " + i).increment();
+        }
+        AylaMetricsRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(AylaMetricsRegistry.MAX_METRICS + 1, snapshot.getCounters().size());
+        assertEquals(10, (long) snapshot.getCounters().get(AylaMetricsRegistry.OVERFLOW_NAME));
+    }
+
+    @Test
+    public void testEndpointTemplate() {
+        assertEquals("GET /apiv1/dsns/{id}/properties.json", AylaMetricsRegistry.endpointTemplate(
+                "GET", "https://ads-dev.aylanetworks.com/apiv1/dsns/AC000W000000001/" +
+                        "properties.json?names[]=Blue_LED"));
+        assertEquals("POST /apiv1/properties/{id}/datapoints.json",
+                AylaMetricsRegistry.endpointTemplate("POST",
+                        "https://ads-dev.aylanetworks.com/apiv1/properties/12345/datapoints.json"));
+        assertEquals("GET /users/get_user_profile.json", AylaMetricsRegistry.endpointTemplate(
+                "GET", "https://user-dev.aylanetworks.com/users/get_user_profile.json"));
+        assertEquals("GET /", AylaMetricsRegistry.endpointTemplate("GET",
+                "http://192.168.1.10"));
+    }
+
+    @Test
+    public void testMeteredNetworkRecordsRequests() throws VolleyError {
+        // Like most requests, this one parses its own responses without calling super
+        AylaAPIRequest<Object> request = new AylaAPIRequest<Object>(Request.Method.GET,
+                "https://ads-dev.aylanetworks.com/apiv1/dsns/AC000W000000002/metered.json",
+                null, Object.class, null, null, null) {
+            @Override
+            protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+                return Response.success(null, null);
+            }
+        };
+        Network network = AylaAPIRequest.meteredNetwork(new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) {
+                return new NetworkResponse(200, new byte[0],
+                        Collections.<String, String>emptyMap(), false, 42);
+            }
+        });
+
+        AylaMetricsRegistry.Histogram histogram = AylaMetricsRegistry.sharedInstance()
+                .histogram(request.getMetricName());
+        long count = histogram.snapshot().getCount();
+        network.performRequest(request);
+        assertEquals(count + 1, histogram.snapshot().getCount());
+        assertEquals(42, histogram.snapshot().getMax());
+
+        // Requests that fail are recorded as well
+        Network failing = AylaAPIRequest.meteredNetwork(new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                throw new TimeoutError();
+            }
+        });
+        try {
+            failing.performRequest(request);
+            fail("Expected a TimeoutError");
+        } catch (TimeoutError expected) {
+        }
+        assertEquals(count + 2, histogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,216 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.NetworkError;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests of AylaPageCursor against a fake page fetcher that completes fetches on demand.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageCursorTest {
+
+    private static final int PAGE_COUNT = 3;
+
+    private static class FakeFetcher implements AylaPageCursor.PageFetcher<Integer> {
+        final List<Integer> requestedPages = new ArrayList<>();
+        Response.Listener<AylaPageCursor.Page<Integer>> pendingListener;
+        ErrorListener pendingErrorListener;
+        int pendingPage;
+
+        @Override
+        public AylaAPIRequest fetchPage(int pageNumber,
+                                        Response.Listener<AylaPageCursor.Page<Integer>>
+                                                successListener,
+                                        ErrorListener errorListener) {
+            requestedPages.add(pageNumber);
+            pendingPage = pageNumber;
+            pendingListener = successListener;
+            pendingErrorListener = errorListener;
+            return null;
+        }
+
+        void complete() {
+            Response.Listener<AylaPageCursor.Page<Integer>> listener = pendingListener;
+            pendingListener = null;
+            listener.onResponse(new AylaPageCursor.Page<>(new Integer[]{pendingPage},
+                    pendingPage, pendingPage < PAGE_COUNT));
+        }
+
+        void completeWithNull() {
+            Response.Listener<AylaPageCursor.Page<Integer>> listener = pendingListener;
+            pendingListener = null;
+            listener.onResponse(null);
+        }
+
+        void fail() {
+            ErrorListener listener = pendingErrorListener;
+            pendingListener = null;
+            listener.onErrorResponse(new NetworkError("offline", null));
+        }
+    }
+
+    private static class Results implements Response.Listener<Integer[]>, ErrorListener {
+        final List<Integer> items = new ArrayList<>();
+        AylaError error;
+
+        @Override
+        public void onResponse(Integer[] response) {
+            for (Integer item : response) {
+                items.add(item);
+            }
+        }
+
+        @Override
+        public void onErrorResponse(AylaError error) {
+            this.error = error;
+        }
+    }
+
+    @Test
+    public void testReadAhead() {
+        FakeFetcher fetcher = new FakeFetcher();
+        AylaPageCursor<Integer> cursor = new AylaPageCursor<>(fetcher, 1, true);
+        Results results = new Results();
+
+        assertTrue(cursor.hasNext());
+        assertTrue(fetcher.requestedPages.isEmpty());
+
+        cursor.next(results, results);
+        fetcher.complete();
+        assertEquals(1, results.items.size());
+
+        // Page 2 is fetched ahead as soon as page 1 was delivered
+        assertEquals(2, fetcher.requestedPages.size());
+        fetcher.complete();
+
+        // Page 2 is delivered right away, and page 3 is fetched ahead
+        cursor.next(results, results);
+        assertEquals(2, results.items.size());
+        assertEquals(3, fetcher.requestedPages.size());
+        fetcher.complete();
+
+        cursor.next(results, results);
+        assertEquals(3, results.items.size());
+        assertFalse(cursor.hasNext());
+        assertEquals(3, fetcher.requestedPages.size());
+        assertNull(results.error);
+    }
+
+    @Test
+    public void testCloseStopsFetching() {
+        FakeFetcher fetcher = new FakeFetcher();
+        AylaPageCursor<Integer> cursor = new AylaPageCursor<>(fetcher, 1, true);
+        Results results = new Results();
+
+        cursor.next(results, results);
+        fetcher.complete();
+        cursor.close();
+
+        // The page fetched ahead is discarded once the cursor has been closed
+        fetcher.complete();
+        assertFalse(cursor.hasNext());
+        assertEquals(2, fetcher.requestedPages.size());
+
+        cursor.next(results, results);
+        assertEquals(1, results.items.size());
+        assertNotNull(results.error);
+    }
+
+    @Test
+    public void testErrorRetriesPage() {
+        FakeFetcher fetcher = new FakeFetcher();
+        AylaPageCursor<Integer> cursor = new AylaPageCursor<>(fetcher, 1, false);
+        Results results = new Results();
+
+        cursor.next(results, results);
+        fetcher.fail();
+        assertNotNull(results.error);
+
+        results.error = null;
+        cursor.next(results, results);
+        assertEquals(Integer.valueOf(1), fetcher.requestedPages.get(1));
+        fetcher.complete();
+        assertEquals(1, results.items.size());
+        assertNull(results.error);
+    }
+
+    @Test
+    public void testNullPageEndsCursor() {
+        FakeFetcher fetcher = new FakeFetcher();
+        AylaPageCursor<Integer> cursor = new AylaPageCursor<>(fetcher, 1, true);
+        Results results = new Results();
+
+        cursor.next(results, results);
+        fetcher.complete();
+        fetcher.completeWithNull();
+        assertFalse(cursor.hasNext());
+
+        cursor.next(results, results);
+        assertEquals(1, results.items.size());
+        assertNotNull(results.error);
+        assertEquals(2, fetcher.requestedPages.size());
+    }
+
+    @Test
+    public void testAlertHistoryPaging() {
+        Gson gson = new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                .create();
+        String alerts = "\"alert_histories\":[" +
+                "{\"alert_history\":{\"property_name\":\"Blue_LED\"}}," +
+                "{\"alert_history\":{\"property_name\":\"Green_LED\"}}]";
+
+        // A full page is not a reason to fetch another one, next_page is
+        AylaDeviceManager.AlertHistoryPage page = AylaDeviceManager.parseAlertHistoryPage(gson,
+                "{" + alerts + ",\"next_page\":null,\"total\":2}");
+        assertEquals(2, page.alerts.length);
+        assertEquals("Green_LED", page.alerts[1].getPropertyName());
+        assertFalse(page.hasNext);
+
+        page = AylaDeviceManager.parseAlertHistoryPage(gson, "{" + alerts + ",\"next_page\":2}");
+        assertTrue(page.hasNext);
+
+        page = AylaDeviceManager.parseAlertHistoryPage(gson,
+                "{" + alerts + ",\"total\":5,\"end_count_on_page\":2}");
+        assertTrue(page.hasNext);
+        page = AylaDeviceManager.parseAlertHistoryPage(gson,
+                "{" + alerts + ",\"total\":2,\"end_count_on_page\":2}");
+        assertFalse(page.hasNext);
+
+        // Responses without alerts end the history
+        page = AylaDeviceManager.parseAlertHistoryPage(gson, null);
+        assertEquals(0, page.alerts.length);
+        assertFalse(page.hasNext);
+        page = AylaDeviceManager.parseAlertHistoryPage(gson, "");
+        assertEquals(0, page.alerts.length);
+        assertFalse(page.hasNext);
+        page = AylaDeviceManager.parseAlertHistoryPage(gson, "{}");
+        assertEquals(0, page.alerts.length);
+        assertFalse(page.hasNext);
+    }
+}
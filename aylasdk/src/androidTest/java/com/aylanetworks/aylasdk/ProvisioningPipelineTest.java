@@ -0,0 +1,141 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.TimeoutError;
+import com.aylanetworks.aylasdk.setup.AylaProvisioningPipeline;
+import com.aylanetworks.aylasdk.setup.AylaProvisioningPipeline.State;
+import com.aylanetworks.aylasdk.setup.AylaProvisioningPipeline.Unit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the scheduling of AylaProvisioningPipeline with stages that finish when the test says
+ * so. No device or account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProvisioningPipelineTest {
+
+    private static class ManualStage implements AylaProvisioningPipeline.Stage {
+        final List<Unit> units = new ArrayList<>();
+        final List<Response.Listener<Unit>> successListeners = new ArrayList<>();
+        final List<ErrorListener> errorListeners = new ArrayList<>();
+
+        @Override
+        public AylaAPIRequest run(Unit unit, Response.Listener<Unit> successListener,
+                                  ErrorListener errorListener) {
+            units.add(unit);
+            successListeners.add(successListener);
+            errorListeners.add(errorListener);
+            return null;
+        }
+
+        void succeed(int index) {
+            successListeners.get(index).onResponse(units.get(index));
+        }
+
+        void fail(int index) {
+            errorListeners.get(index).onErrorResponse(new TimeoutError("timed out"));
+        }
+    }
+
+    private static class IdleListener implements AylaProvisioningPipeline.Listener {
+        AylaProvisioningPipeline.Stats stats;
+
+        @Override
+        public void unitStateChanged(Unit unit) {
+        }
+
+        @Override
+        public void pipelineIdle(AylaProvisioningPipeline.Stats stats) {
+            this.stats = stats;
+        }
+    }
+
+    @Test
+    public void testStagesOverlap() {
+        ManualStage connect = new ManualStage();
+        ManualStage register = new ManualStage();
+        IdleListener listener = new IdleListener();
+        AylaProvisioningPipeline pipeline = new AylaProvisioningPipeline(listener,
+                AylaListenerDelivery.direct())
+                .addStage("connect", 1, connect)
+                .addStage("register", 2, register);
+
+        Unit first = pipeline.submit("Ayla-0001");
+        Unit second = pipeline.submit("Ayla-0002");
+        Unit third = pipeline.submit("Ayla-0003");
+
+        // Only one unit is connected at a time
+        assertEquals(1, connect.units.size());
+        assertEquals(State.Running, first.getState());
+        assertEquals(State.Waiting, second.getState());
+
+        // The first unit registers while the second is connected
+        connect.succeed(0);
+        assertEquals(1, register.units.size());
+        assertEquals(2, connect.units.size());
+        assertEquals("register", first.getStageName());
+        assertEquals(State.Running, first.getState());
+        assertEquals("connect", second.getStageName());
+        assertEquals(State.Running, second.getState());
+
+        connect.succeed(1);
+        connect.fail(2);
+        assertEquals(State.Failed, third.getState());
+        assertEquals("connect", third.getStageName());
+        assertNotNull(third.getError());
+        assertNull(listener.stats);
+
+        register.succeed(1);
+        register.succeed(0);
+        assertEquals(State.Provisioned, first.getState());
+        assertEquals(State.Provisioned, second.getState());
+
+        // A stage calling back again is ignored
+        register.succeed(0);
+
+        assertTrue(pipeline.isIdle());
+        assertNotNull(listener.stats);
+        assertEquals(3, listener.stats.getSubmittedCount());
+        assertEquals(2, listener.stats.getProvisionedCount());
+        assertEquals(1, listener.stats.getFailedCount());
+    }
+
+    @Test
+    public void testCancel() {
+        ManualStage connect = new ManualStage();
+        AylaProvisioningPipeline pipeline = new AylaProvisioningPipeline(null,
+                AylaListenerDelivery.direct())
+                .addStage("connect", 1, connect);
+
+        Unit first = pipeline.submit("Ayla-0001");
+        Unit second = pipeline.submit("Ayla-0002");
+        pipeline.cancel();
+        assertEquals(State.Canceled, first.getState());
+        assertEquals(State.Canceled, second.getState());
+
+        // Late results and new units do not start anything
+        connect.succeed(0);
+        assertEquals(State.Canceled, first.getState());
+        assertEquals(State.Canceled, pipeline.submit("Ayla-0003").getState());
+        assertEquals(1, connect.units.size());
+        assertEquals(3, pipeline.getStats().getCanceledCount());
+    }
+}
@@ -0,0 +1,88 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Request;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests the keys the AylaRequestCoalescer uses to find identical requests. No account is
+ * needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCoalescerTest {
+    private static final String URL = "https://ads-dev.aylanetworks.com/apiv1/devices.json";
+
+    private static String key(int method, String url, String authorization,
+                              Map<String, String> headers) {
+        return AylaRequestCoalescer.getKey(method, url, authorization, headers,
+                AylaAPIRequest.PriorityClass.Interactive);
+    }
+
+    @Test
+    public void testIdenticalRequestsShareKey() {
+        assertEquals(key(Request.Method.GET, URL, "auth_token abc", null),
+                key(Request.Method.GET, URL, "auth_token abc", null));
+    }
+
+    @Test
+    public void testCollidingAuthorizationsHaveDifferentKeys() {
+        // "Aa" and "BB" have the same String.hashCode()
+        String first = "auth_token Aa";
+        String second = "auth_token BB";
+        assertEquals(first.hashCode(), second.hashCode());
+
+        assertFalse(key(Request.Method.GET, URL, first, null).equals(
+                key(Request.Method.GET, URL, second, null)));
+    }
+
+    @Test
+    public void testMissingAuthorizationIsNotAToken() {
+        assertFalse(key(Request.Method.GET, URL, null, null).equals(
+                key(Request.Method.GET, URL, "none", null)));
+    }
+
+    @Test
+    public void testHeaderOrderDoesNotMatter() {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put("If-None-Match", "\"1\"");
+        first.put("Accept", "application/json");
+        Map<String, String> second = new HashMap<>();
+        second.put("Accept", "application/json");
+        second.put("If-None-Match", "\"1\"");
+
+        assertEquals(key(Request.Method.GET, URL, "auth_token abc", first),
+                key(Request.Method.GET, URL, "auth_token abc", second));
+    }
+
+    @Test
+    public void testHeadersAreCompared() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("If-None-Match", "\"1\"");
+        assertFalse(key(Request.Method.GET, URL, "auth_token abc", headers).equals(
+                key(Request.Method.GET, URL, "auth_token abc", null)));
+    }
+
+    @Test
+    public void testPriorityClassesHaveDifferentKeys() {
+        // An interactive request must not wait on a background request held back by the queue
+        assertFalse(AylaRequestCoalescer.getKey(Request.Method.GET, URL, "auth_token abc", null,
+                AylaAPIRequest.PriorityClass.Interactive).equals(
+                AylaRequestCoalescer.getKey(Request.Method.GET, URL, "auth_token abc", null,
+                        AylaAPIRequest.PriorityClass.Background)));
+    }
+}
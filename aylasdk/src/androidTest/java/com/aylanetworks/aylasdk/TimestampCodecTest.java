@@ -0,0 +1,136 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.aylanetworks.aylasdk.util.AylaTimestamp;
+import com.aylanetworks.aylasdk.util.UtcDateTypeAdapterUtil;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the ISO-8601 codec used for property and datapoint timestamps against SimpleDateFormat.
+ * The cost of the timestamp work done for each LAN property update is measured by
+ * PropertyUpdateBenchmark in the benchmark module. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TimestampCodecTest {
+    private static DateFormat newFormat(String pattern) {
+        DateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    @Test
+    public void testFormatMatchesSimpleDateFormat() {
+        DateFormat seconds = newFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        DateFormat millis = newFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // 1970 through 2100
+            long time = (long) (random.nextDouble() * 4102444800000L);
+            assertEquals(seconds.format(new Date(time)),
+                    UtcDateTypeAdapterUtil.formatUtc(time, false));
+            assertEquals(millis.format(new Date(time)),
+                    UtcDateTypeAdapterUtil.formatUtc(time, true));
+        }
+        assertEquals("1969-12-31T23:59:59Z", UtcDateTypeAdapterUtil.formatUtc(-1, false));
+        assertEquals("2016-02-29T00:00:00Z",
+                UtcDateTypeAdapterUtil.formatUtc(1456704000000L, false));
+    }
+
+    @Test
+    public void testParseMatchesSimpleDateFormat() throws ParseException {
+        DateFormat seconds = newFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            long time = (long) (random.nextDouble() * 4102444800L) * 1000;
+            String string = seconds.format(new Date(time));
+            assertEquals(seconds.parse(string).getTime(),
+                    UtcDateTypeAdapterUtil.parseUtcMillis(string));
+        }
+
+        assertEquals(1451606400123L,
+                UtcDateTypeAdapterUtil.parseUtcMillis("2016-01-01T00:00:00.123Z"));
+        assertEquals(1451606400000L,
+                UtcDateTypeAdapterUtil.parseUtcMillis("2016-01-01T05:30:00+05:30"));
+        assertEquals(1451606400000L,
+                UtcDateTypeAdapterUtil.parseUtcMillis("2015-12-31T16:00:00-08:00"));
+    }
+
+    @Test
+    public void testParseRejectsOtherForms() {
+        String[] invalid = {null, "", "2016-01-01", "2016-01-01T00:00:00", "2016-13-01T00:00:00Z",
+                "2015-02-29T00:00:00Z", "2016-01-01T24:00:00Z", "2016-01-01T00:00:00.1Z",
+                "2016-01-01T00:00:00Zjunk", "2016-01-01 00:00:00Z", "Jan 01, 2016 1:00:00 AM"};
+        for (String string : invalid) {
+            assertEquals(string, UtcDateTypeAdapterUtil.INVALID_TIME,
+                    UtcDateTypeAdapterUtil.parseUtcMillis(string));
+        }
+        assertEquals(951782400000L,
+                UtcDateTypeAdapterUtil.parseUtcMillis("2000-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void testTimestamp() {
+        AylaTimestamp received = AylaTimestamp.fromString("2016-01-01T00:00:00.000Z");
+        AylaTimestamp made = AylaTimestamp.fromEpochMillis(1451606400000L);
+
+        // Received strings are kept as they are, made ones are rendered with millis, as they
+        // are compared
+        assertEquals("2016-01-01T00:00:00.000Z", received.toString());
+        assertEquals("2016-01-01T00:00:00.000Z", made.toString());
+        assertEquals("2016-01-01T00:00:00.123Z",
+                AylaTimestamp.fromEpochMillis(1451606400123L).toString());
+        assertEquals(received, made);
+        assertEquals(received.hashCode(), made.hashCode());
+        assertEquals(0, received.compareTo(made));
+        assertTrue(made.compareTo(AylaTimestamp.now()) < 0);
+
+        AylaTimestamp invalid = AylaTimestamp.fromString("yesterday");
+        assertFalse(invalid.isValid());
+        assertNull(invalid.toDate());
+        assertEquals("yesterday", invalid.toString());
+        assertEquals(invalid, AylaTimestamp.fromString("yesterday"));
+        assertFalse(invalid.equals(made));
+        assertNull(AylaTimestamp.fromString(""));
+    }
+
+    private static class Holder {
+        AylaTimestamp updatedAt;
+        AylaTimestamp ackedAt;
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        Gson gson = new GsonBuilder().create();
+        Holder holder = gson.fromJson(
+                "{\"updatedAt\":\"2016-01-01T00:00:00Z\",\"ackedAt\":null}", Holder.class);
+        assertEquals(1451606400000L, holder.updatedAt.getEpochMillis());
+        assertNull(holder.ackedAt);
+
+        holder.ackedAt = AylaTimestamp.fromEpochMillis(1451606401000L);
+        assertEquals("{\"updatedAt\":\"2016-01-01T00:00:00Z\"," +
+                "\"ackedAt\":\"2016-01-01T00:00:01.000Z\"}", gson.toJson(holder));
+    }
+}
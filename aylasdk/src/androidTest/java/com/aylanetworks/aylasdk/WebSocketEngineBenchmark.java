@@ -0,0 +1,259 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.crossbar.autobahn.websocket.WebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.nio.NioWebSocketConnection;
+import io.crossbar.autobahn.websocket.nio.WebSocketSelector;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures the NioWebSocketConnection against a local echo server: how many connections a
+ * single selector thread serves, and how many messages per second they exchange. Also checks
+ * framing of messages of each length encoding and both ways of closing. No account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WebSocketEngineBenchmark {
+    private static final String LOG_TAG = "WebSocketEngineBench";
+
+    private static final int CONNECTION_COUNT = 200;
+    private static final int MESSAGES_PER_CONNECTION = 50;
+
+    private MockWebServer _server;
+    private WebSocketSelector _selector;
+
+    @Before
+    public void setUp() throws Exception {
+        _server = new MockWebServer();
+        _server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                    @Override
+                    public void onMessage(WebSocket webSocket, String text) {
+                        if (text.equals("close")) {
+                            webSocket.close(1000, "bye");
+                        } else {
+                            webSocket.send(text);
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(WebSocket webSocket, ByteString bytes) {
+                        webSocket.send(bytes);
+                    }
+
+                    @Override
+                    public void onClosing(WebSocket webSocket, int code, String reason) {
+                        webSocket.close(code, null);
+                    }
+                });
+            }
+        });
+        _server.start();
+        _selector = new WebSocketSelector("BenchmarkSelector");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _selector.shutdown();
+        _server.shutdown();
+    }
+
+    @Test
+    public void testManyConnectionsOnOneThread() throws Exception {
+        final CountDownLatch opened = new CountDownLatch(CONNECTION_COUNT);
+        final CountDownLatch echoed = new CountDownLatch(CONNECTION_COUNT);
+        final CountDownLatch closed = new CountDownLatch(CONNECTION_COUNT);
+        final AtomicInteger messageCount = new AtomicInteger();
+        List<NioWebSocketConnection> connections = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            final NioWebSocketConnection connection = new NioWebSocketConnection(_selector,
+                    WebSocketSelector.DIRECT_EXECUTOR);
+            connections.add(connection);
+            connection.connect(url(), new WebSocketConnectionHandler() {
+                int _received;
+
+                @Override
+                public void onOpen() {
+                    opened.countDown();
+                }
+
+                @Override
+                public void onMessage(String payload) {
+                    messageCount.incrementAndGet();
+                    if (++_received == MESSAGES_PER_CONNECTION) {
+                        echoed.countDown();
+                    }
+                }
+
+                @Override
+                public void onClose(int code, String reason) {
+                    closed.countDown();
+                }
+            });
+        }
+        assertTrue(opened.await(30, TimeUnit.SECONDS));
+        long connectNs = System.nanoTime() - start;
+        assertEquals(CONNECTION_COUNT, _selector.getChannelCount());
+
+        start = System.nanoTime();
+        for (int m = 0; m < MESSAGES_PER_CONNECTION; m++) {
+            for (NioWebSocketConnection connection : connections) {
+                connection.sendMessage("{\"seq\":\"" + m + "\",\"datapoint\":{\"value\":1}}");
+            }
+        }
+        assertTrue(echoed.await(60, TimeUnit.SECONDS));
+        long echoNs = System.nanoTime() - start;
+
+        int total = CONNECTION_COUNT * MESSAGES_PER_CONNECTION;
+        assertEquals(total, messageCount.get());
+
+        for (NioWebSocketConnection connection : connections) {
+            connection.sendClose();
+        }
+        assertTrue(closed.await(30, TimeUnit.SECONDS));
+
+        Log.i(LOG_TAG, String.format("%d connections on 1 selector thread opened in %d ms, " +
+                        "%d messages echoed in %d ms (%d messages/sec)", CONNECTION_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(connectNs), total,
+                TimeUnit.NANOSECONDS.toMillis(echoNs),
+                total * TimeUnit.SECONDS.toNanos(1) / Math.max(1, echoNs)));
+    }
+
+    @Test
+    public void testFrameLengths() throws Exception {
+        final List<byte[]> received = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        NioWebSocketConnection connection = openConnection(new WebSocketConnectionHandler() {
+            @Override
+            public void onMessage(byte[] payload, boolean isBinary) {
+                assertTrue(isBinary);
+                received.add(payload);
+                done.countDown();
+            }
+        });
+
+        // One payload for each of the 7-bit, 16-bit and 64-bit length encodings
+        byte[][] payloads = new byte[][]{payload(100), payload(300), payload(70000)};
+        for (byte[] payload : payloads) {
+            connection.sendMessage(payload.clone(), true);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < payloads.length; i++) {
+            assertTrue(Arrays.equals(payloads[i], received.get(i)));
+        }
+        connection.sendClose();
+    }
+
+    @Test
+    public void testServerClose() throws Exception {
+        final int[] closeCode = new int[1];
+        final CountDownLatch closed = new CountDownLatch(1);
+        NioWebSocketConnection connection = openConnection(new WebSocketConnectionHandler() {
+            @Override
+            public void onClose(int code, String reason) {
+                closeCode[0] = code;
+                closed.countDown();
+            }
+        });
+
+        connection.sendMessage("close");
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertEquals(IWebSocketConnectionHandler.CLOSE_NORMAL, closeCode[0]);
+        assertTrue(!connection.isConnected());
+    }
+
+    @Test
+    public void testCannotConnect() throws Exception {
+        final int[] closeCode = new int[1];
+        final CountDownLatch closed = new CountDownLatch(1);
+        _server.shutdown();
+
+        NioWebSocketConnection connection = new NioWebSocketConnection(_selector,
+                WebSocketSelector.DIRECT_EXECUTOR);
+        connection.connect(url(), new WebSocketConnectionHandler() {
+            @Override
+            public void onClose(int code, String reason) {
+                closeCode[0] = code;
+                closed.countDown();
+            }
+        });
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertEquals(IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT, closeCode[0]);
+    }
+
+    private NioWebSocketConnection openConnection(final WebSocketConnectionHandler handler)
+            throws Exception {
+        final CountDownLatch opened = new CountDownLatch(1);
+        NioWebSocketConnection connection = new NioWebSocketConnection(_selector,
+                WebSocketSelector.DIRECT_EXECUTOR);
+        connection.connect(url(), new WebSocketConnectionHandler() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(String payload) {
+                handler.onMessage(payload);
+            }
+
+            @Override
+            public void onMessage(byte[] payload, boolean isBinary) {
+                handler.onMessage(payload, isBinary);
+            }
+
+            @Override
+            public void onClose(int code, String reason) {
+                handler.onClose(code, reason);
+            }
+        });
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+        return connection;
+    }
+
+    private String url() {
+        return "ws://" + _server.getHostName() + ":" + _server.getPort() + "/stream";
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        return payload;
+    }
+}
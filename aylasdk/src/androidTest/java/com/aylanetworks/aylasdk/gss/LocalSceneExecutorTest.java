@@ -0,0 +1,277 @@
+package com.aylanetworks.aylasdk.gss;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaDatapointBatchResponse;
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaProperty;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.ServerError;
+import com.aylanetworks.aylasdk.gss.model.AylaChildCollection;
+import com.aylanetworks.aylasdk.gss.model.AylaCollectionDevice;
+import com.aylanetworks.aylasdk.gss.model.AylaCollectionProperty;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how the AylaLocalSceneExecutor splits the states of a scene between the LAN and the
+ * cloud, and how it completes devices from the results of a datapoint batch. Devices are
+ * resolved locally, no account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocalSceneExecutorTest {
+    private static final String LAN_DSN = "AC000W000000001";
+    private static final String CLOUD_DSN = "AC000W000000002";
+    private static final String UNKNOWN_DSN = "AC000W000000003";
+
+    private final Gson _gson = new GsonBuilder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    private final Map<String, AylaDevice> _devices = new HashMap<>();
+    private final Set<String> _lanDsns = new HashSet<>();
+    private final AylaLocalSceneExecutor.DeviceResolver _resolver =
+            new AylaLocalSceneExecutor.DeviceResolver() {
+                @Override
+                public AylaDevice deviceWithDsn(String dsn) {
+                    return _devices.get(dsn);
+                }
+
+                @Override
+                public boolean isLanModeActive(AylaDevice device) {
+                    return _lanDsns.contains(device.getDsn());
+                }
+            };
+
+    private void addDevice(final String deviceDsn, boolean lan, String... propertyNames) {
+        final Map<String, AylaProperty> properties = new HashMap<>();
+        for (String name : propertyNames) {
+            properties.put(name, _gson.fromJson("{\"name\":\"" + name +
+                    "\",\"base_type\":\"integer\"}", AylaProperty.class));
+        }
+        // Named so as not to be hidden by the dsn field of AylaDevice
+        _devices.put(deviceDsn, new AylaDevice() {
+            @Override
+            public String getDsn() {
+                return deviceDsn;
+            }
+
+            @Override
+            public AylaProperty getProperty(String propertyName) {
+                return properties.get(propertyName);
+            }
+        });
+        if (lan) {
+            _lanDsns.add(deviceDsn);
+        }
+    }
+
+    private AylaCollectionDevice sceneDevice(String dsn, String... propertyNames) {
+        AylaCollectionDevice device = new AylaCollectionDevice();
+        device.dsn = dsn;
+        device.states = new AylaCollectionProperty[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            AylaCollectionProperty<Integer> state = new AylaCollectionProperty<>();
+            state.propertyName = propertyNames[i];
+            state.propertyValue = 1;
+            device.states[i] = state;
+        }
+        return device;
+    }
+
+    private Map<String, List<AylaCollectionProperty>> states(AylaCollectionDevice... devices) {
+        Map<String, List<AylaCollectionProperty>> statesByDsn = new LinkedHashMap<>();
+        AylaLocalSceneExecutor.collectStates(devices, null, statesByDsn);
+        return statesByDsn;
+    }
+
+    @Test
+    public void testLanAndCloudStatesAreSplit() {
+        addDevice(LAN_DSN, true, "Blue_LED", "Green_LED");
+        addDevice(CLOUD_DSN, false, "Blue_LED", "Green_LED");
+
+        AylaLocalSceneExecutor.ScenePlan plan = AylaLocalSceneExecutor.plan(
+                states(sceneDevice(LAN_DSN, "Blue_LED", "Green_LED"),
+                        sceneDevice(CLOUD_DSN, "Blue_LED", "Green_LED")), _resolver);
+
+        assertFalse(plan.triggerInCloud);
+        assertEquals(2, plan.lanStates.size());
+        for (AylaLocalSceneExecutor.PlannedState state : plan.lanStates) {
+            assertEquals(LAN_DSN, state.dsn);
+        }
+        // Every cloud state goes into the one batch, nothing is sent twice
+        assertEquals(2, plan.cloudStates.size());
+        for (AylaLocalSceneExecutor.PlannedState state : plan.cloudStates) {
+            assertEquals(CLOUD_DSN, state.dsn);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(LAN_DSN)), plan.lanDsns);
+        assertEquals(Integer.valueOf(2), plan.stateCounts.get(LAN_DSN));
+        assertEquals(Integer.valueOf(2), plan.stateCounts.get(CLOUD_DSN));
+    }
+
+    @Test
+    public void testUnknownDeviceTriggersWholeSceneOnly() {
+        addDevice(LAN_DSN, true, "Blue_LED");
+        addDevice(CLOUD_DSN, false, "Blue_LED");
+
+        AylaLocalSceneExecutor.ScenePlan plan = AylaLocalSceneExecutor.plan(
+                states(sceneDevice(LAN_DSN, "Blue_LED"), sceneDevice(CLOUD_DSN, "Blue_LED"),
+                        sceneDevice(UNKNOWN_DSN, "Blue_LED")), _resolver);
+
+        // The trigger applies the whole scene, so nothing may be written locally as well
+        assertTrue(plan.triggerInCloud);
+        assertTrue(plan.lanStates.isEmpty());
+        assertTrue(plan.cloudStates.isEmpty());
+        assertTrue(plan.lanDsns.isEmpty());
+        assertEquals(3, plan.stateCounts.size());
+        for (Integer count : plan.stateCounts.values()) {
+            assertEquals(Integer.valueOf(1), count);
+        }
+    }
+
+    @Test
+    public void testMissingPropertyTriggersWholeScene() {
+        addDevice(LAN_DSN, true, "Blue_LED");
+
+        AylaLocalSceneExecutor.ScenePlan plan = AylaLocalSceneExecutor.plan(
+                states(sceneDevice(LAN_DSN, "Blue_LED", "Red_LED")), _resolver);
+        assertTrue(plan.triggerInCloud);
+        assertTrue(plan.lanStates.isEmpty());
+    }
+
+    @Test
+    public void testChildCollectionStatesAreMerged() {
+        AylaChildCollection child = new AylaChildCollection();
+        child.devices = new AylaCollectionDevice[]{sceneDevice(LAN_DSN, "Green_LED")};
+
+        Map<String, List<AylaCollectionProperty>> statesByDsn = new LinkedHashMap<>();
+        AylaLocalSceneExecutor.collectStates(
+                new AylaCollectionDevice[]{sceneDevice(LAN_DSN, "Blue_LED")},
+                new AylaChildCollection[]{child}, statesByDsn);
+        assertEquals(1, statesByDsn.size());
+        assertEquals(2, statesByDsn.get(LAN_DSN).size());
+    }
+
+    @Test
+    public void testBatchResultsCompleteDevices() {
+        addDevice(LAN_DSN, false, "Blue_LED", "Green_LED");
+        addDevice(CLOUD_DSN, false, "Blue_LED");
+        AylaLocalSceneExecutor.ScenePlan plan = AylaLocalSceneExecutor.plan(
+                states(sceneDevice(LAN_DSN, "Blue_LED", "Green_LED"),
+                        sceneDevice(CLOUD_DSN, "Blue_LED")), _resolver);
+        assertEquals(3, plan.cloudStates.size());
+
+        final List<AylaLocalSceneExecutor.DeviceResult> completed = new ArrayList<>();
+        final List<AylaLocalSceneExecutor.DeviceResult[]> finished = new ArrayList<>();
+        AylaLocalSceneExecutor.SceneExecution execution =
+                new AylaLocalSceneExecutor.SceneExecution(
+                        new AylaLocalSceneExecutor.DeviceCompletionListener() {
+                            @Override
+                            public void onDeviceCompleted(
+                                    AylaLocalSceneExecutor.DeviceResult result) {
+                                completed.add(result);
+                            }
+                        },
+                        new Response.Listener<AylaLocalSceneExecutor.DeviceResult[]>() {
+                            @Override
+                            public void onResponse(
+                                    AylaLocalSceneExecutor.DeviceResult[] response) {
+                                finished.add(response);
+                            }
+                        },
+                        new ErrorListener() {
+                            @Override
+                            public void onErrorResponse(AylaError error) {
+                            }
+                        });
+        for (Map.Entry<String, Integer> entry : plan.stateCounts.entrySet()) {
+            execution.addDevice(entry.getKey(), AylaDevice.DataSource.CLOUD, entry.getValue());
+        }
+
+        // The service does not return a result for Green_LED
+        AylaLocalSceneExecutor.completeBatch(execution, plan.cloudStates,
+                new AylaDatapointBatchResponse[]{
+                        batchResponse(CLOUD_DSN, "Blue_LED", 201),
+                        batchResponse(LAN_DSN, "Blue_LED", 201)});
+
+        assertEquals(2, completed.size());
+        assertEquals(1, finished.size());
+        Map<String, AylaLocalSceneExecutor.DeviceResult> results = new HashMap<>();
+        for (AylaLocalSceneExecutor.DeviceResult result : finished.get(0)) {
+            results.put(result.getDsn(), result);
+        }
+        assertTrue(results.get(CLOUD_DSN).isSuccess());
+        assertEquals(1, results.get(CLOUD_DSN).getDatapoints().size());
+        assertNotNull(results.get(LAN_DSN).getError());
+        assertEquals(1, results.get(LAN_DSN).getDatapoints().size());
+    }
+
+    @Test
+    public void testFailedBatchStatusIsReported() {
+        addDevice(CLOUD_DSN, false, "Blue_LED");
+        AylaLocalSceneExecutor.ScenePlan plan = AylaLocalSceneExecutor.plan(
+                states(sceneDevice(CLOUD_DSN, "Blue_LED")), _resolver);
+
+        final List<AylaLocalSceneExecutor.DeviceResult> completed = new ArrayList<>();
+        AylaLocalSceneExecutor.SceneExecution execution =
+                new AylaLocalSceneExecutor.SceneExecution(
+                        new AylaLocalSceneExecutor.DeviceCompletionListener() {
+                            @Override
+                            public void onDeviceCompleted(
+                                    AylaLocalSceneExecutor.DeviceResult result) {
+                                completed.add(result);
+                            }
+                        },
+                        new Response.Listener<AylaLocalSceneExecutor.DeviceResult[]>() {
+                            @Override
+                            public void onResponse(
+                                    AylaLocalSceneExecutor.DeviceResult[] response) {
+                            }
+                        },
+                        new ErrorListener() {
+                            @Override
+                            public void onErrorResponse(AylaError error) {
+                            }
+                        });
+        execution.addDevice(CLOUD_DSN, AylaDevice.DataSource.CLOUD, 1);
+
+        AylaLocalSceneExecutor.completeBatch(execution, plan.cloudStates,
+                new AylaDatapointBatchResponse[]{batchResponse(CLOUD_DSN, "Blue_LED", 422)});
+        assertEquals(1, completed.size());
+        assertFalse(completed.get(0).isSuccess());
+        assertTrue(completed.get(0).getDatapoints().isEmpty());
+        assertEquals(422, ((ServerError) completed.get(0).getError()).getServerResponseCode());
+    }
+
+    private AylaDatapointBatchResponse batchResponse(String dsn, String name, int status) {
+        return _gson.fromJson("{\"dsn\":\"" + dsn + "\",\"name\":\"" + name +
+                "\",\"status\":" + status + ",\"datapoint\":{\"value\":1}}",
+                AylaDatapointBatchResponse.class);
+    }
+}
@@ -0,0 +1,297 @@
+package com.aylanetworks.aylasdk.lan;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.os.SystemClock;
+
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Simulated Ayla module in LAN mode, the device side of the LAN protocol the AylaLanModule
+ * implements. When the app registers with it, the module runs a key exchange with the app's
+ * AylaHttpServer and fetches the commands the app has queued. Property commands are applied
+ * and echoed back to the app, as modules do, and {@link #sendNextUpdate()} sends a new value
+ * of the module's counter property to the app.
+ * <p>
+ * The device side of the session is an AylaEncryption set up with the values of the key
+ * exchange swapped, so that its app keys are the device keys of the app. The CBC ciphers
+ * carry state from one message to the next, so requests of a module are made one at a time.
+ * <p>
+ * Module requests are timed and recorded in the {@link AylaMetricsRegistry} under
+ * {@link #METRIC_PREFIX}, which gives the time the app takes to handle requests from devices.
+ */
+public class SimulatedLanModule {
+    public static final String METRIC_PREFIX = "simulated module ";
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final int MAX_COMMAND_FETCHES = 16;
+
+    private final SimulatedLanNetwork _network;
+    private final String _dsn;
+    private final String _lanipKey;
+    private final int _lanipKeyId;
+    private final String _counterProperty;
+    private final Map<String, Object> _values = new HashMap<>();
+
+    // AylaEncryption only holds a weak reference to its device
+    private final AylaDevice _device = new AylaDevice();
+    private AylaEncryption _encryption;
+    private String _appUrl;
+    private long _counter;
+    private long _updateCount;
+
+    SimulatedLanModule(SimulatedLanNetwork network, String dsn, String lanipKey,
+                       int lanipKeyId, String counterProperty) {
+        _network = network;
+        _dsn = dsn;
+        _lanipKey = lanipKey;
+        _lanipKeyId = lanipKeyId;
+        _counterProperty = counterProperty;
+    }
+
+    public String getDsn() {
+        return _dsn;
+    }
+
+    /**
+     * @return true once a key exchange with the app has succeeded
+     */
+    public synchronized boolean isSessionActive() {
+        return _encryption != null;
+    }
+
+    /**
+     * Called when the app registers with this module, to start a session or keep it alive.
+     *
+     * @param appUrl     URL of the app's LAN server, including the URI it gave to register
+     * @param newSession true if the app is starting a new session
+     * @param notify     true if the app has commands for this module
+     */
+    synchronized void localRegistration(String appUrl, boolean newSession, boolean notify) {
+        _appUrl = appUrl;
+        if (newSession || _encryption == null) {
+            if (!keyExchange()) {
+                return;
+            }
+            notify = true;
+        }
+        if (notify) {
+            fetchCommands();
+        }
+    }
+
+    /**
+     * Sends the next value of the counter property to the app
+     *
+     * @return true if the app accepted it
+     */
+    public synchronized boolean sendNextUpdate() {
+        if (_encryption == null) {
+            return false;
+        }
+        boolean sent = sendDatapoint(_counterProperty, ++_counter, null);
+        if (sent) {
+            _updateCount++;
+        }
+        return sent;
+    }
+
+    /**
+     * @return the number of updates of the counter property the app has accepted
+     */
+    public synchronized long getUpdateCount() {
+        return _updateCount;
+    }
+
+    private boolean keyExchange() {
+        String random1 = AylaEncryption.randomToken(16);
+        long time1 = System.nanoTime();
+        try {
+            JSONObject keyExchange = new JSONObject();
+            keyExchange.put("ver", 1);
+            keyExchange.put("random_1", random1);
+            keyExchange.put("time_1", time1);
+            keyExchange.put("proto", 1);
+            keyExchange.put("key_id", _lanipKeyId);
+
+            String body = post("/key_exchange.json",
+                    new JSONObject().put("key_exchange", keyExchange).toString());
+            if (body == null) {
+                _encryption = null;
+                return false;
+            }
+
+            JSONObject response = new JSONObject(body);
+            AylaEncryption encryption = new AylaEncryption(_device);
+            encryption.sRnd_1 = response.getString("random_2");
+            encryption.nTime_1 = response.getLong("time_2");
+            encryption.sRnd_2 = random1;
+            encryption.nTime_2 = time1;
+            if (encryption.generateSessionKeys(AylaEncryption.TYPE_SETUP_RSA,
+                    _lanipKey.getBytes(Charset.forName("UTF-8"))) != null) {
+                _network.errorOccurred(_dsn, "Failed to generate session keys");
+                _encryption = null;
+                return false;
+            }
+            _encryption = encryption;
+            _network.keyExchanged();
+            return true;
+        } catch (JSONException e) {
+            _network.errorOccurred(_dsn, "Bad key exchange response: " + e);
+            _encryption = null;
+            return false;
+        }
+    }
+
+    private void fetchCommands() {
+        for (int i = 0; i < MAX_COMMAND_FETCHES; i++) {
+            long start = SystemClock.elapsedRealtime();
+            Request request = new Request.Builder().url(_appUrl + "/commands.json").build();
+            String data;
+            boolean more;
+            try (Response response = _network.getClient().newCall(request).execute()) {
+                record("GET", "/commands.json", start);
+                if (!response.isSuccessful()) {
+                    _network.errorOccurred(_dsn, "Command fetch failed: " + response.code());
+                    return;
+                }
+                more = response.code() == 206;
+                JSONObject message = new JSONObject(response.body().string());
+                data = _encryption.unencodeDecrypt(message.getString("enc"));
+            } catch (IOException | JSONException e) {
+                _network.errorOccurred(_dsn, "Command fetch failed: " + e);
+                return;
+            }
+
+            try {
+                JSONObject payload = new JSONObject(data).getJSONObject("data");
+                handleCommands(payload.optJSONArray("cmds"));
+                handleProperties(payload.optJSONArray("properties"));
+            } catch (JSONException e) {
+                _network.errorOccurred(_dsn, "Bad command payload: " + data);
+                return;
+            }
+
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    private void handleCommands(JSONArray commands) throws JSONException {
+        if (commands == null) {
+            return;
+        }
+        for (int i = 0; i < commands.length(); i++) {
+            JSONObject command = commands.getJSONObject(i).getJSONObject("cmd");
+            _network.commandReceived();
+            String resource = command.getString("resource");
+            String uri = command.getString("uri");
+            String query = "?cmd_id=" + command.getInt("cmd_id");
+            if (resource.startsWith("property.json?name=")) {
+                String name = resource.substring(resource.indexOf('=') + 1);
+                Object value = _values.get(name);
+                sendDatapoint(name, value == null ? 0 : value, uri + query + "&status=200");
+            } else {
+                sendDatapoint(null, null, uri + query + "&status=404");
+            }
+        }
+    }
+
+    private void handleProperties(JSONArray properties) throws JSONException {
+        if (properties == null) {
+            return;
+        }
+        for (int i = 0; i < properties.length(); i++) {
+            JSONObject property = properties.getJSONObject(i).getJSONObject("property");
+            _network.commandReceived();
+            String name = property.getString("name");
+            Object value = property.get("value");
+            _values.put(name, value);
+            sendDatapoint(name, value, null);
+        }
+    }
+
+    /**
+     * Sends a datapoint to the app
+     *
+     * @param name  Name of the property, or null to send an empty response to a command
+     * @param value Value of the property
+     * @param path  Path of the request relative to the app's LAN URI, or null for an update
+     * @return true if the app accepted the datapoint
+     */
+    private boolean sendDatapoint(String name, Object value, String path) {
+        String data = "{}";
+        if (name != null) {
+            try {
+                data = new JSONObject().put("name", name).put("value", value).toString();
+            } catch (JSONException e) {
+                return false;
+            }
+        }
+        if (path == null) {
+            path = "/property/datapoint.json";
+        } else if (path.startsWith("/local_lan")) {
+            path = path.substring("/local_lan".length());
+        }
+
+        boolean sent = post(path, _encryption.encryptEncapsulateSign(data)) != null;
+        if (sent) {
+            _network.datapointSent();
+        }
+        return sent;
+    }
+
+    /**
+     * Posts to the app's LAN server
+     *
+     * @return the body of the response, or null if the request failed
+     */
+    private String post(String path, String body) {
+        long start = SystemClock.elapsedRealtime();
+        Request request = new Request.Builder()
+                .url(_appUrl + path)
+                .post(RequestBody.create(JSON, body))
+                .build();
+        try (Response response = _network.getClient().newCall(request).execute()) {
+            record("POST", path, start);
+            if (!response.isSuccessful()) {
+                _network.errorOccurred(_dsn, "POST " + path + " failed: " + response.code());
+                return null;
+            }
+            return response.body().string();
+        } catch (IOException e) {
+            _network.errorOccurred(_dsn, "POST " + path + " failed: " + e);
+            return null;
+        }
+    }
+
+    private static void record(String method, String path, long start) {
+        AylaMetricsRegistry.sharedInstance().histogram(METRIC_PREFIX +
+                AylaMetricsRegistry.endpointTemplate(method, "/local_lan" + path))
+                .record(SystemClock.elapsedRealtime() - start);
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedLanModule[" + _dsn + "]";
+    }
+}
@@ -0,0 +1,250 @@
+package com.aylanetworks.aylasdk.lan;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Network of simulated LAN modules for load tests. The modules share one HTTP server on the
+ * loopback interface, which answers the local registrations the app sends to its LAN devices
+ * and hands them to the module with the registered DSN. The server can't listen on port 80 as
+ * real modules do, since tests may not bind privileged ports. While the network is started,
+ * LAN modules created by the SDK are pointed at its port instead, see
+ * {@link AylaLanModule#setModulePort(int)}. Use {@link #LAN_IP} as the lan_ip of the devices.
+ * <p>
+ * The AylaHttpServer identifies modules by the address of their requests, which is the same
+ * for all modules on the loopback interface, so each module must be the only LAN device of its
+ * session. Registrations are matched to modules by the port of the app's server, which each
+ * session has to itself.
+ */
+public class SimulatedLanNetwork {
+    private static final String LOG_TAG = "SimulatedLanNetwork";
+
+    public static final String LAN_IP = "127.0.0.1";
+
+    private static final String LOCAL_REG_PATH = "/local_reg.json";
+    private static final int WORKER_THREADS = 8;
+
+    private final MockWebServer _server = new MockWebServer();
+    private final OkHttpClient _client = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build();
+    private final ExecutorService _workers = Executors.newFixedThreadPool(WORKER_THREADS);
+    private final ScheduledExecutorService _updateTimer =
+            Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> _updates;
+
+    private final Map<String, SimulatedLanModule> _modulesByDsn = new HashMap<>();
+    private final Map<Integer, SimulatedLanModule> _modulesByAppPort = new HashMap<>();
+
+    private final AtomicInteger _registrationCount = new AtomicInteger();
+    private final AtomicInteger _keyExchangeCount = new AtomicInteger();
+    private final AtomicInteger _commandCount = new AtomicInteger();
+    private final AtomicInteger _datapointCount = new AtomicInteger();
+    private final AtomicInteger _errorCount = new AtomicInteger();
+
+    public SimulatedLanNetwork() {
+        _server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return handleRequest(request);
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        _server.start(InetAddress.getByName(LAN_IP), 0);
+        AylaLanModule.setModulePort(_server.getPort());
+    }
+
+    public void shutdown() {
+        AylaLanModule.setModulePort(AylaLanModule.DEFAULT_MODULE_PORT);
+        _updateTimer.shutdownNow();
+        _workers.shutdownNow();
+        try {
+            _server.shutdown();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to shut down server: " + e);
+        }
+        _client.dispatcher().executorService().shutdown();
+        _client.connectionPool().evictAll();
+    }
+
+    /**
+     * @return the port the modules listen on
+     */
+    public int getPort() {
+        return _server.getPort();
+    }
+
+    /**
+     * Adds a module to the network
+     *
+     * @param dsn             DSN of the device the module belongs to
+     * @param lanipKey        LAN key of the device, as returned by lan.json
+     * @param lanipKeyId      ID of the LAN key
+     * @param counterProperty Name of an integer property the module sends updates of
+     * @return the new module
+     */
+    public SimulatedLanModule addModule(String dsn, String lanipKey, int lanipKeyId,
+                                        String counterProperty) {
+        SimulatedLanModule module = new SimulatedLanModule(this, dsn, lanipKey, lanipKeyId,
+                counterProperty);
+        synchronized (_modulesByDsn) {
+            _modulesByDsn.put(dsn, module);
+        }
+        return module;
+    }
+
+    public List<SimulatedLanModule> getModules() {
+        synchronized (_modulesByDsn) {
+            return new ArrayList<>(_modulesByDsn.values());
+        }
+    }
+
+    /**
+     * Makes every module with an active session send a property update to the app at the given
+     * rate. A rate of zero stops the updates.
+     *
+     * @param updatesPerSecond Number of updates each module sends per second
+     */
+    public synchronized void setUpdateRate(int updatesPerSecond) {
+        if (_updates != null) {
+            _updates.cancel(false);
+            _updates = null;
+        }
+        if (updatesPerSecond <= 0) {
+            return;
+        }
+
+        _updates = _updateTimer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (final SimulatedLanModule module : getModules()) {
+                    if (!module.isSessionActive()) {
+                        continue;
+                    }
+                    _workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            module.sendNextUpdate();
+                        }
+                    });
+                }
+            }
+        }, 0, 1000000L / updatesPerSecond, TimeUnit.MICROSECONDS);
+    }
+
+    public int getRegistrationCount() {
+        return _registrationCount.get();
+    }
+
+    public int getKeyExchangeCount() {
+        return _keyExchangeCount.get();
+    }
+
+    public int getCommandCount() {
+        return _commandCount.get();
+    }
+
+    public int getDatapointCount() {
+        return _datapointCount.get();
+    }
+
+    public int getErrorCount() {
+        return _errorCount.get();
+    }
+
+    OkHttpClient getClient() {
+        return _client;
+    }
+
+    void keyExchanged() {
+        _keyExchangeCount.incrementAndGet();
+    }
+
+    void commandReceived() {
+        _commandCount.incrementAndGet();
+    }
+
+    void datapointSent() {
+        _datapointCount.incrementAndGet();
+    }
+
+    void errorOccurred(String dsn, String message) {
+        _errorCount.incrementAndGet();
+        Log.w(LOG_TAG, "[" + dsn + "] " + message);
+    }
+
+    private MockResponse handleRequest(RecordedRequest request) {
+        String path = request.getPath();
+        if (!path.startsWith(LOCAL_REG_PATH)) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        int appPort;
+        final boolean notify;
+        try {
+            JSONObject localReg = new JSONObject(request.getBody().readUtf8())
+                    .getJSONObject("local_reg");
+            appPort = localReg.getInt("port");
+            notify = localReg.optInt("notify") != 0;
+        } catch (JSONException e) {
+            return new MockResponse().setResponseCode(400);
+        }
+
+        final boolean newSession = "POST".equals(request.getMethod());
+        String dsn = request.getRequestUrl().queryParameter("dsn");
+        final SimulatedLanModule module;
+        synchronized (_modulesByDsn) {
+            if (dsn != null) {
+                module = _modulesByDsn.get(dsn);
+                if (module != null) {
+                    _modulesByAppPort.put(appPort, module);
+                }
+            } else {
+                module = _modulesByAppPort.get(appPort);
+            }
+        }
+        if (module == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        _registrationCount.incrementAndGet();
+
+        // The app reports its Wi-Fi address, but the modules are on the loopback interface
+        final String appUrl = "http://" + LAN_IP + ":" + appPort + "/local_lan";
+        _workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                module.localRegistration(appUrl, newSession, notify);
+            }
+        });
+        return new MockResponse().setResponseCode(202);
+    }
+}
@@ -0,0 +1,237 @@
+package com.aylanetworks.aylasdk.localdevice.ble;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the AylaGattOperationQueue against a fake GATT client that records the operations
+ * started on it. No Bluetooth device is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GattOperationQueueTest {
+
+    private static class FakeGatt implements AylaGattOperationQueue.GattClient {
+        final List<Object> started = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        boolean busy;
+
+        @Override
+        public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return start(characteristic, null);
+        }
+
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return start(characteristic, characteristic.getValue());
+        }
+
+        @Override
+        public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+            return start(descriptor, null);
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+            return start(descriptor, descriptor.getValue());
+        }
+
+        private boolean start(Object target, byte[] value) {
+            if (busy) {
+                return false;
+            }
+            started.add(target);
+            values.add(value == null ? null : value.clone());
+            return true;
+        }
+    }
+
+    private static class Results implements AylaGattOperationQueue.OperationListener {
+        final List<Integer> statuses = new ArrayList<>();
+
+        @Override
+        public void onOperationComplete(int status) {
+            statuses.add(status);
+        }
+    }
+
+    private FakeGatt _gatt;
+    private AylaGattOperationQueue _queue;
+
+    @Before
+    public void setUp() {
+        _gatt = new FakeGatt();
+        _queue = new AylaGattOperationQueue(_gatt, null,
+                AylaGattOperationQueue.DEFAULT_OPERATION_TIMEOUT_MS);
+    }
+
+    private static BluetoothGattCharacteristic characteristic(int index) {
+        return new BluetoothGattCharacteristic(new UUID(0xFE28, index),
+                BluetoothGattCharacteristic.PROPERTY_READ |
+                        BluetoothGattCharacteristic.PROPERTY_WRITE,
+                BluetoothGattCharacteristic.PERMISSION_READ |
+                        BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    @Test
+    public void testOneOperationInFlight() {
+        int count = 100;
+        List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+        Results results = new Results();
+        for (int i = 0; i < count; i++) {
+            characteristics.add(characteristic(i));
+            _queue.readCharacteristic(characteristics.get(i), results);
+        }
+
+        // Complete each read as the device would, checking nothing else was started meanwhile
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, _gatt.started.size());
+            assertSame(characteristics.get(i), _gatt.started.get(i));
+            assertTrue(_queue.onCharacteristicRead(characteristics.get(i),
+                    BluetoothGatt.GATT_SUCCESS));
+        }
+
+        assertEquals(count, results.statuses.size());
+        assertEquals(0, _queue.getPendingCount());
+        assertEquals(count, _queue.getStats().getOperationCount());
+        assertEquals(count, _queue.getStats().getMaxQueueDepth());
+
+        // A late or unexpected result is ignored
+        assertFalse(_queue.onCharacteristicRead(characteristics.get(0),
+                BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Test
+    public void testDuplicateReadsCoalesce() {
+        BluetoothGattCharacteristic first = characteristic(1);
+        BluetoothGattCharacteristic second = characteristic(2);
+        Results results = new Results();
+        _queue.readCharacteristic(first, results);
+        _queue.readCharacteristic(second, results);
+        _queue.readCharacteristic(second, results);
+        _queue.readCharacteristic(first, results);
+
+        _queue.onCharacteristicRead(first, BluetoothGatt.GATT_SUCCESS);
+        _queue.onCharacteristicRead(second, BluetoothGatt.GATT_FAILURE);
+
+        assertEquals(2, _gatt.started.size());
+        assertEquals(4, results.statuses.size());
+        assertEquals(BluetoothGatt.GATT_SUCCESS, (int) results.statuses.get(0));
+        assertEquals(BluetoothGatt.GATT_SUCCESS, (int) results.statuses.get(1));
+        assertEquals(BluetoothGatt.GATT_FAILURE, (int) results.statuses.get(2));
+        assertEquals(BluetoothGatt.GATT_FAILURE, (int) results.statuses.get(3));
+        assertEquals(2, _queue.getStats().getCoalescedReadCount());
+    }
+
+    @Test
+    public void testReadsDoNotCoalesceAcrossWrites() {
+        BluetoothGattCharacteristic characteristic = characteristic(1);
+        Results results = new Results();
+
+        // A read queued after a write must see the written value, so it cannot share the read
+        // in flight before the write
+        _queue.readCharacteristic(characteristic, results);
+        characteristic.setValue(new byte[]{1});
+        _queue.writeCharacteristic(characteristic, results);
+        _queue.readCharacteristic(characteristic, results);
+        _queue.readCharacteristic(characteristic, results);
+
+        _queue.onCharacteristicRead(characteristic, BluetoothGatt.GATT_SUCCESS);
+        _queue.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+        _queue.onCharacteristicRead(characteristic, BluetoothGatt.GATT_SUCCESS);
+
+        // The last two reads share the read queued after the write
+        assertEquals(3, _gatt.started.size());
+        assertEquals(4, results.statuses.size());
+        assertEquals(1, _queue.getStats().getCoalescedReadCount());
+    }
+
+    @Test
+    public void testQueuedWritesKeepTheirValues() {
+        BluetoothGattCharacteristic characteristic = characteristic(1);
+        BluetoothGattCharacteristic other = characteristic(2);
+        Results results = new Results();
+
+        // Keep the queue busy so that both writes to the characteristic wait
+        _queue.readCharacteristic(other, results);
+        characteristic.setValue(new byte[]{1});
+        _queue.writeCharacteristic(characteristic, results);
+        characteristic.setValue(new byte[]{2});
+        _queue.writeCharacteristic(characteristic, results);
+
+        _queue.onCharacteristicRead(other, BluetoothGatt.GATT_SUCCESS);
+        _queue.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+        _queue.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+
+        assertEquals(3, _gatt.values.size());
+        assertEquals(1, _gatt.values.get(1)[0]);
+        assertEquals(2, _gatt.values.get(2)[0]);
+        assertEquals(3, results.statuses.size());
+    }
+
+    @Test
+    public void testWriteWithoutResponse() {
+        BluetoothGattCharacteristic characteristic = characteristic(1);
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        characteristic.setValue(new byte[]{1});
+        Results writeResults = new Results();
+        Results readResults = new Results();
+        _queue.writeCharacteristic(characteristic, writeResults);
+        _queue.readCharacteristic(characteristic(2), readResults);
+
+        // The writer is told right away, the read waits for the local write callback
+        assertEquals(1, writeResults.statuses.size());
+        assertEquals(1, _gatt.started.size());
+        _queue.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(2, _gatt.started.size());
+        assertEquals(1, writeResults.statuses.size());
+        assertEquals(0, readResults.statuses.size());
+    }
+
+    @Test
+    public void testFailuresAndTimeouts() {
+        BluetoothGattCharacteristic first = characteristic(1);
+        BluetoothGattCharacteristic second = characteristic(2);
+        Results results = new Results();
+
+        _gatt.busy = true;
+        _queue.readCharacteristic(first, results);
+        assertEquals(AylaGattOperationQueue.STATUS_NOT_STARTED, (int) results.statuses.get(0));
+        _gatt.busy = false;
+
+        // A timed out operation lets the next one start
+        _queue.readCharacteristic(first, results);
+        _queue.readCharacteristic(second, results);
+        _queue.timeoutInFlight();
+        assertEquals(AylaGattOperationQueue.STATUS_TIMEOUT, (int) results.statuses.get(1));
+        assertSame(second, _gatt.started.get(1));
+
+        _queue.clear();
+        assertEquals(AylaGattOperationQueue.STATUS_CANCELED, (int) results.statuses.get(2));
+        assertEquals(0, _queue.getPendingCount());
+
+        AylaGattOperationQueue.Stats stats = _queue.getStats();
+        assertEquals(1, stats.getFailedCount());
+        assertEquals(1, stats.getTimeoutCount());
+    }
+}
@@ -0,0 +1,92 @@
+package com.aylanetworks.aylasdk.localdevice.ble;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.os.ParcelUuid;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.UUID;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests ScanRecordHelper parsing and the scan result deduplication used by
+ * AylaBLEDeviceManager. No Bluetooth device is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanRecordHelperTest {
+    private static final UUID AYLA_SERVICE = AylaBLEDevice.SERVICE_AYLA_BLE;
+    private static final UUID CUSTOM_SERVICE =
+            UUID.fromString("00000001-FE28-435B-991A-F1B21BB9BCD0");
+
+    // Flags, the 16-bit Ayla service, a 128-bit service and a local name, zero padded
+    private static final byte[] RECORD = {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x28, (byte) 0xFE,
+            0x11, 0x07,
+            (byte) 0xD0, (byte) 0xBC, (byte) 0xB9, 0x1B, (byte) 0xB2, (byte) 0xF1, 0x1A,
+            (byte) 0x99, 0x5B, 0x43, 0x28, (byte) 0xFE, 0x01, 0x00, 0x00, 0x00,
+            0x05, 0x09, 'A', 'y', 'l', 'a',
+            0x00, 0x00, 0x00, 0x00
+    };
+
+    @Test
+    public void testContainsServiceBeforeAndAfterDecoding() {
+        UUID other = UUID.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+
+        ScanRecordHelper helper = ScanRecordHelper.parseFromBytes(RECORD);
+        assertTrue(helper.containsService(AYLA_SERVICE));
+        assertTrue(helper.containsService(CUSTOM_SERVICE));
+        assertFalse(helper.containsService(other));
+
+        // Decoding gives the same answers
+        List<ParcelUuid> services = helper.getServiceUuids();
+        assertEquals(2, services.size());
+        assertEquals(AYLA_SERVICE, services.get(0).getUuid());
+        assertEquals(CUSTOM_SERVICE, services.get(1).getUuid());
+        assertTrue(helper.containsService(AYLA_SERVICE));
+        assertFalse(helper.containsService(other));
+
+        assertEquals("Ayla", helper.getLocalName());
+        assertEquals(6, helper.getAdvertiseFlag());
+        assertNull(ScanRecordHelper.parseFromBytes(null));
+    }
+
+    @Test
+    public void testMalformedRecord() {
+        // The 128-bit service list claims more bytes than the record has
+        byte[] record = new byte[9];
+        System.arraycopy(RECORD, 0, record, 0, record.length);
+
+        assertFalse(ScanRecordHelper.parseFromBytes(record).containsService(AYLA_SERVICE));
+        ScanRecordHelper helper = ScanRecordHelper.parseFromBytes(record);
+        assertNull(helper.getServiceUuids());
+        assertNull(helper.getLocalName());
+        assertEquals(-1, helper.getAdvertiseFlag());
+    }
+
+    @Test
+    public void testDeduplicator() {
+        ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(6);
+        assertTrue(deduplicator.offer("00:11:22:33:44:55", -70));
+        assertFalse(deduplicator.offer("00:11:22:33:44:55", -72));
+        assertFalse(deduplicator.offer("00:11:22:33:44:55", -66));
+        assertTrue(deduplicator.offer("00:11:22:33:44:55", -60));
+        assertTrue(deduplicator.offer("66:77:88:99:AA:BB", -60));
+        assertFalse(deduplicator.offer("66:77:88:99:AA:BB", -60));
+
+        assertEquals(3, deduplicator.getPassedCount());
+        assertEquals(3, deduplicator.getSuppressedCount());
+    }
+}
@@ -0,0 +1,237 @@
+package com.aylanetworks.aylasdk.setup;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.TimeoutError;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the scheduling of AylaConnectionConfirmation with a check that finds the device when the
+ * test says so. No device or account is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConnectionConfirmationTest {
+    private static final String DSN = "AC000W000000001";
+    private static final long WAIT_MS = 5000;
+
+    /**
+     * Check that misses until the given check, recording the poll interval at each check
+     */
+    private static class FakeCheck implements AylaConnectionConfirmation.Check<String> {
+        final AylaError miss = new TimeoutError("not connected yet");
+        final List<Long> intervals = new ArrayList<>();
+        final List<AylaAPIRequest> requests = new ArrayList<>();
+        AylaConnectionConfirmation<String> confirmation;
+        int foundOnCheck;
+        boolean respond = true;
+
+        @Override
+        public synchronized AylaAPIRequest check(Response.Listener<String> successListener,
+                                                 ErrorListener errorListener) {
+            intervals.add(confirmation.getPollInterval());
+            AylaAPIRequest request = AylaAPIRequest.dummyRequest(String.class,
+                    successListener, errorListener);
+            requests.add(request);
+            if (requests.size() == foundOnCheck) {
+                successListener.onResponse(DSN);
+            } else if (respond) {
+                errorListener.onErrorResponse(miss);
+            }
+            return request;
+        }
+
+        synchronized List<Long> getIntervals() {
+            return new ArrayList<>(intervals);
+        }
+
+        synchronized int getCheckCount() {
+            return requests.size();
+        }
+    }
+
+    private static class Result {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> response = new AtomicReference<>();
+        final AtomicReference<AylaError> error = new AtomicReference<>();
+
+        final Response.Listener<String> successListener = new Response.Listener<String>() {
+            @Override
+            public void onResponse(String dsn) {
+                response.set(dsn);
+                done.countDown();
+            }
+        };
+
+        final ErrorListener errorListener = new ErrorListener() {
+            @Override
+            public void onErrorResponse(AylaError e) {
+                error.set(e);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testKeepsIntervalUntilSubscribed() throws Exception {
+        FakeCheck check = new FakeCheck();
+        check.foundOnCheck = 5;
+        AylaConnectionConfirmation<String> confirmation = confirmation(check, false);
+        confirmation.setInitialPollInterval(10);
+
+        Result result = new Result();
+        start(confirmation, 30, result);
+        assertTrue(result.done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        // Without the data stream the device is checked as often as at first
+        assertEquals(DSN, result.response.get());
+        assertEquals(Arrays.asList(10L, 10L, 10L, 10L, 10L), check.getIntervals());
+        assertEquals(5, confirmation.getCheckCount());
+        assertEquals(0, confirmation.getPushCount());
+    }
+
+    @Test
+    public void testBacksOffWhileSubscribed() throws Exception {
+        FakeCheck check = new FakeCheck();
+        check.foundOnCheck = 5;
+        AylaConnectionConfirmation<String> confirmation = confirmation(check, true);
+        confirmation.setInitialPollInterval(10);
+
+        Result result = new Result();
+        start(confirmation, 30, result);
+        assertTrue(result.done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        assertEquals(DSN, result.response.get());
+        assertEquals(Arrays.asList(10L, 20L, 40L, 80L, 160L), check.getIntervals());
+    }
+
+    @Test
+    public void testReportedOnlineChecksNow() throws Exception {
+        FakeCheck check = new FakeCheck();
+        check.foundOnCheck = 3;
+        AylaConnectionConfirmation<String> confirmation = confirmation(check, true);
+        // Long enough that only the reports lead to checks
+        confirmation.setInitialPollInterval(
+                AylaConnectionConfirmation.STREAM_MAX_POLL_INTERVAL * 2 / 3);
+
+        Result result = new Result();
+        start(confirmation, 120, result);
+        assertEquals(1, check.getCheckCount());
+        confirmation.deviceReportedOnline();
+        confirmation.deviceReportedOnline();
+        assertTrue(result.done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        assertEquals(DSN, result.response.get());
+        assertEquals(3, confirmation.getCheckCount());
+        assertEquals(2, confirmation.getPushCount());
+        long max = AylaConnectionConfirmation.STREAM_MAX_POLL_INTERVAL;
+        assertEquals(Arrays.asList(max * 2 / 3, max, max), check.getIntervals());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        FakeCheck check = new FakeCheck();
+        check.respond = false;
+        AylaConnectionConfirmation<String> confirmation = confirmation(check, false);
+        confirmation.setInitialPollInterval(10);
+
+        Result result = new Result();
+        final AylaAPIRequest request = start(confirmation, 1, result);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                request.cancel();
+            }
+        });
+
+        // The check in flight is canceled, and the timeout does not report an error
+        assertTrue(check.requests.get(0).isCanceled());
+        assertFalse(result.done.await(1500, TimeUnit.MILLISECONDS));
+        assertEquals(1, check.getCheckCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        FakeCheck check = new FakeCheck();
+        AylaConnectionConfirmation<String> confirmation = confirmation(check, false);
+        confirmation.setInitialPollInterval(50);
+
+        Result result = new Result();
+        start(confirmation, 1, result);
+        assertTrue(result.done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        // The last miss is reported, and checks stop
+        assertSame(check.miss, result.error.get());
+        int checkCount = check.getCheckCount();
+        assertTrue(checkCount > 1);
+        Thread.sleep(200);
+        assertEquals(checkCount, check.getCheckCount());
+    }
+
+    private static AylaConnectionConfirmation<String> confirmation(FakeCheck check,
+                                                                   final boolean subscribed) {
+        AylaConnectionConfirmation<String> confirmation =
+                new AylaConnectionConfirmation<String>(DSN, null, check) {
+                    @Override
+                    boolean isSubscribed() {
+                        return subscribed;
+                    }
+                };
+        check.confirmation = confirmation;
+        return confirmation;
+    }
+
+    /**
+     * Starts the confirmation on the main thread, as it must be
+     */
+    private static AylaAPIRequest start(final AylaConnectionConfirmation<String> confirmation,
+                                        final int timeoutInSeconds, final Result result)
+            throws InterruptedException {
+        final AtomicReference<AylaAPIRequest> request = new AtomicReference<>();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                request.set(confirmation.start(timeoutInSeconds, result.successListener,
+                        result.errorListener));
+            }
+        });
+        return request.get();
+    }
+
+    private static void runOnMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+}
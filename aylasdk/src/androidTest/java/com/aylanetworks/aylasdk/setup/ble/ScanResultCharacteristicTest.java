@@ -0,0 +1,189 @@
+package com.aylanetworks.aylasdk.setup.ble;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.setup.AylaSetup;
+import com.aylanetworks.aylasdk.setup.AylaWifiScanResults;
+import com.aylanetworks.aylasdk.setup.ble.listeners.OnScanResultChangedListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how AylaScanResultCharacteristic collects the scan results streamed by a device in
+ * notifications, as used by AylaBLEWiFiSetup. No device is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanResultCharacteristicTest {
+    private static final long WAIT_MS = 5000;
+
+    private BluetoothGattCharacteristic _owner;
+    private AylaScanResultCharacteristic _characteristic;
+    private RecordingListener _listener;
+
+    /**
+     * Records the results delivered on the main thread
+     */
+    private static class RecordingListener implements OnScanResultChangedListener {
+        final List<AylaWifiScanResults.Result> results = new ArrayList<>();
+        final List<AylaWifiScanResults> lists = new ArrayList<>();
+
+        @Override
+        public void onScanResultAvailable(AylaWifiScanResults.Result result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onScanResultsAvailable(AylaWifiScanResults scanResults) {
+            lists.add(scanResults);
+        }
+
+        @Override
+        public void onScanResultError(AylaError error) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        _owner = new BluetoothGattCharacteristic(AylaScanResultCharacteristic.CHAR_UUID,
+                BluetoothGattCharacteristic.PROPERTY_READ |
+                        BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                BluetoothGattCharacteristic.PERMISSION_READ);
+        _characteristic = new AylaScanResultCharacteristic(_owner);
+        _listener = new RecordingListener();
+        _characteristic.setOnScanResultChangedListener(_listener);
+    }
+
+    @Test
+    public void testChunkedAndRepeatedResults() throws Exception {
+        byte[] home = record(0, "home", -48, 3);
+        byte[] office = record(1, "office-5G", -71, 4);
+        byte[] cafe = record(2, "cafe", -80, 0);
+
+        notify(home);
+        // A small MTU splits a result over several notifications
+        notify(Arrays.copyOfRange(office, 0, 20));
+        notify(Arrays.copyOfRange(office, 20, 40));
+        notify(Arrays.copyOfRange(office, 40, office.length));
+        // Notifications are not acknowledged, so a device may repeat them
+        notify(home);
+        notify(cafe);
+        notify(Arrays.copyOfRange(office, 0, 20));
+        notify(Arrays.copyOfRange(office, 20, office.length));
+        waitForMainThread();
+
+        // Each result is reported once, and the list is not complete until the device ends it
+        assertEquals(3, _listener.results.size());
+        assertEquals(0, _listener.lists.size());
+
+        notify(record(3, "", 0, 0));
+        waitForMainThread();
+
+        assertEquals(1, _listener.lists.size());
+        AylaWifiScanResults.Result[] results = _listener.lists.get(0).results;
+        assertEquals(3, results.length);
+        assertResult(results[0], "home", -48, AylaSetup.WifiSecurityType.WPA2);
+        assertResult(results[1], "office-5G", -71, AylaSetup.WifiSecurityType.WPA3);
+        assertResult(results[2], "cafe", -80, AylaSetup.WifiSecurityType.NONE);
+        assertEquals("A0B1C2D3E400", results[0].bssid);
+    }
+
+    @Test
+    public void testEarlyCompleteStartsNewList() throws Exception {
+        byte[] home = record(0, "home", -48, 3);
+        byte[] office = record(1, "office-5G", -71, 4);
+
+        // A result whose last part was lost is dropped when the next one arrives whole
+        notify(Arrays.copyOfRange(office, 0, 20));
+        notify(home);
+        waitForMainThread();
+        assertEquals(1, _listener.results.size());
+
+        // Completing without the end of the list delivers what was received so far
+        _characteristic.completeScanResults();
+        waitForMainThread();
+        assertEquals(1, _listener.lists.size());
+        assertEquals(1, _listener.lists.get(0).results.length);
+
+        // The next scan collects its results afresh, and a reset drops a partial result
+        notify(Arrays.copyOfRange(office, 0, 20));
+        _characteristic.resetScanResults();
+        notify(Arrays.copyOfRange(office, 20, 40));
+        notify(home);
+        notify(record(1, "", 0, 0));
+        waitForMainThread();
+
+        assertEquals(2, _listener.results.size());
+        assertEquals(2, _listener.lists.size());
+        AylaWifiScanResults.Result[] results = _listener.lists.get(1).results;
+        assertEquals(1, results.length);
+        assertResult(results[0], "home", -48, AylaSetup.WifiSecurityType.WPA2);
+    }
+
+    private void notify(byte[] value) {
+        _owner.setValue(value);
+        _characteristic.onCharacteristicChanged(null, _owner);
+    }
+
+    /**
+     * Returns a scan result value in the format sent by the device
+     */
+    private static byte[] record(int index, String ssid, int rssi, int security) {
+        byte[] value = new byte[AylaScanResultCharacteristic.RECORD_SIZE];
+        byte[] ssidBytes = ssid.getBytes(Charset.forName("UTF-8"));
+        value[0] = (byte) index;
+        System.arraycopy(ssidBytes, 0, value, 1, ssidBytes.length);
+        value[33] = (byte) ssidBytes.length;
+        if (ssidBytes.length > 0) {
+            byte[] bssid = {(byte) 0xA0, (byte) 0xB1, (byte) 0xC2, (byte) 0xD3, (byte) 0xE4,
+                    (byte) index};
+            System.arraycopy(bssid, 0, value, 34, bssid.length);
+        }
+        value[40] = (byte) (rssi >> 8);
+        value[41] = (byte) rssi;
+        value[42] = (byte) security;
+        return value;
+    }
+
+    private static void assertResult(AylaWifiScanResults.Result result, String ssid, int rssi,
+                                     AylaSetup.WifiSecurityType security) {
+        assertEquals(ssid, result.ssid);
+        assertEquals(rssi, result.signal);
+        assertEquals(security.stringValue(), result.security);
+    }
+
+    /**
+     * Waits until the callbacks posted to the main thread so far have run
+     */
+    private static void waitForMainThread() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,811 @@
+package com.aylanetworks.aylasdk.simulator;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+import com.aylanetworks.aylasdk.util.DateUtils;
+import com.aylanetworks.aylasdk.util.ServiceUrls;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for the Ayla cloud services used by load tests, so that polling, the Device
+ * Stream Service and LAN sessions can be exercised with any number of devices without an
+ * account. One server on the loopback interface answers for the user service (sign-in and
+ * sign-out), the device service (devices.json, properties.json, lan.json, datapoints and
+ * batch_datapoints) and the DSS subscription service, and accepts websocket connections for
+ * the data stream.
+ * <p>
+ * Devices are added to accounts before {@link #start()}. Each account signs in with its email
+ * and any password, and requests are answered with the devices of the account their
+ * auth_token belongs to. Datapoints written by the SDK update the simulated properties and are
+ * echoed on the data stream of the account, as the service does.
+ * <p>
+ * Once started, {@link #setDatastreamRate(int)} makes every open stream emit datapoint
+ * messages for the properties of its account, each message changing a value, framed as the
+ * service frames them: the length of the message, "|", and the JSON with its sequence number.
+ * <p>
+ * Every request is counted by endpoint, named as in the
+ * {@link AylaMetricsRegistry#endpointTemplate(String, String)} of the SDK metrics, so the
+ * counts can be set against the latencies the SDK records.
+ */
+public class CloudSimulator {
+    private static final String LOG_TAG = "CloudSimulator";
+
+    public static final String AUTH_HEADER_PREFIX = "auth_token ";
+    public static final String HEARTBEAT = "1|Z";
+    public static final long HEARTBEAT_INTERVAL_MS = 15000;
+
+    private static final String[] BASE_TYPES = new String[]{"boolean", "integer", "string",
+            "decimal"};
+
+    // Base paths of services whose requests are accepted without being looked at
+    private static final String LOG_PATH = "/log/";
+    private static final String METRICS_PATH = "/metrics/";
+
+    private final MockWebServer _server = new MockWebServer();
+    private final Map<String, Account> _accountsByEmail = new ConcurrentHashMap<>();
+    private final Map<String, Account> _accountsByToken = new ConcurrentHashMap<>();
+    private final Map<String, Account> _accountsByStreamKey = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> _requestCounts = new ConcurrentHashMap<>();
+    private final List<Stream> _streams = new CopyOnWriteArrayList<>();
+    private final AtomicLong _unhandledRequestCount = new AtomicLong();
+    private final AtomicLong _datastreamMessageCount = new AtomicLong();
+    private final AtomicInteger _nextId = new AtomicInteger(1);
+
+    private ScheduledExecutorService _executor;
+    private ScheduledFuture<?> _datastreamTask;
+    private volatile long _responseDelayMs;
+
+    /**
+     * Adds a device with properties of each base type in turn to the account with the given
+     * email, creating the account if needed. Must be called before {@link #start()}.
+     *
+     * @param email         Email the account signs in with
+     * @param dsn           DSN of the new device
+     * @param propertyCount Number of properties of the device
+     * @return the new Device, which may be set up for LAN mode
+     */
+    public Device addDevice(String email, String dsn, int propertyCount) {
+        Account account = _accountsByEmail.get(email);
+        if (account == null) {
+            account = new Account(email, "token-" + _nextId.getAndIncrement());
+            _accountsByEmail.put(email, account);
+            _accountsByToken.put(account.token, account);
+        }
+
+        Device device = new Device(dsn, _nextId.getAndIncrement());
+        for (int i = 0; i < propertyCount; i++) {
+            device.addProperty("prop_" + i, BASE_TYPES[i % BASE_TYPES.length],
+                    _nextId.getAndIncrement());
+        }
+        account.devices.put(dsn, device);
+        return device;
+    }
+
+    /**
+     * Returns a DSN for the simulated device with the given index
+     */
+    public static String dsn(int index) {
+        return String.format(Locale.US, "AC000S%09d", index);
+    }
+
+    /**
+     * Starts the server on the loopback interface and points the SDK at it by overriding the
+     * URLs of the cloud services.
+     */
+    public void start() throws IOException {
+        _server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = handle(request);
+                if (_responseDelayMs > 0 && response.getWebSocketListener() == null) {
+                    response.setHeadersDelay(_responseDelayMs, TimeUnit.MILLISECONDS);
+                }
+                return response;
+            }
+        });
+        _server.start();
+
+        String baseUrl = "http://" + _server.getHostName() + ":" + _server.getPort() + "/";
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.User, baseUrl);
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.Device, baseUrl);
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.mdssSubscription, baseUrl);
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.Datastream,
+                "ws://" + _server.getHostName() + ":" + _server.getPort() + "/");
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.Log,
+                baseUrl.substring(0, baseUrl.length() - 1) + LOG_PATH);
+        ServiceUrls.setServiceURLOverride(ServiceUrls.CloudService.Metrics,
+                baseUrl.substring(0, baseUrl.length() - 1) + METRICS_PATH);
+
+        _executor = Executors.newSingleThreadScheduledExecutor();
+        _executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sendHeartbeats();
+            }
+        }, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drainRecordedRequests();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        Log.i(LOG_TAG, "Simulating " + getDeviceCount() + " devices at " + baseUrl);
+    }
+
+    /**
+     * Stops the server and removes the service URL overrides
+     */
+    public void shutdown() throws IOException {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        for (Stream stream : _streams) {
+            stream.webSocket.close(1001, "Simulator shutting down");
+        }
+        _streams.clear();
+        ServiceUrls.setServiceURLOverrides(null);
+        _server.shutdown();
+    }
+
+    /**
+     * Sets the number of datapoint messages emitted each second on every open stream, or 0 to
+     * stop emitting them.
+     *
+     * @param messagesPerSecond Messages per second per stream
+     */
+    public synchronized void setDatastreamRate(int messagesPerSecond) {
+        if (_datastreamTask != null) {
+            _datastreamTask.cancel(false);
+            _datastreamTask = null;
+        }
+        if (messagesPerSecond <= 0) {
+            return;
+        }
+
+        _datastreamTask = _executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (Stream stream : _streams) {
+                    Device device = stream.account.nextDevice();
+                    if (device != null) {
+                        send(stream, device, device.changeNextProperty());
+                    }
+                }
+            }
+        }, 0, TimeUnit.SECONDS.toMicros(1) / messagesPerSecond, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Closes every open stream, as the service does when it drops its connections. The SDK
+     * reconnects on its own.
+     */
+    public void closeStreams() {
+        for (Stream stream : _streams) {
+            _streams.remove(stream);
+            stream.webSocket.close(1001, "Going away");
+        }
+    }
+
+    /**
+     * Sets the time the service takes to answer each request, 0 by default
+     */
+    public void setResponseDelay(long delay, TimeUnit unit) {
+        _responseDelayMs = unit.toMillis(delay);
+    }
+
+    public int getDeviceCount() {
+        int count = 0;
+        for (Account account : _accountsByEmail.values()) {
+            count += account.devices.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of requests answered for each endpoint, sorted by endpoint
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : _requestCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of requests answered for an endpoint, such as
+     * "GET /apiv1/dsns/{id}/properties.json"
+     */
+    public long getRequestCount(String endpoint) {
+        AtomicLong count = _requestCounts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of requests the simulator did not know how to answer, which were
+     * answered with 404 Not Found
+     */
+    public long getUnhandledRequestCount() {
+        return _unhandledRequestCount.get();
+    }
+
+    /**
+     * @return the number of datapoint messages sent on all streams
+     */
+    public long getDatastreamMessageCount() {
+        return _datastreamMessageCount.get();
+    }
+
+    /**
+     * @return the number of streams currently open
+     */
+    public int getStreamCount() {
+        return _streams.size();
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String path = url.encodedPath();
+        String method = request.getMethod();
+        String endpoint = AylaMetricsRegistry.endpointTemplate(method, path);
+        AtomicLong count = _requestCounts.get(endpoint);
+        if (count == null) {
+            _requestCounts.putIfAbsent(endpoint, new AtomicLong());
+            count = _requestCounts.get(endpoint);
+        }
+        count.incrementAndGet();
+
+        try {
+            MockResponse response = route(request, url, method, path);
+            if (response != null) {
+                return response;
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Bad request body for " + endpoint + ": " + e);
+            return json(400, "{\"error\":\"Bad request\"}");
+        }
+
+        _unhandledRequestCount.incrementAndGet();
+        Log.w(LOG_TAG, "Unhandled request " + method + " " + url);
+        return json(404, "{\"error\":\"Not found\"}");
+    }
+
+    private MockResponse route(RecordedRequest request, HttpUrl url, String method, String path)
+            throws JSONException {
+        if (path.startsWith(LOG_PATH) || path.startsWith(METRICS_PATH)) {
+            return json(201, "{}");
+        }
+
+        if (path.equals("/users/sign_in.json")) {
+            return signIn(new JSONObject(request.getBody().readUtf8()));
+        }
+        if (path.equals("/stream")) {
+            return openStream(url.queryParameter("stream_key"));
+        }
+
+        // Everything else requires an account
+        Account account = null;
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && authorization.startsWith(AUTH_HEADER_PREFIX)) {
+            account = _accountsByToken.get(authorization.substring(AUTH_HEADER_PREFIX.length()));
+        }
+        if (account == null) {
+            return json(401, "{\"error\":\"Your access token is invalid\"}");
+        }
+
+        List<String> segments = url.pathSegments();
+        if (path.equals("/users/sign_out.json")) {
+            return json(200, "{}");
+        }
+        if (path.equals("/users/refresh_token.json")) {
+            return authorization(account);
+        }
+        if (path.equals("/users/get_user_profile.json")) {
+            return json(200, new JSONObject().put("email", account.email).toString());
+        }
+        if (path.equals("/apiv1/devices.json")) {
+            return devices(account, request.getHeader("If-None-Match"));
+        }
+        if (path.equals("/apiv1/batch_datapoints.json") && method.equals("POST")) {
+            return batchDatapoints(account, new JSONObject(request.getBody().readUtf8()));
+        }
+        if (path.startsWith("/api/v1/subscriptions")) {
+            return subscriptions(account, method, segments, request);
+        }
+
+        // apiv1/dsns/{dsn}/...
+        if (segments.size() < 4 || !segments.get(0).equals("apiv1") ||
+                !segments.get(1).equals("dsns")) {
+            return null;
+        }
+        Device device = account.devices.get(segments.get(2));
+        if (device == null) {
+            return json(404, "{\"error\":\"Device not found\"}");
+        }
+        if (segments.size() == 4 && segments.get(3).equals("properties.json")) {
+            return properties(device, url.queryParameterValues("names[]"));
+        }
+        if (segments.size() == 4 && segments.get(3).equals("lan.json")) {
+            return lanConfig(device);
+        }
+        if (segments.size() == 6 && segments.get(3).equals("properties") &&
+                segments.get(5).equals("datapoints.json") && method.equals("POST")) {
+            Property property = device.getProperty(segments.get(4));
+            if (property == null) {
+                return json(404, "{\"error\":\"Property not found\"}");
+            }
+            JSONObject datapoint = new JSONObject(request.getBody().readUtf8())
+                    .getJSONObject("datapoint");
+            JSONObject created = createDatapoint(account, device, property,
+                    datapoint.get("value"));
+            return json(201, new JSONObject().put("datapoint", created).toString());
+        }
+        return null;
+    }
+
+    private MockResponse signIn(JSONObject body) throws JSONException {
+        Account account = _accountsByEmail.get(body.getJSONObject("user").getString("email"));
+        if (account == null) {
+            return json(401, "{\"error\":\"Invalid email or password\"}");
+        }
+        return authorization(account);
+    }
+
+    private MockResponse authorization(Account account) throws JSONException {
+        JSONObject auth = new JSONObject();
+        auth.put("access_token", account.token);
+        auth.put("refresh_token", "refresh-" + account.token);
+        auth.put("expires_in", 86400);
+        auth.put("role", "EndUser");
+        auth.put("role_tags", new JSONArray());
+        return json(200, auth.toString());
+    }
+
+    private MockResponse devices(Account account, String ifNoneMatch) throws JSONException {
+        // The device list of an account does not change once the simulator is started
+        String eTag = "\"" + account.token + "\"";
+        if (eTag.equals(ifNoneMatch)) {
+            return new MockResponse().setResponseCode(304).setHeader("ETag", eTag);
+        }
+
+        JSONArray devices = new JSONArray();
+        for (Device device : account.devices.values()) {
+            devices.put(new JSONObject().put("device", device.toJson()));
+        }
+        return json(200, devices.toString()).setHeader("ETag", eTag);
+    }
+
+    private MockResponse properties(Device device, List<String> names) throws JSONException {
+        JSONArray properties = new JSONArray();
+        synchronized (device) {
+            for (Property property : device.properties.values()) {
+                if (names.isEmpty() || names.contains(property.name)) {
+                    properties.put(new JSONObject().put("property", property.toJson(device)));
+                }
+            }
+        }
+        return json(200, properties.toString());
+    }
+
+    private MockResponse lanConfig(Device device) throws JSONException {
+        if (device.lanipKey == null) {
+            return json(404, "{\"error\":\"LAN mode is not enabled\"}");
+        }
+        JSONObject lanip = new JSONObject();
+        lanip.put("lanip_key", device.lanipKey);
+        lanip.put("lanip_key_id", device.lanipKeyId);
+        lanip.put("keep_alive", 30);
+        lanip.put("auto_sync", 1);
+        lanip.put("status", "enable");
+        return json(200, new JSONObject().put("lanip", lanip).toString());
+    }
+
+    private MockResponse batchDatapoints(Account account, JSONObject body)
+            throws JSONException {
+        JSONArray requests = body.getJSONArray("batch_datapoints");
+        JSONArray responses = new JSONArray();
+        for (int i = 0; i < requests.length(); i++) {
+            JSONObject request = requests.getJSONObject(i);
+            String dsn = request.getString("dsn");
+            String name = request.getString("name");
+            JSONObject response = new JSONObject().put("dsn", dsn).put("name", name);
+
+            Device device = account.devices.get(dsn);
+            Property property = device == null ? null : device.getProperty(name);
+            if (property == null) {
+                response.put("status", 404);
+            } else {
+                response.put("status", 201);
+                response.put("datapoint", createDatapoint(account, device, property,
+                        request.getJSONObject("datapoint").get("value")));
+            }
+            responses.put(response);
+        }
+        return json(201, responses.toString());
+    }
+
+    private JSONObject createDatapoint(Account account, Device device, Property property,
+                                       Object value) throws JSONException {
+        JSONObject datapoint;
+        synchronized (device) {
+            property.setValue(value);
+            datapoint = property.datapointJson();
+        }
+
+        // Echo the new datapoint on the streams of the account
+        for (Stream stream : _streams) {
+            if (stream.account == account) {
+                send(stream, device, property);
+            }
+        }
+        return datapoint;
+    }
+
+    private MockResponse subscriptions(Account account, String method, List<String> segments,
+                                       RecordedRequest request) throws JSONException {
+        if (segments.size() == 3) {
+            if (method.equals("GET")) {
+                return json(200, "[]");
+            }
+            JSONObject body = new JSONObject(request.getBody().readUtf8());
+            String id = body.optString("id", null);
+            if (id == null) {
+                id = "subscription-" + _nextId.getAndIncrement();
+            }
+            String streamKey = body.optString("stream_key", null);
+            if (streamKey == null) {
+                streamKey = "stream-" + _nextId.getAndIncrement();
+            }
+            _accountsByStreamKey.put(streamKey, account);
+
+            JSONObject subscription = new JSONObject();
+            subscription.put("id", id);
+            subscription.put("name", body.optString("name"));
+            subscription.put("description", body.optString("description"));
+            subscription.put("dsn", body.opt("dsn"));
+            subscription.put("property_name", "*");
+            subscription.put("client_type", "mobile");
+            subscription.put("subscription_type", body.optString("subscription_type"));
+            subscription.put("stream_key", streamKey);
+            subscription.put("is_suspended", false);
+            return json(method.equals("POST") ? 201 : 200,
+                    new JSONObject().put("subscription", subscription).toString());
+        }
+
+        if (method.equals("DELETE")) {
+            return json(200, "{}");
+        }
+        return null;
+    }
+
+    private MockResponse openStream(final String streamKey) {
+        // Saved stream keys of an earlier run are accepted for the only account, if there is
+        // only one
+        Account account = streamKey == null ? null : _accountsByStreamKey.get(streamKey);
+        if (account == null && _accountsByEmail.size() == 1) {
+            account = _accountsByEmail.values().iterator().next();
+        }
+        if (account == null) {
+            return json(401, "{\"error\":\"Unknown stream key\"}");
+        }
+
+        final Account streamAccount = account;
+        return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            private Stream _stream;
+
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                _stream = new Stream(webSocket, streamAccount);
+                _streams.add(_stream);
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                _streams.remove(_stream);
+                webSocket.close(code, null);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                _streams.remove(_stream);
+            }
+        });
+    }
+
+    private void send(Stream stream, Device device, Property property) {
+        try {
+            JSONObject metadata = new JSONObject();
+            metadata.put("oem_id", "0dfc7900");
+            metadata.put("oem_model", device.oemModel);
+            metadata.put("dsn", device.dsn);
+            metadata.put("property_name", property.name);
+            metadata.put("display_name", property.name);
+            metadata.put("base_type", property.baseType);
+            metadata.put("event_type", "datapoint");
+
+            String json;
+            synchronized (stream) {
+                JSONObject message = new JSONObject();
+                message.put("seq", String.valueOf(stream.sequence++));
+                message.put("metadata", metadata);
+                synchronized (device) {
+                    message.put("datapoint", property.datapointJson());
+                }
+                json = message.toString();
+                stream.webSocket.send(json.length() + "|" + json);
+            }
+            _datastreamMessageCount.incrementAndGet();
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to create datastream message: " + e);
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Stream stream : _streams) {
+            stream.webSocket.send(HEARTBEAT);
+        }
+    }
+
+    /**
+     * MockWebServer keeps every request it has answered, which would otherwise add to the
+     * memory used by the test process for as long as a load test runs
+     */
+    private void drainRecordedRequests() {
+        try {
+            while (_server.takeRequest(0, TimeUnit.MILLISECONDS) != null) {
+                // Discard it
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MockResponse json(int code, String body) {
+        return new MockResponse().setResponseCode(code)
+                .setHeader("Content-Type", "application/json; charset=utf-8")
+                .setBody(body);
+    }
+
+    /**
+     * A simulated device. LAN mode may be enabled with {@link #enableLan} before the simulator
+     * is started.
+     */
+    public static class Device {
+        private final String dsn;
+        private final int key;
+        private final String oemModel = "ledevb";
+        private final Map<String, Property> properties = new LinkedHashMap<>();
+        private final List<Property> propertyList = new ArrayList<>();
+        private String lanIp;
+        private String lanipKey;
+        private int lanipKeyId;
+        private int nextProperty;
+
+        Device(String dsn, int key) {
+            this.dsn = dsn;
+            this.key = key;
+        }
+
+        public String getDsn() {
+            return dsn;
+        }
+
+        /**
+         * Enables LAN mode on this device
+         *
+         * @param lanIp      LAN IP address of the device
+         * @param lanipKey   LAN key shared with the device
+         * @param lanipKeyId ID of the LAN key
+         */
+        public void enableLan(String lanIp, String lanipKey, int lanipKeyId) {
+            this.lanIp = lanIp;
+            this.lanipKey = lanipKey;
+            this.lanipKeyId = lanipKeyId;
+        }
+
+        /**
+         * @return the names of the properties of this device, in order
+         */
+        public synchronized List<String> getPropertyNames() {
+            List<String> names = new ArrayList<>(properties.keySet());
+            return Collections.unmodifiableList(names);
+        }
+
+        void addProperty(String name, String baseType, int key) {
+            Property property = new Property(name, baseType, key);
+            properties.put(name, property);
+            propertyList.add(property);
+        }
+
+        synchronized Property getProperty(String name) {
+            return properties.get(name);
+        }
+
+        /**
+         * Changes the value of a property without sending a datastream message, as for a
+         * change made while the app was not connected
+         *
+         * @param name Name of the property
+         * @return the new value of the property
+         */
+        public synchronized Object changeProperty(String name) {
+            Property property = properties.get(name);
+            property.changeValue();
+            return property.value;
+        }
+
+        /**
+         * Changes the value of the properties of this device in turn
+         *
+         * @return the property whose value was changed
+         */
+        synchronized Property changeNextProperty() {
+            Property property = propertyList.get(nextProperty);
+            nextProperty = (nextProperty + 1) % propertyList.size();
+            property.changeValue();
+            return property;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject device = new JSONObject();
+            device.put("product_name", "Simulated " + dsn);
+            device.put("model", "AY001MRT1");
+            device.put("dsn", dsn);
+            device.put("oem_model", oemModel);
+            device.put("sw_version", "simulator");
+            device.put("mac", String.format(Locale.US, "f8f0%08x", key));
+            device.put("lan_ip", lanIp);
+            device.put("key", key);
+            device.put("lan_enabled", lanipKey != null);
+            device.put("has_properties", !properties.isEmpty());
+            device.put("connection_status", "Online");
+            device.put("device_type", "Wifi");
+            return device;
+        }
+    }
+
+    /**
+     * A property of a simulated device. Access is synchronized on the owning device.
+     */
+    static class Property {
+        private final String name;
+        private final String baseType;
+        private final int key;
+        private Object value;
+        private String updatedAt;
+        private long changeCount;
+
+        Property(String name, String baseType, int key) {
+            this.name = name;
+            this.baseType = baseType;
+            this.key = key;
+            setValue(baseType.equals("string") ? "" : 0);
+        }
+
+        void setValue(Object value) {
+            this.value = value;
+            this.updatedAt = DateUtils.toJsonString(new Date());
+        }
+
+        /**
+         * Sets a value different from the current one
+         */
+        void changeValue() {
+            changeCount++;
+            switch (baseType) {
+                case "boolean":
+                    setValue(changeCount % 2);
+                    break;
+                case "integer":
+                    setValue(changeCount);
+                    break;
+                case "decimal":
+                    setValue(changeCount / 4.0);
+                    break;
+                default:
+                    setValue("value " + changeCount);
+            }
+        }
+
+        JSONObject datapointJson() throws JSONException {
+            JSONObject datapoint = new JSONObject();
+            datapoint.put("updated_at", updatedAt);
+            datapoint.put("created_at", updatedAt);
+            datapoint.put("echo", false);
+            datapoint.put("value", value);
+            datapoint.put("metadata", new JSONObject());
+            return datapoint;
+        }
+
+        JSONObject toJson(Device device) throws JSONException {
+            JSONObject property = new JSONObject();
+            property.put("type", "Property");
+            property.put("name", name);
+            property.put("base_type", baseType);
+            property.put("read_only", false);
+            property.put("direction", "input");
+            property.put("scope", "user");
+            property.put("data_updated_at", updatedAt);
+            property.put("key", key);
+            property.put("device_key", device.key);
+            property.put("product_name", "Simulated " + device.dsn);
+            property.put("display_name", name);
+            property.put("value", value);
+            property.put("ack_enabled", false);
+            return property;
+        }
+    }
+
+    private static class Account {
+        final String email;
+        final String token;
+        final Map<String, Device> devices = new LinkedHashMap<>();
+        private final List<Device> _deviceList = new ArrayList<>();
+        private int _nextDevice;
+
+        Account(String email, String token) {
+            this.email = email;
+            this.token = token;
+        }
+
+        synchronized Device nextDevice() {
+            if (_deviceList.size() != devices.size()) {
+                _deviceList.clear();
+                _deviceList.addAll(devices.values());
+            }
+            if (_deviceList.isEmpty()) {
+                return null;
+            }
+            Device device = _deviceList.get(_nextDevice);
+            _nextDevice = (_nextDevice + 1) % _deviceList.size();
+            return device;
+        }
+    }
+
+    private static class Stream {
+        final WebSocket webSocket;
+        final Account account;
+        long sequence = 1;
+
+        Stream(WebSocket webSocket, Account account) {
+            this.webSocket = webSocket;
+            this.account = account;
+        }
+    }
+}
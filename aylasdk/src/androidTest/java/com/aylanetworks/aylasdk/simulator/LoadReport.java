@@ -0,0 +1,239 @@
+package com.aylanetworks.aylasdk.simulator;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report of a load scenario: the throughput of the counted events, the latency histograms of
+ * the AylaMetricsRegistry and the resources used by the process while the scenario ran.
+ * <p>
+ * The registry is cleared by {@link #begin()}, so the histograms only cover the scenario. The
+ * Java heap is sampled every {@link #SAMPLE_INTERVAL_MS} to find its peak. {@link #end()}
+ * writes the report as JSON to load-reports/&lt;name&gt;.json in the files directory of the
+ * app, from where it can be pulled with adb, and logs a summary.
+ */
+public class LoadReport {
+    private static final String LOG_TAG = "LoadReport";
+    private static final String REPORT_DIRECTORY = "load-reports";
+    private static final long SAMPLE_INTERVAL_MS = 500;
+
+    private final String _name;
+    private final Context _context;
+    private final Map<String, Long> _counts = new LinkedHashMap<>();
+    private final Map<String, Object> _parameters = new LinkedHashMap<>();
+
+    private ScheduledExecutorService _sampler;
+    private long _startTime;
+    private long _startCpuTime;
+    private long _elapsedMs;
+    private long _cpuMs;
+    private long _peakHeapBytes;
+    private long _heapBytes;
+    private long _nativeHeapBytes;
+    private int _threadCount;
+    private AylaMetricsRegistry.Snapshot _metrics;
+
+    public LoadReport(String name, Context context) {
+        _name = name;
+        _context = context;
+    }
+
+    /**
+     * Adds a parameter of the scenario, such as the number of devices, to the report
+     */
+    public LoadReport parameter(String name, Object value) {
+        _parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * Starts measuring the scenario
+     */
+    public void begin() {
+        AylaMetricsRegistry.sharedInstance().clear();
+        _peakHeapBytes = usedHeapBytes();
+        _startCpuTime = Process.getElapsedCpuTime();
+        _startTime = SystemClock.elapsedRealtime();
+
+        _sampler = Executors.newSingleThreadScheduledExecutor();
+        _sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sampleHeap();
+            }
+        }, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the number of events of a kind that occurred during the scenario. The throughput
+     * of each count is reported in events per second.
+     */
+    public void count(String name, long count) {
+        _counts.put(name, count);
+    }
+
+    /**
+     * Stops measuring the scenario, then writes and logs the report
+     *
+     * @return the report as JSON
+     */
+    public JSONObject end() {
+        _elapsedMs = SystemClock.elapsedRealtime() - _startTime;
+        _cpuMs = Process.getElapsedCpuTime() - _startCpuTime;
+        _sampler.shutdownNow();
+        sampleHeap();
+        _heapBytes = usedHeapBytes();
+        _nativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+        _threadCount = Thread.activeCount();
+        _metrics = AylaMetricsRegistry.sharedInstance().snapshot();
+
+        JSONObject report;
+        try {
+            report = toJson();
+        } catch (JSONException e) {
+            throw new IllegalStateException("Failed to create report", e);
+        }
+
+        Log.i(LOG_TAG, summary());
+        write(report);
+        return report;
+    }
+
+    public long getElapsedMs() {
+        return _elapsedMs;
+    }
+
+    /**
+     * @return the number of events per second of the named count
+     */
+    public double getThroughput(String name) {
+        Long count = _counts.get(name);
+        if (count == null || _elapsedMs == 0) {
+            return 0;
+        }
+        return count * 1000.0 / _elapsedMs;
+    }
+
+    /**
+     * @return the snapshot of the named histogram taken at the end of the scenario, or null if
+     * nothing was recorded in it
+     */
+    public AylaMetricsRegistry.HistogramSnapshot getHistogram(String name) {
+        return _metrics == null ? null : _metrics.getHistograms().get(name);
+    }
+
+    private synchronized void sampleHeap() {
+        _peakHeapBytes = Math.max(_peakHeapBytes, usedHeapBytes());
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONObject report = new JSONObject();
+        report.put("name", _name);
+        report.put("parameters", new JSONObject(_parameters));
+        report.put("elapsed_ms", _elapsedMs);
+
+        JSONObject throughput = new JSONObject();
+        for (Map.Entry<String, Long> entry : _counts.entrySet()) {
+            throughput.put(entry.getKey(), new JSONObject()
+                    .put("count", entry.getValue())
+                    .put("per_second", getThroughput(entry.getKey())));
+        }
+        report.put("throughput", throughput);
+
+        JSONObject latency = new JSONObject();
+        for (Map.Entry<String, AylaMetricsRegistry.HistogramSnapshot> entry :
+                _metrics.getHistograms().entrySet()) {
+            AylaMetricsRegistry.HistogramSnapshot histogram = entry.getValue();
+            latency.put(entry.getKey(), new JSONObject()
+                    .put("count", histogram.getCount())
+                    .put("mean", histogram.getMean())
+                    .put("p50", histogram.getP50())
+                    .put("p90", histogram.getP90())
+                    .put("p99", histogram.getP99())
+                    .put("max", histogram.getMax()));
+        }
+        report.put("latency_ms", latency);
+        report.put("counters", new JSONObject(_metrics.getCounters()));
+        report.put("gauges", new JSONObject(_metrics.getGauges()));
+
+        JSONObject resources = new JSONObject();
+        resources.put("cpu_ms", _cpuMs);
+        resources.put("cpu_percent", _elapsedMs == 0 ? 0 : _cpuMs * 100.0 / _elapsedMs);
+        resources.put("heap_bytes", _heapBytes);
+        resources.put("peak_heap_bytes", _peakHeapBytes);
+        resources.put("native_heap_bytes", _nativeHeapBytes);
+        resources.put("threads", _threadCount);
+        report.put("resources", resources);
+        return report;
+    }
+
+    private String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(_name).append(" ").append(_parameters).append(": ")
+                .append(_elapsedMs).append(" ms, cpu ").append(_cpuMs).append(" ms, peak heap ")
+                .append(_peakHeapBytes / 1024).append(" KB, native heap ")
+                .append(_nativeHeapBytes / 1024).append(" KB, ")
+                .append(_threadCount).append(" threads");
+        for (String name : _counts.keySet()) {
+            sb.append("\n  ").append(name).append(": ").append(_counts.get(name))
+                    .append(String.format(" (%.1f/s)", getThroughput(name)));
+        }
+        for (Map.Entry<String, AylaMetricsRegistry.HistogramSnapshot> entry :
+                _metrics.getHistograms().entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void write(JSONObject report) {
+        File directory = new File(_context.getFilesDir(), REPORT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create " + directory);
+            return;
+        }
+
+        File file = new File(directory, _name + ".json");
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(file);
+            stream.write(report.toString(2).getBytes("UTF-8"));
+            Log.i(LOG_TAG, "Report written to " + file);
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Could not write " + file + ": " + e);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.aylanetworks.aylasdk.simulator;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+import com.aylanetworks.aylasdk.AylaDatapoint;
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaDeviceManager;
+import com.aylanetworks.aylasdk.AylaDSManager;
+import com.aylanetworks.aylasdk.AylaListenerDelivery;
+import com.aylanetworks.aylasdk.AylaNetworks;
+import com.aylanetworks.aylasdk.AylaProperty;
+import com.aylanetworks.aylasdk.AylaSessionManager;
+import com.aylanetworks.aylasdk.AylaSystemSettings;
+import com.aylanetworks.aylasdk.auth.AylaAuthorization;
+import com.aylanetworks.aylasdk.auth.UsernameAuthProvider;
+import com.aylanetworks.aylasdk.change.Change;
+import com.aylanetworks.aylasdk.change.ListChange;
+import com.aylanetworks.aylasdk.change.PropertyChange;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.RequestFuture;
+import com.aylanetworks.aylasdk.lan.SimulatedLanModule;
+import com.aylanetworks.aylasdk.lan.SimulatedLanNetwork;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aylanetworks.aylasdk.AylaDSManager.AylaDSSubscriptionType
+        .AylaDSSubscriptionTypeDatapoint;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Load scenarios run against the {@link CloudSimulator} and a {@link SimulatedLanNetwork}, so
+ * that the SDK can be loaded with more devices, stream messages and LAN sessions than a test
+ * account has, without a network connection. Each scenario writes a {@link LoadReport} with
+ * its throughput, the latencies recorded by the SDK and the resources the process used.
+ * <p>
+ * The sizes and rates below are meant to be raised locally to find where the SDK stops
+ * keeping up; the assertions only check that nothing was lost at the default load.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LoadScenarioTest {
+    private static final String LOG_TAG = "LoadScenarioTest";
+
+    private static final String PASSWORD = "password";
+    private static final long SIGN_IN_TIMEOUT_MS = 30000;
+    private static final long INIT_TIMEOUT_MS = 120000;
+
+    private static final int POLLING_DEVICE_COUNT = 1000;
+    private static final int POLLING_PROPERTY_COUNT = 4;
+    private static final int POLL_INTERVAL_MS = 5000;
+    private static final long POLLING_DURATION_MS = 30000;
+
+    private static final int DATASTREAM_DEVICE_COUNT = 200;
+    private static final int DATASTREAM_PROPERTY_COUNT = 4;
+    private static final int DATASTREAM_RATE = 200;
+    private static final long DATASTREAM_DURATION_MS = 20000;
+
+    private static final int LAN_SESSION_COUNT = 20;
+    private static final int LAN_PROPERTY_COUNT = 6;
+    private static final String LAN_COUNTER_PROPERTY = "prop_1";
+    private static final String LAN_WRITE_PROPERTY = "prop_5";
+    private static final int LAN_UPDATE_RATE = 5;
+    private static final long LAN_UPDATE_DURATION_MS = 10000;
+    private static final int LAN_WRITES_PER_DEVICE = 10;
+    private static final long LAN_TIMEOUT_MS = 60000;
+    private static final String LAN_BRING_UP = "simulated lan session bring-up";
+
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+
+    private Context _context;
+    private CloudSimulator _cloud;
+    private SimulatedLanNetwork _lanNetwork;
+    private final List<String> _sessionNames = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        _context = InstrumentationRegistry.getContext();
+        _cloud = new CloudSimulator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String sessionName : _sessionNames) {
+            AylaSessionManager sessionManager = AylaNetworks.sharedInstance()
+                    .getSessionManager(sessionName);
+            if (sessionManager != null) {
+                RequestFuture<AylaAPIRequest.EmptyResponse> future = RequestFuture.newFuture();
+                sessionManager.shutDown(future, future);
+                try {
+                    future.get(SIGN_IN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    Log.w(LOG_TAG, "Failed to sign out of " + sessionName + ": " + e);
+                }
+            }
+        }
+        _sessionNames.clear();
+        AylaNetworks.shutDown();
+
+        if (_lanNetwork != null) {
+            _lanNetwork.shutdown();
+            _lanNetwork = null;
+        }
+        _cloud.shutdown();
+    }
+
+    /**
+     * One account with many devices, all polled by the device manager
+     */
+    @Test
+    public void testPolling() throws Exception {
+        for (int i = 0; i < POLLING_DEVICE_COUNT; i++) {
+            _cloud.addDevice("polling@example.com", CloudSimulator.dsn(i),
+                    POLLING_PROPERTY_COUNT);
+        }
+        _cloud.start();
+        initialize(POLLING_PROPERTY_COUNT, false);
+
+        LoadReport report = new LoadReport("polling", _context)
+                .parameter("devices", POLLING_DEVICE_COUNT)
+                .parameter("properties", POLLING_PROPERTY_COUNT)
+                .parameter("poll_interval_ms", POLL_INTERVAL_MS);
+        report.begin();
+
+        AylaSessionManager sessionManager = signIn("polling@example.com", "polling");
+        AylaDeviceManager deviceManager = sessionManager.getDeviceManager();
+        assertEquals(POLLING_DEVICE_COUNT, deviceManager.getDevices().size());
+        long initRequestCount = totalRequestCount();
+
+        deviceManager.stopPolling();
+        deviceManager.setPollInterval(POLL_INTERVAL_MS);
+        for (AylaDevice device : deviceManager.getDevices()) {
+            device.setPollIntervalMs(POLL_INTERVAL_MS);
+        }
+        deviceManager.startPolling();
+        Thread.sleep(POLLING_DURATION_MS);
+        deviceManager.stopPolling();
+
+        report.count("init requests", initRequestCount);
+        report.count("requests", totalRequestCount());
+        report.count("property fetches", _cloud.getRequestCount(
+                "GET /apiv1/dsns/{id}/properties.json"));
+        report.end();
+
+        assertEquals(0, _cloud.getUnhandledRequestCount());
+        assertTrue("Devices were not polled", totalRequestCount() > initRequestCount);
+    }
+
+    /**
+     * One account whose data stream carries a steady rate of datapoints
+     */
+    @Test
+    public void testDatastreamFanIn() throws Exception {
+        for (int i = 0; i < DATASTREAM_DEVICE_COUNT; i++) {
+            _cloud.addDevice("datastream@example.com", CloudSimulator.dsn(i),
+                    DATASTREAM_PROPERTY_COUNT);
+        }
+        _cloud.start();
+        initialize(DATASTREAM_PROPERTY_COUNT, true);
+
+        AylaSessionManager sessionManager = signIn("datastream@example.com", "datastream");
+        AylaDSManager dsManager = sessionManager.getDSManager();
+        assertNotNull(dsManager);
+        waitForDatastream(dsManager);
+
+        final AtomicLong changeCount = new AtomicLong();
+        AylaDevice.DeviceChangeListener listener = new DeviceChangeCounter() {
+            @Override
+            public void deviceChanged(AylaDevice device, Change change) {
+                if (change instanceof PropertyChange) {
+                    AylaProperty property = device.getProperty(
+                            ((PropertyChange) change).getPropertyName());
+                    if (property != null &&
+                            property.getLastUpdateSource() == AylaDevice.DataSource.DSS) {
+                        changeCount.incrementAndGet();
+                    }
+                }
+            }
+        };
+        for (AylaDevice device : sessionManager.getDeviceManager().getDevices()) {
+            device.addListener(listener);
+        }
+
+        LoadReport report = new LoadReport("datastream", _context)
+                .parameter("devices", DATASTREAM_DEVICE_COUNT)
+                .parameter("messages_per_second", DATASTREAM_RATE);
+        report.begin();
+        _cloud.setDatastreamRate(DATASTREAM_RATE);
+        Thread.sleep(DATASTREAM_DURATION_MS);
+        _cloud.setDatastreamRate(0);
+        long sent = _cloud.getDatastreamMessageCount();
+        waitForCount(changeCount, sent);
+
+        report.count("messages sent", sent);
+        report.count("property changes", changeCount.get());
+        report.end();
+
+        assertEquals(sent, changeCount.get());
+        assertEquals(0, dsManager.getSequenceStats().getGapCount());
+        assertTrue(report.getHistogram(AylaMetricsRegistry.DSS_EVENT_LAG) != null);
+    }
+
+    /**
+     * Many sessions, each with a device in LAN mode, sending property updates to the app while
+     * the app writes datapoints to them
+     */
+    @Test
+    public void testLanSessions() throws Exception {
+        _lanNetwork = new SimulatedLanNetwork();
+        _lanNetwork.start();
+        for (int i = 0; i < LAN_SESSION_COUNT; i++) {
+            String dsn = CloudSimulator.dsn(i);
+            String lanipKey = "lanip-key-" + i;
+            _cloud.addDevice(lanEmail(i), dsn, LAN_PROPERTY_COUNT)
+                    .enableLan(SimulatedLanNetwork.LAN_IP, lanipKey, i + 1);
+            _lanNetwork.addModule(dsn, lanipKey, i + 1, LAN_COUNTER_PROPERTY);
+        }
+        _cloud.start();
+        initialize(LAN_PROPERTY_COUNT, false);
+
+        LoadReport report = new LoadReport("lan", _context)
+                .parameter("sessions", LAN_SESSION_COUNT)
+                .parameter("updates_per_second", LAN_UPDATE_RATE)
+                .parameter("writes_per_device", LAN_WRITES_PER_DEVICE);
+        report.begin();
+
+        // Bring up the sessions
+        final long start = System.currentTimeMillis();
+        final CountDownLatch lanActive = new CountDownLatch(LAN_SESSION_COUNT);
+        final AtomicLong updateCount = new AtomicLong();
+        List<AylaDevice> devices = new ArrayList<>();
+        for (int i = 0; i < LAN_SESSION_COUNT; i++) {
+            AylaSessionManager sessionManager = signIn(lanEmail(i), "lan-" + i);
+            AylaDevice device = sessionManager.getDeviceManager()
+                    .deviceWithDSN(CloudSimulator.dsn(i));
+            assertNotNull(device);
+            device.addListener(new DeviceChangeCounter() {
+                private boolean _active;
+
+                @Override
+                public void deviceChanged(AylaDevice device, Change change) {
+                    if (change instanceof PropertyChange && LAN_COUNTER_PROPERTY.equals(
+                            ((PropertyChange) change).getPropertyName())) {
+                        updateCount.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public synchronized void deviceLanStateChanged(AylaDevice device,
+                                                               boolean lanModeEnabled,
+                                                               AylaError error) {
+                    if (lanModeEnabled && !_active) {
+                        _active = true;
+                        AylaMetricsRegistry.sharedInstance().histogram(LAN_BRING_UP)
+                                .record(System.currentTimeMillis() - start);
+                        lanActive.countDown();
+                    }
+                }
+            });
+            devices.add(device);
+        }
+        for (AylaDevice device : devices) {
+            if (device.isLanModeActive()) {
+                // The session was up before the listener was added
+                lanActive.countDown();
+            }
+        }
+        assertTrue("LAN sessions did not start: " + lanActive.getCount() + " left",
+                lanActive.await(LAN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Updates from the modules
+        _lanNetwork.setUpdateRate(LAN_UPDATE_RATE);
+        Thread.sleep(LAN_UPDATE_DURATION_MS);
+        _lanNetwork.setUpdateRate(0);
+        long updatesSent = 0;
+        for (SimulatedLanModule module : _lanNetwork.getModules()) {
+            updatesSent += module.getUpdateCount();
+        }
+        waitForCount(updateCount, updatesSent);
+
+        // Writes from the app
+        final CountDownLatch writes = new CountDownLatch(LAN_SESSION_COUNT *
+                LAN_WRITES_PER_DEVICE);
+        final AtomicInteger writeErrors = new AtomicInteger();
+        for (AylaDevice device : devices) {
+            assertTrue(device.isLanModeActive());
+            AylaProperty<Integer> property = device.getProperty(LAN_WRITE_PROPERTY);
+            for (int i = 1; i <= LAN_WRITES_PER_DEVICE; i++) {
+                property.createDatapoint(i, null, new Response.Listener<AylaDatapoint<Integer>>() {
+                    @Override
+                    public void onResponse(AylaDatapoint<Integer> response) {
+                        writes.countDown();
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        Log.e(LOG_TAG, "LAN write failed: " + error);
+                        writeErrors.incrementAndGet();
+                        writes.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue("LAN writes did not complete",
+                writes.await(LAN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        report.count("key exchanges", _lanNetwork.getKeyExchangeCount());
+        report.count("updates sent", updatesSent);
+        report.count("updates received", updateCount.get());
+        report.count("commands", _lanNetwork.getCommandCount());
+        report.count("module datapoints", _lanNetwork.getDatapointCount());
+        report.end();
+
+        assertEquals(0, writeErrors.get());
+        assertEquals(0, _lanNetwork.getErrorCount());
+        assertEquals(updatesSent, updateCount.get());
+        assertEquals(0, _cloud.getRequestCount("POST /apiv1/dsns/{id}/properties/" +
+                LAN_WRITE_PROPERTY + "/datapoints.json"));
+    }
+
+    private void initialize(final int propertyCount, boolean allowDSS) {
+        AylaSystemSettings settings = new AylaSystemSettings();
+        settings.context = _context;
+        settings.appId = "simulator-id";
+        settings.appSecret = "simulator-secret";
+        settings.serviceLocation = AylaSystemSettings.ServiceLocation.USA;
+        settings.serviceType = AylaSystemSettings.ServiceType.Development;
+        settings.allowDSS = allowDSS;
+        settings.dssSubscriptionTypes = new String[]{
+                AylaDSSubscriptionTypeDatapoint.stringValue()};
+        settings.disableMetricsService = true;
+        settings.listenerExecutor = AylaListenerDelivery.background();
+        settings.deviceDetailProvider = new AylaSystemSettings.DeviceDetailProvider() {
+            @Override
+            public String[] getManagedPropertyNames(AylaDevice device) {
+                String[] names = new String[propertyCount];
+                for (int i = 0; i < propertyCount; i++) {
+                    names[i] = "prop_" + i;
+                }
+                return names;
+            }
+        };
+        AylaNetworks.initialize(settings);
+    }
+
+    /**
+     * Signs in and waits for the device manager of the new session to be ready
+     */
+    private AylaSessionManager signIn(String email, String sessionName) throws Exception {
+        RequestFuture<AylaAuthorization> future = RequestFuture.newFuture();
+        AylaNetworks.sharedInstance().getLoginManager().signIn(
+                new UsernameAuthProvider(email, PASSWORD), sessionName, future, future);
+        assertNotNull(future.get(SIGN_IN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        _sessionNames.add(sessionName);
+
+        AylaSessionManager sessionManager = AylaNetworks.sharedInstance()
+                .getSessionManager(sessionName);
+        assertNotNull(sessionManager);
+        final AylaDeviceManager deviceManager = sessionManager.getDeviceManager();
+        final CountDownLatch ready = new CountDownLatch(1);
+        AylaDeviceManager.DeviceManagerListener listener =
+                new AylaDeviceManager.DeviceManagerListener() {
+            @Override
+            public void deviceManagerInitComplete(Map<String, AylaError> deviceFailures) {
+                ready.countDown();
+            }
+
+            @Override
+            public void deviceManagerInitFailure(AylaError error,
+                                                 AylaDeviceManager.DeviceManagerState state) {
+                Log.e(LOG_TAG, "Device manager init failed in " + state + ": " + error);
+            }
+
+            @Override
+            public void deviceListChanged(ListChange change) {
+            }
+
+            @Override
+            public void deviceManagerError(AylaError error) {
+                Log.e(LOG_TAG, "Device manager error: " + error);
+            }
+
+            @Override
+            public void deviceManagerStateChanged(AylaDeviceManager.DeviceManagerState oldState,
+                                                  AylaDeviceManager.DeviceManagerState newState) {
+                if (newState == AylaDeviceManager.DeviceManagerState.Ready) {
+                    ready.countDown();
+                }
+            }
+        };
+        deviceManager.addListener(listener);
+        if (deviceManager.getState() == AylaDeviceManager.DeviceManagerState.Ready) {
+            ready.countDown();
+        }
+        if (!ready.await(INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            fail("Device manager of " + sessionName + " is " + deviceManager.getState());
+        }
+        deviceManager.removeListener(listener);
+        return sessionManager;
+    }
+
+    private void waitForDatastream(AylaDSManager dsManager) throws InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        dsManager.addListener(new AylaDSManager.DSManagerListener() {
+            @Override
+            public void dsManagerConnectionChanged(boolean isConnected) {
+                if (isConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        if (dsManager.isConnected()) {
+            connected.countDown();
+        }
+        assertTrue("Data stream did not connect",
+                connected.await(INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Waits for events still being delivered after the load has stopped
+     */
+    private static void waitForCount(AtomicLong count, long expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (count.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+    }
+
+    private long totalRequestCount() {
+        long count = 0;
+        for (Long endpointCount : _cloud.getRequestCounts().values()) {
+            count += endpointCount;
+        }
+        return count;
+    }
+
+    private static String lanEmail(int index) {
+        return "lan" + index + "@example.com";
+    }
+
+    /**
+     * DeviceChangeListener with empty implementations, for listeners interested in some
+     * changes only
+     */
+    private static class DeviceChangeCounter implements AylaDevice.DeviceChangeListener {
+        @Override
+        public void deviceChanged(AylaDevice device, Change change) {
+        }
+
+        @Override
+        public void deviceError(AylaDevice device, AylaError error) {
+        }
+
+        @Override
+        public void deviceLanStateChanged(AylaDevice device, boolean lanModeEnabled,
+                                          AylaError error) {
+        }
+    }
+}
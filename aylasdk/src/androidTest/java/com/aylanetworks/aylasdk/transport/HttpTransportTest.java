@@ -0,0 +1,244 @@
+package com.aylanetworks.aylasdk.transport;
+/*
+ * AylaSDK
+ *
+ * Copyright 2020 Ayla Networks, all rights reserved
+ */
+
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.RequestFuture;
+import com.android.volley.toolbox.StringRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local tests and throughput measurements of {@link AylaOkHttpTransport} against a
+ * MockWebServer. These tests do not need a cloud account.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HttpTransportTest {
+
+    private static final String LOG_TAG = "HttpTransportTest";
+
+    private static final int REQUEST_COUNT = 500;
+    private static final int QUEUE_THREAD_POOL_SIZE = 4;
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+    private static final String RESPONSE_BODY = "{\"device\":{\"dsn\":\"AC000W000000001\"}}";
+    private static final String ETAG = "\"devices-1\"";
+
+    private MockWebServer _server;
+    private final AtomicInteger _concurrentRequests = new AtomicInteger();
+    private final AtomicInteger _maxConcurrentRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        _server = new MockWebServer();
+        _server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int concurrent = _concurrentRequests.incrementAndGet();
+                int max;
+                while (concurrent > (max = _maxConcurrentRequests.get())) {
+                    if (_maxConcurrentRequests.compareAndSet(max, concurrent)) {
+                        break;
+                    }
+                }
+                try {
+                    if (request.getPath().startsWith("/slow")) {
+                        Thread.sleep(50);
+                    }
+                    if (request.getPath().startsWith("/empty")) {
+                        return new MockResponse().setResponseCode(204);
+                    }
+                    if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                        return new MockResponse().setResponseCode(304).setHeader("ETag", ETAG);
+                    }
+                    return new MockResponse().setResponseCode(200).setBody(RESPONSE_BODY);
+                } finally {
+                    _concurrentRequests.decrementAndGet();
+                }
+            }
+        });
+        _server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _server.shutdown();
+    }
+
+    @Test
+    public void testThroughputAndConnectionReuse() throws Exception {
+        AylaOkHttpTransport transport = new AylaOkHttpTransport.Builder().build();
+        RequestQueue queue = transport.newRequestQueue(QUEUE_THREAD_POOL_SIZE);
+        queue.start();
+
+        // Warm up the connection pool
+        runRequests(queue, "/warmup", QUEUE_THREAD_POOL_SIZE);
+
+        long start = System.nanoTime();
+        runRequests(queue, "/apiv1/devices.json", REQUEST_COUNT);
+        long elapsedNs = System.nanoTime() - start;
+        queue.stop();
+
+        AylaHttpTransport.Stats stats = transport.getStats();
+        double requestsPerSecond = REQUEST_COUNT / (elapsedNs / 1e9);
+        Log.i(LOG_TAG, String.format("%d requests in %d ms: %.0f requests/sec. %s",
+                REQUEST_COUNT, TimeUnit.NANOSECONDS.toMillis(elapsedNs), requestsPerSecond,
+                stats));
+
+        assertEquals(REQUEST_COUNT + QUEUE_THREAD_POOL_SIZE, stats.getRequestCount());
+        assertTrue("Too many connections: " + stats.getConnectionCount(),
+                stats.getConnectionCount() <= QUEUE_THREAD_POOL_SIZE);
+        assertTrue(stats.getReusedConnectionCount() >= REQUEST_COUNT);
+        transport.shutDown();
+    }
+
+    @Test
+    public void testQueuesShareConnections() throws Exception {
+        AylaOkHttpTransport transport = new AylaOkHttpTransport.Builder().build();
+        RequestQueue firstQueue = transport.newRequestQueue(1);
+        RequestQueue secondQueue = transport.newRequestQueue(1);
+        firstQueue.start();
+        secondQueue.start();
+
+        runRequests(firstQueue, "/apiv1/devices.json", 10);
+        runRequests(secondQueue, "/apiv1/devices.json", 10);
+        firstQueue.stop();
+        secondQueue.stop();
+
+        AylaHttpTransport.Stats stats = transport.getStats();
+        Log.i(LOG_TAG, "Shared queues: " + stats);
+        assertEquals(1, stats.getConnectionCount());
+        assertEquals(19, stats.getReusedConnectionCount());
+        transport.shutDown();
+    }
+
+    @Test
+    public void testPerHostConcurrencyLimit() throws Exception {
+        AylaOkHttpTransport transport = new AylaOkHttpTransport.Builder()
+                .setMaxRequestsForHost(_server.getHostName(), MAX_REQUESTS_PER_HOST)
+                .build();
+        RequestQueue queue = transport.newRequestQueue(8);
+        queue.start();
+
+        runRequests(queue, "/slow", 40);
+        queue.stop();
+
+        Log.i(LOG_TAG, "Max concurrent requests: " + _maxConcurrentRequests.get());
+        assertTrue(_maxConcurrentRequests.get() <= MAX_REQUESTS_PER_HOST);
+        transport.shutDown();
+    }
+
+    @Test
+    public void testResponsesWithoutBodyReleaseHostSlots() throws Exception {
+        final AylaOkHttpTransport transport = new AylaOkHttpTransport.Builder()
+                .setMaxRequestsForHost(_server.getHostName(), MAX_REQUESTS_PER_HOST)
+                .build();
+        final String url = _server.url("/apiv1/devices.json").toString();
+        final String emptyUrl = _server.url("/empty").toString();
+
+        // Poll an unchanged device list more times than there are slots for the host. Each
+        // poll would block forever if a 304 or 204 response kept its slot.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> polls = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int notModifiedCount = 0;
+                for (int i = 0; i < MAX_REQUESTS_PER_HOST * 4; i++) {
+                    NetworkResponse response = transport.getNetwork().performRequest(
+                            new StringRequest(Request.Method.GET, url, null, null) {
+                                @Override
+                                public Map<String, String> getHeaders() {
+                                    return Collections.singletonMap("If-None-Match", ETAG);
+                                }
+                            });
+                    if (response.notModified) {
+                        notModifiedCount++;
+                    }
+                    transport.getNetwork().performRequest(
+                            new StringRequest(Request.Method.GET, emptyUrl, null, null));
+                }
+                return notModifiedCount;
+            }
+        });
+
+        try {
+            assertEquals(MAX_REQUESTS_PER_HOST * 4, (int) polls.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            transport.shutDown();
+        }
+    }
+
+    @Test
+    public void testGzipRequestBodies() throws Exception {
+        AylaOkHttpTransport transport = new AylaOkHttpTransport.Builder()
+                .setGzipRequestBodies(true)
+                .build();
+        RequestQueue queue = transport.newRequestQueue(1);
+        queue.start();
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append("{\"datapoint\":{\"value\":").append(i).append("}},");
+        }
+        final byte[] body = builder.toString().getBytes("UTF-8");
+
+        RequestFuture<String> future = RequestFuture.newFuture();
+        StringRequest request = new StringRequest(Request.Method.POST,
+                _server.url("/apiv1/batch_datapoints.json").toString(), future, future) {
+            @Override
+            public byte[] getBody() {
+                return body;
+            }
+        };
+        queue.add(request);
+        future.get(10, TimeUnit.SECONDS);
+        queue.stop();
+
+        assertTrue(transport.getStats().getBytesSent() < body.length);
+        transport.shutDown();
+    }
+
+    private void runRequests(RequestQueue queue, String path, int count) throws Exception {
+        List<RequestFuture<String>> futures = new ArrayList<>(count);
+        String url = _server.url(path).toString();
+        for (int i = 0; i < count; i++) {
+            RequestFuture<String> future = RequestFuture.newFuture();
+            queue.add(new StringRequest(Request.Method.GET, url, future, future));
+            futures.add(future);
+        }
+        for (RequestFuture<String> future : futures) {
+            assertEquals(RESPONSE_BODY, future.get(30, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.aylanetworks.aylasdk;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Network;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Request;
@@ -16,6 +18,7 @@ import com.aylanetworks.aylasdk.lan.AylaHttpServer;
 import com.aylanetworks.aylasdk.metrics.AylaLatencyMetric;
 import com.aylanetworks.aylasdk.metrics.AylaMetric;
 import com.aylanetworks.aylasdk.metrics.AylaMetricsManager;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
 import com.aylanetworks.aylasdk.metrics.AylaUserDataGrant;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
@@ -57,6 +60,26 @@ public class AylaAPIRequest<T> extends Request<T> {
     protected NetworkResponse _networkResponse;
     protected long _networkResponseTimestamp = -1;
 
+    /**
+     * Set while this request is part of a coalesced network call.
+     * See {@link AylaRequestCoalescer}.
+     */
+    volatile AylaRequestCoalescer.Flight _coalescingFlight;
+
+    /**
+     * Priority class of a request. Interactive requests are those a user is waiting on, such as
+     * setting a property value. Background requests are made by the SDK on its own behalf, such
+     * as polling, and are only given part of the capacity of the device service request queue.
+     * See {@link AylaPriorityRequestQueue}.
+     */
+    public enum PriorityClass {
+        Interactive,
+        Background
+    }
+
+    protected PriorityClass _priorityClass = PriorityClass.Interactive;
+    protected long _deadline;
+
     public AylaAPIRequest(int method, String url, Map<String, String> headers, Class<T> clazz,
                           AylaSessionManager sessionManager,
                           Response.Listener<T> successListener,
@@ -99,6 +122,44 @@ public class AylaAPIRequest<T> extends Request<T> {
         return _errorListener;
     }
 
+    /**
+     * Sets the priority class of this request. Must be called before the request is sent.
+     * Requests are Interactive by default.
+     *
+     * @param priorityClass Priority class of the request
+     */
+    public void setPriorityClass(PriorityClass priorityClass) {
+        _priorityClass = priorityClass;
+    }
+
+    public PriorityClass getPriorityClass() {
+        return _priorityClass;
+    }
+
+    /**
+     * Sets a deadline for this request. If the request has not been sent on the network by the
+     * deadline, it fails with a TimeoutError instead of being sent. Must be called before the
+     * request is sent.
+     *
+     * @param timeoutMs Time from now in milliseconds after which the request should no longer
+     *                  be sent, or 0 for no deadline
+     */
+    public void setDeadlineMs(long timeoutMs) {
+        _deadline = timeoutMs > 0 ? SystemClock.elapsedRealtime() + timeoutMs : 0;
+    }
+
+    /**
+     * @return true if a deadline was set for this request and the deadline has passed
+     */
+    public boolean isExpired() {
+        return _deadline > 0 && SystemClock.elapsedRealtime() > _deadline;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return _priorityClass == PriorityClass.Background ? Priority.LOW : Priority.HIGH;
+    }
+
     /**
      * Sets a request as part of a chain of requests. This method should be called if a public
      * API method makes more than one API request to fulfill the original request. The requests
@@ -247,6 +308,11 @@ public class AylaAPIRequest<T> extends Request<T> {
             _chainedRequest.cancel();
         }
         super.cancel();
+
+        AylaRequestCoalescer.Flight flight = _coalescingFlight;
+        if (flight != null) {
+            flight.onRequestCanceled(this);
+        }
     }
 
     /**
@@ -264,6 +330,83 @@ public class AylaAPIRequest<T> extends Request<T> {
         return -1;
     }
 
+    /**
+     * Returns a Network that records the network time of each AylaAPIRequest it performs in the
+     * {@link AylaMetricsRegistry}, under the name returned from {@link #getMetricName()}. The
+     * time is recorded here rather than when the response is parsed, as most requests override
+     * parseNetworkResponse. Requests that fail or time out are recorded too, with the time until
+     * they failed, so that slow failures show in the latencies. Every request queue of the SDK
+     * performs its requests through one of these networks.
+     *
+     * @param network Network used to perform the requests
+     * @return the wrapped Network
+     */
+    public static Network meteredNetwork(final Network network) {
+        return new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                long start = SystemClock.elapsedRealtime();
+                NetworkResponse response = null;
+                try {
+                    response = network.performRequest(request);
+                    return response;
+                } finally {
+                    if (request instanceof AylaAPIRequest) {
+                        long timeMs = response != null ? response.networkTimeMs :
+                                SystemClock.elapsedRealtime() - start;
+                        AylaMetricsRegistry.sharedInstance()
+                                .histogram(((AylaAPIRequest<?>) request).getMetricName())
+                                .record(timeMs);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the name of the histogram in which the network time of this request is recorded in
+     * the {@link AylaMetricsRegistry}. Failed requests are counted under the same name followed
+     * by " errors".
+     *
+     * @return the metric name, made of the request method and endpoint template
+     */
+    protected String getMetricName() {
+        return AylaMetricsRegistry.CLOUD_REQUEST_PREFIX +
+                AylaMetricsRegistry.endpointTemplate(getMethodName(), getUrl());
+    }
+
+    /**
+     * @return the name of the HTTP method of this request
+     */
+    protected String getMethodName() {
+        switch (getMethod()) {
+            case Method.GET:
+                return "GET";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.DELETE:
+                return "DELETE";
+            case Method.HEAD:
+                return "HEAD";
+            case Method.OPTIONS:
+                return "OPTIONS";
+            case Method.TRACE:
+                return "TRACE";
+            case Method.PATCH:
+                return "PATCH";
+            default:
+                return "GET_OR_POST";
+        }
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        AylaMetricsRegistry.sharedInstance().counter(getMetricName() + " errors").increment();
+        super.deliverError(error);
+    }
+
     /**
      * Returns the time when the response was received from the network (before any local processing)
      * in milliseconds since Linux Epoch time (recorded with System.currentTimeMillis()).
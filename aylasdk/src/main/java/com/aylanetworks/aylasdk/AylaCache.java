@@ -9,28 +9,15 @@ import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
-import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Base64;
 
 import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.Security;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.zip.CRC32;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 /**
  * Android_Aura
  * <p/>
@@ -57,8 +44,6 @@ public class AylaCache {
     private final static String AYLA_CACHED_GROUP_PREFIX = "com.aylanetworks.aylasdk.group";
     private final static String AYLA_CACHED_NODE_PREFIX = "com.aylanetworks.aylasdk.node";
 
-    private final static String AYLA_CRYPTO_SPEC = "AES/CBC/PKCS5Padding";
-
     public enum CacheType {
         DEVICE,
         PROPERTY,
@@ -70,6 +55,7 @@ public class AylaCache {
 
     private boolean _isCachingEnabled;
     private WeakReference<AylaSessionManager> _sessionManagerRef;
+    private final AylaCacheCrypto _crypto = new AylaCacheCrypto();
 
     /**
      * Creates an AylaCache instance used to cache session data.
@@ -108,6 +94,11 @@ public class AylaCache {
                 .getSharedPreferences(AYLA_CACHE_KEY, Context.MODE_PRIVATE).edit();
         editor.clear();
         editor.apply();
+
+        AylaDeviceManager deviceManager = getDeviceManager();
+        if (deviceManager != null) {
+            deviceManager.deleteSnapshot();
+        }
     }
 
     /**
@@ -140,6 +131,20 @@ public class AylaCache {
             editor.putString(cacheKey, value);
         }
         editor.apply();
+
+        // Keep the device snapshot in step with the device, property and LAN config entries
+        if (!cacheKey.startsWith(getKey(CacheType.SETUP, null)) &&
+                !cacheKey.startsWith(getKey(CacheType.GROUP, null))) {
+            AylaDeviceManager deviceManager = getDeviceManager();
+            if (deviceManager != null) {
+                deviceManager.scheduleSnapshot();
+            }
+        }
+    }
+
+    private AylaDeviceManager getDeviceManager() {
+        AylaSessionManager sessionManager = _sessionManagerRef.get();
+        return sessionManager == null ? null : sessionManager.getDeviceManager();
     }
 
     private String encrypt(String data) {
@@ -147,32 +152,8 @@ public class AylaCache {
             return null;
         }
 
-        SecretKey key = getCryptoKey();
-        String result = null;
-        Charset utf8 = Charset.forName("UTF-8");
-        try {
-            if (key != null) {
-                Cipher cipher = Cipher.getInstance(AYLA_CRYPTO_SPEC);
-                cipher.init(Cipher.ENCRYPT_MODE, key, getInitializationVector());
-                byte[] encrypted = cipher.doFinal(data.getBytes(utf8));
-                result = Base64.toBase64String(encrypted);
-            }
-        } catch (InvalidKeyException e) {
-            AylaLog.e(LOG_TAG, "Invalid key trying to encrypt cache: " + e);
-        } catch (NoSuchAlgorithmException nsa) {
-            AylaLog.e(LOG_TAG, "No such algorithm trying to encrypt cache: " + nsa);
-        } catch (NoSuchPaddingException nsp) {
-            AylaLog.e(LOG_TAG, "No such padding trying to encrypt cache: " + nsp);
-        } catch (IllegalBlockSizeException ibs) {
-            AylaLog.e(LOG_TAG, "Illegal block size trying to encrypt cache: " + ibs);
-        } catch (BadPaddingException bpe) {
-            AylaLog.e(LOG_TAG, "Bad padding exception trying to encrypt cache: " + bpe);
-        } catch (InvalidAlgorithmParameterException iap) {
-            AylaLog.e(LOG_TAG, "Invalid parameter exception trying to encrypt cache: " + iap);
-        }
-
-
-        return result;
+        byte[] encrypted = encryptBytes(data.getBytes(Charset.forName("UTF-8")));
+        return encrypted == null ? null : Base64.toBase64String(encrypted);
     }
 
     private String decrypt(String data) {
@@ -180,69 +161,38 @@ public class AylaCache {
             return null;
         }
 
-        SecretKey key = getCryptoKey();
-        String result = null;
-        try {
-            if (key != null) {
-                Cipher cipher = Cipher.getInstance(AYLA_CRYPTO_SPEC);
-                cipher.init(Cipher.DECRYPT_MODE, key, getInitializationVector());
-                byte[] encryptedData = Base64.decode(data);
-                byte[] decrypted = cipher.doFinal(encryptedData);
-                result = new String(decrypted, Charset.forName("UTF-8"));
-            }
-        } catch (InvalidKeyException e) {
-            AylaLog.e(LOG_TAG, "Invalid key trying to decrypt cache: " + e);
-        } catch (NoSuchAlgorithmException nsa) {
-            AylaLog.e(LOG_TAG, "No such algorithm trying to decrypt cache: " + nsa);
-        } catch (NoSuchPaddingException nsp) {
-            AylaLog.e(LOG_TAG, "No such padding trying to decrypt cache: " + nsp);
-        } catch (IllegalBlockSizeException ibs) {
-            AylaLog.e(LOG_TAG, "Illegal block size trying to decrypt cache: " + ibs);
-        } catch (BadPaddingException bpe) {
-            AylaLog.e(LOG_TAG, "Bad padding exception trying to decrypt cache: " + bpe);
-        } catch (InvalidAlgorithmParameterException ipe) {
-            AylaLog.e(LOG_TAG, "Invalid parameter exception trying to decrypt cache: " + ipe);
-        }
-
-        return result;
+        byte[] decrypted = decryptBytes(Base64.decode(data));
+        return decrypted == null ? null : new String(decrypted, Charset.forName("UTF-8"));
     }
 
     /**
-     * Returns a SecretKey used to encrypt / decrypt LAN config data. This key is based on a hash
-     * of the authorization object used for the session.
-     * @return a SecretKey used for encrypting / decrypting LAN config data.
+     * Encrypts data with the key of the current session, as LAN config data is encrypted.
+     *
+     * @param data Data to encrypt
+     * @return the encrypted data, or null if the data could not be encrypted
      */
-    private SecretKey getCryptoKey() {
-        SHA256Digest digest = new SHA256Digest();
-        byte[] keyData = _sessionManagerRef.get().getAuthHeaderValue().getBytes();
-        byte[] output = new byte[digest.getDigestSize()];
-        digest.update(keyData, 0, keyData.length);
-        digest.doFinal(output, 0);
-
-        byte[] rawKey = Arrays.copyOf(output, 16); // Only 16 bytes are used for the key
-        return new SecretKeySpec(rawKey, "AES");
+    byte[] encryptBytes(byte[] data) {
+        return _crypto.encrypt(getAuthHeaderValue(), data);
     }
 
     /**
-     * Generates an IV for crypto operations. Note that this is based off of the session's
-     * authorization token, similar to the key. This is not a secure way of generating an IV, but
-     * it will work for our purposes.
+     * Decrypts data encrypted by {@link #encryptBytes(byte[])} with the key of the current
+     * session. Data encrypted by earlier versions of the SDK is also decrypted.
      *
-     * @return the IV required for crypto operations
+     * @param data Data to decrypt
+     * @return the decrypted data, or null if the data could not be decrypted
+     */
+    byte[] decryptBytes(byte[] data) {
+        return _crypto.decrypt(getAuthHeaderValue(), data);
+    }
+
+    /**
+     * Returns the authorization header value of the session, from which the keys used to
+     * encrypt / decrypt LAN config data are derived.
      */
-    private IvParameterSpec getInitializationVector() {
-        byte iv[] = new byte[16];
-        SHA256Digest digest = new SHA256Digest();
-        byte[] data = _sessionManagerRef.get().getAuthHeaderValue().getBytes();
-        digest.update(data, 0, data.length);
-        data = "lanconfig-iv-salt".getBytes();
-        digest.update(data, 0, data.length);
-
-        byte[] hashData = new byte[digest.getDigestSize()];
-        digest.doFinal(hashData, 0);
-
-        // Use 16 bytes of the hash for the IV
-        return new IvParameterSpec(Arrays.copyOf(hashData, 16));
+    private String getAuthHeaderValue() {
+        AylaSessionManager sessionManager = _sessionManagerRef.get();
+        return sessionManager == null ? null : sessionManager.getAuthHeaderValue();
     }
 
     /**
@@ -0,0 +1,211 @@
+package com.aylanetworks.aylasdk;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Encrypts and decrypts the LAN config data stored by the AylaCache, with keys derived from the
+ * authorization of the session that stored it.
+ * <p>
+ * Data is encrypted with AES-GCM using a random nonce, in a versioned envelope:
+ * <pre>
+ *     [version (1 byte)] [nonce (12 bytes)] [ciphertext] [tag (16 bytes)]
+ * </pre>
+ * Entries written by earlier versions of the SDK were encrypted with AES-CBC using a key and IV
+ * that were both derived from the authorization. These entries carry no envelope, and are still
+ * decrypted if the data does not open as an envelope.
+ * <p>
+ * Key material is derived once for each authorization header value and reused until the
+ * authorization changes, and Cipher instances are reused on each thread.
+ */
+class AylaCacheCrypto {
+    private static final String LOG_TAG = "CacheCrypto";
+
+    private static final String LEGACY_CRYPTO_SPEC = "AES/CBC/PKCS5Padding";
+    private static final String CRYPTO_SPEC = "AES/GCM/NoPadding";
+
+    /**
+     * Version byte of the AES-GCM envelope
+     */
+    static final byte ENVELOPE_VERSION_GCM = 2;
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int KEY_LENGTH = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Cipher> __gcmCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return newCipher(CRYPTO_SPEC);
+        }
+    };
+
+    private static final ThreadLocal<Cipher> __legacyCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return newCipher(LEGACY_CRYPTO_SPEC);
+        }
+    };
+
+    private final SecureRandom _random = new SecureRandom();
+    private volatile KeyMaterial _keyMaterial;
+
+    /**
+     * Encrypts data into an AES-GCM envelope.
+     *
+     * @param authHeaderValue Authorization header value of the session
+     * @param data Data to encrypt
+     * @return the envelope, or null if the data could not be encrypted
+     */
+    byte[] encrypt(String authHeaderValue, byte[] data) {
+        Cipher cipher = __gcmCipher.get();
+        if (authHeaderValue == null || cipher == null) {
+            return null;
+        }
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        _random.nextBytes(nonce);
+
+        byte[] envelope = new byte[1 + NONCE_LENGTH + data.length + TAG_LENGTH];
+        envelope[0] = ENVELOPE_VERSION_GCM;
+        System.arraycopy(nonce, 0, envelope, 1, NONCE_LENGTH);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, getKeyMaterial(authHeaderValue).key,
+                    new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.doFinal(data, 0, data.length, envelope, 1 + NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            AylaLog.e(LOG_TAG, "Exception trying to encrypt cache: " + e);
+            return null;
+        }
+        return envelope;
+    }
+
+    /**
+     * Decrypts data encrypted by {@link #encrypt(String, byte[])}, or by the AES-CBC scheme used
+     * by earlier versions of the SDK.
+     *
+     * @param authHeaderValue Authorization header value of the session that encrypted the data
+     * @param data Data to decrypt
+     * @return the decrypted data, or null if the data could not be decrypted
+     */
+    byte[] decrypt(String authHeaderValue, byte[] data) {
+        if (authHeaderValue == null) {
+            return null;
+        }
+
+        KeyMaterial keyMaterial = getKeyMaterial(authHeaderValue);
+        if (data.length >= 1 + NONCE_LENGTH + TAG_LENGTH && data[0] == ENVELOPE_VERSION_GCM) {
+            Cipher cipher = __gcmCipher.get();
+            if (cipher == null) {
+                return null;
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, keyMaterial.key,
+                        new GCMParameterSpec(TAG_LENGTH * 8, data, 1, NONCE_LENGTH));
+                return cipher.doFinal(data, 1 + NONCE_LENGTH, data.length - 1 - NONCE_LENGTH);
+            } catch (AEADBadTagException e) {
+                // Not an envelope, but legacy data that happens to start with the version byte
+            } catch (GeneralSecurityException e) {
+                AylaLog.e(LOG_TAG, "Exception trying to decrypt cache: " + e);
+                return null;
+            }
+        }
+
+        // AES-CBC output is always a whole number of blocks
+        if (data.length == 0 || data.length % 16 != 0) {
+            AylaLog.e(LOG_TAG, "Unable to decrypt cache entry of " + data.length + " bytes");
+            return null;
+        }
+        return decryptLegacy(keyMaterial, data);
+    }
+
+    private byte[] decryptLegacy(KeyMaterial keyMaterial, byte[] data) {
+        Cipher cipher = __legacyCipher.get();
+        if (cipher == null) {
+            return null;
+        }
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, keyMaterial.legacyKey, keyMaterial.legacyIv);
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            AylaLog.e(LOG_TAG, "Exception trying to decrypt legacy cache: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key material for the given authorization, deriving it only if the
+     * authorization has changed since the last call.
+     */
+    private KeyMaterial getKeyMaterial(String authHeaderValue) {
+        KeyMaterial keyMaterial = _keyMaterial;
+        if (keyMaterial == null || !keyMaterial.authHeaderValue.equals(authHeaderValue)) {
+            keyMaterial = new KeyMaterial(authHeaderValue);
+            _keyMaterial = keyMaterial;
+        }
+        return keyMaterial;
+    }
+
+    private static Cipher newCipher(String spec) {
+        try {
+            return Cipher.getInstance(spec);
+        } catch (GeneralSecurityException e) {
+            AylaLog.e(LOG_TAG, "Unable to create cipher " + spec + ": " + e);
+            return null;
+        }
+    }
+
+    private static byte[] sha256(byte[]... parts) {
+        SHA256Digest digest = new SHA256Digest();
+        for (byte[] part : parts) {
+            digest.update(part, 0, part.length);
+        }
+        byte[] output = new byte[digest.getDigestSize()];
+        digest.doFinal(output, 0);
+        return output;
+    }
+
+    /**
+     * Keys derived from an authorization header value
+     */
+    private static class KeyMaterial {
+        final String authHeaderValue;
+        final SecretKey key;
+        final SecretKey legacyKey;
+        final IvParameterSpec legacyIv;
+
+        KeyMaterial(String authHeaderValue) {
+            this.authHeaderValue = authHeaderValue;
+            byte[] authBytes = authHeaderValue.getBytes(UTF8);
+
+            // The legacy key and IV are derived exactly as earlier versions of the SDK did
+            legacyKey = new SecretKeySpec(Arrays.copyOf(sha256(authBytes), KEY_LENGTH), "AES");
+            legacyIv = new IvParameterSpec(Arrays.copyOf(sha256(authBytes,
+                    "lanconfig-iv-salt".getBytes(UTF8)), 16));
+
+            // The GCM key is kept separate from the legacy key
+            key = new SecretKeySpec(Arrays.copyOf(sha256(authBytes,
+                    "lanconfig-gcm-key".getBytes(UTF8)), KEY_LENGTH), "AES");
+        }
+    }
+}
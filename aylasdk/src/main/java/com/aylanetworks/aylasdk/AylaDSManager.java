@@ -8,14 +8,10 @@ import android.os.Looper;
 import android.util.Log;
 
 import com.android.volley.AuthFailureError;
-import com.android.volley.Cache;
 import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response.Listener;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.HurlStack;
 import com.aylanetworks.aylasdk.AylaAPIRequest.EmptyResponse;
 import com.aylanetworks.aylasdk.AylaDevice.DataSource;
 import com.aylanetworks.aylasdk.change.ListChange;
@@ -25,6 +21,11 @@ import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.error.PreconditionError;
 import com.aylanetworks.aylasdk.lan.AylaHttpServer;
 import com.aylanetworks.aylasdk.localdevice.ble.AylaBLEDevice;
+import com.aylanetworks.aylasdk.metrics.AylaLatencyMetric;
+import com.aylanetworks.aylasdk.metrics.AylaMetric;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsManager;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+import com.aylanetworks.aylasdk.metrics.AylaUserDataGrant;
 import com.aylanetworks.aylasdk.util.ObjectUtils;
 import com.aylanetworks.aylasdk.util.ServiceUrls;
 import com.google.gson.Gson;
@@ -35,14 +36,19 @@ import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import io.crossbar.autobahn.websocket.WebSocketConnection;
 import io.crossbar.autobahn.websocket.exceptions.WebSocketException;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocket;
 import io.crossbar.autobahn.websocket.interfaces.IWebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.nio.NioWebSocketConnection;
 import io.crossbar.autobahn.websocket.types.ConnectionResponse;
 
 import static com.aylanetworks.aylasdk.AylaDSSubscription.Wrapper;
@@ -65,24 +71,26 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     final private static String LOG_TAG = "DSS_LOGS";
     final private static String NO_DEVICES_ERROR="Device List empty";
     final private static int DEFAULT_RETRY_INTERVAL_MS = 3000;
-    final private static String DS_NAME = "ANDROID_DSS";
-    final private static String DS_DESCRIPTION = "DATAPOINT";
+    final private static int DSS_THREAD_POOL_SIZE = 2;
+    final static String DS_NAME = "ANDROID_DSS";
+    final static String DS_DESCRIPTION = "DATAPOINT";
     final private static String CONNECTIVITY_EVENT = "connectivity";
     final private static String DATAPOINT_EVENT = "datapoint";
     final private static String DATAPOINT_ACK_EVENT = "datapointack";
     final private static String KEY_DSS_PREFS = "com.aylanetworks.aylasdk.ayladsmanager";
     final private static String KEY_DSS_SUBSCRIPTION = "key_dss_subscription";
-    final private static String KEEP_ALIVE = "1|X";
-    final private static String HEARTBEAT = "1|Z";
-    final private static int DEFAULT_HEARTBEAT_COUNT = 3;
-    final private static int DEFAULT_HEARTBEAT_INTERVAL_MS = 30000;
+    final static String KEEP_ALIVE = "1|X";
+    final static String HEARTBEAT = "1|Z";
+    final static int DEFAULT_HEARTBEAT_COUNT = 3;
+    final static int DEFAULT_HEARTBEAT_INTERVAL_MS = 30000;
+    final private static int RESYNC_DELAY_MS = 500;
     private boolean _updateFailed = false; //To handle disconnect() called when update fails.
 
     public AylaDSSubscription getAylaSubscription() {
         return _aylaSubscription;
     }
     private AylaDSSubscription _aylaSubscription;
-    private WebSocketConnection _aylaWebSocketConn;
+    private IWebSocket _aylaWebSocketConn;
     private int _subscriptionRetryCount; //retry count for failed subscription CRUD
     private int _connectRetryCount; //retry count for socket connect
     private boolean _pausedState; //To check paused state of DSSManager
@@ -112,12 +120,61 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
      * Set of DSManagerListeners to be notified of changes
      */
     final private Set<DSManagerListener> _dsManagerListeners;
+    final private Set<ConnectivityEventListener> _connectivityEventListeners =
+            new CopyOnWriteArraySet<>();
 
     /**
      * Subscription types from AylaSystemSettings
      */
     private String[] _subscriptionTypeList;
 
+    /**
+     * Stream key of the websocket connection, used to track message sequence numbers
+     */
+    private String _streamKey;
+
+    /**
+     * Detects messages missed within a stream or while disconnected
+     */
+    final private AylaDSSequenceTracker _sequenceTracker = new AylaDSSequenceTracker();
+
+    /**
+     * DSNs of devices to be resynced after a gap in the stream. Gaps detected close together
+     * are resynced together.
+     */
+    final private Set<String> _resyncDsns = new HashSet<>();
+    private Handler _resyncHandler;
+    private final Runnable _resyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            resyncDevices();
+        }
+    };
+
+    /**
+     * Decides when to retry lost connections and failed subscriptions, and measures reconnect
+     * latency
+     */
+    final private AylaDSReconnectPolicy _reconnectPolicy = new AylaDSReconnectPolicy();
+
+    /**
+     * Set when we close the websocket ourselves, so that its closing is not treated as a lost
+     * connection
+     */
+    private boolean _closeRequested;
+
+    /**
+     * Set when we close a websocket that stopped receiving heartbeats, which is to be
+     * reconnected once closed
+     */
+    private boolean _reconnectAfterClose;
+
+    /**
+     * Spreads the devices over several subscriptions when AylaSystemSettings.dssShardSize is
+     * set, in which case it is used instead of _aylaSubscription and _aylaWebSocketConn
+     */
+    private AylaDSShardManager _shardManager;
+
     public void addListener(DSManagerListener listener){
         _dsManagerListeners.add(listener);
     }
@@ -126,6 +183,20 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         _dsManagerListeners.remove(listener);
     }
 
+    /**
+     * Adds a listener to be notified of the connectivity events received on the stream, including
+     * those of devices the device manager does not know about yet, such as a device being set up.
+     *
+     * @param listener Listener to add
+     */
+    public void addConnectivityEventListener(ConnectivityEventListener listener) {
+        _connectivityEventListeners.add(listener);
+    }
+
+    public void removeConnectivityEventListener(ConnectivityEventListener listener) {
+        _connectivityEventListeners.remove(listener);
+    }
+
     public enum DSManagerState {
         Uninitialized,              // Initial state of the DSmanager
         Initialized,                // DSManager is initialized, and subscription is getting
@@ -169,13 +240,12 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         enableRetrySubscription();
         _retryHandler = new Handler(getContext().getMainLooper());
 
-        // Create and start DSS request queue
-        Cache cache = new DiskBasedCache(getContext().getCacheDir(), 1024 * 1024);
-        // Set up the HTTPURLConnection network stack
-        Network network = new BasicNetwork(new HurlStack());
-        _dssRequestQueue = new RequestQueue(cache, network);
+        // Create and start DSS request queue on the shared transport
+        _dssRequestQueue = AylaNetworks.sharedInstance().getHttpTransport()
+                .newRequestQueue(DSS_THREAD_POOL_SIZE);
         _dssRequestQueue.start();
         _heartbeatHandler = new Handler(Looper.getMainLooper());
+        _resyncHandler = new Handler(Looper.getMainLooper());
         _heartbeatRunnable = new Runnable() {
             @Override
             public void run() {
@@ -183,6 +253,8 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                 _heartbeatCounter--;
                 AylaLog.d(LOG_TAG, "_heartbeatCounter "+_heartbeatCounter);
                 if(_heartbeatCounter < 0){
+                   AylaLog.i(LOG_TAG, "Heartbeats missed, reconnecting");
+                   _reconnectAfterClose = true;
                    disconnectSocket();
                 } else{
                     _heartbeatHandler.postDelayed(this, DEFAULT_HEARTBEAT_INTERVAL_MS);
@@ -191,7 +263,7 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
             }
         };
         getDeviceManager().addListener(this);
-        _dsManagerListeners = new HashSet<>();
+        _dsManagerListeners = new CopyOnWriteArraySet<>();
         _state = DSManagerState.Uninitialized;
         _subscriptionTypeList = AylaNetworks.sharedInstance().getSystemSettings().dssSubscriptionTypes;
         if(_subscriptionTypeList == null || _subscriptionTypeList.length == 0){
@@ -227,6 +299,44 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         return (_state == DSManagerState.Connected);
     }
 
+    /**
+     * Returns true if updates for the device with the given DSN are being received. When the
+     * devices are spread over several subscriptions, this is the case if the websocket of the
+     * device's subscription is connected, even though others may not be.
+     *
+     * @param dsn DSN of the device
+     * @return true if the device's stream is connected
+     */
+    public boolean isConnected(String dsn) {
+        if (_shardManager != null) {
+            return _shardManager.isConnected(dsn);
+        }
+        return isConnected();
+    }
+
+    /**
+     * Returns true if the device with the given DSN is part of the subscriptions of this
+     * manager and its stream is connected, so that its connectivity events are being received.
+     * Devices not yet in the device list, such as devices being set up or registered, are not.
+     *
+     * @param dsn DSN of the device
+     * @return true if events of the device are being received
+     */
+    public boolean isSubscribed(String dsn) {
+        AylaDeviceManager deviceManager = getDeviceManager();
+        return deviceManager != null && deviceManager.deviceWithDSN(dsn) != null &&
+                isConnected(dsn);
+    }
+
+    /**
+     * Returns true if datapoint acks of the device with the given DSN are being received, in
+     * which case they need not be polled for.
+     */
+    boolean isAckStreamConnected(String dsn) {
+        return isConnected(dsn) &&
+                Arrays.asList(_subscriptionTypeList).contains(DATAPOINT_ACK_EVENT);
+    }
+
     public boolean isConnecting(){
         return (_state == DSManagerState.Connecting);
     }
@@ -281,23 +391,33 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
 
 
     /**
-     * Internal method used to retry connection to websocket.
+     * Internal method used to reconnect after the websocket connection was lost, after a delay
+     * given by the reconnect policy.
      */
-    private void retrySocketConnection() {
-        Log.d(LOG_TAG, "retrySocketConnection retryCount " + _subscriptionRetryCount);
-        if (_connectRetryCount > 0) {
-            disableRetryConnect();
-            _retryHandler.removeCallbacksAndMessages(null);
-            _retryHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    AylaLog.v(LOG_TAG, "Retry websocket connection");
-                    if(_aylaSubscription != null){
-                        connectToSocket(_aylaSubscription.getStreamKey());
-                    }
-                }
-            }, getRetryInterval());
+    private void scheduleReconnect() {
+        long delay = _reconnectPolicy.nextRetryDelayMs();
+        if (delay < 0) {
+            AylaLog.i(LOG_TAG, "Not reconnecting until the network changes or the app resumes");
+            return;
         }
+        AylaLog.d(LOG_TAG, "Reconnecting in " + delay + "ms, attempt " +
+                _reconnectPolicy.getAttemptCount());
+        _retryHandler.removeCallbacksAndMessages(null);
+        _retryHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (_pausedState || isConnected() || isConnecting()) {
+                    return;
+                }
+                if (_aylaWebSocketConn != null) {
+                    // The previous connection has not finished closing yet
+                    scheduleReconnect();
+                    return;
+                }
+                AylaLog.v(LOG_TAG, "Retry websocket connection");
+                resume();
+            }
+        }, delay);
     }
 
     /**
@@ -306,6 +426,14 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     private void retryCreateSubscription() {
         Log.d(LOG_TAG, "retryCreateSubscription retryCount " + _subscriptionRetryCount);
         if (_subscriptionRetryCount > 0) {
+            long delay = _reconnectPolicy.nextRetryDelayMs();
+            if (delay < 0) {
+                AylaLog.d(LOG_TAG, "Giving up creating subscription");
+                disableRetrySubscription();
+                _state = DSManagerState.Disconnected;
+                notifyDsChange(false);
+                return;
+            }
             _retryHandler.removeCallbacksAndMessages(null);
             _retryHandler.postDelayed(new Runnable() {
                 @Override
@@ -325,16 +453,47 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                                 public void onErrorResponse(AylaError error) {
                                     AylaLog.d(LOG_TAG, "Retry createSubscription failed. error" +
                                             error);
-                                    disableRetrySubscription();
-                                    _state = DSManagerState.Disconnected;
-                                    notifyDsChange(false);
+                                    retryCreateSubscription();
                                 }
                             });
                 }
-            }, getRetryInterval());
+            }, delay);
         }
     }
 
+    /**
+     * Returns counters of the message gaps detected on the stream and of the resyncs performed
+     * to recover from them.
+     *
+     * @return the current sequence tracking Stats
+     */
+    public AylaDSSequenceTracker.Stats getSequenceStats() {
+        return _sequenceTracker.getStats();
+    }
+
+    /**
+     * Returns the histogram of the time taken to reconnect after the stream was lost.
+     *
+     * @return the current reconnect Stats
+     */
+    public AylaDSReconnectPolicy.Stats getReconnectStats() {
+        return _reconnectPolicy.getStats();
+    }
+
+    /**
+     * Returns the health and throughput figures of each subscription the devices are spread
+     * over, if AylaSystemSettings.dssShardSize is set.
+     *
+     * @return Stats of each shard, or an empty list if the devices are not sharded
+     */
+    public List<AylaDSShard.Stats> getShardStats() {
+        AylaDSShardManager shardManager = _shardManager;
+        if (shardManager == null) {
+            return new ArrayList<>();
+        }
+        return shardManager.getStats();
+    }
+
     /**
      * Returns the current state of the DSManager.
      *
@@ -374,6 +533,19 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         if(deviceList != null && deviceList.size() > 0){
             deviceDSNs = getDeviceDSNs(deviceList);
         }
+        return createSubscription(name, description, deviceDSNs, true, successListener,
+                errorListener);
+    }
+
+    /**
+     * Internal method to create a subscription for a comma separated list of DSNs.
+     * @param saveStreamKey true to save the stream key of the new subscription, so that it can
+     *                      be used to connect if the app is restarted before it has connected.
+     */
+    AylaAPIRequest createSubscription(String name, String description, String deviceDSNs,
+                                      final boolean saveStreamKey,
+                                      final Listener<AylaDSSubscription> successListener,
+                                      ErrorListener errorListener){
         String url = mdssRESTServiceUrl("api/v1/subscriptions");
         String subscriptionTypes = ObjectUtils.getDelimitedString(_subscriptionTypeList, ",");
         final JSONObject jsonObject = new JSONObject();
@@ -399,7 +571,7 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                 new Listener<Wrapper>(){
                     @Override
                     public void onResponse(Wrapper response) {
-                        if(response.subscription != null){
+                        if(saveStreamKey && response.subscription != null){
                             // Save subscription key to get mitigate issue -
                             // https://aylanetworks.atlassian.net/browse/JVS-480 . The key will
                             // be deleted once it is used to open to a websocket connection.
@@ -442,7 +614,16 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
             errorListener.onErrorResponse(new PreconditionError(NO_DEVICES_ERROR));
             return null;
         }
-        String deviceDSNs = getDeviceDSNs(deviceList);
+        return updateSubscription(subscription, getDeviceDSNs(deviceList), successListener,
+                errorListener);
+    }
+
+    /**
+     * Internal method to update the DSNs of a subscription to a comma separated list.
+     */
+    AylaAPIRequest updateSubscription(AylaDSSubscription subscription, String deviceDSNs,
+                                      final Listener<AylaDSSubscription> successListener,
+                                      ErrorListener errorListener){
         String url = mdssRESTServiceUrl("api/v1/subscriptions");
         String subscriptionTypes = ObjectUtils.getDelimitedString(_subscriptionTypeList, ",");
         final JSONObject jsonObject = new JSONObject();
@@ -577,20 +758,13 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                 // check if app is not paused in between
                 if (getDeviceManager().getState()!= DeviceManagerState.Paused) {
                     _state = DSManagerState.Connecting;
-                    _aylaWebSocketConn = new WebSocketConnection();
-                    String url = datastreamServiceUrl("");
-                    url += "stream?stream_key="+stream_key;
-                    url = url.replaceFirst("https", "wss"); //Todo: This will  be changed in the service
-                    Log.d(LOG_TAG, "connectToSocket url " + url);
-                    try {
-                        // connection status is received in onOpen() or onClose() methods in
-                        // WebSocketCOnnectionObserver interface. DSSManager state changes are notified to
-                        // all listeners in these methods.
-                        _aylaWebSocketConn.connect(url, AylaDSManager.this);
-                    } catch (WebSocketException e) {
-                        Log.d(LOG_TAG, "Exception in connectToSocket() "+e.getMessage());
-                        onClose(IWebSocketConnectionHandler.CLOSE_INTERNAL_ERROR, "exception "+e);
-                    }
+                    _streamKey = stream_key;
+                    _closeRequested = false;
+                    _aylaWebSocketConn = newWebSocket();
+                    // connection status is received in onOpen() or onClose() methods in
+                    // WebSocketCOnnectionObserver interface. DSSManager state changes are notified to
+                    // all listeners in these methods.
+                    connectWebSocket(_aylaWebSocketConn, stream_key, AylaDSManager.this);
                 }
             }
         };
@@ -598,6 +772,44 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         _connectHandler.post(r);
     }
 
+    /**
+     * Internal method to open a websocket for a subscription stream on the connect thread. The
+     * handler is notified of the result in onOpen() or onClose().
+     *
+     * @return the websocket being connected
+     */
+    IWebSocket openWebSocket(final String streamKey, final IWebSocketConnectionHandler handler) {
+        final IWebSocket connection = newWebSocket();
+        _connectHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                connectWebSocket(connection, streamKey, handler);
+            }
+        });
+        return connection;
+    }
+
+    private IWebSocket newWebSocket() {
+        if (AylaNetworks.sharedInstance().getSystemSettings().useSharedWebSocketSelector) {
+            return new NioWebSocketConnection();
+        }
+        return new WebSocketConnection();
+    }
+
+    private void connectWebSocket(IWebSocket connection, String streamKey,
+                                  IWebSocketConnectionHandler handler) {
+        String url = datastreamServiceUrl("");
+        url += "stream?stream_key="+streamKey;
+        url = url.replaceFirst("https", "wss"); //Todo: This will  be changed in the service
+        Log.d(LOG_TAG, "connectToSocket url " + url);
+        try {
+            connection.connect(url, handler);
+        } catch (WebSocketException e) {
+            Log.d(LOG_TAG, "Exception in connectToSocket() "+e.getMessage());
+            handler.onClose(IWebSocketConnectionHandler.CLOSE_INTERNAL_ERROR, "exception "+e);
+        }
+    }
+
     /**
      * Internal method to disconnect from websocket
      */
@@ -607,6 +819,7 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         disableRetryConnect();
 
         if(_aylaWebSocketConn != null){
+            _closeRequested = true;
             _aylaWebSocketConn.sendClose();
         }
         _state = DSManagerState.Disconnected;
@@ -625,12 +838,32 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         _state = DSManagerState.Connected;
         // If onOpen is called from a retry method, it should be set back to enabled here.
         enableRetryConnect();
+        long reconnectLatency = _reconnectPolicy.connected();
+        if (reconnectLatency >= 0) {
+            publishReconnectLatency(reconnectLatency, _reconnectPolicy.getStats());
+        }
         notifyDsChange(true);
-        //Fetch properties and stop polling if not in LAN mode
-        dataSourceChanged();
+        streamOpened(_streamKey, getDeviceManager().getDevices());
         startHeartBeatRunnable();
     }
 
+    /**
+     * Internal method called when the websocket of a stream has opened.
+     *
+     * @param streamKey Stream key of the subscription
+     * @param devices Devices served by the stream
+     */
+    void streamOpened(String streamKey, List<AylaDevice> devices) {
+        if (_sequenceTracker.streamOpened(streamKey)) {
+            // The devices are not polled while disconnected, and a device that changed then
+            // may send no further message, so resync the devices served by the stream
+            scheduleResync(devices);
+        } else {
+            //Fetch properties and stop polling if not in LAN mode
+            dataSourceChanged(devices);
+        }
+    }
+
     /**
      * Fired when the WebSockets connection has deceased (or could be
      * not established in the first place).
@@ -643,6 +876,9 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         Log.d(LOG_TAG, "onClose() code: "+code);
         Log.d(LOG_TAG, "onClose() reason: "+reason);
         Log.d(LOG_TAG, "onClose() retryCount: "+ _subscriptionRetryCount);
+        boolean reconnect = !_pausedState && (!_closeRequested || _reconnectAfterClose);
+        _closeRequested = false;
+        _reconnectAfterClose = false;
         _aylaWebSocketConn = null;
         _state = DSManagerState.Disconnected;
         notifyDsChange(false);
@@ -657,6 +893,34 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                }
                break;
        }
+
+       if (reconnect) {
+           _reconnectPolicy.disconnected();
+           scheduleReconnect();
+       } else {
+           _reconnectPolicy.reset();
+       }
+    }
+
+    /**
+     * Logs the time taken to reconnect along with the reconnect latency histogram, and sends
+     * them to the metrics service.
+     */
+    void publishReconnectLatency(long latencyMs, AylaDSReconnectPolicy.Stats stats) {
+        AylaLog.i(LOG_TAG, "Reconnected in " + latencyMs + "ms. " + stats);
+
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        if (networks != null && networks.getUserDataGrants().isEnabled(
+                AylaUserDataGrant.AYLA_USER_DATA_GRANT_METRICS_SERVICE)) {
+            AylaMetricsManager metricsManager = networks.getMetricsManager();
+            if (metricsManager != null && !metricsManager.isUploadPaused()) {
+                AylaLatencyMetric latencyMetric = new AylaLatencyMetric(AylaMetric.LogLevel.INFO,
+                        AylaLatencyMetric.MetricType.DSS_RECONNECT_LATENCY, "onOpen",
+                        datastreamServiceUrl("stream"), latencyMs);
+                latencyMetric.setMetricText(stats.toString());
+                metricsManager.addMessageToUploadsQueue(latencyMetric);
+            }
+        }
     }
 
     @Override
@@ -709,40 +973,79 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         }
         if(payload != null){
             //update properties here
-            String dsMessage;
             if(payload.equals(HEARTBEAT) && isConnected()){
                 _aylaWebSocketConn.sendMessage(payload);
                 _heartbeatCounter++;
                 AylaLog.d(LOG_TAG, "_heartbeatCounter "+_heartbeatCounter);
             } else if(!payload.equals(KEEP_ALIVE)){
-                int startIndex = payload.indexOf("|");
-                if(startIndex != -1 ){
-                    int messageStartIndex = startIndex + 1;
-                    dsMessage = payload.substring(messageStartIndex);
-                    Log.d(LOG_TAG, "DataStream message "+dsMessage);
-                    Gson gson = AylaNetworks.sharedInstance().getGson();
-                    AylaDataStream dataStream;
-                    try {
-                        dataStream = gson.fromJson(dsMessage, AylaDataStream.class);
-                    } catch (JsonSyntaxException e) {
-                        AylaLog.e(LOG_TAG, "Bad JSON syntax in DSS message: \n" + dsMessage);
-                        return;
-                    }
-                    updateDevices(dataStream);
-                }
+                streamMessageReceived(_streamKey, payload, getDeviceManager().getDevices());
             }
         }
 
     }
 
+    /**
+     * Internal method to apply a datastream message received on a stream. If its sequence
+     * number shows that messages of the stream were missed, the devices served by the stream
+     * are resynced, as the missed messages may have been about any of them.
+     *
+     * @param streamKey Stream key of the subscription
+     * @param payload Message as received, beginning with its length
+     * @param devices Devices served by the stream
+     * @return the sequence tracking result, or null if the message could not be parsed
+     */
+    AylaDSSequenceTracker.Result streamMessageReceived(String streamKey, String payload,
+                                                       List<AylaDevice> devices) {
+        int startIndex = payload.indexOf("|");
+        if(startIndex == -1 ){
+            return null;
+        }
+        String dsMessage = payload.substring(startIndex + 1);
+        Log.d(LOG_TAG, "DataStream message "+dsMessage);
+        Gson gson = AylaNetworks.sharedInstance().getGson();
+        AylaDataStream dataStream;
+        try {
+            dataStream = gson.fromJson(dsMessage, AylaDataStream.class);
+        } catch (JsonSyntaxException e) {
+            AylaLog.e(LOG_TAG, "Bad JSON syntax in DSS message: \n" + dsMessage);
+            return null;
+        }
+
+        if (dataStream.getMetadata() == null || dataStream.getMetadata().getDsn() == null) {
+            AylaLog.e(LOG_TAG, "DSS message without DSN: \n" + dsMessage);
+            return null;
+        }
+
+        AylaDSSequenceTracker.Result result = _sequenceTracker.messageReceived(streamKey,
+                AylaDSSequenceTracker.parseSequence(dataStream.getSeq()));
+        if (result == AylaDSSequenceTracker.Result.Duplicate) {
+            AylaLog.d(LOG_TAG, "Ignoring duplicate message " + dataStream.getSeq());
+            return result;
+        }
+        updateDevices(dataStream);
+        if (result == AylaDSSequenceTracker.Result.Gap ||
+                result == AylaDSSequenceTracker.Result.Reset) {
+            AylaLog.i(LOG_TAG, result + " in sequence before message " + dataStream.getSeq());
+            scheduleResync(devices);
+        }
+        return result;
+    }
+
     public void onPause(){
         Log.d(LOG_TAG, "onPause() getConnectivity(): "+getConnectivity());
         //disable all retries
         disableRetryConnect();
         disableRetrySubscription();
         _updateFailed = false;
+        if (_shardManager != null) {
+            _shardManager.stop();
+        }
         disconnectSocket();
         _pausedState = true;
+        _resyncHandler.removeCallbacks(_resyncRunnable);
+        synchronized (_resyncDsns) {
+            _resyncDsns.clear();
+        }
         _dssRequestQueue.cancelAll(new RequestQueue.RequestFilter() {
             @Override
             public boolean apply(Request<?> request) {
@@ -780,13 +1083,31 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         return AylaNetworks.sharedInstance().getConnectivity();
     }
 
+    /**
+     * Called when the app resumes, to connect to the Device Stream Service. Reconnect attempts
+     * start over from the shortest delay, including when the reconnect policy had given up.
+     */
     public void onResume(){
-        Log.d(LOG_TAG, "onResume() _aylaSubscription: " + _aylaSubscription + " connectivity: " +
+        _reconnectPolicy.reset();
+        resume();
+    }
+
+    /**
+     * Internal method to connect to the Device Stream Service, used by onResume() and to
+     * reconnect. The reconnect policy is left as it is, so that the back-off is kept.
+     */
+    private void resume(){
+        Log.d(LOG_TAG, "resume() _aylaSubscription: " + _aylaSubscription + " connectivity: " +
                 getConnectivity());
         _pausedState = false;
         if(getConnectivity() != null){
             getConnectivity().registerListener(this);
         }
+        int shardSize = AylaNetworks.sharedInstance().getSystemSettings().dssShardSize;
+        if (shardSize > 0) {
+            resumeShards(shardSize);
+            return;
+        }
         if(_aylaSubscription == null){
             if(!getDeviceManager().getDevices().isEmpty() && _state != DSManagerState.Initialized){
                 _state = DSManagerState.Initialized;
@@ -826,13 +1147,46 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         }
     }
 
+    /**
+     * Internal method used instead of a single subscription when AylaSystemSettings.dssShardSize
+     * is set, to spread the devices over several subscriptions.
+     */
+    private void resumeShards(int shardSize) {
+        List<AylaDevice> devices = getDeviceManager().getDevices();
+        if (devices.isEmpty()) {
+            return;
+        }
+        if (_shardManager == null) {
+            _shardManager = new AylaDSShardManager(this, shardSize,
+                    new Handler(Looper.getMainLooper()));
+        }
+        if (!isConnected()) {
+            _state = DSManagerState.Connecting;
+        }
+        _shardManager.start(getDeviceDSNList(devices));
+    }
+
+    /**
+     * Called by the AylaDSShardManager when all shards have become connected, or when they no
+     * longer are.
+     */
+    void shardsConnectionChanged(boolean connected) {
+        if (connected) {
+            _state = DSManagerState.Connected;
+            notifyDsChange(true);
+        } else if (_state == DSManagerState.Connected) {
+            _state = DSManagerState.Disconnected;
+            notifyDsChange(false);
+        }
+    }
+
     @Override
     public void deviceManagerInitComplete(Map<String, AylaError> deviceFailures) {
         Log.d(LOG_TAG, "deviceManagerInitComplete() state " + _state);
         if(!isConnecting() && !isConnected()){
             enableRetryConnect();
             enableRetrySubscription();
-            onResume();
+            resume();
         }
     }
 
@@ -847,9 +1201,16 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     public void deviceListChanged(ListChange change) {
         Log.d(LOG_TAG, "deviceListChanged aylaSubscription " + _aylaSubscription + "state " +
                 _state);
+        if (_shardManager != null) {
+            if (!_pausedState) {
+                // Only the subscriptions of the shards whose devices changed are updated
+                _shardManager.devicesChanged(getDeviceDSNList(getDeviceManager().getDevices()));
+            }
+            return;
+        }
         // To handle case where the first device is registered in the account.
         if(_state == DSManagerState.Disconnected && !_pausedState){
-            onResume();
+            resume();
         }
     }
 
@@ -874,16 +1235,25 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     public void connectivityChanged(boolean wifiEnabled, boolean cellularEnabled) {
         Log.d(LOG_TAG, "Connectivity change. _state " + _state);
         if(AylaNetworks.sharedInstance().getSystemSettings().allowDSS){
+            _reconnectPolicy.networkChanged(wifiEnabled || cellularEnabled);
+            if (_shardManager != null) {
+                _shardManager.networkChanged(wifiEnabled || cellularEnabled);
+            }
             if(wifiEnabled || cellularEnabled){
                 if(!isConnected() && !_pausedState){
                     //Network connectivity is available. All retries should be set
                     enableRetryConnect();
                     enableRetrySubscription();
                     if(!isConnecting()){
-                        onResume();
+                        resume();
                     }
                 }
             } else{
+                // No point retrying until the network is back
+                _retryHandler.removeCallbacksAndMessages(null);
+                if (isConnected()) {
+                    _reconnectPolicy.disconnected();
+                }
                 _state = DSManagerState.Disconnected;
                 notifyDsChange(false);
             }
@@ -899,18 +1269,40 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
 
     }
 
+    /**
+     * Listener notified of the connectivity events received on the stream
+     */
+    public interface ConnectivityEventListener {
+        /**
+         * Called when the service reports that a device went online or offline
+         *
+         * @param dsn DSN of the device
+         * @param status the device's new connection status
+         */
+        void deviceConnectivityChanged(String dsn, AylaDevice.ConnectionStatus status);
+    }
+
+    private void notifyConnectivityEvent(final String dsn,
+                                         final AylaDevice.ConnectionStatus status) {
+        if (_connectivityEventListeners.isEmpty()) {
+            return;
+        }
+        AylaListenerDelivery.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectivityEventListener listener : _connectivityEventListeners) {
+                    listener.deviceConnectivityChanged(dsn, status);
+                }
+            }
+        });
+    }
+
     private void notifyDsChange(final boolean isConnected) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                if(_dsManagerListeners != null){
-                    List<DSManagerListener> listeners;
-                    synchronized (_dsManagerListeners) {
-                        listeners = new ArrayList<>(_dsManagerListeners);
-                    }
-                    for (DSManagerListener listener : listeners) {
-                        listener.dsManagerConnectionChanged(isConnected);
-                    }
+                for (DSManagerListener listener : _dsManagerListeners) {
+                    listener.dsManagerConnectionChanged(isConnected);
                 }
             }
         });
@@ -919,8 +1311,15 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     private void updateDevices(AylaDataStream dataStream){
         String dsns = dataStream.getMetadata().getDsn();
         Log.d(LOG_TAG, "Changed devices "+dsns);
+        recordEventLag(dataStream);
         String[] dsnList = dsns.split(",");
         for (String dsn : dsnList) {
+            if (CONNECTIVITY_EVENT.equals(dataStream.getMetadata().getEventType()) &&
+                    dataStream.getConnection() != null) {
+                notifyConnectivityEvent(dsn, AylaDevice.ConnectionStatus.Online.getStringValue()
+                        .equals(dataStream.getConnection().getStatus()) ?
+                        AylaDevice.ConnectionStatus.Online : AylaDevice.ConnectionStatus.Offline);
+            }
             AylaDevice device = getDeviceManager().deviceWithDSN(dsn);
             if(device != null){
                 if(dataStream.getMetadata() != null){
@@ -955,6 +1354,11 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
                                         dataStream.getMetadata().getPropertyName());
                                     }
                                 }
+                                if (eventType.equals(DATAPOINT_ACK_EVENT)) {
+                                    // Completes the createDatapoint call waiting for this ack
+                                    getDeviceManager().getAckTracker().ackReceived(
+                                            dataStream.getDatapoint());
+                                }
                                 break;
                         }
                     }
@@ -965,6 +1369,108 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
         }
     }
 
+    /**
+     * Records the time from the service receiving a datapoint to the event arriving here. The
+     * datapoint is timestamped by the service clock and the arrival by the phone's clock, so the
+     * lag includes the offset between the two clocks, which may be seconds on phones that do
+     * not set their time from the network. The lag is only meaningful compared with itself on
+     * the same phone, e.g. to see it grow under load. Lags below zero come from the phone's
+     * clock being behind and are recorded as zero.
+     */
+    private void recordEventLag(AylaDataStream dataStream) {
+        if (dataStream.getDatapoint() == null) {
+            return;
+        }
+        Date updatedAt = dataStream.getDatapoint().getUpdatedAt();
+        if (updatedAt == null) {
+            updatedAt = dataStream.getDatapoint().getCreatedAt();
+        }
+        if (updatedAt != null) {
+            AylaMetricsRegistry.sharedInstance().histogram(AylaMetricsRegistry.DSS_EVENT_LAG)
+                    .record(System.currentTimeMillis() - updatedAt.getTime());
+        }
+    }
+
+    /**
+     * Schedules a resync of the given devices, which may have missed updates. Resyncs scheduled
+     * within RESYNC_DELAY_MS of each other are performed together.
+     *
+     * @param devices Devices to resync
+     */
+    void scheduleResync(List<AylaDevice> devices) {
+        scheduleResyncDsns(getDeviceDSNList(devices));
+    }
+
+    private void scheduleResyncDsns(List<String> dsns) {
+        synchronized (_resyncDsns) {
+            _resyncDsns.addAll(dsns);
+        }
+        _resyncHandler.removeCallbacks(_resyncRunnable);
+        _resyncHandler.postDelayed(_resyncRunnable, RESYNC_DELAY_MS);
+    }
+
+    /**
+     * Fetches the properties of the devices scheduled for resync that are updated through the
+     * stream. Devices in LAN mode are kept updated by the device itself and are skipped. The
+     * fetched properties are merged into the device, so listeners are only notified of the
+     * properties that changed while updates were missed.
+     */
+    private void resyncDevices() {
+        List<String> dsns;
+        synchronized (_resyncDsns) {
+            dsns = new ArrayList<>(_resyncDsns);
+            _resyncDsns.clear();
+        }
+
+        AylaDeviceManager deviceManager = getDeviceManager();
+        if (deviceManager == null || deviceManager.getState() == DeviceManagerState.Paused) {
+            return;
+        }
+
+        List<AylaDevice> devices = new ArrayList<>();
+        for (String dsn : dsns) {
+            AylaDevice device = deviceManager.deviceWithDSN(dsn);
+            if (device != null && (device instanceof AylaBLEDevice || !device.isLanModeActive())) {
+                devices.add(device);
+            }
+        }
+
+        _sequenceTracker.resyncStarted(devices.size());
+        AylaLog.d(LOG_TAG, "Resyncing " + devices.size() + " devices, " +
+                _sequenceTracker.getStats());
+
+        AylaSystemSettings.DeviceDetailProvider provider =
+                AylaNetworks.sharedInstance().getSystemSettings().deviceDetailProvider;
+        for (final AylaDevice device : devices) {
+            device.fetchProperties(provider.getManagedPropertyNames(device),
+                    new Listener<AylaProperty[]>() {
+                        @Override
+                        public void onResponse(AylaProperty[] response) {
+                            if (isConnected()) {
+                                device.stopPolling();
+                            }
+                        }
+                    },
+                    new ErrorListener() {
+                        @Override
+                        public void onErrorResponse(AylaError error) {
+                            AylaLog.e(LOG_TAG, "Resync failed for " + device.getDsn() + ": " +
+                                    error.getMessage());
+                            // Let polling bring the device up to date instead
+                            device.startPolling();
+                        }
+                    });
+        }
+    }
+
+    private List<String> getDeviceDSNList(List<AylaDevice> deviceList) {
+        List<String> dsns = new ArrayList<>(deviceList.size());
+        for (AylaDevice device : deviceList) {
+            dsns.add(device.getDsn());
+        }
+        return dsns;
+    }
+
     private String getDeviceDSNs(List<AylaDevice> deviceList){
 
         int deviceCount = deviceList.size();
@@ -979,9 +1485,12 @@ public class AylaDSManager implements IWebSocketConnectionHandler,
     }
 
     private void dataSourceChanged(){
+        dataSourceChanged(getDeviceManager().getDevices());
+    }
+
+    void dataSourceChanged(List<AylaDevice> aylaDeviceList){
         if(getDeviceManager().getState() != DeviceManagerState.Paused){
             Log.d(LOG_TAG, "DSManager dataSourceChanged");
-            List<AylaDevice> aylaDeviceList =  getDeviceManager().getDevices();
             for(AylaDevice device: aylaDeviceList){
                 device.dataSourceChanged(DataSource.DSS);
             }
@@ -0,0 +1,211 @@
+package com.aylanetworks.aylasdk;
+
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Decides when the AylaDSManager retries a lost Device Stream Service connection, and measures
+ * how long reconnecting takes.
+ * <p>
+ * Retries are delayed by a capped exponential back-off with full jitter: the n-th retry waits a
+ * random time of up to {@link #INITIAL_DELAY_MS} * 2^n, capped at {@link #MAX_DELAY_MS}, so
+ * that many clients disconnected by the same outage do not all reconnect at once. No retries
+ * are made while the network is unavailable; when it comes back the back-off starts over.
+ * <p>
+ * The time from losing the connection to having it open again is recorded in an
+ * {@link AylaMetricsRegistry.Histogram}, available from {@link #getStats()}.
+ */
+public class AylaDSReconnectPolicy {
+
+    /**
+     * Upper bound of the first retry delay. Each further retry doubles the bound, up to
+     * MAX_DELAY_MS.
+     */
+    static final long INITIAL_DELAY_MS = 1000;
+    static final long MAX_DELAY_MS = 60000;
+
+    /**
+     * Shortest retry delay, so a connection that fails right away is not retried in a busy loop
+     */
+    static final long MIN_DELAY_MS = 250;
+
+    /**
+     * Retries made before giving up until the network changes or the app resumes
+     */
+    static final int MAX_ATTEMPTS = 12;
+
+    private final Random _random;
+
+    private int _attempt;
+    private boolean _networkAvailable = true;
+    private long _disconnectedAtNs = -1;
+
+    private final AylaMetricsRegistry.Histogram _latencies = new AylaMetricsRegistry.Histogram();
+    private long _abandonedCount;
+
+    AylaDSReconnectPolicy() {
+        this(new Random());
+    }
+
+    AylaDSReconnectPolicy(Random random) {
+        _random = random;
+    }
+
+    /**
+     * Returns the delay before the next retry, and counts the retry.
+     *
+     * @return the delay in milliseconds, or -1 if no retry should be made until the network
+     * changes or the app resumes
+     */
+    synchronized long nextRetryDelayMs() {
+        if (!_networkAvailable) {
+            return -1;
+        }
+        if (_attempt >= MAX_ATTEMPTS) {
+            if (_attempt++ == MAX_ATTEMPTS) {
+                _abandonedCount++;
+            }
+            return -1;
+        }
+
+        long bound = Math.min(INITIAL_DELAY_MS << Math.min(_attempt, 16), MAX_DELAY_MS);
+        _attempt++;
+        return MIN_DELAY_MS + (long) (_random.nextDouble() * (bound - MIN_DELAY_MS));
+    }
+
+    /**
+     * Returns the number of retries made since the connection was last open
+     */
+    synchronized int getAttemptCount() {
+        return _attempt;
+    }
+
+    /**
+     * Called when the connection has been lost. Only the first call until the connection is
+     * open again starts the latency measurement.
+     */
+    synchronized void disconnected() {
+        if (_disconnectedAtNs < 0) {
+            _disconnectedAtNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called when the connection is open. Resets the back-off and records the reconnect
+     * latency, if the connection had been lost.
+     *
+     * @return the reconnect latency in milliseconds, or -1 if this was not a reconnect
+     */
+    synchronized long connected() {
+        _attempt = 0;
+        if (_disconnectedAtNs < 0) {
+            return -1;
+        }
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _disconnectedAtNs);
+        _disconnectedAtNs = -1;
+        recordLatency(latencyMs);
+        return latencyMs;
+    }
+
+    /**
+     * Called when the connection is closed on purpose, in which case the next connection is
+     * not a reconnect.
+     */
+    synchronized void reset() {
+        _attempt = 0;
+        _disconnectedAtNs = -1;
+    }
+
+    /**
+     * Called when network connectivity changes. Retries are suspended while the network is
+     * unavailable, and the back-off starts over when it comes back.
+     *
+     * @param available true if a network is available
+     */
+    synchronized void networkChanged(boolean available) {
+        _networkAvailable = available;
+        if (available) {
+            _attempt = 0;
+        }
+    }
+
+    void recordLatency(long latencyMs) {
+        _latencies.record(latencyMs);
+    }
+
+    /**
+     * Returns a snapshot of the reconnect latency histogram.
+     *
+     * @return the current Stats
+     */
+    public synchronized Stats getStats() {
+        return new Stats(_latencies.snapshot(), _abandonedCount);
+    }
+
+    /**
+     * Reconnect latencies of an AylaDSReconnectPolicy
+     */
+    public static class Stats {
+        private final AylaMetricsRegistry.HistogramSnapshot _latencies;
+        private final long _abandonedCount;
+
+        Stats(AylaMetricsRegistry.HistogramSnapshot latencies, long abandonedCount) {
+            _latencies = latencies;
+            _abandonedCount = abandonedCount;
+        }
+
+        /**
+         * @return the reconnect latency histogram
+         */
+        public AylaMetricsRegistry.HistogramSnapshot getLatencies() {
+            return _latencies;
+        }
+
+        /**
+         * @return the number of reconnects
+         */
+        public long getReconnectCount() {
+            return _latencies.getCount();
+        }
+
+        /**
+         * @return the mean reconnect latency in milliseconds, or 0 if there were no reconnects
+         */
+        public long getMeanLatencyMs() {
+            return _latencies.getMean();
+        }
+
+        /**
+         * @return the longest reconnect latency in milliseconds
+         */
+        public long getMaxLatencyMs() {
+            return _latencies.getMax();
+        }
+
+        /**
+         * @return the number of times retries were given up after MAX_ATTEMPTS
+         */
+        public long getAbandonedCount() {
+            return _abandonedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "reconnects: " + _latencies.getCount() +
+                    ", mean: " + _latencies.getMean() + "ms" +
+                    ", p50: " + _latencies.getP50() + "ms" +
+                    ", p90: " + _latencies.getP90() + "ms" +
+                    ", p99: " + _latencies.getP99() + "ms" +
+                    ", max: " + _latencies.getMax() + "ms" +
+                    ", abandoned: " + _abandonedCount;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.aylanetworks.aylasdk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Tracks the sequence numbers of the messages received on each Device Stream Service stream, to
+ * detect messages lost within a stream or while it was reconnecting. The service numbers the
+ * messages of a stream, whichever device they are about, so a gap does not tell which devices
+ * missed messages. The AylaDSManager resyncs the devices served by the stream instead, which
+ * are only those of one shard when the devices are spread over several streams.
+ * <p>
+ * The sequence of a stream is kept when it reconnects, so that messages numbered on from before
+ * are not taken for the start of a new sequence. A sequence number that goes back by
+ * {@link #MAX_DUPLICATE_DISTANCE} or more, or that goes back in the first message after a
+ * reconnect, means the service has started numbering over. The sequence of the stream is then
+ * started over from that message, which is reported as a reset.
+ * <p>
+ * Counters of gaps, resets, reconnects and resyncs are available from {@link #getStats()}.
+ */
+public class AylaDSSequenceTracker {
+
+    /**
+     * Result of checking the sequence number of a received message
+     */
+    enum Result {
+        InOrder,            // The message follows the previous one, or is the first of its stream
+        Gap,                // One or more messages before this one were not received
+        Duplicate,          // The message has already been received, and should be ignored
+        Reset,              // The sequence started over, so messages may have been missed
+    }
+
+    /**
+     * A message whose sequence number is this far or further behind the last one received on
+     * its stream is not a repeat, but the start of a new sequence
+     */
+    static final long MAX_DUPLICATE_DISTANCE = 64;
+
+    /**
+     * Sequences of the streams, by stream key
+     */
+    private final Map<String, StreamSequence> _sequences = new HashMap<>();
+
+    private boolean _hasConnected;
+
+    private long _messageCount;
+    private long _gapCount;
+    private long _missedMessageCount;
+    private long _duplicateCount;
+    private long _resetCount;
+    private long _reconnectCount;
+    private long _resyncCount;
+    private long _resyncedDeviceCount;
+
+    /**
+     * Parses the sequence number of a message.
+     *
+     * @param seq Value of the seq field of the message
+     * @return the sequence number, or -1 if the message has no valid sequence number
+     */
+    static long parseSequence(String seq) {
+        if (seq == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(seq.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Called when a stream has been connected. The sequence of the stream is kept.
+     *
+     * @param streamKey Key of the connected stream
+     * @return true if a stream had been connected before, in which case messages sent while
+     * disconnected may have been missed
+     */
+    synchronized boolean streamOpened(String streamKey) {
+        StreamSequence sequence = _sequences.get(streamKey);
+        if (sequence != null) {
+            sequence.reconnected = true;
+        }
+        if (!_hasConnected) {
+            _hasConnected = true;
+            return false;
+        }
+        _reconnectCount++;
+        return true;
+    }
+
+    /**
+     * Checks the sequence number of a message received on a stream.
+     *
+     * @param streamKey Key of the stream that received the message
+     * @param sequence Sequence number of the message, as returned from
+     *                 {@link #parseSequence(String)}
+     * @return the Result for the message
+     */
+    synchronized Result messageReceived(String streamKey, long sequence) {
+        _messageCount++;
+        if (sequence < 0) {
+            // Messages without sequence numbers can't be checked
+            return Result.InOrder;
+        }
+
+        StreamSequence streamSequence = _sequences.get(streamKey);
+        if (streamSequence == null) {
+            _sequences.put(streamKey, new StreamSequence(sequence));
+            return Result.InOrder;
+        }
+
+        long last = streamSequence.last;
+        boolean reconnected = streamSequence.reconnected;
+        streamSequence.reconnected = false;
+        if (sequence <= last) {
+            if (!reconnected && last - sequence < MAX_DUPLICATE_DISTANCE) {
+                _duplicateCount++;
+                return Result.Duplicate;
+            }
+            streamSequence.last = sequence;
+            _resetCount++;
+            return Result.Reset;
+        }
+
+        streamSequence.last = sequence;
+        if (sequence == last + 1) {
+            return Result.InOrder;
+        }
+
+        _gapCount++;
+        _missedMessageCount += sequence - last - 1;
+        return Result.Gap;
+    }
+
+    /**
+     * Records that devices have been resynced after a gap or reconnect.
+     *
+     * @param deviceCount Number of devices resynced
+     */
+    synchronized void resyncStarted(int deviceCount) {
+        _resyncCount++;
+        _resyncedDeviceCount += deviceCount;
+    }
+
+    /**
+     * Returns a snapshot of the counters of this tracker.
+     *
+     * @return the current Stats
+     */
+    public synchronized Stats getStats() {
+        return new Stats(_messageCount, _gapCount, _missedMessageCount, _duplicateCount,
+                _resetCount, _reconnectCount, _resyncCount, _resyncedDeviceCount);
+    }
+
+    /**
+     * Sequence of the messages of a stream
+     */
+    private static class StreamSequence {
+        long last;
+
+        // Set when the stream reconnects, until its next message
+        boolean reconnected;
+
+        StreamSequence(long last) {
+            this.last = last;
+        }
+    }
+
+    /**
+     * Counters of an AylaDSSequenceTracker
+     */
+    public static class Stats {
+        private final long _messageCount;
+        private final long _gapCount;
+        private final long _missedMessageCount;
+        private final long _duplicateCount;
+        private final long _resetCount;
+        private final long _reconnectCount;
+        private final long _resyncCount;
+        private final long _resyncedDeviceCount;
+
+        Stats(long messageCount, long gapCount, long missedMessageCount, long duplicateCount,
+              long resetCount, long reconnectCount, long resyncCount, long resyncedDeviceCount) {
+            _messageCount = messageCount;
+            _gapCount = gapCount;
+            _missedMessageCount = missedMessageCount;
+            _duplicateCount = duplicateCount;
+            _resetCount = resetCount;
+            _reconnectCount = reconnectCount;
+            _resyncCount = resyncCount;
+            _resyncedDeviceCount = resyncedDeviceCount;
+        }
+
+        /**
+         * @return the number of messages received
+         */
+        public long getMessageCount() {
+            return _messageCount;
+        }
+
+        /**
+         * @return the number of gaps in sequence numbers detected within streams
+         */
+        public long getGapCount() {
+            return _gapCount;
+        }
+
+        /**
+         * @return the total number of messages missing from the detected gaps
+         */
+        public long getMissedMessageCount() {
+            return _missedMessageCount;
+        }
+
+        /**
+         * @return the number of messages ignored because they had already been received
+         */
+        public long getDuplicateCount() {
+            return _duplicateCount;
+        }
+
+        /**
+         * @return the number of times the sequence of a stream started over
+         */
+        public long getResetCount() {
+            return _resetCount;
+        }
+
+        /**
+         * @return the number of times a stream was connected again after a disconnection
+         */
+        public long getReconnectCount() {
+            return _reconnectCount;
+        }
+
+        /**
+         * @return the number of resyncs performed after gaps or reconnects
+         */
+        public long getResyncCount() {
+            return _resyncCount;
+        }
+
+        /**
+         * @return the total number of devices resynced
+         */
+        public long getResyncedDeviceCount() {
+            return _resyncedDeviceCount;
+        }
+
+        @Override
+        public String toString() {
+            return "messages: " + _messageCount + ", gaps: " + _gapCount + " (" +
+                    _missedMessageCount + " missed), duplicates: " + _duplicateCount +
+                    ", resets: " + _resetCount + ", reconnects: " + _reconnectCount +
+                    ", resyncs: " + _resyncCount + " (" + _resyncedDeviceCount + " devices)";
+        }
+    }
+}
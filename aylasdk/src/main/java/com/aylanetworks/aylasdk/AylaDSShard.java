@@ -0,0 +1,612 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.android.volley.Response.Listener;
+import com.aylanetworks.aylasdk.AylaAPIRequest.EmptyResponse;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.ServerError;
+import com.aylanetworks.aylasdk.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.crossbar.autobahn.websocket.WebSocketConnection;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocket;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.types.ConnectionResponse;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * One of the Device Stream Service subscriptions over which the AylaDSShardManager spreads the
+ * devices of a large account, together with the websocket that receives its updates.
+ * <p>
+ * The shard keeps its subscription's DSN list in line with the devices assigned to it, retrying
+ * failed requests and lost connections with its own AylaDSReconnectPolicy, and keeps the health
+ * and throughput figures returned by {@link #getStats()}. Shards are only used on the main
+ * thread.
+ */
+public class AylaDSShard implements IWebSocketConnectionHandler {
+    private static final String LOG_TAG = "DSS_LOGS";
+
+    private final AylaDSShardManager _shardManager;
+    private final int _id;
+    private final Set<String> _dsns = new LinkedHashSet<>();
+
+    /**
+     * DSNs moved here from another shard, which are resynced once this shard's subscription
+     * includes them
+     */
+    private final Set<String> _movedDsns = new LinkedHashSet<>();
+
+    private AylaDSSubscription _subscription;
+    private IWebSocket _connection;
+    private boolean _connected;
+    private boolean _started;
+    private boolean _retired;
+
+    /**
+     * True if the DSN list changed since it was last sent to the service
+     */
+    private boolean _dirty = true;
+    private boolean _requestInFlight;
+
+    /**
+     * Incremented when the shard is stopped, so responses to requests made before are ignored
+     */
+    private int _generation;
+
+    private boolean _closeRequested;
+    private boolean _reconnectAfterClose;
+    private int _heartbeatCounter;
+    private final AylaDSReconnectPolicy _reconnectPolicy = new AylaDSReconnectPolicy();
+
+    private long _connectedAtMs;
+    private long _lastMessageAtMs;
+    private long _messageCount;
+    private long _messagesSinceConnected;
+    private long _byteCount;
+    private long _gapCount;
+    private long _duplicateCount;
+    private long _subscriptionUpdateCount;
+
+    private final Runnable _retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    private final Runnable _heartbeatRunnable = new Runnable() {
+        @Override
+        public void run() {
+            _heartbeatCounter--;
+            if (_heartbeatCounter < 0) {
+                AylaLog.i(LOG_TAG, "Shard " + _id + " missed heartbeats, reconnecting");
+                _reconnectAfterClose = true;
+                closeConnection();
+            } else {
+                getHandler().postDelayed(this, AylaDSManager.DEFAULT_HEARTBEAT_INTERVAL_MS);
+            }
+        }
+    };
+
+    AylaDSShard(AylaDSShardManager shardManager, int id) {
+        _shardManager = shardManager;
+        _id = id;
+    }
+
+    int getId() {
+        return _id;
+    }
+
+    int size() {
+        return _dsns.size();
+    }
+
+    Set<String> getDsns() {
+        return _dsns;
+    }
+
+    boolean isConnected() {
+        return _connected;
+    }
+
+    void addDsn(String dsn, boolean moved) {
+        if (_dsns.add(dsn)) {
+            _dirty = true;
+            if (moved) {
+                _movedDsns.add(dsn);
+            }
+        }
+    }
+
+    void removeDsn(String dsn) {
+        if (_dsns.remove(dsn)) {
+            _dirty = true;
+            _movedDsns.remove(dsn);
+        }
+    }
+
+    /**
+     * Starts keeping the subscription and websocket up
+     */
+    void start() {
+        _started = true;
+        if (_connection != null && _closeRequested) {
+            // Stopped and started again before the websocket finished closing
+            _reconnectAfterClose = true;
+        }
+        sync();
+    }
+
+    /**
+     * Closes the websocket and stops retrying. The subscription is kept, so that the shard can
+     * reconnect to it when started again.
+     */
+    void stop() {
+        _started = false;
+        _generation++;
+        _requestInFlight = false;
+        getHandler().removeCallbacks(_retryRunnable);
+        closeConnection();
+        _connected = false;
+        _reconnectPolicy.reset();
+    }
+
+    /**
+     * Stops the shard for good and deletes its subscription, once it has no devices left
+     */
+    void retire() {
+        _retired = true;
+        stop();
+        if (_subscription != null) {
+            getDSManager().deleteSubscription(_subscription.getId(),
+                    new Listener<EmptyResponse>() {
+                        @Override
+                        public void onResponse(EmptyResponse response) {
+                            AylaLog.d(LOG_TAG, "Deleted subscription of shard " + _id);
+                        }
+                    }, new ErrorListener() {
+                        @Override
+                        public void onErrorResponse(AylaError error) {
+                            AylaLog.e(LOG_TAG, "Failed to delete subscription of shard " + _id +
+                                    ": " + error.getMessage());
+                        }
+                    });
+            _subscription = null;
+        }
+    }
+
+    void networkChanged(boolean available) {
+        _reconnectPolicy.networkChanged(available);
+        if (!available) {
+            getHandler().removeCallbacks(_retryRunnable);
+            if (_connected) {
+                _reconnectPolicy.disconnected();
+            }
+        }
+    }
+
+    /**
+     * Brings the subscription in line with the DSNs assigned to the shard, and connects its
+     * websocket. Changes made while a request is in flight are sent once it completes.
+     */
+    void sync() {
+        if (!_started || _retired || _requestInFlight || _dsns.isEmpty()) {
+            return;
+        }
+        if (_subscription == null) {
+            createSubscription();
+        } else if (_dirty) {
+            updateSubscription();
+        } else if (_connection == null) {
+            _closeRequested = false;
+            _connection = getDSManager().openWebSocket(_subscription.getStreamKey(), this);
+        }
+    }
+
+    private void createSubscription() {
+        final int generation = _generation;
+        _requestInFlight = true;
+        _dirty = false;
+        _movedDsns.clear();
+        getDSManager().createSubscription(AylaDSManager.DS_NAME + "_" + _id,
+                AylaDSManager.DS_DESCRIPTION, getDsnList(), false,
+                new Listener<AylaDSSubscription>() {
+                    @Override
+                    public void onResponse(AylaDSSubscription response) {
+                        if (generation != _generation) {
+                            return;
+                        }
+                        _requestInFlight = false;
+                        _subscriptionUpdateCount++;
+                        _subscription = response;
+                        if (response == null) {
+                            AylaLog.e(LOG_TAG, "Null subscription created for shard " + _id);
+                            _dirty = true;
+                            scheduleRetry();
+                        } else {
+                            AylaLog.d(LOG_TAG, "Shard " + _id + " subscribed to " + size() +
+                                    " devices");
+                            sync();
+                        }
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        if (generation != _generation) {
+                            return;
+                        }
+                        AylaLog.e(LOG_TAG, "Failed to create subscription of shard " + _id +
+                                ": " + error.getMessage());
+                        _requestInFlight = false;
+                        _dirty = true;
+                        scheduleRetry();
+                    }
+                });
+    }
+
+    private void updateSubscription() {
+        final int generation = _generation;
+        final List<String> movedDsns = new ArrayList<>(_movedDsns);
+        _requestInFlight = true;
+        _dirty = false;
+        _movedDsns.clear();
+        getDSManager().updateSubscription(_subscription, getDsnList(),
+                new Listener<AylaDSSubscription>() {
+                    @Override
+                    public void onResponse(AylaDSSubscription response) {
+                        if (generation != _generation) {
+                            return;
+                        }
+                        _requestInFlight = false;
+                        _subscriptionUpdateCount++;
+                        AylaLog.d(LOG_TAG, "Shard " + _id + " updated to " + size() +
+                                " devices");
+                        if (_connected && !movedDsns.isEmpty()) {
+                            // Updates sent to their previous shard while they were being moved
+                            // may have been missed
+                            getDSManager().scheduleResync(getDevices(movedDsns));
+                        }
+                        sync();
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        if (generation != _generation) {
+                            return;
+                        }
+                        AylaLog.e(LOG_TAG, "Failed to update subscription of shard " + _id +
+                                ": " + error.getMessage());
+                        _requestInFlight = false;
+                        _dirty = true;
+                        _movedDsns.addAll(movedDsns);
+                        if (error instanceof ServerError &&
+                                ((ServerError) error).getServerResponseCode() == 404) {
+                            // The subscription is gone. Create a new one in its place.
+                            _subscription = null;
+                            closeConnection();
+                        }
+                        scheduleRetry();
+                    }
+                });
+    }
+
+    private void scheduleRetry() {
+        if (!_started || _retired) {
+            return;
+        }
+        long delay = _reconnectPolicy.nextRetryDelayMs();
+        if (delay < 0) {
+            AylaLog.i(LOG_TAG, "Shard " + _id + " not retrying until the network changes or " +
+                    "the app resumes");
+            return;
+        }
+        getHandler().removeCallbacks(_retryRunnable);
+        getHandler().postDelayed(_retryRunnable, delay);
+    }
+
+    private void closeConnection() {
+        getHandler().removeCallbacks(_heartbeatRunnable);
+        if (_connection != null) {
+            _closeRequested = true;
+            _connection.sendClose();
+        }
+    }
+
+    @Override
+    public void onOpen() {
+        AylaLog.d(LOG_TAG, "Shard " + _id + " connected");
+        if (!_started || _retired) {
+            closeConnection();
+            return;
+        }
+        _connected = true;
+        synchronized (this) {
+            _connectedAtMs = SystemClock.elapsedRealtime();
+            _messagesSinceConnected = 0;
+        }
+        long reconnectLatency = _reconnectPolicy.connected();
+        if (reconnectLatency >= 0) {
+            getDSManager().publishReconnectLatency(reconnectLatency,
+                    _reconnectPolicy.getStats());
+        }
+        _shardManager.shardConnectionChanged();
+        getDSManager().streamOpened(_subscription.getStreamKey(), getDevices(_dsns));
+        _heartbeatCounter = AylaDSManager.DEFAULT_HEARTBEAT_COUNT;
+        getHandler().postDelayed(_heartbeatRunnable, AylaDSManager.DEFAULT_HEARTBEAT_INTERVAL_MS);
+    }
+
+    @Override
+    public void onClose(int code, String reason) {
+        AylaLog.d(LOG_TAG, "Shard " + _id + " closed, code: " + code + " reason: " + reason);
+        boolean wasConnected = _connected;
+        boolean reconnect = _started && !_retired && (!_closeRequested || _reconnectAfterClose);
+        _closeRequested = false;
+        _reconnectAfterClose = false;
+        _connection = null;
+        _connected = false;
+        synchronized (this) {
+            _connectedAtMs = 0;
+        }
+        getHandler().removeCallbacks(_heartbeatRunnable);
+
+        if (code == IWebSocketConnectionHandler.CLOSE_SERVER_ERROR && reason != null &&
+                reason.contains("Unauthorized")) {
+            // The stream key is no longer valid. Create a new subscription in its place.
+            _subscription = null;
+            _dirty = true;
+        }
+
+        if (reconnect) {
+            _reconnectPolicy.disconnected();
+            scheduleRetry();
+        } else {
+            _reconnectPolicy.reset();
+        }
+        _shardManager.shardConnectionChanged();
+        if (wasConnected && !_retired) {
+            // Poll the shard's devices until it reconnects
+            getDSManager().dataSourceChanged(getDevices(_dsns));
+        }
+    }
+
+    @Override
+    public void onMessage(String payload) {
+        if (_connection == null || payload == null) {
+            return;
+        }
+        synchronized (this) {
+            _messageCount++;
+            _messagesSinceConnected++;
+            _byteCount += payload.length();
+            _lastMessageAtMs = SystemClock.elapsedRealtime();
+        }
+        if (payload.equals(AylaDSManager.HEARTBEAT)) {
+            _connection.sendMessage(payload);
+            _heartbeatCounter++;
+        } else if (!payload.equals(AylaDSManager.KEEP_ALIVE)) {
+            AylaDSSequenceTracker.Result result = getDSManager().streamMessageReceived(
+                    _subscription.getStreamKey(), payload, getDevices(_dsns));
+            synchronized (this) {
+                if (result == AylaDSSequenceTracker.Result.Gap ||
+                        result == AylaDSSequenceTracker.Result.Reset) {
+                    _gapCount++;
+                } else if (result == AylaDSSequenceTracker.Result.Duplicate) {
+                    _duplicateCount++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(byte[] payload, boolean isBinary) {
+    }
+
+    @Override
+    public void onConnect(ConnectionResponse response) {
+    }
+
+    @Override
+    public void onPing() {
+    }
+
+    @Override
+    public void onPing(byte[] payload) {
+    }
+
+    @Override
+    public void onPong() {
+    }
+
+    @Override
+    public void onPong(byte[] payload) {
+    }
+
+    @Override
+    public void setConnection(WebSocketConnection connection) {
+    }
+
+    private AylaDSManager getDSManager() {
+        return _shardManager.getDSManager();
+    }
+
+    private Handler getHandler() {
+        return _shardManager.getHandler();
+    }
+
+    private String getDsnList() {
+        return ObjectUtils.getDelimitedString(_dsns.toArray(new String[_dsns.size()]), ",");
+    }
+
+    private List<AylaDevice> getDevices(Collection<String> dsns) {
+        List<AylaDevice> devices = new ArrayList<>(dsns.size());
+        AylaDeviceManager deviceManager = getDSManager().getDeviceManager();
+        for (String dsn : dsns) {
+            AylaDevice device = deviceManager.deviceWithDSN(dsn);
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the health and throughput figures of this shard.
+     *
+     * @return the current Stats
+     */
+    public synchronized Stats getStats() {
+        long now = SystemClock.elapsedRealtime();
+        return new Stats(_id, _dsns.size(), _connected,
+                _connectedAtMs == 0 ? 0 : now - _connectedAtMs,
+                _lastMessageAtMs == 0 ? -1 : now - _lastMessageAtMs,
+                _messageCount, _messagesSinceConnected, _byteCount, _gapCount, _duplicateCount,
+                _subscriptionUpdateCount, _reconnectPolicy.getStats().getReconnectCount());
+    }
+
+    /**
+     * Health and throughput figures of an AylaDSShard
+     */
+    public static class Stats {
+        private final int _shardId;
+        private final int _deviceCount;
+        private final boolean _connected;
+        private final long _connectedTimeMs;
+        private final long _lastMessageAgeMs;
+        private final long _messageCount;
+        private final long _messagesSinceConnected;
+        private final long _byteCount;
+        private final long _gapCount;
+        private final long _duplicateCount;
+        private final long _subscriptionUpdateCount;
+        private final long _reconnectCount;
+
+        Stats(int shardId, int deviceCount, boolean connected, long connectedTimeMs,
+              long lastMessageAgeMs, long messageCount, long messagesSinceConnected,
+              long byteCount, long gapCount, long duplicateCount, long subscriptionUpdateCount,
+              long reconnectCount) {
+            _shardId = shardId;
+            _deviceCount = deviceCount;
+            _connected = connected;
+            _connectedTimeMs = connectedTimeMs;
+            _lastMessageAgeMs = lastMessageAgeMs;
+            _messageCount = messageCount;
+            _messagesSinceConnected = messagesSinceConnected;
+            _byteCount = byteCount;
+            _gapCount = gapCount;
+            _duplicateCount = duplicateCount;
+            _subscriptionUpdateCount = subscriptionUpdateCount;
+            _reconnectCount = reconnectCount;
+        }
+
+        public int getShardId() {
+            return _shardId;
+        }
+
+        /**
+         * @return the number of devices assigned to the shard
+         */
+        public int getDeviceCount() {
+            return _deviceCount;
+        }
+
+        /**
+         * @return true if the shard's websocket is connected
+         */
+        public boolean isConnected() {
+            return _connected;
+        }
+
+        /**
+         * @return how long the websocket has been connected in milliseconds, or 0 if it is not
+         */
+        public long getConnectedTimeMs() {
+            return _connectedTimeMs;
+        }
+
+        /**
+         * @return milliseconds since the last message was received, including heartbeats, or
+         * -1 if none was
+         */
+        public long getLastMessageAgeMs() {
+            return _lastMessageAgeMs;
+        }
+
+        /**
+         * @return the number of messages received, including heartbeats
+         */
+        public long getMessageCount() {
+            return _messageCount;
+        }
+
+        /**
+         * @return the number of characters received
+         */
+        public long getByteCount() {
+            return _byteCount;
+        }
+
+        /**
+         * @return the messages received per minute since the websocket connected
+         */
+        public double getMessagesPerMinute() {
+            if (_connectedTimeMs <= 0) {
+                return 0;
+            }
+            return _messagesSinceConnected * 60000.0 / _connectedTimeMs;
+        }
+
+        /**
+         * @return the number of gaps and resets detected in the sequences of the stream
+         */
+        public long getGapCount() {
+            return _gapCount;
+        }
+
+        /**
+         * @return the number of repeated messages that were dropped
+         */
+        public long getDuplicateCount() {
+            return _duplicateCount;
+        }
+
+        /**
+         * @return the number of times the subscription was created or its DSNs updated
+         */
+        public long getSubscriptionUpdateCount() {
+            return _subscriptionUpdateCount;
+        }
+
+        /**
+         * @return the number of times the websocket reconnected after being lost
+         */
+        public long getReconnectCount() {
+            return _reconnectCount;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + _shardId + ": devices: " + _deviceCount +
+                    ", connected: " + _connected +
+                    ", messages: " + _messageCount +
+                    String.format(", per minute: %.1f", getMessagesPerMinute()) +
+                    ", bytes: " + _byteCount +
+                    ", gaps: " + _gapCount +
+                    ", duplicates: " + _duplicateCount +
+                    ", subscription updates: " + _subscriptionUpdateCount +
+                    ", reconnects: " + _reconnectCount;
+        }
+    }
+}
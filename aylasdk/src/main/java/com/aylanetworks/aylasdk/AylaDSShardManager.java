@@ -0,0 +1,259 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Spreads the devices of an account over several Device Stream Service subscriptions, each with
+ * a websocket of its own, so that no single stream has to carry thousands of devices.
+ * <p>
+ * Devices are assigned to the least loaded shard with room for them, up to the shard size set
+ * in AylaSystemSettings.dssShardSize, and a new shard is added when all are full. As devices
+ * come and go, only the shards whose devices changed update their subscriptions; the others
+ * stay connected. When devices are removed, a shard whose devices fit into the others is
+ * emptied into them and retired, so the number of streams shrinks with the account.
+ * Only used on the main thread, except for getStats().
+ */
+class AylaDSShardManager {
+    private static final String LOG_TAG = "DSS_LOGS";
+
+    private final AylaDSManager _dsManager;
+    private final int _shardSize;
+    private final Handler _handler;
+    private final List<AylaDSShard> _shards = new ArrayList<>();
+    private final Map<String, AylaDSShard> _shardByDsn = new HashMap<>();
+    private int _nextShardId;
+    private boolean _started;
+    private boolean _connected;
+
+    AylaDSShardManager(AylaDSManager dsManager, int shardSize, Handler handler) {
+        _dsManager = dsManager;
+        _shardSize = shardSize;
+        _handler = handler;
+    }
+
+    AylaDSManager getDSManager() {
+        return _dsManager;
+    }
+
+    Handler getHandler() {
+        return _handler;
+    }
+
+    /**
+     * Assigns the given devices to shards and connects them all
+     *
+     * @param dsns DSNs of all devices of the account
+     */
+    void start(Collection<String> dsns) {
+        _started = true;
+        devicesChanged(dsns);
+        for (AylaDSShard shard : new ArrayList<>(_shards)) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Disconnects all shards, keeping their subscriptions
+     */
+    void stop() {
+        _started = false;
+        for (AylaDSShard shard : _shards) {
+            shard.stop();
+        }
+        shardConnectionChanged();
+    }
+
+    /**
+     * Reassigns the devices after the device list changed, and updates the subscriptions of the
+     * shards whose devices changed
+     *
+     * @param dsns DSNs of all devices of the account
+     */
+    void devicesChanged(Collection<String> dsns) {
+        List<AylaDSShard> retired = new ArrayList<>();
+        Set<AylaDSShard> changed = rebalance(dsns, retired);
+        for (AylaDSShard shard : retired) {
+            shard.retire();
+        }
+        if (_started) {
+            for (AylaDSShard shard : changed) {
+                shard.start();
+            }
+        }
+        AylaLog.d(LOG_TAG, dsns.size() + " devices in " + _shards.size() + " shards, " +
+                changed.size() + " changed, " + retired.size() + " retired");
+        shardConnectionChanged();
+    }
+
+    void networkChanged(boolean available) {
+        for (AylaDSShard shard : _shards) {
+            shard.networkChanged(available);
+        }
+    }
+
+    /**
+     * Assigns each DSN to a shard, changing as few assignments as possible.
+     *
+     * @param dsns DSNs of all devices of the account
+     * @param retired Receives the shards left without devices, which have been removed
+     * @return the shards whose DSNs changed
+     */
+    synchronized Set<AylaDSShard> rebalance(Collection<String> dsns,
+                                            List<AylaDSShard> retired) {
+        Set<AylaDSShard> changed = new HashSet<>();
+        Set<String> wanted = new HashSet<>(dsns);
+
+        Iterator<Map.Entry<String, AylaDSShard>> it = _shardByDsn.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AylaDSShard> entry = it.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().removeDsn(entry.getKey());
+                changed.add(entry.getValue());
+                it.remove();
+            }
+        }
+
+        for (String dsn : wanted) {
+            if (!_shardByDsn.containsKey(dsn)) {
+                AylaDSShard shard = leastLoadedShard(null);
+                if (shard == null) {
+                    shard = new AylaDSShard(this, _nextShardId++);
+                    _shards.add(shard);
+                }
+                shard.addDsn(dsn, false);
+                _shardByDsn.put(dsn, shard);
+                changed.add(shard);
+            }
+        }
+
+        // Retire a shard if the others have room for its devices, smallest first
+        int needed = (wanted.size() + _shardSize - 1) / _shardSize;
+        while (_shards.size() > needed) {
+            AylaDSShard smallest = null;
+            for (AylaDSShard shard : _shards) {
+                if (smallest == null || shard.size() < smallest.size()) {
+                    smallest = shard;
+                }
+            }
+            int room = 0;
+            for (AylaDSShard shard : _shards) {
+                if (shard != smallest) {
+                    room += _shardSize - shard.size();
+                }
+            }
+            if (room < smallest.size()) {
+                break;
+            }
+            for (String dsn : new ArrayList<>(smallest.getDsns())) {
+                AylaDSShard shard = leastLoadedShard(smallest);
+                smallest.removeDsn(dsn);
+                shard.addDsn(dsn, true);
+                _shardByDsn.put(dsn, shard);
+                changed.add(shard);
+            }
+            changed.add(smallest);
+            _shards.remove(smallest);
+        }
+
+        Iterator<AylaDSShard> shards = _shards.iterator();
+        while (shards.hasNext()) {
+            AylaDSShard shard = shards.next();
+            if (shard.size() == 0) {
+                shards.remove();
+            }
+        }
+        for (AylaDSShard shard : new ArrayList<>(changed)) {
+            if (!_shards.contains(shard)) {
+                changed.remove(shard);
+                retired.add(shard);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the shard with the fewest devices that has room for another, or null if all are
+     * full
+     */
+    private AylaDSShard leastLoadedShard(AylaDSShard excluded) {
+        AylaDSShard least = null;
+        for (AylaDSShard shard : _shards) {
+            if (shard != excluded && shard.size() < _shardSize &&
+                    (least == null || shard.size() < least.size())) {
+                least = shard;
+            }
+        }
+        return least;
+    }
+
+    List<AylaDSShard> getShards() {
+        return _shards;
+    }
+
+    AylaDSShard getShard(String dsn) {
+        return _shardByDsn.get(dsn);
+    }
+
+    /**
+     * Returns true if the websocket of every shard is connected
+     */
+    boolean isConnected() {
+        if (_shards.isEmpty()) {
+            return false;
+        }
+        for (AylaDSShard shard : _shards) {
+            if (!shard.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the websocket of the shard serving the given device is connected
+     */
+    boolean isConnected(String dsn) {
+        AylaDSShard shard = _shardByDsn.get(dsn);
+        return shard != null && shard.isConnected();
+    }
+
+    /**
+     * Called when a shard connects or disconnects. Lets the AylaDSManager know when all shards
+     * have become connected, or when they no longer are.
+     */
+    void shardConnectionChanged() {
+        boolean connected = isConnected();
+        if (connected != _connected) {
+            _connected = connected;
+            if (_dsManager != null) {
+                _dsManager.shardsConnectionChanged(connected);
+            }
+        }
+    }
+
+    /**
+     * Returns the health and throughput figures of each shard
+     */
+    synchronized List<AylaDSShard.Stats> getStats() {
+        List<AylaDSShard.Stats> stats = new ArrayList<>(_shards.size());
+        for (AylaDSShard shard : _shards) {
+            stats.add(shard.getStats());
+        }
+        return stats;
+    }
+}
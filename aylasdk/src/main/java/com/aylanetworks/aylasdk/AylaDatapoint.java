@@ -5,14 +5,13 @@ package com.aylanetworks.aylasdk;
  * Copyright 2015 Ayla Networks, all rights reserved
  */
 
-import android.text.TextUtils;
-
 import com.android.volley.Response;
 import com.aylanetworks.aylasdk.change.Change;
 import com.aylanetworks.aylasdk.change.FieldChange;
 import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.lan.CreateDatapointCommand;
-import com.aylanetworks.aylasdk.util.DateUtils;
+import com.aylanetworks.aylasdk.util.AylaTimestamp;
+import com.aylanetworks.aylasdk.util.ObjectUtils;
 import com.google.gson.annotations.Expose;
 
 import java.util.Date;
@@ -34,15 +33,15 @@ import java.util.Set;
  */
 public class AylaDatapoint<T> {
     @Expose
-    protected String createdAt;
+    protected AylaTimestamp createdAt;
     @Expose
-    protected String createdAtFromDevice;
+    protected AylaTimestamp createdAtFromDevice;
     @Expose
     protected boolean echo;
     @Expose
     protected Map<String, String> metadata;
     @Expose
-    protected String updatedAt;
+    protected AylaTimestamp updatedAt;
     @Expose
     protected T value;
 
@@ -60,14 +59,22 @@ public class AylaDatapoint<T> {
     }
 
     public String getAckedAt() {
+        return AylaTimestamp.toString(ackedAt);
+    }
+
+    AylaTimestamp getAckedAtTimestamp() {
         return ackedAt;
     }
 
     void setAckedAt(String ack) {
+        ackedAt = AylaTimestamp.fromString(ack);
+    }
+
+    void setAckedAt(AylaTimestamp ack) {
         ackedAt = ack;
     }
 
-    void setUpdatedAt(String updatedAt) {
+    void setUpdatedAt(AylaTimestamp updatedAt) {
         this.updatedAt = updatedAt;
     }
 
@@ -83,14 +90,14 @@ public class AylaDatapoint<T> {
     @Expose
     private int ackMessage;
     @Expose
-    private String ackedAt;
+    private AylaTimestamp ackedAt;
 
     public Date getCreatedAt() {
-        return DateUtils.fromJsonString(createdAt);
+        return AylaTimestamp.toDate(createdAt);
     }
 
     public Date getCreatedAtFromDevice() {
-        return DateUtils.fromJsonString(createdAtFromDevice);
+        return AylaTimestamp.toDate(createdAtFromDevice);
     }
 
     /**
@@ -108,10 +115,14 @@ public class AylaDatapoint<T> {
     }
 
     public Date getUpdatedAt() {
-        return DateUtils.fromJsonString(updatedAt);
+        return AylaTimestamp.toDate(updatedAt);
     }
 
     public String getUpdatedAtString() {
+        return AylaTimestamp.toString(updatedAt);
+    }
+
+    AylaTimestamp getUpdatedAtTimestamp() {
         return updatedAt;
     }
 
@@ -122,7 +133,7 @@ public class AylaDatapoint<T> {
     public AylaDatapoint(CreateDatapointCommand<T> command) {
         value = command.getValue();
         // We don't get a timestamp- need to make one up
-        createdAt = DateUtils.getISO8601DateFormat().format(new Date());
+        createdAt = AylaTimestamp.now();
         updatedAt = createdAt;
         createdAtFromDevice = createdAt;
         metadata = command.getMetadata();
@@ -134,7 +145,7 @@ public class AylaDatapoint<T> {
      */
     public AylaDatapoint(T value) {
         this.value = value;
-        createdAt = DateUtils.getISO8601DateFormat().format(new Date());
+        createdAt = AylaTimestamp.now();
         updatedAt = createdAt;
         createdAtFromDevice = createdAt;
     }
@@ -186,16 +197,16 @@ public class AylaDatapoint<T> {
             this.value = (T) dp.value;
             changedFields.add("value");
         }
-        if ( dp.createdAtFromDevice != null && !TextUtils.equals(dp.createdAtFromDevice,
+        if ( dp.createdAtFromDevice != null && !ObjectUtils.equals(dp.createdAtFromDevice,
                 this.createdAtFromDevice)) {
             this.createdAtFromDevice = dp.createdAtFromDevice;
             changedFields.add("createdAtFromDevice");
         }
-        if ( dp.createdAt != null && !TextUtils.equals(dp.createdAt, this.createdAt)) {
+        if ( dp.createdAt != null && !ObjectUtils.equals(dp.createdAt, this.createdAt)) {
             this.createdAt = dp.createdAt;
             changedFields.add("createdAt");
         }
-        if ( dp.updatedAt != null && !TextUtils.equals(dp.updatedAt, this.updatedAt)) {
+        if ( dp.updatedAt != null && !ObjectUtils.equals(dp.updatedAt, this.updatedAt)) {
             this.updatedAt = dp.updatedAt;
             changedFields.add("updatedAt");
         }
@@ -0,0 +1,495 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.InternalError;
+import com.aylanetworks.aylasdk.error.PropertyAckTimeoutError;
+import com.aylanetworks.aylasdk.error.ServerError;
+import com.aylanetworks.aylasdk.metrics.AylaDevicePropertyMetric;
+import com.aylanetworks.aylasdk.metrics.AylaMetric;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Waits for the acks of datapoints created in the cloud on ack-enabled properties.
+ * <p>
+ * Pending acks are kept by datapoint ID. While the Device Stream Service is delivering datapoint
+ * ack events for the device, the ack is completed by the event and nothing is polled. If no
+ * datastream is connected, or it drops while waiting, the datapoint is polled for with
+ * exponential back-off, starting at {@link #INITIAL_POLL_DELAY_MS} and capped at
+ * {@link #MAX_POLL_DELAY_MS}. Either way, the datapoint is polled for once more when the ack
+ * timeout expires before the ack is reported missing.
+ * <p>
+ * An ack event can arrive from the datastream before the response of the request that created
+ * the datapoint, and so before the datapoint is tracked. Acks of untracked datapoints are kept
+ * for {@link #EARLY_ACK_RETENTION_MS}, and tracking a datapoint whose ack is already kept
+ * completes it right away.
+ * <p>
+ * The time taken by each ack, whether received from the datastream, polled for, or received
+ * over LAN, is recorded in an {@link AylaMetricsRegistry.Histogram} per property name. See
+ * {@link #getStats()}.
+ */
+public class AylaDatapointAckTracker {
+    private static final String LOG_TAG = "AckTracker";
+
+    /**
+     * Delay before the first poll, and the first check of the datastream
+     */
+    static final long INITIAL_POLL_DELAY_MS = 250;
+    static final long MAX_POLL_DELAY_MS = 4000;
+
+    /**
+     * Interval at which a pending ack checks that the datastream is still connected
+     */
+    static final long PUSH_CHECK_INTERVAL_MS = 2000;
+
+    /**
+     * Time for which an ack received before its datapoint is tracked is kept, and the maximum
+     * number of such acks kept
+     */
+    static final long EARLY_ACK_RETENTION_MS = 30000;
+    static final int MAX_EARLY_ACKS = 64;
+
+    /**
+     * How an ack was received
+     */
+    public enum AckSource {
+        DSS,
+        LAN,
+        POLL
+    }
+
+    /**
+     * Tells the tracker whether acks for a device are delivered by the datastream
+     */
+    interface PushChannel {
+        boolean isAckStreamConnected(String dsn);
+    }
+
+    private final Handler _handler;
+    private final PushChannel _pushChannel;
+    private final Map<String, PendingAck> _pendingAcks = new HashMap<>();
+    private final Map<String, LatencyRecorder> _latencies = new HashMap<>();
+
+    /**
+     * Acks received for datapoints that were not tracked yet, by datapoint ID, oldest first.
+     * Guarded by _pendingAcks.
+     */
+    private final LinkedHashMap<String, EarlyAck> _earlyAcks =
+            new LinkedHashMap<String, EarlyAck>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, EarlyAck> eldest) {
+                    return size() > MAX_EARLY_ACKS;
+                }
+            };
+
+    AylaDatapointAckTracker(Handler handler, PushChannel pushChannel) {
+        _handler = handler;
+        _pushChannel = pushChannel;
+    }
+
+    /**
+     * Starts waiting for the ack of a datapoint created in the cloud.
+     *
+     * @param property Property the datapoint was created on
+     * @param datapoint Datapoint returned by the service, which has no ack yet
+     * @param originalRequest Request that created the datapoint. Waiting stops if it is canceled.
+     * @param timeoutSeconds Time to wait for the ack
+     * @param successListener Listener to receive the acked datapoint
+     * @param errorListener Listener to receive a NAK, a PropertyAckTimeoutError or other errors
+     */
+    void track(AylaProperty property, AylaDatapoint datapoint, AylaAPIRequest originalRequest,
+               int timeoutSeconds, Response.Listener successListener,
+               ErrorListener errorListener) {
+        if (TextUtils.isEmpty(datapoint.getId())) {
+            errorListener.onErrorResponse(new InternalError("Datapoint ID is empty or null"));
+            return;
+        }
+        PendingAck ack = new PendingAck(property, datapoint.getId(), originalRequest,
+                timeoutSeconds, successListener, errorListener);
+        EarlyAck earlyAck;
+        synchronized (_pendingAcks) {
+            removeExpiredEarlyAcks();
+            earlyAck = _earlyAcks.remove(ack._datapointId);
+            if (earlyAck == null) {
+                _pendingAcks.put(ack._datapointId, ack);
+            }
+        }
+        if (earlyAck != null) {
+            // The datastream delivered the ack before we were asked to wait for it
+            complete(ack, earlyAck._datapoint, AckSource.DSS);
+            return;
+        }
+        _handler.postDelayed(ack, INITIAL_POLL_DELAY_MS);
+    }
+
+    /**
+     * Completes the pending ack of a datapoint ack event received from the datastream. The
+     * caller has already updated the property from the event. If the datapoint is not tracked
+     * yet, the ack is kept in case it is tracked shortly.
+     *
+     * @param datapoint Acked datapoint
+     * @return true if an ack was pending for the datapoint
+     */
+    boolean ackReceived(AylaDatapoint datapoint) {
+        if (datapoint == null || datapoint.getAckedAtTimestamp() == null ||
+                TextUtils.isEmpty(datapoint.getId())) {
+            return false;
+        }
+        PendingAck ack;
+        synchronized (_pendingAcks) {
+            ack = _pendingAcks.remove(datapoint.getId());
+            if (ack == null) {
+                removeExpiredEarlyAcks();
+                _earlyAcks.put(datapoint.getId(), new EarlyAck(datapoint));
+                return false;
+            }
+        }
+        _handler.removeCallbacks(ack);
+        complete(ack, datapoint, AckSource.DSS);
+        return true;
+    }
+
+    /**
+     * Stops waiting for all pending acks without notifying their listeners
+     */
+    void reset() {
+        synchronized (_pendingAcks) {
+            for (PendingAck ack : _pendingAcks.values()) {
+                _handler.removeCallbacks(ack);
+            }
+            _pendingAcks.clear();
+            _earlyAcks.clear();
+        }
+    }
+
+    /**
+     * Drops the early acks kept for longer than EARLY_ACK_RETENTION_MS. Called with the lock on
+     * _pendingAcks held.
+     */
+    private void removeExpiredEarlyAcks() {
+        long expiredBefore = SystemClock.elapsedRealtime() - EARLY_ACK_RETENTION_MS;
+        Iterator<EarlyAck> iterator = _earlyAcks.values().iterator();
+        while (iterator.hasNext() && iterator.next()._receivedAt < expiredBefore) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the number of acks being waited for
+     */
+    public int getPendingCount() {
+        synchronized (_pendingAcks) {
+            return _pendingAcks.size();
+        }
+    }
+
+    /**
+     * Returns the delay before the given poll of a datapoint, counting from 0
+     */
+    static long pollDelayMs(int poll) {
+        return Math.min(INITIAL_POLL_DELAY_MS << Math.min(poll, 16), MAX_POLL_DELAY_MS);
+    }
+
+    private PendingAck remove(String datapointId) {
+        synchronized (_pendingAcks) {
+            return _pendingAcks.remove(datapointId);
+        }
+    }
+
+    private boolean isPending(PendingAck ack) {
+        synchronized (_pendingAcks) {
+            return _pendingAcks.get(ack._datapointId) == ack;
+        }
+    }
+
+    private boolean isAckStreamConnected(PendingAck ack) {
+        return _pushChannel != null && _pushChannel.isAckStreamConnected(ack._dsn);
+    }
+
+    /**
+     * Polls for the datapoint, unless the datastream will deliver its ack
+     */
+    private void check(PendingAck ack) {
+        if (!isPending(ack)) {
+            return;
+        }
+        if (ack._originalRequest != null && ack._originalRequest.isCanceled()) {
+            AylaLog.w(LOG_TAG, "Request creating datapoint " + ack._datapointId +
+                    " canceled, no longer waiting for its ack");
+            remove(ack._datapointId);
+            return;
+        }
+
+        long remaining = ack._deadline - SystemClock.elapsedRealtime();
+        if (remaining > 0 && isAckStreamConnected(ack)) {
+            _handler.postDelayed(ack, Math.min(remaining, PUSH_CHECK_INTERVAL_MS));
+            return;
+        }
+        poll(ack, remaining <= 0);
+    }
+
+    private void poll(final PendingAck ack, final boolean lastPoll) {
+        ack._pollCount++;
+        ack._property.fetchDatapointById(ack._datapointId, ack._originalRequest,
+                new Response.Listener<AylaDatapoint>() {
+                    @Override
+                    public void onResponse(AylaDatapoint datapoint) {
+                        if (!isPending(ack)) {
+                            // Completed by the datastream while polling
+                            return;
+                        }
+                        if (datapoint.getAckedAtTimestamp() != null) {
+                            remove(ack._datapointId);
+                            ack._property.updateFrom(datapoint, AylaDevice.DataSource.CLOUD);
+                            complete(ack, datapoint, AckSource.POLL);
+                        } else if (lastPoll) {
+                            remove(ack._datapointId);
+                            timedOut(ack);
+                        } else {
+                            long remaining = ack._deadline - SystemClock.elapsedRealtime();
+                            _handler.postDelayed(ack, Math.max(0, Math.min(remaining,
+                                    pollDelayMs(ack._pollCount))));
+                        }
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        if (remove(ack._datapointId) == ack) {
+                            ack._errorListener.onErrorResponse(error);
+                        }
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(PendingAck ack, AylaDatapoint datapoint, AckSource source) {
+        String dsn = ack._dsn;
+        String propertyName = ack._property.getName();
+        if (datapoint.getAckStatus() == NanoHTTPD.Response.Status.OK.getRequestStatus()) {
+            recordLatency(propertyName, SystemClock.elapsedRealtime() - ack._startedAt, source);
+            ack._successListener.onResponse(datapoint);
+            AylaDevicePropertyMetric devicePropertyMetric =
+                    new AylaDevicePropertyMetric(AylaMetric.LogLevel.INFO,
+                            AylaDevicePropertyMetric.MetricType.PROPERTY_ACK,
+                            source == AckSource.POLL ? "fetchDatapointByID" : "datapointAck",
+                            dsn, propertyName, AylaMetric.Result.SUCCESS, null);
+            devicePropertyMetric.setAckMessage(String.valueOf(datapoint.getAckMessage()));
+            devicePropertyMetric.setAckStatus(String.valueOf(datapoint.getAckStatus()));
+            devicePropertyMetric.setAckTimestamp(datapoint.getAckedAt());
+            AylaProperty.sendToMetricsManager(devicePropertyMetric);
+        } else {
+            // We got the ack, but failed.
+            ack._errorListener.onErrorResponse(new ServerError(datapoint.getAckStatus(), null,
+                    "Datapoint NAK", null));
+        }
+    }
+
+    private void timedOut(PendingAck ack) {
+        String propertyName = ack._property.getName();
+        AylaLog.w(LOG_TAG, "Ack enable property time out.");
+        synchronized (_latencies) {
+            latencyRecorder(propertyName)._timeoutCount++;
+        }
+        ack._errorListener.onErrorResponse(new PropertyAckTimeoutError(propertyName,
+                "Ack enabled property " + propertyName + " polling timed out"));
+        AylaDevicePropertyMetric devicePropertyMetric =
+                new AylaDevicePropertyMetric(AylaMetric.LogLevel.INFO,
+                        AylaDevicePropertyMetric.MetricType.PROPERTY_ACK,
+                        "fetchDatapointByID", ack._dsn, propertyName,
+                        AylaMetric.Result.FAILURE, "Ack enabled property " + propertyName +
+                        " timed out");
+        AylaProperty.sendToMetricsManager(devicePropertyMetric);
+    }
+
+    /**
+     * Records the time taken to receive an ack for a property
+     */
+    void recordLatency(String propertyName, long latencyMs, AckSource source) {
+        synchronized (_latencies) {
+            latencyRecorder(propertyName).record(latencyMs, source);
+        }
+    }
+
+    private LatencyRecorder latencyRecorder(String propertyName) {
+        LatencyRecorder recorder = _latencies.get(propertyName);
+        if (recorder == null) {
+            recorder = new LatencyRecorder();
+            _latencies.put(propertyName, recorder);
+        }
+        return recorder;
+    }
+
+    /**
+     * Returns the ack latencies of each property that has received acks.
+     *
+     * @return Stats for each property
+     */
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>();
+        synchronized (_latencies) {
+            for (Map.Entry<String, LatencyRecorder> entry : _latencies.entrySet()) {
+                stats.add(entry.getValue().getStats(entry.getKey()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * An ack being waited for. Runs check() when posted to the handler.
+     */
+    private class PendingAck implements Runnable {
+        private final AylaProperty _property;
+        private final String _dsn;
+        private final String _datapointId;
+        private final AylaAPIRequest _originalRequest;
+        private final Response.Listener _successListener;
+        private final ErrorListener _errorListener;
+        private final long _startedAt;
+        private final long _deadline;
+        private int _pollCount;
+
+        PendingAck(AylaProperty property, String datapointId, AylaAPIRequest originalRequest,
+                   int timeoutSeconds, Response.Listener successListener,
+                   ErrorListener errorListener) {
+            AylaDevice device = property.getOwner();
+            _property = property;
+            _dsn = device == null ? null : device.getDsn();
+            _datapointId = datapointId;
+            _originalRequest = originalRequest;
+            _successListener = successListener;
+            _errorListener = errorListener;
+            _startedAt = SystemClock.elapsedRealtime();
+            _deadline = _startedAt + timeoutSeconds * 1000L;
+        }
+
+        @Override
+        public void run() {
+            check(this);
+        }
+    }
+
+    /**
+     * An ack received before its datapoint was tracked
+     */
+    private static class EarlyAck {
+        private final AylaDatapoint _datapoint;
+        private final long _receivedAt;
+
+        EarlyAck(AylaDatapoint datapoint) {
+            _datapoint = datapoint;
+            _receivedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static class LatencyRecorder {
+        private final AylaMetricsRegistry.Histogram _latencies =
+                new AylaMetricsRegistry.Histogram();
+        private final long[] _sourceCounts = new long[AckSource.values().length];
+        private long _timeoutCount;
+
+        void record(long latencyMs, AckSource source) {
+            _latencies.record(latencyMs);
+            _sourceCounts[source.ordinal()]++;
+        }
+
+        Stats getStats(String propertyName) {
+            return new Stats(propertyName, _latencies.snapshot(), _sourceCounts.clone(),
+                    _timeoutCount);
+        }
+    }
+
+    /**
+     * Ack latencies of one property, over all acks received since the tracker was created
+     */
+    public static class Stats {
+        private final String _propertyName;
+        private final AylaMetricsRegistry.HistogramSnapshot _latencies;
+        private final long[] _sourceCounts;
+        private final long _timeoutCount;
+
+        Stats(String propertyName, AylaMetricsRegistry.HistogramSnapshot latencies,
+              long[] sourceCounts, long timeoutCount) {
+            _propertyName = propertyName;
+            _latencies = latencies;
+            _sourceCounts = sourceCounts;
+            _timeoutCount = timeoutCount;
+        }
+
+        public String getPropertyName() {
+            return _propertyName;
+        }
+
+        /**
+         * @return the 50th percentile ack latency in milliseconds, or -1 if no acks were received
+         */
+        public long getP50Ms() {
+            return _latencies.getCount() == 0 ? -1 : _latencies.getP50();
+        }
+
+        /**
+         * @return the 90th percentile ack latency in milliseconds, or -1 if no acks were received
+         */
+        public long getP90Ms() {
+            return _latencies.getCount() == 0 ? -1 : _latencies.getP90();
+        }
+
+        /**
+         * @return the 99th percentile ack latency in milliseconds, or -1 if no acks were received
+         */
+        public long getP99Ms() {
+            return _latencies.getCount() == 0 ? -1 : _latencies.getP99();
+        }
+
+        /**
+         * @return the longest ack latency recorded in milliseconds
+         */
+        public long getMaxMs() {
+            return _latencies.getMax();
+        }
+
+        /**
+         * @return the number of acks received the given way
+         */
+        public long getAckCount(AckSource source) {
+            return _sourceCounts[source.ordinal()];
+        }
+
+        /**
+         * @return the number of acks that were not received in time
+         */
+        public long getTimeoutCount() {
+            return _timeoutCount;
+        }
+
+        @Override
+        public String toString() {
+            return _propertyName + ": p50: " + getP50Ms() + "ms" +
+                    ", p90: " + getP90Ms() + "ms" +
+                    ", p99: " + getP99Ms() + "ms" +
+                    ", max: " + getMaxMs() + "ms" +
+                    ", dss: " + getAckCount(AckSource.DSS) +
+                    ", lan: " + getAckCount(AckSource.LAN) +
+                    ", polled: " + getAckCount(AckSource.POLL) +
+                    ", timeouts: " + _timeoutCount;
+        }
+    }
+}
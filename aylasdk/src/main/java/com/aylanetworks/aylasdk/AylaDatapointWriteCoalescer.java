@@ -0,0 +1,413 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.InternalError;
+import com.aylanetworks.aylasdk.error.PreconditionError;
+import com.aylanetworks.aylasdk.error.ServerError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Merges datapoints created in the cloud within a short window into batch_datapoints requests,
+ * so that a dimmer being dragged or a group action across many devices does not need a POST
+ * per datapoint.
+ * <p>
+ * Datapoints are held for the window set in
+ * {@link AylaSystemSettings#datapointBatchWindowMs}, or until {@link #MAX_BATCH_SIZE}
+ * properties are waiting, and then sent together via
+ * {@link AylaDeviceManager#createDatapointBatch}. If several values are created for the same
+ * property within the window, only the last one is sent. Each caller still receives the
+ * datapoint that was created, or the error for it, on its own listeners; callers whose values
+ * were superseded receive the datapoint of the value that was sent. Ack-enabled properties
+ * wait for their acks as they would without batching.
+ * <p>
+ * Canceling the request returned for a datapoint stops delivery to that caller. A value is only
+ * dropped if every caller waiting on it canceled before the batch was sent. Datapoints still
+ * waiting when the device manager shuts down are not sent, and their callers receive a
+ * PreconditionError.
+ */
+public class AylaDatapointWriteCoalescer {
+    private static final String LOG_TAG = "DatapointCoalescer";
+
+    /**
+     * Maximum number of datapoints sent in one batch
+     */
+    static final int MAX_BATCH_SIZE = 50;
+
+    /**
+     * Sends a batch of datapoints. Implemented by the AylaDeviceManager.
+     */
+    interface BatchSender {
+        AylaAPIRequest sendBatch(AylaDatapointBatchRequest[] requests,
+                                 Response.Listener<AylaDatapointBatchResponse[]> successListener,
+                                 ErrorListener errorListener);
+    }
+
+    private final Handler _handler;
+    private final int _windowMs;
+    private final BatchSender _sender;
+    private final Map<String, PendingWrite> _pendingWrites = new LinkedHashMap<>();
+    private boolean _flushScheduled;
+
+    private final AtomicLong _datapointCount = new AtomicLong();
+    private final AtomicLong _supersededCount = new AtomicLong();
+    private final AtomicLong _batchCount = new AtomicLong();
+    private final AtomicLong _failedCount = new AtomicLong();
+
+    private final Runnable _flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    AylaDatapointWriteCoalescer(Handler handler, int windowMs, BatchSender sender) {
+        _handler = handler;
+        _windowMs = windowMs;
+        _sender = sender;
+    }
+
+    /**
+     * Returns true if the given datapoint may be batched. Batch requests carry no metadata, and
+     * file and message properties have datapoints of their own kind.
+     */
+    static boolean canBatch(AylaProperty property, Object value, Map<String, String> metadata) {
+        return value != null && (metadata == null || metadata.isEmpty()) &&
+                property.getName() != null &&
+                property.getBaseType() != null &&
+                !AylaProperty.BASE_TYPE_FILE.equals(property.getBaseType()) &&
+                !AylaProperty.BASE_TYPE_MESSAGE.equals(property.getBaseType()) &&
+                property.getOwner() != null && property.getOwner().getDsn() != null;
+    }
+
+    /**
+     * Queues a datapoint to be sent with the next batch.
+     *
+     * @param property Property to create the datapoint on
+     * @param value Value of the datapoint
+     * @param ackEnabledTimeout Timeout in seconds to wait for an ack (ack-enabled properties only)
+     * @param successListener Listener to receive the created datapoint
+     * @param errorListener Listener to receive an error should one occur
+     * @return a request that may be canceled to stop delivery to the listeners
+     */
+    <T> AylaAPIRequest add(AylaProperty<T> property, T value, int ackEnabledTimeout,
+                           Response.Listener<AylaDatapoint<T>> successListener,
+                           ErrorListener errorListener) {
+        AylaAPIRequest request = AylaAPIRequest.dummyRequest(AylaDatapoint.class,
+                successListener, errorListener);
+        Caller caller = new Caller(request, successListener, errorListener);
+        _datapointCount.incrementAndGet();
+
+        boolean flushNow = false;
+        synchronized (_pendingWrites) {
+            String key = keyFor(property.getOwner().getDsn(), property.getName());
+            PendingWrite write = _pendingWrites.get(key);
+            if (write == null) {
+                write = new PendingWrite(property);
+                _pendingWrites.put(key, write);
+            } else {
+                _supersededCount.incrementAndGet();
+            }
+            write._value = value;
+            write._ackEnabledTimeout = ackEnabledTimeout;
+            write._callers.add(caller);
+
+            if (_pendingWrites.size() >= MAX_BATCH_SIZE) {
+                flushNow = true;
+            } else if (!_flushScheduled && _handler != null) {
+                _flushScheduled = true;
+                _handler.postDelayed(_flushRunnable, _windowMs);
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        }
+        return request;
+    }
+
+    /**
+     * Sends all waiting datapoints
+     */
+    void flush() {
+        List<PendingWrite> writes;
+        synchronized (_pendingWrites) {
+            if (_handler != null) {
+                _handler.removeCallbacks(_flushRunnable);
+            }
+            _flushScheduled = false;
+            writes = new ArrayList<>(_pendingWrites.values());
+            _pendingWrites.clear();
+        }
+
+        final Map<String, PendingWrite> sent = new HashMap<>();
+        List<AylaDatapointBatchRequest> requests = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            if (write.isCanceled()) {
+                continue;
+            }
+            requests.add(new AylaDatapointBatchRequest(write._value, write._property));
+            sent.put(keyFor(write._property.getOwner().getDsn(), write._property.getName()),
+                    write);
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        _batchCount.incrementAndGet();
+        AylaLog.d(LOG_TAG, "Sending " + requests.size() + " datapoints in one batch");
+        AylaAPIRequest batchRequest = _sender.sendBatch(
+                requests.toArray(new AylaDatapointBatchRequest[requests.size()]),
+                new Response.Listener<AylaDatapointBatchResponse[]>() {
+                    @Override
+                    public void onResponse(AylaDatapointBatchResponse[] responses) {
+                        batchCompleted(sent, responses);
+                    }
+                },
+                new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        for (PendingWrite write : sent.values()) {
+                            write.deliverError(error);
+                        }
+                        _failedCount.addAndGet(sent.size());
+                    }
+                });
+        if (batchRequest == null) {
+            // The error listener has already been called
+            AylaLog.e(LOG_TAG, "Batch request for " + requests.size() + " datapoints not sent");
+        }
+    }
+
+    /**
+     * Delivers the result of each datapoint in a batch to its callers
+     *
+     * @param sent Datapoints sent in the batch, by DSN and property name
+     * @param responses Responses received for the batch
+     */
+    void batchCompleted(Map<String, PendingWrite> sent, AylaDatapointBatchResponse[] responses) {
+        if (responses != null) {
+            for (AylaDatapointBatchResponse response : responses) {
+                if (response == null) {
+                    continue;
+                }
+                PendingWrite write = sent.remove(keyFor(response.getDsn(), response.getName()));
+                if (write == null) {
+                    AylaLog.w(LOG_TAG, "Unexpected batch response for " + response.getDsn() +
+                            ":" + response.getName());
+                    continue;
+                }
+                if (response.getStatus() != AylaDeviceManager.DATAPOINT_CREATED_SUCCESS ||
+                        response.getDatapoint() == null) {
+                    _failedCount.incrementAndGet();
+                    write.deliverError(new ServerError(response.getStatus(), null,
+                            "Failed to create datapoint for " + response.getName(), null));
+                } else {
+                    write.deliverDatapoint(response.getDatapoint());
+                }
+            }
+        }
+
+        for (PendingWrite write : sent.values()) {
+            _failedCount.incrementAndGet();
+            write.deliverError(new InternalError("No response in batch for property " +
+                    write._property.getName()));
+        }
+    }
+
+    /**
+     * Drops all waiting datapoints without sending them. Their callers receive a
+     * PreconditionError.
+     */
+    void reset() {
+        List<PendingWrite> writes;
+        synchronized (_pendingWrites) {
+            if (_handler != null) {
+                _handler.removeCallbacks(_flushRunnable);
+            }
+            _flushScheduled = false;
+            writes = new ArrayList<>(_pendingWrites.values());
+            _pendingWrites.clear();
+        }
+
+        if (!writes.isEmpty()) {
+            AylaLog.d(LOG_TAG, "Dropping " + writes.size() + " datapoints not yet sent");
+        }
+        for (PendingWrite write : writes) {
+            _failedCount.incrementAndGet();
+            write.deliverError(new PreconditionError("Datapoint for " +
+                    write._property.getName() + " not sent, the device manager was shut down"));
+        }
+    }
+
+    int getPendingCount() {
+        synchronized (_pendingWrites) {
+            return _pendingWrites.size();
+        }
+    }
+
+    /**
+     * Returns the number of datapoints received, batches sent and values collapsed
+     *
+     * @return the current Stats of the coalescer
+     */
+    public Stats getStats() {
+        return new Stats(_datapointCount.get(), _supersededCount.get(), _batchCount.get(),
+                _failedCount.get());
+    }
+
+    private static String keyFor(String dsn, String propertyName) {
+        return dsn + ":" + propertyName;
+    }
+
+    private static class Caller {
+        final AylaAPIRequest _request;
+        final Response.Listener _successListener;
+        final ErrorListener _errorListener;
+
+        Caller(AylaAPIRequest request, Response.Listener successListener,
+               ErrorListener errorListener) {
+            _request = request;
+            _successListener = successListener;
+            _errorListener = errorListener;
+        }
+    }
+
+    /**
+     * The latest value waiting to be sent for a property, and everyone waiting on it
+     */
+    static class PendingWrite {
+        final AylaProperty _property;
+        final List<Caller> _callers = new ArrayList<>();
+        Object _value;
+        int _ackEnabledTimeout;
+
+        PendingWrite(AylaProperty property) {
+            _property = property;
+        }
+
+        boolean isCanceled() {
+            for (Caller caller : _callers) {
+                if (!caller._request.isCanceled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void deliverDatapoint(final AylaDatapoint datapoint) {
+            if (!_property.isAckEnabled()) {
+                deliverSuccess(datapoint);
+                return;
+            }
+
+            AylaDevice device = _property.getOwner();
+            AylaDeviceManager deviceManager = device == null ? null : device.getDeviceManager();
+            if (deviceManager == null) {
+                deliverError(new InternalError("No device manager to wait for the ack"));
+                return;
+            }
+            Response.Listener<AylaDatapoint> successListener =
+                    new Response.Listener<AylaDatapoint>() {
+                        @Override
+                        public void onResponse(AylaDatapoint response) {
+                            deliverSuccess(response);
+                        }
+                    };
+            ErrorListener errorListener = new ErrorListener() {
+                @Override
+                public void onErrorResponse(AylaError error) {
+                    deliverError(error);
+                }
+            };
+
+            // Stands in for the request that created the datapoint while the ack is awaited.
+            // It is never canceled; callers that cancel just stop receiving the result.
+            AylaAPIRequest ackRequest = AylaAPIRequest.dummyRequest(AylaDatapoint.class,
+                    successListener, errorListener);
+            deviceManager.getAckTracker().track(_property, datapoint, ackRequest,
+                    _ackEnabledTimeout, successListener, errorListener);
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliverSuccess(AylaDatapoint datapoint) {
+            for (Caller caller : _callers) {
+                if (!caller._request.isCanceled() && caller._successListener != null) {
+                    caller._successListener.onResponse(datapoint);
+                }
+            }
+        }
+
+        void deliverError(AylaError error) {
+            for (Caller caller : _callers) {
+                if (!caller._request.isCanceled() && caller._errorListener != null) {
+                    caller._errorListener.onErrorResponse(error);
+                }
+            }
+        }
+    }
+
+    public static class Stats {
+        private final long _datapointCount;
+        private final long _supersededCount;
+        private final long _batchCount;
+        private final long _failedCount;
+
+        Stats(long datapointCount, long supersededCount, long batchCount, long failedCount) {
+            _datapointCount = datapointCount;
+            _supersededCount = supersededCount;
+            _batchCount = batchCount;
+            _failedCount = failedCount;
+        }
+
+        /**
+         * @return the number of datapoints created through the coalescer
+         */
+        public long getDatapointCount() {
+            return _datapointCount;
+        }
+
+        /**
+         * @return the number of values replaced by a later value for the same property before
+         * being sent
+         */
+        public long getSupersededCount() {
+            return _supersededCount;
+        }
+
+        /**
+         * @return the number of batch requests sent
+         */
+        public long getBatchCount() {
+            return _batchCount;
+        }
+
+        /**
+         * @return the number of datapoints that could not be created
+         */
+        public long getFailedCount() {
+            return _failedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "datapoints: " + _datapointCount + ", superseded: " + _supersededCount +
+                    ", batches: " + _batchCount + ", failed: " + _failedCount;
+        }
+    }
+}
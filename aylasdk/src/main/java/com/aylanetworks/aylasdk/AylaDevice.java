@@ -53,6 +53,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import static com.aylanetworks.aylasdk.AylaAPIRequest.EmptyResponse;
 import static com.aylanetworks.aylasdk.AylaAPIRequest.Method;
@@ -230,12 +231,21 @@ public class AylaDevice {
 
     // Managed members
     protected final Map<String, AylaProperty> _propertyMap = new HashMap<>();
-    protected final Set<DeviceChangeListener> _deviceChangeListeners = new HashSet<>();
+    // Copy-on-write, so listeners are notified without holding a lock that would keep other
+    // threads from adding or removing listeners
+    protected final Set<DeviceChangeListener> _deviceChangeListeners =
+            new CopyOnWriteArraySet<>();
     protected boolean _lanModePermitted = true;
     protected boolean _pollingPermitted = true;
     protected boolean _isPollingActive = false;
     protected Handler _pollTimerHandler;
     protected int _pollIntervalMs = DEFAULT_POLL_TIMEOUT_MS;
+
+    /**
+     * Properties restored from a device snapshot that have not been decoded yet. Guarded by
+     * the property map.
+     */
+    AylaDeviceSnapshot.PendingProperties _pendingProperties;
     protected AylaLanModule _lanModule;
     protected AylaLanConfig _lanConfig;
     protected DataSource _lastUpdateSource = DataSource.CLOUD;
@@ -277,9 +287,7 @@ public class AylaDevice {
      * @param listener Listener to be notified of changes to this device
      */
     public void addListener(DeviceChangeListener listener) {
-        synchronized (_deviceChangeListeners) {
-            _deviceChangeListeners.add(listener);
-        }
+        _deviceChangeListeners.add(listener);
     }
 
     /**
@@ -289,9 +297,7 @@ public class AylaDevice {
      * @param listener Listener to remove
      */
     public void removeListener(DeviceChangeListener listener) {
-        synchronized (_deviceChangeListeners) {
-            _deviceChangeListeners.remove(listener);
-        }
+        _deviceChangeListeners.remove(listener);
     }
 
     public Date getConnectedAt() {
@@ -491,7 +497,7 @@ public class AylaDevice {
             _lanModule.deleteLANSession();
             _lanModule = null;
         } else if(permitted){
-            startLanSession(getDeviceManager().getLanServer());
+            requestLanSession();
         }
     }
 
@@ -518,7 +524,7 @@ public class AylaDevice {
         if (!disable) {
             // Attempt a LAN session
             if( !isLanModeActive()){
-                startLanSession(getDeviceManager().getLanServer());
+                requestLanSession();
             }
 
         } else {
@@ -615,6 +621,15 @@ public class AylaDevice {
         startLanSession(httpServer,true);
     }
 
+    /**
+     * Requests a LAN session with this device from the device manager, which starts it once
+     * a key exchange slot is available.
+     */
+    void requestLanSession() {
+        AylaDeviceManager deviceManager = getDeviceManager();
+        deviceManager.getLanSessionOrchestrator().requestSession(this);
+    }
+
     /**
      * Start LAN Mode session for OTA. This is just for OTA and we dont check for isLanModePermitted
      * for this session
@@ -718,7 +733,7 @@ public class AylaDevice {
             propertyNames = provider.getManagedPropertyNames(this);
         }
 
-        fetchProperties(propertyNames,
+        fetchProperties(propertyNames, AylaAPIRequest.PriorityClass.Background,
                 new Response.Listener<AylaProperty[]>() {
                     @Override
                     public void onResponse(AylaProperty[] response) {
@@ -766,6 +781,19 @@ public class AylaDevice {
     public AylaAPIRequest fetchProperties(String[] propertyNames,
                                           final Response.Listener<AylaProperty[]> successListener,
                                           final ErrorListener errorListener) {
+        return fetchProperties(propertyNames, AylaAPIRequest.PriorityClass.Interactive,
+                successListener, errorListener);
+    }
+
+    /**
+     * Fetches the provided property values from the cloud service or LAN, sending cloud
+     * requests with the given priority class. Background fetches are polls, which expire after
+     * one poll interval, since the next poll supersedes them.
+     */
+    private AylaAPIRequest fetchProperties(String[] propertyNames,
+                                           AylaAPIRequest.PriorityClass priorityClass,
+                                           final Response.Listener<AylaProperty[]> successListener,
+                                           final ErrorListener errorListener) {
         AylaSessionManager sessionManager = getSessionManager();
         if (sessionManager == null) {
             errorListener.onErrorResponse(new PreconditionError("Session is not active"));
@@ -789,8 +817,12 @@ public class AylaDevice {
             return fetchPropertiesLAN(propertyNames, successListener, errorListener);
         }
 
-        // We need to fetch the properties from the cloud instead.
-        return fetchPropertiesCloud(propertyNames, successListener, errorListener);
+        // We need to fetch the properties from the cloud instead. Interactive fetches go
+        // through the public method, which subclasses may override.
+        if (priorityClass == AylaAPIRequest.PriorityClass.Interactive) {
+            return fetchPropertiesCloud(propertyNames, successListener, errorListener);
+        }
+        return fetchPropertiesCloud(propertyNames, priorityClass, successListener, errorListener);
     }
 
     /**
@@ -831,6 +863,14 @@ public class AylaDevice {
     public AylaAPIRequest fetchPropertiesCloud(String[] propertyNames,
                                                final Response.Listener<AylaProperty[]> successListener,
                                                final ErrorListener errorListener) {
+        return fetchPropertiesCloud(propertyNames, AylaAPIRequest.PriorityClass.Interactive,
+                successListener, errorListener);
+    }
+
+    private AylaAPIRequest fetchPropertiesCloud(String[] propertyNames,
+                                                AylaAPIRequest.PriorityClass priorityClass,
+                                                final Response.Listener<AylaProperty[]> successListener,
+                                                final ErrorListener errorListener) {
 
         AylaProperty[] cachedProperties = null;
         AylaSessionManager sessionManager = getSessionManager();
@@ -910,6 +950,11 @@ public class AylaDevice {
                     }
                 });
 
+        if (priorityClass == AylaAPIRequest.PriorityClass.Background) {
+            // Polls that cannot be sent before the next poll is due are no longer useful
+            request.setPriorityClass(priorityClass);
+            request.setDeadlineMs(getPollIntervalMs());
+        }
         deviceManager.sendDeviceServiceRequest(request);
         return request;
     }
@@ -1027,16 +1072,53 @@ public class AylaDevice {
      */
     public List<AylaProperty> getProperties() {
         synchronized (_propertyMap) {
+            decodePendingProperties();
             return new ArrayList<>(_propertyMap.values());
         }
     }
 
     public AylaProperty getProperty(String propertyName) {
         synchronized (_propertyMap) {
+            if (_pendingProperties != null) {
+                addCachedProperty(_pendingProperties.decode(propertyName));
+            }
             return _propertyMap.get(propertyName);
         }
     }
 
+    /**
+     * Sets properties restored from a device snapshot, to be decoded when they are first
+     * accessed. See {@link AylaDeviceSnapshot}.
+     *
+     * @param pendingProperties Encoded properties of this device
+     */
+    void setPendingProperties(AylaDeviceSnapshot.PendingProperties pendingProperties) {
+        synchronized (_propertyMap) {
+            _pendingProperties = pendingProperties;
+        }
+    }
+
+    /**
+     * Decodes any properties restored from a device snapshot that have not been accessed yet.
+     * Must be called with the property map locked.
+     */
+    private void decodePendingProperties() {
+        if (_pendingProperties != null) {
+            for (AylaProperty property : _pendingProperties.decodeAll()) {
+                addCachedProperty(property);
+            }
+            _pendingProperties = null;
+        }
+    }
+
+    private void addCachedProperty(AylaProperty property) {
+        if (property != null && !_propertyMap.containsKey(property.getName())) {
+            property.setOwner(this);
+            property.setLastUpdateSource(DataSource.CACHED);
+            _propertyMap.put(property.getName(), property);
+        }
+    }
+
     public AylaLanConfig getLanConfig() {
         return _lanConfig;
     }
@@ -1122,13 +1204,11 @@ public class AylaDevice {
     public void notifyDeviceChanged(final Change change, DataSource dataSource ) {
         AylaLog.v(LOG_TAG, "Device " + this.toString() + " changed: " + change);
         _lastUpdateSource = dataSource;
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceChangeListeners) {
-                    for (DeviceChangeListener listener : _deviceChangeListeners) {
-                        listener.deviceChanged(AylaDevice.this, change);
-                    }
+                for (DeviceChangeListener listener : _deviceChangeListeners) {
+                    listener.deviceChanged(AylaDevice.this, change);
                 }
             }
         });
@@ -1140,13 +1220,11 @@ public class AylaDevice {
      * @param error the AylaError object to be delivered to listeners
      */
     public void notifyError(final AylaError error) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceChangeListeners) {
-                    for (DeviceChangeListener listener : _deviceChangeListeners) {
-                        listener.deviceError(AylaDevice.this, error);
-                    }
+                for (DeviceChangeListener listener : _deviceChangeListeners) {
+                    listener.deviceError(AylaDevice.this, error);
                 }
             }
         });
@@ -1175,6 +1253,9 @@ public class AylaDevice {
             AylaLog.d(LOG_TAG, "notifyLanStateChange: device not found in deviceManager");
             return;
         }
+        if (deviceManager != null) {
+            deviceManager.getLanSessionOrchestrator().lanStateChanged(this, lanEnabled);
+        }
 
         if (lanEnabled && getSessionManager() != null && !getSessionManager().isCachedSession()) {
             // We will notify listeners after we fetch the properties within this method
@@ -1184,13 +1265,11 @@ public class AylaDevice {
             if(!lanEnabled){
                 dataSourceChanged(DataSource.CLOUD);
             }
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+            AylaListenerDelivery.get().execute(new Runnable() {
                 @Override
                 public void run() {
-                    synchronized (_deviceChangeListeners) {
-                        for (DeviceChangeListener listener : _deviceChangeListeners) {
-                            listener.deviceLanStateChanged(AylaDevice.this, lanEnabled, error);
-                        }
+                    for (DeviceChangeListener listener : _deviceChangeListeners) {
+                        listener.deviceLanStateChanged(AylaDevice.this, lanEnabled, error);
                     }
                 }
             });
@@ -1211,6 +1290,8 @@ public class AylaDevice {
 
         AylaProperty[] myProperties = new AylaProperty[fetchedProperties.length];
         synchronized (_propertyMap) {
+            decodePendingProperties();
+
             // Add or update our properties with what was passed in
             for (int index = 0; index < fetchedProperties.length; index++) {
                 AylaProperty fetchedProperty = fetchedProperties[index];
@@ -2262,7 +2343,7 @@ public class AylaDevice {
                 // fetch needed
                 fetch = false;
             } else if (getSessionManager().getDSManager() != null &&
-                    getSessionManager().getDSManager().isConnected()) {
+                    getSessionManager().getDSManager().isConnected(getDsn())) {
                 fetch = true;
             }
 
@@ -2282,11 +2363,16 @@ public class AylaDevice {
                             stopPolling();
                             if (dataSource == DataSource.LAN) {
                                 // Now we can notify our listeners that LAN mode is active
-                                synchronized (_deviceChangeListeners) {
-                                    for (DeviceChangeListener listener : _deviceChangeListeners) {
-                                        listener.deviceLanStateChanged(AylaDevice.this, lanEnabled, null);
+                                AylaListenerDelivery.get().execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        for (DeviceChangeListener listener :
+                                                _deviceChangeListeners) {
+                                            listener.deviceLanStateChanged(AylaDevice.this,
+                                                    lanEnabled, null);
+                                        }
                                     }
-                                }
+                                });
                             }
                         }
                     },
@@ -13,17 +13,13 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.android.volley.Cache;
 import com.android.volley.Network;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.HttpHeaderParser;
-import com.android.volley.toolbox.HurlStack;
 import com.aylanetworks.aylasdk.change.ListChange;
 import com.aylanetworks.aylasdk.error.AylaError;
 import com.aylanetworks.aylasdk.error.ErrorListener;
@@ -31,6 +27,7 @@ import com.aylanetworks.aylasdk.error.JsonError;
 import com.aylanetworks.aylasdk.error.PreconditionError;
 import com.aylanetworks.aylasdk.lan.AylaHttpServer;
 import com.aylanetworks.aylasdk.lan.AylaLanConfig;
+import com.aylanetworks.aylasdk.transport.AylaHttpTransport;
 import com.aylanetworks.aylasdk.setup.AylaRegistration;
 import com.aylanetworks.aylasdk.setup.AylaSetupDevice;
 import com.aylanetworks.aylasdk.util.AylaPredicate;
@@ -39,8 +36,8 @@ import com.aylanetworks.aylasdk.util.ServiceUrls;
 import com.aylanetworks.aylasdk.util.TypeUtils;
 import com.aylanetworks.aylasdk.util.URLHelper;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
@@ -50,16 +47,24 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import static com.aylanetworks.aylasdk.AylaAlertHistory.*;
 
@@ -99,10 +104,37 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      */
     final private static int DEFAULT_POLL_INTERVAL_MS = 15000;
 
+    /**
+     * Number of consecutive unchanged device list polls after which the poll interval is
+     * doubled, when adaptive polling is enabled
+     */
+    final private static int STABLE_POLLS_PER_BACKOFF = 4;
+
+    /**
+     * Maximum factor by which the poll interval is stretched while the device list is stable
+     */
+    final private static int MAX_POLL_BACKOFF_FACTOR = 4;
+
+    /**
+     * Number of polls made at half the poll interval after a device has been registered or
+     * unregistered, when adaptive polling is enabled
+     */
+    final private static int FAST_POLL_COUNT = 4;
+
+    /**
+     * Directory within the application's files directory that holds device snapshots
+     */
+    final private static String SNAPSHOT_DIRECTORY = "ayla_snapshots";
+
     /**
      * Request queue for device service messages
      */
-    final private RequestQueue _deviceRequestQueue;
+    final private AylaPriorityRequestQueue _deviceRequestQueue;
+
+    /**
+     * De-duplicates identical GET requests in flight on the device request queue
+     */
+    final private AylaRequestCoalescer _requestCoalescer;
 
     /**
      * Map of device DSNs to devices. This is where we store the master device list.
@@ -135,6 +167,37 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      */
     private boolean _isPolling = false;
 
+    /**
+     * Validators and body digest of the last device list received from the service, used to
+     * skip processing of device lists that have not changed
+     */
+    private String _deviceListETag;
+    private String _deviceListLastModified;
+    private volatile byte[] _deviceListDigest;
+
+    /**
+     * Number of consecutive polls that found the device list unchanged. Updated from the
+     * request's listener and read by getCurrentPollInterval(), which may be called on any thread.
+     */
+    private volatile int _unchangedPollCount;
+
+    /**
+     * Number of remaining polls to be made at the shorter interval after a local change to the
+     * device list
+     */
+    private volatile int _fastPollsRemaining;
+
+    /**
+     * False if adaptive polling is disabled in the system settings, which do not change after
+     * initialization
+     */
+    private final boolean _adaptivePolling;
+
+    /**
+     * Binary snapshot of the device list used for fast startup when offline use is allowed
+     */
+    private AylaDeviceSnapshot _snapshot;
+
     /**
      * True if the device list returned from AylaDeviceManager is a cached list, and might be stale.
      */
@@ -146,6 +209,22 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      */
     private AylaHttpServer _lanServer;
 
+    /**
+     * Schedules the key exchanges that bring up LAN sessions with our devices
+     */
+    private final AylaLanSessionOrchestrator _lanSessionOrchestrator;
+
+    /**
+     * Waits for the acks of datapoints created in the cloud on ack-enabled properties
+     */
+    private final AylaDatapointAckTracker _ackTracker;
+
+    /**
+     * Merges datapoints created in the cloud into batch requests, or null if disabled via
+     * {@link AylaSystemSettings#datapointBatchWindowMs}
+     */
+    private final AylaDatapointWriteCoalescer _writeCoalescer;
+
     /**
      * State of the DeviceManager. On startup, the DeviceManager goes through several states to
      * fetch the list of devices and their properties. When all devices have been updated, the
@@ -168,7 +247,18 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
     /**
      * The status code 201 is returned in each of the Batch Data Point Response on success
      */
-    final private static int DATAPOINT_CREATED_SUCCESS = 201;
+    final static int DATAPOINT_CREATED_SUCCESS = 201;
+
+    /**
+     * Number of network dispatcher threads for the device service request queue
+     */
+    final private static int DEVICE_SERVICE_THREAD_POOL_SIZE = 4;
+
+    /**
+     * Maximum number of device service dispatcher threads that background requests such as
+     * polling may occupy at once. The remaining threads are kept free for interactive requests.
+     */
+    final private static int MAX_BACKGROUND_DEVICE_REQUESTS = 2;
 
     /**
      * Package-private constructor. Only the SessionManager should create a Device manager.
@@ -176,21 +266,55 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
     AylaDeviceManager(AylaSessionManager sessionManager) {
         _sessionManagerRef = new WeakReference<>(sessionManager);
 
-        Context context = AylaNetworks.sharedInstance().getContext();
-        Cache cache = new DiskBasedCache(context.getCacheDir(), 1024 * 1024);
+        AylaHttpTransport transport = AylaNetworks.sharedInstance().getHttpTransport();
 
-        // Set up the HTTPURLConnection network stack
-        Network network = new BasicNetwork(new HurlStack());
+        // Set up the network stack on the shared transport
+        _requestCoalescer = new AylaRequestCoalescer();
+        Network network = _requestCoalescer.wrapNetwork(
+                AylaPriorityRequestQueue.deadlineNetwork(
+                        AylaAPIRequest.meteredNetwork(transport.getNetwork())));
 
         // Create and start our queue
-        _deviceRequestQueue = new RequestQueue(cache, network);
+        _deviceRequestQueue = new AylaPriorityRequestQueue(transport.getCache(), network,
+                DEVICE_SERVICE_THREAD_POOL_SIZE, MAX_BACKGROUND_DEVICE_REQUESTS);
         _deviceRequestQueue.start();
 
         // Create our device maps
         _deviceHashMap = new HashMap<>();
+        _lanSessionOrchestrator = new AylaLanSessionOrchestrator(this);
+        _ackTracker = new AylaDatapointAckTracker(new Handler(Looper.getMainLooper()),
+                new AylaDatapointAckTracker.PushChannel() {
+                    @Override
+                    public boolean isAckStreamConnected(String dsn) {
+                        AylaSessionManager sessionManager = getSessionManager();
+                        AylaDSManager dsManager = sessionManager == null ? null :
+                                sessionManager.getDSManager();
+                        return dsManager != null && dsManager.isAckStreamConnected(dsn);
+                    }
+                });
+        AylaSystemSettings settings = AylaNetworks.sharedInstance().getSystemSettings();
+        _adaptivePolling = !settings.disableAdaptivePolling;
+        int batchWindowMs = settings.datapointBatchWindowMs;
+        if (batchWindowMs > 0) {
+            _writeCoalescer = new AylaDatapointWriteCoalescer(
+                    new Handler(Looper.getMainLooper()), batchWindowMs,
+                    new AylaDatapointWriteCoalescer.BatchSender() {
+                        @Override
+                        public AylaAPIRequest sendBatch(
+                                AylaDatapointBatchRequest[] requests,
+                                Response.Listener<AylaDatapointBatchResponse[]> successListener,
+                                ErrorListener errorListener) {
+                            // Ack-enabled properties are updated once their acks arrive
+                            return sendDatapointBatch(requests, false, successListener,
+                                    errorListener);
+                        }
+                    });
+        } else {
+            _writeCoalescer = null;
+        }
 
         // Create our set of listeners
-        _deviceManagerListeners = new HashSet<>();
+        _deviceManagerListeners = new CopyOnWriteArraySet<>();
 
         // Create our list of errored DSNs
         _deviceInitErrors = new HashMap<>();
@@ -236,6 +360,29 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         return results;
     }
 
+    /**
+     * Tells the DeviceManager which devices are currently displayed by the app. LAN sessions
+     * are brought up with these devices before any others, so the devices the user is looking
+     * at can be controlled over the LAN as soon as possible. Apps should call this method
+     * whenever the set of displayed devices changes.
+     *
+     * @param devices Devices currently displayed, or an empty collection if none are
+     */
+    public void setVisibleDevices(Collection<AylaDevice> devices) {
+        Set<String> dsns = new HashSet<>();
+        for (AylaDevice device : devices) {
+            dsns.add(device.getDsn());
+        }
+        _lanSessionOrchestrator.setVisibleDevices(dsns);
+    }
+
+    /**
+     * @return the orchestrator used to start LAN sessions with our devices
+     */
+    AylaLanSessionOrchestrator getLanSessionOrchestrator() {
+        return _lanSessionOrchestrator;
+    }
+
     /**
      * Returns a list of all gateways registered to the account
      *
@@ -266,9 +413,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * @param listener Listener to be notified
      */
     public void addListener(DeviceManagerListener listener) {
-        synchronized (_deviceManagerListeners) {
-            _deviceManagerListeners.add(listener);
-        }
+        _deviceManagerListeners.add(listener);
     }
 
     /**
@@ -277,9 +422,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * @param listener Listener to be removed
      */
     public void removeListener(DeviceManagerListener listener) {
-        synchronized (_deviceManagerListeners) {
-            _deviceManagerListeners.remove(listener);
-        }
+        _deviceManagerListeners.remove(listener);
     }
 
     /**
@@ -417,6 +560,16 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * of any changes that occur.
      */
     public void fetchDevices() {
+        fetchDevices(false);
+    }
+
+    /**
+     * Fetches the device list. Fetches made by the poll timer are sent as background requests
+     * that expire once the next poll is due.
+     *
+     * @param poll true if this fetch was made by the poll timer
+     */
+    private void fetchDevices(boolean poll) {
         // Unless we are in the "ready" state already, we need to update our state.
         boolean startedFetch = false;
         if (getState() != DeviceManagerState.Ready) {
@@ -436,15 +589,44 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         // unwrap the devices from this structure when we receive them from the service. We use
         // the AylaDeviceWrapper class to take care of this for us.
         final boolean finalStartedFetch = startedFetch;
-        AylaAPIRequest<AylaDevice.Wrapper[]> request = new AylaAPIRequest<>(
+
+        // Once we are up and running with a list from the service, only ask for the list if it
+        // has changed since then. A null response indicates that it has not.
+        final boolean conditional = getState() == DeviceManagerState.Ready &&
+                !isCachedDeviceList() && _deviceListDigest != null;
+        Map<String, String> headers = null;
+        if (conditional) {
+            headers = new HashMap<>();
+            if (_deviceListETag != null) {
+                headers.put("If-None-Match", _deviceListETag);
+            }
+            if (_deviceListLastModified != null) {
+                headers.put("If-Modified-Since", _deviceListLastModified);
+            }
+        }
+
+        final DeviceListVersion receivedVersion = new DeviceListVersion();
+        AylaAPIRequest<AylaDevice.Wrapper[]> request = new AylaAPIRequest<AylaDevice.Wrapper[]>(
                 Request.Method.GET,
                 url,
-                null,
+                headers,
                 AylaDevice.Wrapper[].class,
                 getSessionManager(),
                 new Response.Listener<AylaDevice.Wrapper[]>() {
                     @Override
                     public void onResponse(AylaDevice.Wrapper[] wrappedDevices) {
+                        if (wrappedDevices == null) {
+                            // The list has not changed, so there is nothing to merge or cache
+                            AylaLog.v(LOG_TAG, "Device list unchanged");
+                            _unchangedPollCount++;
+                            continuePolling();
+                            return;
+                        }
+
+                        _unchangedPollCount = 0;
+                        _deviceListETag = receivedVersion.eTag;
+                        _deviceListLastModified = receivedVersion.lastModified;
+                        _deviceListDigest = receivedVersion.digest;
 
                         setIsCachedDeviceList(false);
                         if(getSessionManager().isCachedSession()){
@@ -513,13 +695,156 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                             setIsCachedDeviceList(true);
                         }
                     }
-                });
+                }) {
+            @Override
+            protected Response<AylaDevice.Wrapper[]> parseNetworkResponse(
+                    NetworkResponse response) {
+                if (conditional &&
+                        response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    _networkResponse = response;
+                    return Response.success(null, null);
+                }
+
+                // The service may not support conditional requests, so also compare the body
+                // with the last list we received before parsing it.
+                byte[] digest = digestOf(response.data);
+                byte[] lastDigest = _deviceListDigest;
+                if (conditional && digest != null && lastDigest != null &&
+                        MessageDigest.isEqual(digest, lastDigest)) {
+                    _networkResponse = response;
+                    return Response.success(null, null);
+                }
 
+                receivedVersion.digest = digest;
+                if (response.headers != null) {
+                    receivedVersion.eTag = response.headers.get("ETag");
+                    receivedVersion.lastModified = response.headers.get("Last-Modified");
+                }
+                return super.parseNetworkResponse(response);
+            }
+        };
+
+        if (poll) {
+            request.setPriorityClass(AylaAPIRequest.PriorityClass.Background);
+            request.setDeadlineMs(getCurrentPollInterval());
+        }
         sendDeviceServiceRequest(request);
     }
 
 
+    /**
+     * Validators and body digest of a device list response
+     */
+    private static class DeviceListVersion {
+        volatile String eTag;
+        volatile String lastModified;
+        volatile byte[] digest;
+    }
+
+    private static byte[] digestOf(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the last device list received from the service, so that the next fetch is not
+     * conditional, and polls more often for a while. Called when a device has been registered
+     * or unregistered locally.
+     */
+    private void deviceListChangedLocally() {
+        _deviceListETag = null;
+        _deviceListLastModified = null;
+        _deviceListDigest = null;
+        _unchangedPollCount = 0;
+        _fastPollsRemaining = FAST_POLL_COUNT;
+    }
+
+    /**
+     * Returns the device snapshot of this session, creating it if necessary
+     */
+    private synchronized AylaDeviceSnapshot getSnapshot() {
+        if (_snapshot == null) {
+            AylaSessionManager sessionManager = getSessionManager();
+            File directory = new File(AylaNetworks.sharedInstance().getContext().getFilesDir(),
+                    SNAPSHOT_DIRECTORY);
+            String fileName = sessionManager.getSessionName().replaceAll("[^A-Za-z0-9._-]", "_")
+                    + ".snapshot";
+            _snapshot = new AylaDeviceSnapshot(new File(directory, fileName),
+                    AylaNetworks.sharedInstance().getGson(), sessionManager.getCache());
+        }
+        return _snapshot;
+    }
+
+    /**
+     * Schedules a background write of the device snapshot used for fast startup when offline
+     * use is allowed. Called by AylaCache whenever device data is cached.
+     */
+    void scheduleSnapshot() {
+        if (getSessionManager() == null || isCachedDeviceList() ||
+                !AylaNetworks.sharedInstance().getSystemSettings().allowOfflineUse ||
+                !getSessionManager().getCache().isCachingEnabled()) {
+            return;
+        }
+
+        getSnapshot().scheduleWrite(new AylaDeviceSnapshot.DeviceSource() {
+            @Override
+            public Collection<AylaDevice> getDevices() {
+                synchronized (_deviceHashMap) {
+                    return new ArrayList<>(_deviceHashMap.values());
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the device snapshot. Called when the AylaCache is cleared.
+     */
+    void deleteSnapshot() {
+        if (getSessionManager() != null) {
+            getSnapshot().delete();
+        }
+    }
+
+    /**
+     * Initializes the device list from the device snapshot, if there is one.
+     *
+     * @return true if the device list was initialized
+     */
+    private boolean loadSnapshot() {
+        long start = System.nanoTime();
+        AylaDeviceSnapshot.Contents contents = getSnapshot().read();
+        if (contents == null) {
+            return false;
+        }
+
+        setIsCachedDeviceList(true);
+        for (AylaDevice device : contents.getDevices()) {
+            device.setDeviceManager(this);
+            device.stopPolling();
+            _deviceHashMap.put(device.getDsn(), device);
+            device._lanConfig = contents.getLanConfig(device.getDsn());
+            device.setLastUpdateSource(AylaDevice.DataSource.CACHED);
+        }
+        _lanSessionOrchestrator.requestSessions(Arrays.asList(contents.getDevices()));
+        AylaLog.d(LOG_TAG, "Loaded " + contents.getDevices().length + " devices from snapshot in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        setState(DeviceManagerState.Ready);
+
+        continuePolling();
+        return true;
+    }
+
     private boolean loadCachedDevices(){
+        if (loadSnapshot()) {
+            return true;
+        }
+
         AylaCache cache = getSessionManager().getCache();
         String key = cache.getKey(AylaCache.CacheType.DEVICE, "");
         String devicesFromCache = cache.getData(key);
@@ -563,10 +888,10 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                 }
             }
             device._lanConfig = lanConfig;
-            device.startLanSession(getLanServer());
             device.setLastUpdateSource(AylaDevice.DataSource.CACHED);
 
         }
+        _lanSessionOrchestrator.requestSessions(Arrays.asList(devices));
         setState(DeviceManagerState.Ready);
 
         continuePolling();
@@ -578,14 +903,18 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      */
     private void continuePolling() {
         if (_isPolling) {
+            final int pollInterval = getCurrentPollInterval();
+            if (_fastPollsRemaining > 0) {
+                _fastPollsRemaining--;
+            }
             _pollTimerHandler.removeCallbacksAndMessages(null);
             _pollTimerHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
                     AylaLog.v(LOG_TAG, "Device list poll timer hit");
-                    fetchDevices();
+                    fetchDevices(true);
                 }
-            }, getPollInterval());
+            }, pollInterval);
         }
     }
 
@@ -635,6 +964,31 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         return _pollIntervalMs;
     }
 
+    /**
+     * Returns the time in milliseconds until the next poll of the device list. Unless adaptive
+     * polling has been disabled via {@link AylaSystemSettings#disableAdaptivePolling}, this is
+     * longer than {@link #getPollInterval()} while the device list has not changed for a number
+     * of polls, and shorter for a few polls after a device has been registered or unregistered.
+     *
+     * @return the time in milliseconds between the current and the next poll
+     */
+    public int getCurrentPollInterval() {
+        if (!_adaptivePolling) {
+            return _pollIntervalMs;
+        }
+
+        if (_fastPollsRemaining > 0) {
+            return _pollIntervalMs / 2;
+        }
+
+        int factor = 1;
+        for (int i = STABLE_POLLS_PER_BACKOFF; i <= _unchangedPollCount &&
+                factor < MAX_POLL_BACKOFF_FACTOR; i += STABLE_POLLS_PER_BACKOFF) {
+            factor *= 2;
+        }
+        return _pollIntervalMs * factor;
+    }
+
     /**
      * Sets the poll interval to the specified time in milliseconds. If polling is currently
      * active, this will cause an immediate fetch of the device list. Subsequent fetches will
@@ -813,7 +1167,8 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                                               public void onResponse(AylaLanConfig response) {
                                                   AylaLog.d(LOG_TAG, "Got LAN config for " +
                                                           device.getDsn());
-                                                  device.startLanSession(getLanServer());
+                                                  _lanSessionOrchestrator.requestSession(
+                                                          device);
                                                   fetchNextDeviceLanConfig();
                                               }
                                           },
@@ -848,6 +1203,14 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * already active.
      */
     void shutDown() {
+        if (_snapshot != null) {
+            _snapshot.shutDown();
+        }
+        _lanSessionOrchestrator.reset();
+        _ackTracker.reset();
+        if (_writeCoalescer != null) {
+            _writeCoalescer.reset();
+        }
         synchronized (_deviceHashMap) {
             for ( AylaDevice device : _deviceHashMap.values()) {
                 device.shutDown();
@@ -855,9 +1218,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         }
 
         stopPolling();
-        synchronized (_deviceManagerListeners) {
-            _deviceManagerListeners.clear();
-        }
+        _deviceManagerListeners.clear();
 
         _deviceHashMap.clear();
         _deviceRequestQueue.cancelAll(new RequestQueue.RequestFilter() {
@@ -884,6 +1245,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
             _lanServer.stop();
         }
         stopPolling();
+        _lanSessionOrchestrator.reset();
         synchronized (_deviceHashMap) {
             for (AylaDevice d : _deviceHashMap.values()) {
                 d.stopLanSession();
@@ -922,11 +1284,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
 
         if (getState() == DeviceManagerState.Paused) {
             startPolling();
-            synchronized (_deviceHashMap) {
-                for (AylaDevice d : _deviceHashMap.values()) {
-                    d.startLanSession(getLanServer());
-                }
-            }
+            _lanSessionOrchestrator.requestSessions(getDevices());
         }
     }
 
@@ -954,14 +1312,11 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      */
     private void notifyStateChange(final DeviceManagerState oldState,
                                    final DeviceManagerState newState) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceManagerListeners) {
-                    Set<DeviceManagerListener> copy = new HashSet<>(_deviceManagerListeners);
-                    for (DeviceManagerListener listener : copy) {
-                        listener.deviceManagerStateChanged(oldState, newState);
-                    }
+                for (DeviceManagerListener listener : _deviceManagerListeners) {
+                    listener.deviceManagerStateChanged(oldState, newState);
                 }
             }
         });
@@ -973,14 +1328,11 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      *               when the device list is newly fetched.
      */
     private void notifyDeviceListChanged(final ListChange change) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceManagerListeners) {
-                    Set<DeviceManagerListener> copy = new HashSet<>(_deviceManagerListeners);
-                    for (DeviceManagerListener listener : copy) {
-                        listener.deviceListChanged(change);
-                    }
+                for (DeviceManagerListener listener : _deviceManagerListeners) {
+                    listener.deviceListChanged(change);
                 }
             }
         });
@@ -991,14 +1343,11 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * @param error Error encountered by DeviceManager
      */
     private void notifyError(final AylaError error) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceManagerListeners) {
-                    Set<DeviceManagerListener> copy = new HashSet<>(_deviceManagerListeners);
-                    for (DeviceManagerListener listener : copy) {
-                        listener.deviceManagerError(error);
-                    }
+                for (DeviceManagerListener listener : _deviceManagerListeners) {
+                    listener.deviceManagerError(error);
                 }
             }
         });
@@ -1010,14 +1359,11 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * been fetched from the cloud.
      */
     private void notifyInitComplete() {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceManagerListeners) {
-                    Set<DeviceManagerListener> copy = new HashSet<>(_deviceManagerListeners);
-                    for (DeviceManagerListener listener : copy) {
-                        listener.deviceManagerInitComplete(_deviceInitErrors);
-                    }
+                for (DeviceManagerListener listener : _deviceManagerListeners) {
+                    listener.deviceManagerInitComplete(_deviceInitErrors);
                 }
                 notifyDeviceListChanged(null);
             }
@@ -1030,14 +1376,11 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
      * @param failureState State of the DeviceManager at the point of failure
      */
     private void notifyInitFailure(final AylaError error, final DeviceManagerState failureState) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaListenerDelivery.get().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (_deviceManagerListeners) {
-                    Set<DeviceManagerListener> copy = new HashSet<>(_deviceManagerListeners);
-                    for (DeviceManagerListener listener : copy) {
-                        listener.deviceManagerInitFailure(error, failureState);
-                    }
+                for (DeviceManagerListener listener : _deviceManagerListeners) {
+                    listener.deviceManagerInitFailure(error, failureState);
                 }
             }
         });
@@ -1123,6 +1466,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
             removedDSNs.removeAll(providedDSNs);
             for (String removedDsn : removedDSNs) {
                 AylaDevice d = _deviceHashMap.remove(removedDsn);
+                _lanSessionOrchestrator.remove(removedDsn);
                 d.shutDown();
             }
         }
@@ -1171,6 +1515,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
             }
             _deviceHashMap.put(device.getDsn(), device);
             device.setDeviceManager(this);
+            deviceListChangedLocally();
 
             // Since we have a new device, we need to go back to an earlier state to fetch all of
             // the required configuration information for the device.
@@ -1201,8 +1546,48 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
     public AylaAPIRequest sendDeviceServiceRequest(AylaAPIRequest request) {
         request.setShouldCache(false);
         request.logResponse();
-        _deviceRequestQueue.add(request);
-        return request;
+        return _requestCoalescer.add(_deviceRequestQueue, request);
+    }
+
+    /**
+     * Returns the coalescer used for requests sent to the device service. The coalescer may be
+     * used to obtain statistics on the GET requests that were de-duplicated.
+     *
+     * @return the AylaRequestCoalescer for the device service request queue
+     */
+    public AylaRequestCoalescer getRequestCoalescer() {
+        return _requestCoalescer;
+    }
+
+    /**
+     * Returns the scheduling statistics of the device service request queue, including the
+     * latencies of interactive and background requests.
+     *
+     * @return the current stats of the device service request queue
+     */
+    public AylaPriorityRequestQueue.Stats getRequestQueueStats() {
+        return _deviceRequestQueue.getStats();
+    }
+
+    /**
+     * Returns the tracker that waits for the acks of datapoints created on ack-enabled
+     * properties. The tracker may be used to obtain the ack latencies of each property.
+     *
+     * @return the AylaDatapointAckTracker of this DeviceManager
+     */
+    public AylaDatapointAckTracker getAckTracker() {
+        return _ackTracker;
+    }
+
+    /**
+     * Returns the coalescer that merges datapoints created in the cloud into batch requests.
+     * The coalescer may be used to obtain the number of batches sent and values collapsed.
+     *
+     * @return the AylaDatapointWriteCoalescer of this DeviceManager, or null if datapoint
+     * batching is not enabled in {@link AylaSystemSettings#datapointBatchWindowMs}
+     */
+    public AylaDatapointWriteCoalescer getDatapointWriteCoalescer() {
+        return _writeCoalescer;
     }
 
     public AylaRegistration getAylaRegistration() {
@@ -1232,6 +1617,24 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                                                final Response.Listener<AylaDatapointBatchResponse[]>
                                                        successListener,
                                                final ErrorListener errorListener) {
+        return sendDatapointBatch(requests, true, successListener, errorListener);
+    }
+
+    /**
+     * Sends a batch of datapoints and updates the properties from the created datapoints.
+     *
+     * @param requests An array of AylaDatapointBatchRequest objects
+     * @param updateAckEnabled true to update ack-enabled properties right away, false if they
+     *                         are to be updated once their acks arrive
+     * @param successListener Listener to receive the AylaDatapointBatchResponse objects
+     * @param errorListener  Listener to receive an AylaError should one occur
+     * @return the AylaAPIRequest object used to create a Datapoint Batch
+     */
+    private AylaAPIRequest sendDatapointBatch(final AylaDatapointBatchRequest[] requests,
+                                              final boolean updateAckEnabled,
+                                              final Response.Listener<AylaDatapointBatchResponse[]>
+                                                      successListener,
+                                              final ErrorListener errorListener) {
         AylaSessionManager sessionManager = getSessionManager();
         if (sessionManager == null) {
             if (errorListener != null) {
@@ -1281,22 +1684,42 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                 new Response.Listener<AylaDatapointBatchResponse[]>() {
                     @Override
                     public void onResponse(AylaDatapointBatchResponse[] responseArray) {
+                        if (responseArray == null) {
+                            responseArray = new AylaDatapointBatchResponse[0];
+                        }
                         for (AylaDatapointBatchResponse datapointResponse : responseArray) {
-                            if (datapointResponse.getStatus() == DATAPOINT_CREATED_SUCCESS) {
-                                AylaDevice device = deviceWithDSN(datapointResponse.getDsn());
-                                AylaProperty property = device.getProperty(
+                            if (datapointResponse == null ||
+                                    datapointResponse.getStatus() != DATAPOINT_CREATED_SUCCESS) {
+                                continue;
+                            }
+                            // The device or property may have gone away while the batch was
+                            // in flight
+                            AylaDevice device = deviceWithDSN(datapointResponse.getDsn());
+                            AylaProperty property = device == null ? null :
+                                    device.getProperty(datapointResponse.getName());
+                            AylaDatapoint datapoint = datapointResponse.getDatapoint();
+                            if (property == null || datapoint == null) {
+                                AylaLog.w(LOG_TAG, "No property to update from batch " +
+                                        "datapoint " + datapointResponse.getDsn() + ":" +
                                         datapointResponse.getName());
-                                AylaDatapoint datapoint = datapointResponse.getDatapoint();
-                                String baseType = property.getBaseType();
-                                if(baseType.equals("boolean") || baseType.equals("integer") ||
-                                        baseType.equals("decimal")){
-                                    String   value = (String) datapoint.getValue();
-                                    datapoint.setValue( TypeUtils.getTypeConvertedValue(baseType, value));
-                                }
+                                continue;
+                            }
+                            String baseType = property.getBaseType();
+                            Object value = datapoint.getValue();
+                            if (value instanceof String &&
+                                    (AylaProperty.BASE_TYPE_BOOLEAN.equals(baseType) ||
+                                    AylaProperty.BASE_TYPE_INTEGER.equals(baseType) ||
+                                    AylaProperty.BASE_TYPE_DECIMAL.equals(baseType))) {
+                                datapoint.setValue(TypeUtils.getTypeConvertedValue(baseType,
+                                        (String) value));
+                            }
+                            if (updateAckEnabled || !property.isAckEnabled()) {
                                 property.updateFrom(datapoint, AylaDevice.DataSource.CLOUD);
                             }
                         }
-                        successListener.onResponse(responseArray);
+                        if (successListener != null) {
+                            successListener.onResponse(responseArray);
+                        }
                     }
                 }, errorListener){
 
@@ -1322,9 +1745,10 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                 }
                 //Convert all responses to string because they belong to different properties.
                 Type type = new TypeToken<AylaDatapointBatchResponse<String>[]>(){}.getType();
-                AylaDatapointBatchResponse[] datapointBatchResponses = getGson().fromJson(json, type);
 
                 try {
+                    AylaDatapointBatchResponse[] datapointBatchResponses =
+                            getGson().fromJson(json, type);
                     return Response.success(
                             datapointBatchResponses,
                             HttpHeaderParser.parseCacheHeaders(response));
@@ -1353,6 +1777,8 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         synchronized (_deviceHashMap) {
             _deviceHashMap.remove(device.getDsn());
         }
+        _lanSessionOrchestrator.remove(device.getDsn());
+        deviceListChangedLocally();
 
         // Notify listeners
         Set<String> removedDSNs = new HashSet<>();
@@ -1364,6 +1790,7 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
     public void connectivityChanged(boolean wifiEnabled, boolean cellularEnabled) {
         AylaLog.d(LOG_TAG, "Connectivity changed: wifi " + wifiEnabled + ", cellular " + cellularEnabled);
         // Let our devices try LAN mode again if they had issues before
+        _lanSessionOrchestrator.networkChanged();
         synchronized (_deviceHashMap) {
             for (AylaDevice device : _deviceHashMap.values()) {
                 device.disableLANUntilNetworkChanges(false);
@@ -1503,6 +1930,25 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
                                             ErrorListener errorListener, boolean paginated,
                                             int perPage, int page, AlertFilter alertFilter,
                                             Map<String, String> sortParams){
+        return fetchAlertHistoryPage(dsn, new Response.Listener<AlertHistoryPage>() {
+            @Override
+            public void onResponse(AlertHistoryPage response) {
+                successListener.onResponse(response.alerts);
+            }
+        }, errorListener, paginated, perPage, page, alertFilter, sortParams);
+    }
+
+    /**
+     * Fetches the alert history of a device along with the paging information of the response.
+     * See {@link #fetchAlertHistory(String, Response.Listener, ErrorListener, boolean, int, int,
+     * AlertFilter, Map)}.
+     */
+    private AylaAPIRequest fetchAlertHistoryPage(String dsn,
+                                                 final Response.Listener<AlertHistoryPage>
+                                                         successListener,
+                                                 ErrorListener errorListener, boolean paginated,
+                                                 int perPage, int page, AlertFilter alertFilter,
+                                                 Map<String, String> sortParams){
         if(dsn == null){
             errorListener.onErrorResponse(new PreconditionError("DSN is null"));
             return null;
@@ -1537,39 +1983,134 @@ public class AylaDeviceManager implements AylaConnectivity.AylaConnectivityListe
         }
 
         Log.d(LOG_TAG, "fetchAlertHistory. url "+ url);
-        AylaAPIRequest request = new AylaAPIRequest(Request.Method.GET, url, null,
-                Wrapper[].class, getSessionManager(), new Response
-                .Listener<AylaAlertHistory.Wrapper[]>() {
-            @Override
-            public void onResponse(Wrapper[] response) {
-                successListener.onResponse(Wrapper.unwrap(response));
-            }
-        }, errorListener){
+        AylaAPIRequest<AlertHistoryPage> request = new AylaAPIRequest<AlertHistoryPage>(
+                Request.Method.GET, url, null, AlertHistoryPage.class, getSessionManager(),
+                successListener, errorListener){
             @Override
-            protected Response parseNetworkResponse(NetworkResponse response) {
+            protected Response<AlertHistoryPage> parseNetworkResponse(NetworkResponse response) {
                 // Deserialize the JSON data into an object
-                String json;
+                String json = null;
+                if (response.data != null) {
+                    try {
+                        json = new String(
+                                response.data,
+                                HttpHeaderParser.parseCharset(response.headers));
+                    } catch (UnsupportedEncodingException e) {
+                        return Response.error(new ParseError(e));
+                    }
+                }
+
+                AlertHistoryPage page;
                 try {
-                    json = new String(
-                            response.data,
-                            HttpHeaderParser.parseCharset(response.headers));
-                } catch (UnsupportedEncodingException e) {
+                    page = parseAlertHistoryPage(AylaNetworks.sharedInstance().getGson(), json);
+                } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
                     return Response.error(new ParseError(e));
                 }
-                JsonParser jsonParser = new JsonParser();
-                JsonElement responseJson = jsonParser.parse(json);
-                JsonArray alertHistoryArray = responseJson.getAsJsonObject().get("alert_histories")
-                        .getAsJsonArray();
-                Gson gson = AylaNetworks.sharedInstance().getGson();
-                Wrapper[] alertHistory = gson.fromJson(alertHistoryArray,
-                        Wrapper[].class);
-                return Response.success(alertHistory, HttpHeaderParser.parseCacheHeaders(response));
+                return Response.success(page, HttpHeaderParser.parseCacheHeaders(response));
             }
         };
+        request.setPriorityClass(AylaAPIRequest.PriorityClass.Background);
         sendDeviceServiceRequest(request);
         return request;
     }
 
+    /**
+     * Returns a cursor that streams the alert history of a device one page at a time, fetching
+     * the following page ahead while the current one is being consumed. This avoids loading
+     * the entire alert history up front.
+     *
+     * @param dsn DSN of the device
+     * @param perPage Number of alerts per page
+     * @param alertFilter Filters to apply to the alert history, or null for no filtering.
+     *                    See {@link #fetchAlertHistory(String, Response.Listener, ErrorListener,
+     *                    boolean, int, int, AlertFilter, Map)}
+     * @param sortParams Sort order of the results, or null for the default order.
+     *                   See {@link #fetchAlertHistory(String, Response.Listener, ErrorListener,
+     *                   boolean, int, int, AlertFilter, Map)}
+     * @return an AylaPageCursor for the alert history. Call {@link AylaPageCursor#close()} once
+     * no more pages are needed.
+     */
+    public AylaPageCursor<AylaAlertHistory> fetchAlertHistoryPages(
+            final String dsn, final int perPage, final AlertFilter alertFilter,
+            final Map<String, String> sortParams) {
+        return new AylaPageCursor<>(new AylaPageCursor.PageFetcher<AylaAlertHistory>() {
+            @Override
+            public AylaAPIRequest fetchPage(
+                    final int pageNumber,
+                    final Response.Listener<AylaPageCursor.Page<AylaAlertHistory>> successListener,
+                    ErrorListener errorListener) {
+                return fetchAlertHistoryPage(dsn, new Response.Listener<AlertHistoryPage>() {
+                    @Override
+                    public void onResponse(AlertHistoryPage response) {
+                        successListener.onResponse(new AylaPageCursor.Page<>(response.alerts,
+                                pageNumber, response.hasNext));
+                    }
+                }, errorListener, true, perPage, pageNumber, alertFilter, sortParams);
+            }
+        }, 1, true);
+    }
+
+    /**
+     * A page of alert history, and whether the service has more pages after it
+     */
+    static class AlertHistoryPage {
+        final AylaAlertHistory[] alerts;
+        final boolean hasNext;
+
+        AlertHistoryPage(AylaAlertHistory[] alerts, boolean hasNext) {
+            this.alerts = alerts;
+            this.hasNext = hasNext;
+        }
+    }
+
+    /**
+     * Parses an alert history response. An empty response, or one without alerts, is a page
+     * with no alerts and no further pages.
+     *
+     * @param gson Gson used to deserialize the alerts
+     * @param json Body of the response, may be null
+     * @return the page of alert history
+     */
+    static AlertHistoryPage parseAlertHistoryPage(Gson gson, String json) {
+        JsonElement responseJson = json == null ? null : new JsonParser().parse(json);
+        if (responseJson == null || !responseJson.isJsonObject()) {
+            return new AlertHistoryPage(new AylaAlertHistory[0], false);
+        }
+
+        JsonObject responseObject = responseJson.getAsJsonObject();
+        AylaAlertHistory[] alerts = new AylaAlertHistory[0];
+        JsonElement alertHistoryArray = responseObject.get("alert_histories");
+        if (alertHistoryArray != null && alertHistoryArray.isJsonArray()) {
+            alerts = Wrapper.unwrap(gson.fromJson(alertHistoryArray, Wrapper[].class));
+        }
+        return new AlertHistoryPage(alerts, hasNextPage(responseObject));
+    }
+
+    /**
+     * Reads the paging information of a paginated response: next_page is null on the last
+     * page. Responses without next_page are checked against their total count instead.
+     */
+    private static boolean hasNextPage(JsonObject response) {
+        JsonElement nextPage = response.get("next_page");
+        if (nextPage != null) {
+            if (!nextPage.isJsonPrimitive()) {
+                return false;
+            }
+            if (nextPage.getAsJsonPrimitive().isNumber()) {
+                return nextPage.getAsInt() > 0;
+            }
+            return !nextPage.getAsString().isEmpty();
+        }
+
+        JsonElement total = response.get("total");
+        JsonElement endCount = response.get("end_count_on_page");
+        if (total != null && total.isJsonPrimitive() && endCount != null &&
+                endCount.isJsonPrimitive()) {
+            return endCount.getAsInt() < total.getAsInt();
+        }
+        return false;
+    }
+
     /**
      * Enables or disables LAN mode on all devices owned by this user.
      * @param permitted true to enable LAN mode on all devices, false to disable.
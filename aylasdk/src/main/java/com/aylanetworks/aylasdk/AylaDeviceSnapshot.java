@@ -0,0 +1,574 @@
+package com.aylanetworks.aylasdk;
+
+import com.aylanetworks.aylasdk.lan.AylaLanConfig;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * AylaDeviceSnapshot saves the device graph of a session (devices, their properties and their
+ * LAN configurations) to a single binary file, so that the AylaDeviceManager can become Ready
+ * right away on a cold start when offline use is allowed, without reading and parsing each
+ * entry of the {@link AylaCache} separately.
+ * <p>
+ * The snapshot is written on a background thread owned by the snapshot, to a temporary file
+ * that then replaces the previous snapshot, so a snapshot is never seen half-written. Call
+ * {@link #shutDown()} when the session ends to stop the thread. The contents of the snapshot
+ * are encrypted with the session's cache key, as the entries of the AylaCache are, and the
+ * properties of each device are only decoded when the device's properties are first accessed.
+ * The file is read with a single read rather than memory mapped, as decryption needs the
+ * encrypted contents in an array and produces a new one anyway.
+ * <p>
+ * Snapshot format, version 2. All integers are big-endian, and blobs are an int length
+ * followed by that many bytes:
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   long    time the snapshot was written, in ms since the epoch
+ *   blob    contents, encrypted with {@link AylaCache#encryptBytes(byte[])}
+ *   long    CRC32 of all preceding bytes
+ * </pre>
+ * The decrypted contents are:
+ * <pre>
+ *   blob    JSON array of the devices
+ *   blob    JSON map of DSNs to LAN configs
+ *   int     device count
+ *   for each device:
+ *     blob  DSN
+ *     int   property count
+ *     for each property:
+ *       blob  property name
+ *       blob  property JSON
+ * </pre>
+ * Snapshots with an unknown magic or version, a bad checksum or contents that cannot be
+ * decrypted are ignored. Unencrypted snapshots written by earlier versions are deleted.
+ */
+public class AylaDeviceSnapshot {
+    private static final String LOG_TAG = "DeviceSnapshot";
+
+    private static final int MAGIC = 0x41595353; // "AYSS"
+    private static final int VERSION = 2;
+
+    /**
+     * Delay before writing a snapshot after a change, so that bursts of changes result in a
+     * single write
+     */
+    private static final long WRITE_DELAY_MS = 2000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File _file;
+    private final Gson _gson;
+    private final AylaCache _cache;
+    private ScheduledExecutorService _writeExecutor;
+    private ScheduledFuture<?> _pendingWrite;
+    private DeviceSource _pendingSource;
+
+    // Set while a write runs, and when a change is made meanwhile, so that it is written too
+    private boolean _writing;
+    private boolean _dirty;
+
+    /**
+     * Creates a snapshot backed by the given file.
+     *
+     * @param file File the snapshot is stored in
+     * @param gson Gson used to encode devices, properties and LAN configs
+     * @param cache Cache of the session, whose key is used to encrypt the snapshot
+     */
+    public AylaDeviceSnapshot(File file, Gson gson, AylaCache cache) {
+        _file = file;
+        _gson = gson;
+        _cache = cache;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Schedules the snapshot to be written with the devices returned by the given source.
+     * Calls made while a write is already scheduled only replace the source. Calls made while a
+     * write is running schedule another write once it finishes.
+     *
+     * @param source Source of the devices to save, called on the background thread
+     */
+    public synchronized void scheduleWrite(DeviceSource source) {
+        _pendingSource = source;
+        if (_writing) {
+            _dirty = true;
+            return;
+        }
+        if (_pendingWrite != null && !_pendingWrite.isDone()) {
+            return;
+        }
+        schedule();
+    }
+
+    private synchronized void schedule() {
+        if (_writeExecutor == null) {
+            _writeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AylaDeviceSnapshot");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        _pendingWrite = _writeExecutor.schedule(_writeRunnable, WRITE_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable _writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            DeviceSource source;
+            synchronized (AylaDeviceSnapshot.this) {
+                if (_pendingSource == null) {
+                    return;
+                }
+                _writing = true;
+                source = _pendingSource;
+            }
+
+            try {
+                writeQuietly(source.getDevices());
+            } finally {
+                synchronized (AylaDeviceSnapshot.this) {
+                    _writing = false;
+                    if (_dirty) {
+                        // Changed while writing. The future of this write is not done yet,
+                        // so schedule the next one directly.
+                        _dirty = false;
+                        schedule();
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Stops the background thread of the snapshot. A write that is still scheduled, or a change
+     * made while a write is running, is encoded right away, while the session key is still
+     * available, with the devices the source returns now. The thread stops once the file is written. Writes scheduled afterwards start a new
+     * thread.
+     */
+    public synchronized void shutDown() {
+        if (_writeExecutor == null) {
+            return;
+        }
+
+        boolean changed = (_pendingWrite != null && _pendingWrite.cancel(false)) ||
+                (_writing && _dirty);
+        if (changed && _pendingSource != null) {
+            try {
+                final ByteArrayOutputStream bytes = encode(_pendingSource.getDevices());
+                _writeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            writeFile(bytes);
+                        } catch (IOException e) {
+                            AylaLog.e(LOG_TAG, "Failed to write device snapshot: " + e);
+                        }
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                AylaLog.e(LOG_TAG, "Failed to write device snapshot: " + e);
+            }
+        }
+        _pendingWrite = null;
+        _pendingSource = null;
+        _dirty = false;
+        _writeExecutor.shutdown();
+        _writeExecutor = null;
+    }
+
+    /**
+     * Cancels any scheduled write and deletes the snapshot.
+     */
+    public synchronized void delete() {
+        if (_pendingWrite != null) {
+            _pendingWrite.cancel(false);
+            _pendingWrite = null;
+            _pendingSource = null;
+        }
+        _dirty = false;
+        if (_file.exists() && !_file.delete()) {
+            AylaLog.w(LOG_TAG, "Failed to delete " + _file);
+        }
+    }
+
+    private void writeQuietly(Collection<AylaDevice> devices) {
+        try {
+            write(devices);
+        } catch (IOException | RuntimeException e) {
+            AylaLog.e(LOG_TAG, "Failed to write device snapshot: " + e);
+        }
+    }
+
+    /**
+     * Writes the snapshot synchronously.
+     *
+     * @param devices Devices to save
+     * @throws IOException if the snapshot could not be written
+     */
+    public void write(Collection<AylaDevice> devices) throws IOException {
+        writeFile(encode(devices));
+    }
+
+    /**
+     * Encodes and encrypts the snapshot of the given devices, including the header and
+     * checksum.
+     *
+     * @param devices Devices to save
+     * @return the bytes of the snapshot
+     * @throws IOException if the snapshot could not be encrypted
+     */
+    private ByteArrayOutputStream encode(Collection<AylaDevice> devices) throws IOException {
+        ByteArrayOutputStream contentBytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream content = new DataOutputStream(contentBytes);
+
+        List<AylaDevice> deviceList = new ArrayList<>(devices);
+        writeBlob(content, _gson.toJson(deviceList.toArray(new AylaDevice[deviceList.size()]),
+                AylaDevice[].class).getBytes(UTF8));
+
+        Map<String, AylaLanConfig> lanConfigs = new HashMap<>();
+        for (AylaDevice device : deviceList) {
+            if (device._lanConfig != null) {
+                lanConfigs.put(device.getDsn(), device._lanConfig);
+            }
+        }
+        writeBlob(content, _gson.toJson(lanConfigs).getBytes(UTF8));
+
+        content.writeInt(deviceList.size());
+        for (AylaDevice device : deviceList) {
+            writeBlob(content, device.getDsn().getBytes(UTF8));
+            Map<String, byte[]> properties = encodeProperties(device);
+            content.writeInt(properties.size());
+            for (Map.Entry<String, byte[]> property : properties.entrySet()) {
+                writeBlob(content, property.getKey().getBytes(UTF8));
+                writeBlob(content, property.getValue());
+            }
+        }
+        content.flush();
+
+        byte[] encrypted = _cache == null ? null : _cache.encryptBytes(contentBytes.toByteArray());
+        if (encrypted == null) {
+            throw new IOException("Could not encrypt snapshot");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encrypted.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        writeBlob(out, encrypted);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        AylaLog.d(LOG_TAG, "Encoded snapshot of " + deviceList.size() + " devices, " +
+                bytes.size() + " bytes");
+        return bytes;
+    }
+
+    private void writeFile(ByteArrayOutputStream bytes) throws IOException {
+        File directory = _file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File tempFile = new File(_file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+
+        if (!tempFile.renameTo(_file)) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + _file);
+        }
+    }
+
+    /**
+     * Reads and decrypts the snapshot. Properties are not decoded, but attached to their
+     * devices to be decoded on first access.
+     *
+     * @return the devices and LAN configs of the snapshot, or null if there is no valid
+     * snapshot
+     */
+    public Contents read() {
+        if (!_file.exists()) {
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(_file));
+            try {
+                bytes = new byte[(int) _file.length()];
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            AylaLog.e(LOG_TAG, "Failed to read device snapshot: " + e);
+            return null;
+        }
+
+        try {
+            return read(bytes);
+        } catch (BufferUnderflowException | IllegalArgumentException | JsonParseException e) {
+            AylaLog.e(LOG_TAG, "Ignoring corrupt device snapshot: " + e);
+            return null;
+        }
+    }
+
+    private Contents read(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.remaining() < 24 || buffer.getInt() != MAGIC) {
+            AylaLog.w(LOG_TAG, "Not a device snapshot");
+            return null;
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            // Earlier versions were not encrypted, so do not leave them behind
+            AylaLog.w(LOG_TAG, "Deleting snapshot version " + version);
+            delete();
+            return null;
+        }
+
+        int crcOffset = bytes.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, crcOffset);
+        if (crc.getValue() != buffer.getLong(crcOffset)) {
+            AylaLog.w(LOG_TAG, "Ignoring snapshot with bad checksum");
+            return null;
+        }
+
+        long savedAt = buffer.getLong();
+        ByteBuffer encryptedContent = readBlob(buffer);
+        byte[] encrypted = new byte[encryptedContent.remaining()];
+        encryptedContent.get(encrypted);
+        byte[] decrypted = _cache == null ? null : _cache.decryptBytes(encrypted);
+        if (decrypted == null) {
+            AylaLog.w(LOG_TAG, "Ignoring snapshot that could not be decrypted");
+            return null;
+        }
+        buffer = ByteBuffer.wrap(decrypted);
+
+        AylaDevice[] devices = _gson.fromJson(readString(buffer), AylaDevice[].class);
+        Type type = new TypeToken<Map<String, AylaLanConfig>>() {}.getType();
+        Map<String, AylaLanConfig> lanConfigs = _gson.fromJson(readString(buffer), type);
+
+        Map<String, PendingProperties> properties = new HashMap<>();
+        int deviceCount = buffer.getInt();
+        for (int i = 0; i < deviceCount; i++) {
+            String dsn = readString(buffer);
+            int propertyCount = buffer.getInt();
+            Map<String, ByteBuffer> encoded = new LinkedHashMap<>(propertyCount * 2);
+            for (int j = 0; j < propertyCount; j++) {
+                encoded.put(readString(buffer), readBlob(buffer));
+            }
+            properties.put(dsn, new PendingProperties(_gson, encoded));
+        }
+
+        if (devices == null) {
+            devices = new AylaDevice[0];
+        }
+        for (AylaDevice device : devices) {
+            PendingProperties pending = properties.get(device.getDsn());
+            if (pending != null) {
+                device.setPendingProperties(pending);
+            }
+        }
+
+        if (lanConfigs == null) {
+            lanConfigs = new HashMap<>();
+        }
+        return new Contents(devices, lanConfigs, savedAt);
+    }
+
+    /**
+     * Encodes the properties of a device, passing through those not yet decoded from a
+     * previous snapshot.
+     */
+    private Map<String, byte[]> encodeProperties(AylaDevice device) {
+        Map<String, byte[]> encoded = new LinkedHashMap<>();
+        List<AylaProperty> decoded;
+        synchronized (device._propertyMap) {
+            if (device._pendingProperties != null) {
+                encoded.putAll(device._pendingProperties.copyEncoded());
+            }
+            decoded = new ArrayList<>(device._propertyMap.values());
+        }
+
+        for (AylaProperty property : decoded) {
+            encoded.put(property.getName(), _gson.toJson(property, AylaProperty.class)
+                    .getBytes(UTF8));
+        }
+        return encoded;
+    }
+
+    private static void writeBlob(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static ByteBuffer readBlob(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad blob length " + length);
+        }
+        ByteBuffer blob = buffer.slice();
+        blob.limit(length);
+        buffer.position(buffer.position() + length);
+        return blob;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return decodeString(readBlob(buffer));
+    }
+
+    private static String decodeString(ByteBuffer blob) {
+        byte[] data = new byte[blob.remaining()];
+        blob.duplicate().get(data);
+        return new String(data, UTF8);
+    }
+
+    /**
+     * Supplies the devices to be saved in a snapshot
+     */
+    public interface DeviceSource {
+        Collection<AylaDevice> getDevices();
+    }
+
+    /**
+     * Devices and LAN configs read from a snapshot
+     */
+    public static class Contents {
+        private final AylaDevice[] _devices;
+        private final Map<String, AylaLanConfig> _lanConfigs;
+        private final long _savedAt;
+
+        Contents(AylaDevice[] devices, Map<String, AylaLanConfig> lanConfigs, long savedAt) {
+            _devices = devices;
+            _lanConfigs = lanConfigs;
+            _savedAt = savedAt;
+        }
+
+        public AylaDevice[] getDevices() {
+            return _devices;
+        }
+
+        public AylaLanConfig getLanConfig(String dsn) {
+            return _lanConfigs.get(dsn);
+        }
+
+        /**
+         * @return the time the snapshot was written, in ms since the epoch
+         */
+        public long getSavedAt() {
+            return _savedAt;
+        }
+    }
+
+    /**
+     * Encoded properties of a device that are decoded on first access. Access is guarded by the
+     * property map of the owning device.
+     */
+    static class PendingProperties {
+        private final Gson _gson;
+        private final Map<String, ByteBuffer> _encoded;
+
+        PendingProperties(Gson gson, Map<String, ByteBuffer> encoded) {
+            _gson = gson;
+            _encoded = encoded;
+        }
+
+        boolean isEmpty() {
+            return _encoded.isEmpty();
+        }
+
+        /**
+         * Decodes and removes the named property.
+         *
+         * @param name Name of the property
+         * @return the decoded property, or null if it is not pending or could not be decoded
+         */
+        AylaProperty decode(String name) {
+            ByteBuffer encoded = _encoded.remove(name);
+            if (encoded == null) {
+                return null;
+            }
+            try {
+                return _gson.fromJson(decodeString(encoded), AylaProperty.class);
+            } catch (JsonParseException e) {
+                AylaLog.e(LOG_TAG, "Failed to decode property " + name + ": " + e);
+                return null;
+            }
+        }
+
+        /**
+         * Decodes and removes all pending properties.
+         *
+         * @return the decoded properties
+         */
+        List<AylaProperty> decodeAll() {
+            List<AylaProperty> properties = new ArrayList<>(_encoded.size());
+            for (String name : new ArrayList<>(_encoded.keySet())) {
+                AylaProperty property = decode(name);
+                if (property != null) {
+                    properties.add(property);
+                }
+            }
+            return properties;
+        }
+
+        Map<String, byte[]> copyEncoded() {
+            Map<String, byte[]> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, ByteBuffer> entry : _encoded.entrySet()) {
+                byte[] data = new byte[entry.getValue().remaining()];
+                entry.getValue().duplicate().get(data);
+                copy.put(entry.getKey(), data);
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.aylanetworks.aylasdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.aylanetworks.aylasdk.localdevice.AylaLocalDevice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * The AylaLanSessionOrchestrator brings up LAN sessions for the devices of an
+ * AylaDeviceManager. Rather than starting a key exchange with every device at once, at most
+ * {@link #MAX_CONCURRENT_KEY_EXCHANGES} key exchanges are run at a time. Devices currently
+ * displayed by the app, set via {@link AylaDeviceManager#setVisibleDevices(Collection)}, are
+ * started first, followed by the devices the user has controlled most recently, so that the
+ * devices the user is most likely to control enter LAN mode first however many devices are on
+ * the account.
+ * <p>
+ * A key exchange that fails, or that has not completed within
+ * {@link #KEY_EXCHANGE_TIMEOUT_MS}, releases its slot and is retried after a jittered,
+ * exponentially increasing delay. Retry delays are reset when the network changes.
+ * <p>
+ * Nodes and local devices do not perform key exchanges, and are started right away.
+ */
+class AylaLanSessionOrchestrator {
+    private static final String LOG_TAG = "LanOrchestrator";
+
+    /**
+     * Maximum number of devices performing a key exchange at the same time
+     */
+    static final int MAX_CONCURRENT_KEY_EXCHANGES = 3;
+
+    /**
+     * Time allowed for a key exchange to complete before it is considered to have failed
+     */
+    static final long KEY_EXCHANGE_TIMEOUT_MS = 15000;
+
+    /**
+     * Delay before the first retry of a failed key exchange. The delay is doubled for each
+     * further failure, up to MAX_RETRY_DELAY_MS.
+     */
+    static final long INITIAL_RETRY_DELAY_MS = 2000;
+    static final long MAX_RETRY_DELAY_MS = 120000;
+
+    /**
+     * Minimum time between updates of the stored last-used time of a device
+     */
+    private static final long LAST_USED_UPDATE_INTERVAL_MS = 60000;
+
+    /**
+     * Maximum number of stored last-used times. The preferences are shared by every account
+     * signed in on the device, so the least recently used entries are dropped beyond this.
+     */
+    static final int MAX_LAST_USED_ENTRIES = 256;
+
+    private static final String PREFS_LAST_USED =
+            "com.aylanetworks.aylasdk.lansessionorchestrator";
+
+    private final AylaDeviceManager _deviceManager;
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private final Random _random = new Random();
+
+    /**
+     * Devices waiting for a key exchange slot, by DSN
+     */
+    private final Map<String, AylaDevice> _waiting = new HashMap<>();
+
+    /**
+     * DSNs of devices performing a key exchange, mapped to their timeout runnables
+     */
+    private final Map<String, Runnable> _starting = new HashMap<>();
+
+    /**
+     * DSNs of devices waiting to retry a failed key exchange, mapped to their retry runnables
+     */
+    private final Map<String, RetryRunnable> _retries = new HashMap<>();
+
+    /**
+     * Number of consecutive key exchange failures of each device
+     */
+    private final Map<String, Integer> _failureCounts = new HashMap<>();
+
+    private final Map<String, Long> _lastUsed = new HashMap<>();
+    private Set<String> _visibleDsns = Collections.emptySet();
+
+    AylaLanSessionOrchestrator(AylaDeviceManager deviceManager) {
+        _deviceManager = deviceManager;
+
+        SharedPreferences prefs = getLastUsedPreferences();
+        if (prefs != null) {
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                if (entry.getValue() instanceof Long) {
+                    _lastUsed.put(entry.getKey(), (Long) entry.getValue());
+                }
+            }
+            removeLastUsedPreferences(prefs, trimLastUsed(_lastUsed, MAX_LAST_USED_ENTRIES));
+        }
+    }
+
+    // The lock on this object is never held while calling into devices or the device manager,
+    // which take their own locks and call back into the orchestrator.
+
+    /**
+     * Requests a LAN session with the given device. The session is started once a key
+     * exchange slot is available.
+     *
+     * @param device Device to start a LAN session with
+     */
+    void requestSession(AylaDevice device) {
+        synchronized (this) {
+            enqueue(device);
+        }
+        startNext();
+    }
+
+    /**
+     * Requests LAN sessions with each of the given devices.
+     *
+     * @param devices Devices to start LAN sessions with
+     */
+    void requestSessions(Collection<AylaDevice> devices) {
+        synchronized (this) {
+            for (AylaDevice device : devices) {
+                enqueue(device);
+            }
+        }
+        startNext();
+    }
+
+    /**
+     * Called by devices when their LAN state has changed.
+     *
+     * @param device Device whose LAN state changed
+     * @param active true if the device is now in LAN mode
+     */
+    void lanStateChanged(AylaDevice device, boolean active) {
+        synchronized (this) {
+            Runnable timeout = _starting.remove(device.getDsn());
+            if (timeout == null) {
+                // Not a key exchange we started, or one that has already timed out
+                return;
+            }
+            _handler.removeCallbacks(timeout);
+
+            if (active) {
+                _failureCounts.remove(device.getDsn());
+            }
+        }
+
+        if (!active) {
+            failed(device);
+        }
+        startNext();
+    }
+
+    /**
+     * Sets the devices currently displayed by the app, which are given priority over other
+     * devices.
+     *
+     * @param dsns DSNs of the visible devices
+     */
+    synchronized void setVisibleDevices(Set<String> dsns) {
+        _visibleDsns = dsns;
+    }
+
+    /**
+     * Records that the user has just controlled the given device.
+     *
+     * @param device Device that was controlled
+     */
+    void deviceUsed(AylaDevice device) {
+        String dsn = device.getDsn();
+        long now = System.currentTimeMillis();
+        List<String> dropped;
+        synchronized (this) {
+            Long lastUsed = _lastUsed.get(dsn);
+            if (lastUsed != null && now - lastUsed < LAST_USED_UPDATE_INTERVAL_MS) {
+                return;
+            }
+            _lastUsed.put(dsn, now);
+            dropped = trimLastUsed(_lastUsed, MAX_LAST_USED_ENTRIES);
+        }
+
+        SharedPreferences prefs = getLastUsedPreferences();
+        if (prefs != null) {
+            SharedPreferences.Editor editor = prefs.edit().putLong(dsn, now);
+            for (String droppedDsn : dropped) {
+                editor.remove(droppedDsn);
+            }
+            editor.apply();
+        }
+    }
+
+    /**
+     * Called when the network configuration has changed. Devices waiting to retry are retried
+     * right away, and retry delays start over.
+     */
+    void networkChanged() {
+        synchronized (this) {
+            _failureCounts.clear();
+            for (RetryRunnable retry : _retries.values()) {
+                _handler.removeCallbacks(retry);
+                _waiting.put(retry._device.getDsn(), retry._device);
+            }
+            _retries.clear();
+        }
+        startNext();
+    }
+
+    /**
+     * Stops tracking the given device, which has been removed from the device manager, and
+     * forgets when it was last used.
+     *
+     * @param dsn DSN of the removed device
+     */
+    synchronized void remove(String dsn) {
+        if (_lastUsed.remove(dsn) != null) {
+            removeLastUsedPreferences(getLastUsedPreferences(),
+                    Collections.singletonList(dsn));
+        }
+        _waiting.remove(dsn);
+        Runnable runnable = _starting.remove(dsn);
+        if (runnable != null) {
+            _handler.removeCallbacks(runnable);
+        }
+        runnable = _retries.remove(dsn);
+        if (runnable != null) {
+            _handler.removeCallbacks(runnable);
+        }
+        _failureCounts.remove(dsn);
+    }
+
+    /**
+     * Discards all pending session requests. Called when the device manager is paused or shut
+     * down, which stops the LAN sessions of all devices.
+     */
+    synchronized void reset() {
+        _handler.removeCallbacksAndMessages(null);
+        _waiting.clear();
+        _starting.clear();
+        _retries.clear();
+        _failureCounts.clear();
+    }
+
+    private void enqueue(AylaDevice device) {
+        String dsn = device.getDsn();
+        if (dsn == null || _waiting.containsKey(dsn) || _starting.containsKey(dsn)) {
+            return;
+        }
+
+        Runnable retry = _retries.remove(dsn);
+        if (retry != null) {
+            _handler.removeCallbacks(retry);
+        }
+        _waiting.put(dsn, device);
+    }
+
+    /**
+     * Starts key exchanges with the highest priority waiting devices until all slots are in use
+     */
+    private void startNext() {
+        List<AylaDevice> toStart = new ArrayList<>();
+
+        synchronized (this) {
+            if (_waiting.isEmpty() || _starting.size() >= MAX_CONCURRENT_KEY_EXCHANGES) {
+                return;
+            }
+
+            List<AylaDevice> candidates = new ArrayList<>(_waiting.values());
+            Collections.sort(candidates, new Comparator<AylaDevice>() {
+                @Override
+                public int compare(AylaDevice lhs, AylaDevice rhs) {
+                    boolean lhsVisible = _visibleDsns.contains(lhs.getDsn());
+                    if (lhsVisible != _visibleDsns.contains(rhs.getDsn())) {
+                        return lhsVisible ? -1 : 1;
+                    }
+                    long lhsTime = getLastUsed(lhs.getDsn());
+                    long rhsTime = getLastUsed(rhs.getDsn());
+                    return lhsTime > rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+                }
+            });
+
+            for (AylaDevice device : candidates) {
+                if (_starting.size() >= MAX_CONCURRENT_KEY_EXCHANGES) {
+                    break;
+                }
+                _waiting.remove(device.getDsn());
+
+                if (device.isLanModeActive() || !device.isLanModePermitted()) {
+                    continue;
+                }
+                if (!device.isNode() && !(device instanceof AylaLocalDevice)) {
+                    // Nodes and local devices do not need a slot
+                    Runnable timeout = new KeyExchangeTimeout(device);
+                    _starting.put(device.getDsn(), timeout);
+                    _handler.postDelayed(timeout, KEY_EXCHANGE_TIMEOUT_MS);
+                }
+                toStart.add(device);
+            }
+        }
+
+        for (AylaDevice device : toStart) {
+            AylaLog.d(LOG_TAG, "Starting LAN session with " + device.getDsn());
+            device.startLanSession(_deviceManager.getLanServer());
+        }
+    }
+
+    /**
+     * Stops the session of a device whose key exchange failed, and schedules a retry after a
+     * jittered back-off delay. The device must already have been removed from _starting, so
+     * that the LAN state change caused by stopping the session is ignored.
+     */
+    private void failed(AylaDevice device) {
+        device.stopLanSession();
+
+        String dsn = device.getDsn();
+        synchronized (this) {
+            Integer failures = _failureCounts.get(dsn);
+            int failureCount = failures == null ? 1 : failures + 1;
+            _failureCounts.put(dsn, failureCount);
+
+            long delay = INITIAL_RETRY_DELAY_MS << Math.min(failureCount - 1, 16);
+            delay = Math.min(delay, MAX_RETRY_DELAY_MS);
+            // Use between half and all of the delay, so devices that failed together do not
+            // all retry together
+            delay = delay / 2 + (long) (_random.nextDouble() * (delay / 2));
+
+            AylaLog.d(LOG_TAG, "LAN session with " + dsn + " failed " + failureCount +
+                    " times, retrying in " + delay + "ms");
+
+            RetryRunnable retry = new RetryRunnable(device);
+            _retries.put(dsn, retry);
+            _handler.postDelayed(retry, delay);
+        }
+    }
+
+    /**
+     * Returns the time the given device was last used, or 0 if it is not known
+     */
+    synchronized long getLastUsed(String dsn) {
+        Long lastUsed = _lastUsed.get(dsn);
+        return lastUsed == null ? 0 : lastUsed;
+    }
+
+    /**
+     * Removes the least recently used entries from the given map until it holds at most
+     * maxEntries entries.
+     *
+     * @param lastUsed   Last-used times by DSN
+     * @param maxEntries Maximum number of entries to keep
+     * @return the DSNs that were removed
+     */
+    static List<String> trimLastUsed(Map<String, Long> lastUsed, int maxEntries) {
+        if (lastUsed.size() <= maxEntries) {
+            return Collections.emptyList();
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(lastUsed.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> lhs, Map.Entry<String, Long> rhs) {
+                return lhs.getValue().compareTo(rhs.getValue());
+            }
+        });
+
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < entries.size() - maxEntries; i++) {
+            removed.add(entries.get(i).getKey());
+        }
+        for (String dsn : removed) {
+            lastUsed.remove(dsn);
+        }
+        return removed;
+    }
+
+    private static void removeLastUsedPreferences(SharedPreferences prefs, List<String> dsns) {
+        if (prefs == null || dsns.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String dsn : dsns) {
+            editor.remove(dsn);
+        }
+        editor.apply();
+    }
+
+    private SharedPreferences getLastUsedPreferences() {
+        Context context = AylaNetworks.sharedInstance().getContext();
+        if (context == null) {
+            return null;
+        }
+        return context.getSharedPreferences(PREFS_LAST_USED, Context.MODE_PRIVATE);
+    }
+
+    private class KeyExchangeTimeout implements Runnable {
+        private final AylaDevice _device;
+
+        KeyExchangeTimeout(AylaDevice device) {
+            _device = device;
+        }
+
+        @Override
+        public void run() {
+            synchronized (AylaLanSessionOrchestrator.this) {
+                if (_starting.get(_device.getDsn()) != this) {
+                    return;
+                }
+                _starting.remove(_device.getDsn());
+            }
+
+            AylaLog.d(LOG_TAG, "Key exchange with " + _device.getDsn() + " timed out");
+            failed(_device);
+            startNext();
+        }
+    }
+
+    private class RetryRunnable implements Runnable {
+        private final AylaDevice _device;
+
+        RetryRunnable(AylaDevice device) {
+            _device = device;
+        }
+
+        @Override
+        public void run() {
+            synchronized (AylaLanSessionOrchestrator.this) {
+                if (_retries.get(_device.getDsn()) != this) {
+                    return;
+                }
+                _retries.remove(_device.getDsn());
+                _waiting.put(_device.getDsn(), _device);
+            }
+            startNext();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Executors that may be set in {@link AylaSystemSettings#listenerExecutor} to choose the thread
+ * on which the SDK notifies DeviceChangeListeners, DeviceManagerListeners and
+ * DSManagerListeners.
+ * <ul>
+ * <li>{@link #mainThread()}, the default, notifies listeners on the main (UI) thread</li>
+ * <li>{@link #background()} notifies listeners in order on a single background thread, for
+ * headless or service users that should not touch the UI thread</li>
+ * <li>{@link #direct()} notifies listeners on whichever thread the change was detected, which
+ * may be the main thread, a network thread or the LAN server thread. Listeners must be
+ * thread-safe and return quickly.</li>
+ * </ul>
+ * Any other Executor may be used as well. Notifications of a device or the device manager are
+ * delivered in the order they were made as long as the executor runs tasks in order.
+ */
+public final class AylaListenerDelivery {
+    private static final Executor __direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Executor __mainThread;
+    private static ExecutorService __background;
+
+    private AylaListenerDelivery() {
+    }
+
+    /**
+     * Returns an Executor that runs tasks on the main thread, sharing one Handler
+     */
+    public static synchronized Executor mainThread() {
+        if (__mainThread == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            __mainThread = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return __mainThread;
+    }
+
+    /**
+     * Returns an Executor that runs tasks in order on a single background thread
+     */
+    public static synchronized Executor background() {
+        if (__background == null) {
+            __background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AylaListeners");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return __background;
+    }
+
+    /**
+     * Returns an Executor that runs tasks right away on the calling thread
+     */
+    public static Executor direct() {
+        return __direct;
+    }
+
+    /**
+     * Returns the Executor set in the system settings, or the main thread executor if none is
+     * set
+     */
+    static Executor get() {
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        Executor executor = networks == null ? null : networks.getListenerExecutor();
+        return executor == null ? mainThread() : executor;
+    }
+}
@@ -3,18 +3,12 @@
  */
 package com.aylanetworks.aylasdk;
 
-import android.content.Context;
 
 import androidx.annotation.NonNull;
 
-import com.android.volley.Cache;
-import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.HurlStack;
 import com.aylanetworks.aylasdk.error.AylaError;
 import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.util.Preconditions;
@@ -45,10 +39,8 @@ public class AylaLogService {
     private String _dsn;
 
     public AylaLogService(@NonNull AylaSessionManager sessionManager) {
-        Context context = AylaNetworks.sharedInstance().getContext();
-        Cache cache = new DiskBasedCache(context.getCacheDir(), 1024 * 1024);
-        Network network = new BasicNetwork(new HurlStack());
-        _logServiceRequestQueue = new RequestQueue(cache, network, 1);
+        _logServiceRequestQueue = AylaNetworks.sharedInstance().getHttpTransport()
+                .newRequestQueue(1);
         _sessionManagerRef = new WeakReference<>(sessionManager);
         _logList = new LinkedList<>();
     }
@@ -5,13 +5,9 @@ import android.text.TextUtils;
 
 import androidx.annotation.Nullable;
 
-import com.android.volley.Cache;
 import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.HurlStack;
 import com.aylanetworks.aylasdk.ams.action.params.AylaActionParamsTypeAdapterFactory;
 import com.aylanetworks.aylasdk.ams.dest.AylaDestinationTypeAdapterFactory;
 import com.aylanetworks.aylasdk.auth.AylaAuthProvider;
@@ -20,6 +16,8 @@ import com.aylanetworks.aylasdk.metrics.AylaMetricsManager;
 import com.aylanetworks.aylasdk.metrics.AylaUncaughtExceptionHandler;
 import com.aylanetworks.aylasdk.metrics.AylaUserDataGrant;
 import com.aylanetworks.aylasdk.plugin.AylaPlugin;
+import com.aylanetworks.aylasdk.transport.AylaHttpTransport;
+import com.aylanetworks.aylasdk.transport.AylaOkHttpTransport;
 import com.aylanetworks.aylasdk.util.AylaTypeAdapterFactory;
 import com.aylanetworks.aylasdk.util.ServiceUrls;
 import com.google.gson.FieldNamingPolicy;
@@ -28,6 +26,7 @@ import com.google.gson.GsonBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /*
  * AylaSDK
@@ -54,6 +53,7 @@ import java.util.Map;
 public class AylaNetworks {
     private static final String SDK_VERSION = "6.6.06";
     private static final String SDK_SUPPORT_EMAIL = "support-mobile@aylanetworks.com";
+    private static final int USER_SERVICE_THREAD_POOL_SIZE = 2;
     /**
      * Shared instance of the AylaNetworks, accessible via sharedInstance()
      */
@@ -82,10 +82,21 @@ public class AylaNetworks {
      */
     private Map<String, AylaSessionManager> _sessionManagers;
 
+    /**
+     * Network transport shared by all request queues of the SDK
+     */
+    private AylaHttpTransport _httpTransport;
+
+    /**
+     * True if the transport was created by the SDK rather than provided in the system settings
+     */
+    private boolean _ownsHttpTransport;
+
     /**
      * Request queue for connections to the User service
      */
     private RequestQueue _userServiceRequestQueue;
+    private AylaRequestCoalescer _userServiceRequestCoalescer;
 
     /**
      * Gson object used for object serialization / deserialization
@@ -168,13 +179,15 @@ public class AylaNetworks {
         __sharedCoreManager.initializeInternal(systemSettings);
 
         Context context = systemSettings.context;
-        Cache cache = new DiskBasedCache(context.getCacheDir(), 1024 * 1024);
 
-        // Set up the HTTPURLConnection network stack
-        Network network = new BasicNetwork(new HurlStack());
+        // Set up the network stack on the shared transport
+        __sharedCoreManager._userServiceRequestCoalescer = new AylaRequestCoalescer();
+        Network network = __sharedCoreManager._userServiceRequestCoalescer.wrapNetwork(
+                AylaAPIRequest.meteredNetwork(__sharedCoreManager._httpTransport.getNetwork()));
 
         // Create and start our queue
-        __sharedCoreManager._userServiceRequestQueue = new RequestQueue(cache, network);
+        __sharedCoreManager._userServiceRequestQueue = __sharedCoreManager._httpTransport
+                .newRequestQueue(network, USER_SERVICE_THREAD_POOL_SIZE);
         __sharedCoreManager._userServiceRequestQueue.start();
 
         if(__sharedCoreManager.getUserDataGrants().isEnabled(AylaUserDataGrant
@@ -209,6 +222,10 @@ public class AylaNetworks {
             __sharedCoreManager.closeSessions();
             AylaMetricsManager.shutDown();
 
+            if (__sharedCoreManager._ownsHttpTransport) {
+                __sharedCoreManager._httpTransport.shutDown();
+            }
+
             __sharedCoreManager = null;
         }
 
@@ -262,6 +279,26 @@ public class AylaNetworks {
         return _loginManager;
     }
     
+    /**
+     * Returns the Executor set in the system settings to notify listeners with, or null if none
+     * is set. Unlike {@link #getSystemSettings()}, this does not copy the settings, so it is cheap
+     * enough to call for each notification.
+     */
+    Executor getListenerExecutor() {
+        AylaSystemSettings settings = _systemSettings;
+        return settings == null ? null : settings.listenerExecutor;
+    }
+
+    /**
+     * Returns true if request coalescing is disabled in the system settings. Like
+     * {@link #getListenerExecutor()}, this does not copy the settings, so it is cheap enough to
+     * call for each request.
+     */
+    boolean isRequestCoalescingDisabled() {
+        AylaSystemSettings settings = _systemSettings;
+        return settings != null && settings.disableRequestCoalescing;
+    }
+
     /**
      * Returns a copy of the {@link AylaSystemSettings} object used to initialize the
      * AylaNetworks.
@@ -275,10 +312,29 @@ public class AylaNetworks {
         return new AylaSystemSettings(_systemSettings);
     }
 
+    /**
+     * Returns the network transport shared by all request queues of the SDK.
+     *
+     * @return the shared AylaHttpTransport
+     */
+    public AylaHttpTransport getHttpTransport() {
+        return _httpTransport;
+    }
+
     public RequestQueue getUserServiceRequestQueue() {
         return _userServiceRequestQueue;
     }
 
+    /**
+     * Returns the coalescer used for requests sent to the user service. The coalescer may be
+     * used to obtain statistics on the GET requests that were de-duplicated.
+     *
+     * @return the AylaRequestCoalescer for the user service request queue
+     */
+    public AylaRequestCoalescer getUserServiceRequestCoalescer() {
+        return _userServiceRequestCoalescer;
+    }
+
     /**
      * Updates the context used by the library. Call this method if the context used to initialize
      * the library becomes stale, e.g. if the context is destroyed due to the Activity lifecycle,
@@ -308,6 +364,9 @@ public class AylaNetworks {
         _sessionManagers = new HashMap<>();
         _connectivity = new AylaConnectivity(getContext());
         _connectivity.startMonitoring(getContext());
+        _ownsHttpTransport = systemSettings.httpTransport == null;
+        _httpTransport = _ownsHttpTransport ? new AylaOkHttpTransport.Builder().build() :
+                systemSettings.httpTransport;
         _metricsManager = new AylaMetricsManager();
         _metricsManager.enable(!systemSettings.disableMetricsService);
     }
@@ -481,8 +540,7 @@ public class AylaNetworks {
     public AylaAPIRequest sendUserServiceRequest(AylaAPIRequest<?> request) {
         request.setShouldCache(false);
         request.logResponse();
-        getUserServiceRequestQueue().add(request);
-        return request;
+        return getUserServiceRequestCoalescer().add(getUserServiceRequestQueue(), request);
     }
 
     /**
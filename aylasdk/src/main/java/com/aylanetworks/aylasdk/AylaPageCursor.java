@@ -0,0 +1,264 @@
+package com.aylanetworks.aylasdk;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.PreconditionError;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * An AylaPageCursor streams the results of a paginated cloud API one page at a time. Each call
+ * to {@link #next(Response.Listener, ErrorListener)} delivers the next page of results, so a UI
+ * can display results as they arrive rather than waiting for the whole result set, and only the
+ * pages that are actually consumed are kept in memory.
+ * <p>
+ * If read-ahead is enabled, the cursor fetches the following page as soon as a page has been
+ * delivered, so that it is usually ready by the time the consumer asks for it. At most one page
+ * is fetched ahead. Call {@link #close()} once no more pages are needed to cancel any page
+ * being fetched.
+ * <p>
+ * Cursors are not thread-safe, and should be used from the main thread, on which results are
+ * delivered.
+ *
+ * @param <T> Type of the items in each page
+ */
+public class AylaPageCursor<T> {
+
+    /**
+     * Fetches a single page of results for a cursor.
+     *
+     * @param <T> Type of the items in each page
+     */
+    public interface PageFetcher<T> {
+        /**
+         * Fetches the given page.
+         *
+         * @param pageNumber Number of the page to fetch
+         * @param successListener Listener to receive the page. A null page is treated as the
+         *                        end of the results.
+         * @param errorListener Listener to receive an error should one occur
+         * @return the AylaAPIRequest used to fetch the page, or null if the fetch has already
+         * completed
+         */
+        AylaAPIRequest fetchPage(int pageNumber, Response.Listener<Page<T>> successListener,
+                                 ErrorListener errorListener);
+    }
+
+    /**
+     * A single page of results
+     *
+     * @param <T> Type of the items in the page
+     */
+    public static class Page<T> {
+        private final T[] _items;
+        private final int _pageNumber;
+        private final boolean _hasNext;
+
+        /**
+         * @param items Items of the page
+         * @param pageNumber Number of this page
+         * @param hasNext true if there may be more pages after this one
+         */
+        public Page(T[] items, int pageNumber, boolean hasNext) {
+            _items = items;
+            _pageNumber = pageNumber;
+            _hasNext = hasNext;
+        }
+
+        public T[] getItems() {
+            return _items;
+        }
+
+        public int getPageNumber() {
+            return _pageNumber;
+        }
+
+        public boolean hasNext() {
+            return _hasNext;
+        }
+    }
+
+    private final PageFetcher<T> _fetcher;
+    private final boolean _readAhead;
+
+    private int _nextPageNumber;
+    private boolean _endReached;
+    private boolean _closed;
+
+    private boolean _fetching;
+    private AylaAPIRequest _fetchRequest;
+    private Page<T> _fetchedPage;
+    private AylaError _fetchError;
+
+    private Response.Listener<T[]> _waitingSuccessListener;
+    private ErrorListener _waitingErrorListener;
+
+    /**
+     * Creates a cursor. No pages are fetched until {@link #next(Response.Listener,
+     * ErrorListener)} is called.
+     *
+     * @param fetcher Fetcher for the pages of the cursor
+     * @param firstPageNumber Number of the first page to fetch
+     * @param readAhead true to fetch the following page as soon as a page has been delivered
+     */
+    public AylaPageCursor(PageFetcher<T> fetcher, int firstPageNumber, boolean readAhead) {
+        _fetcher = fetcher;
+        _nextPageNumber = firstPageNumber;
+        _readAhead = readAhead;
+    }
+
+    /**
+     * @return true if more pages may be available from this cursor. The last page may be empty
+     * if the server does not indicate whether more pages are available.
+     */
+    public boolean hasNext() {
+        return !_closed && (_fetching || _fetchedPage != null || _fetchError != null ||
+                !_endReached);
+    }
+
+    /**
+     * Delivers the next page of results. If the page was fetched ahead it is delivered right
+     * away, otherwise it is delivered once it has been fetched. Only one call may be outstanding
+     * at a time. If fetching a page fails, the next call to this method retries the same page.
+     *
+     * @param successListener Listener to receive the items of the next page
+     * @param errorListener Listener to receive an error should one occur
+     */
+    public void next(Response.Listener<T[]> successListener, ErrorListener errorListener) {
+        if (_closed) {
+            errorListener.onErrorResponse(new PreconditionError("Cursor has been closed"));
+            return;
+        }
+        if (_waitingSuccessListener != null) {
+            errorListener.onErrorResponse(new PreconditionError("A page is already being " +
+                    "fetched"));
+            return;
+        }
+
+        if (_fetchedPage != null) {
+            Page<T> page = _fetchedPage;
+            _fetchedPage = null;
+            readAhead();
+            successListener.onResponse(page.getItems());
+            return;
+        }
+
+        if (_fetchError != null) {
+            AylaError error = _fetchError;
+            _fetchError = null;
+            errorListener.onErrorResponse(error);
+            return;
+        }
+
+        if (!_fetching && _endReached) {
+            errorListener.onErrorResponse(new PreconditionError("No more pages are available"));
+            return;
+        }
+
+        _waitingSuccessListener = successListener;
+        _waitingErrorListener = errorListener;
+        if (!_fetching) {
+            fetch();
+        }
+    }
+
+    /**
+     * Closes the cursor, canceling any page being fetched and discarding any page fetched ahead.
+     * No further results are delivered once the cursor is closed.
+     */
+    public void close() {
+        _closed = true;
+        _fetchedPage = null;
+        _fetchError = null;
+        _waitingSuccessListener = null;
+        _waitingErrorListener = null;
+        if (_fetchRequest != null) {
+            _fetchRequest.cancel();
+            _fetchRequest = null;
+        }
+    }
+
+    private void readAhead() {
+        if (_readAhead && !_closed && !_endReached && !_fetching && _fetchedPage == null &&
+                _fetchError == null) {
+            fetch();
+        }
+    }
+
+    private void fetch() {
+        _fetching = true;
+        AylaAPIRequest request = _fetcher.fetchPage(_nextPageNumber,
+                new Response.Listener<Page<T>>() {
+                    @Override
+                    public void onResponse(Page<T> page) {
+                        pageFetched(page);
+                    }
+                },
+                new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        pageFailed(error);
+                    }
+                });
+
+        // The fetcher may have completed synchronously
+        if (_fetching) {
+            _fetchRequest = request;
+        }
+    }
+
+    private void pageFetched(Page<T> page) {
+        _fetching = false;
+        _fetchRequest = null;
+        if (_closed) {
+            return;
+        }
+
+        if (page == null) {
+            _endReached = true;
+            if (_waitingErrorListener != null) {
+                ErrorListener errorListener = _waitingErrorListener;
+                _waitingSuccessListener = null;
+                _waitingErrorListener = null;
+                errorListener.onErrorResponse(new PreconditionError("No more pages are " +
+                        "available"));
+            }
+            return;
+        }
+
+        _nextPageNumber = page.getPageNumber() + 1;
+        _endReached = !page.hasNext();
+
+        if (_waitingSuccessListener != null) {
+            Response.Listener<T[]> successListener = _waitingSuccessListener;
+            _waitingSuccessListener = null;
+            _waitingErrorListener = null;
+            readAhead();
+            successListener.onResponse(page.getItems());
+        } else {
+            _fetchedPage = page;
+        }
+    }
+
+    private void pageFailed(AylaError error) {
+        _fetching = false;
+        _fetchRequest = null;
+        if (_closed) {
+            return;
+        }
+
+        if (_waitingErrorListener != null) {
+            ErrorListener errorListener = _waitingErrorListener;
+            _waitingSuccessListener = null;
+            _waitingErrorListener = null;
+            errorListener.onErrorResponse(error);
+        } else {
+            _fetchError = error;
+        }
+    }
+}
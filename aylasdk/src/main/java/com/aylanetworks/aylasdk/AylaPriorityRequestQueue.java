@@ -0,0 +1,340 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.TimeoutError;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * The AylaPriorityRequestQueue is a RequestQueue that schedules requests according to their
+ * {@link AylaAPIRequest.PriorityClass}. Interactive requests are dispatched ahead of background
+ * requests, and background requests may only occupy a limited number of the network dispatcher
+ * threads at a time, so that a user action never waits behind a full queue of polling requests.
+ * Background requests over the limit wait in the queue until a slot frees up, and are dropped
+ * with a TimeoutError if their deadline passes while waiting.
+ * <p>
+ * Request deadlines are enforced by the network returned from {@link #deadlineNetwork(Network)},
+ * which fails any request whose deadline has passed by the time a dispatcher picks it up.
+ * <p>
+ * Queue latencies are recorded in a separate {@link AylaMetricsRegistry.Histogram} for each
+ * priority class and are available from {@link #getStats()}.
+ */
+public class AylaPriorityRequestQueue extends RequestQueue {
+    private static final String LOG_TAG = "PriorityQueue";
+
+    private final int _maxBackgroundRequests;
+    private final LinkedList<AylaAPIRequest<?>> _pendingBackground = new LinkedList<>();
+    private final Map<Request<?>, Long> _dispatched = new IdentityHashMap<>();
+    private int _backgroundInFlight;
+
+    private final Handler _deliveryHandler = new Handler(Looper.getMainLooper());
+    private final AylaMetricsRegistry.Histogram _interactiveLatencies =
+            new AylaMetricsRegistry.Histogram();
+    private final AylaMetricsRegistry.Histogram _backgroundLatencies =
+            new AylaMetricsRegistry.Histogram();
+    private final AtomicLong _shedCount = new AtomicLong();
+
+    /**
+     * Requests failed by deadline networks. The networks are created before their queues, so
+     * this count is shared by all priority queues.
+     */
+    private static final AtomicLong __expiredCount = new AtomicLong();
+
+    /**
+     * Creates the queue. The queue must be started by the caller.
+     *
+     * @param cache Cache for the queue
+     * @param network Network for the queue, which should include a network returned from
+     *                {@link #deadlineNetwork(Network)}
+     * @param threadPoolSize Number of network dispatcher threads
+     * @param maxBackgroundRequests Maximum number of background requests that may be dispatched
+     *                              at the same time
+     */
+    public AylaPriorityRequestQueue(Cache cache, Network network, int threadPoolSize,
+                                    int maxBackgroundRequests) {
+        super(cache, network, threadPoolSize);
+        _maxBackgroundRequests = Math.max(1, Math.min(maxBackgroundRequests, threadPoolSize));
+
+        addRequestFinishedListener(new RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                requestFinished(request);
+            }
+        });
+    }
+
+    /**
+     * Returns a Network that fails requests whose deadline has passed rather than sending them.
+     *
+     * @param network Network used to perform the requests
+     * @return the wrapped Network
+     */
+    public static Network deadlineNetwork(final Network network) {
+        return new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                if (request instanceof AylaAPIRequest &&
+                        ((AylaAPIRequest<?>) request).isExpired()) {
+                    __expiredCount.incrementAndGet();
+                    AylaLog.d(LOG_TAG, "Deadline passed for " + request.getUrl());
+                    throw new com.android.volley.TimeoutError();
+                }
+                return network.performRequest(request);
+            }
+        };
+    }
+
+    @Override
+    public <T> Request<T> add(Request<T> request) {
+        if (request instanceof AylaAPIRequest && ((AylaAPIRequest<?>) request).getPriorityClass()
+                == AylaAPIRequest.PriorityClass.Background) {
+            synchronized (_pendingBackground) {
+                if (_backgroundInFlight >= _maxBackgroundRequests) {
+                    _pendingBackground.add((AylaAPIRequest<?>) request);
+                    AylaMetricsRegistry.sharedInstance().gauge(
+                            AylaMetricsRegistry.BACKGROUND_QUEUE_DEPTH)
+                            .set(_pendingBackground.size());
+                    return request;
+                }
+                _backgroundInFlight++;
+            }
+        }
+
+        dispatch(request);
+        return request;
+    }
+
+    @Override
+    public void cancelAll(RequestFilter filter) {
+        List<AylaAPIRequest<?>> canceled = new ArrayList<>();
+        synchronized (_pendingBackground) {
+            Iterator<AylaAPIRequest<?>> iterator = _pendingBackground.iterator();
+            while (iterator.hasNext()) {
+                AylaAPIRequest<?> request = iterator.next();
+                if (filter.apply(request)) {
+                    iterator.remove();
+                    canceled.add(request);
+                }
+            }
+        }
+
+        for (AylaAPIRequest<?> request : canceled) {
+            request.cancel();
+        }
+        super.cancelAll(filter);
+    }
+
+    /**
+     * Returns a snapshot of the scheduling statistics of this queue.
+     *
+     * @return the current Stats
+     */
+    public Stats getStats() {
+        int pending;
+        int backgroundInFlight;
+        synchronized (_pendingBackground) {
+            pending = _pendingBackground.size();
+            backgroundInFlight = _backgroundInFlight;
+        }
+        return new Stats(_interactiveLatencies.snapshot(), _backgroundLatencies.snapshot(),
+                _shedCount.get(), __expiredCount.get(), pending, backgroundInFlight);
+    }
+
+    private void dispatch(Request<?> request) {
+        synchronized (_dispatched) {
+            _dispatched.put(request, SystemClock.elapsedRealtime());
+        }
+        super.add(request);
+    }
+
+    private void requestFinished(Request<?> request) {
+        Long dispatchTime;
+        synchronized (_dispatched) {
+            dispatchTime = _dispatched.remove(request);
+        }
+        if (dispatchTime == null) {
+            return;
+        }
+
+        boolean background = request instanceof AylaAPIRequest &&
+                ((AylaAPIRequest<?>) request).getPriorityClass() ==
+                        AylaAPIRequest.PriorityClass.Background;
+        long latency = SystemClock.elapsedRealtime() - dispatchTime;
+        if (background) {
+            _backgroundLatencies.record(latency);
+            dispatchNextBackground();
+        } else {
+            _interactiveLatencies.record(latency);
+        }
+    }
+
+    /**
+     * Called when a background request has finished. Dispatches the next waiting background
+     * request, dropping any that were canceled or have expired while waiting.
+     */
+    private void dispatchNextBackground() {
+        List<AylaAPIRequest<?>> expired = new ArrayList<>();
+        AylaAPIRequest<?> next = null;
+        synchronized (_pendingBackground) {
+            while (!_pendingBackground.isEmpty()) {
+                AylaAPIRequest<?> candidate = _pendingBackground.removeFirst();
+                if (candidate.isCanceled()) {
+                    continue;
+                }
+                if (candidate.isExpired()) {
+                    expired.add(candidate);
+                    continue;
+                }
+                next = candidate;
+                break;
+            }
+            AylaMetricsRegistry.sharedInstance().gauge(AylaMetricsRegistry.BACKGROUND_QUEUE_DEPTH)
+                    .set(_pendingBackground.size());
+
+            if (next == null) {
+                _backgroundInFlight--;
+            }
+        }
+
+        for (AylaAPIRequest<?> request : expired) {
+            shed(request);
+        }
+
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private void shed(AylaAPIRequest<?> request) {
+        _shedCount.incrementAndGet();
+        AylaLog.d(LOG_TAG, "Shedding expired background request " + request.getUrl());
+
+        // Canceling the request releases any requests coalesced with it, but also clears its
+        // listener, so hold on to the listener to report the error.
+        final ErrorListener errorListener = request.getRequestErrorListener();
+        request.cancel();
+        if (errorListener != null) {
+            _deliveryHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    errorListener.onErrorResponse(new TimeoutError("Request deadline passed " +
+                            "before it could be sent"));
+                }
+            });
+        }
+    }
+
+    /**
+     * Scheduling statistics of an AylaPriorityRequestQueue. Latencies are measured from the time
+     * a request is handed to the network dispatchers until it has finished, over all requests
+     * of each priority class since the queue was created.
+     */
+    public static class Stats {
+        private final AylaMetricsRegistry.HistogramSnapshot _interactiveLatencies;
+        private final AylaMetricsRegistry.HistogramSnapshot _backgroundLatencies;
+        private final long _shedCount;
+        private final long _expiredCount;
+        private final int _pendingBackgroundCount;
+        private final int _backgroundInFlightCount;
+
+        Stats(AylaMetricsRegistry.HistogramSnapshot interactiveLatencies,
+              AylaMetricsRegistry.HistogramSnapshot backgroundLatencies, long shedCount,
+              long expiredCount, int pendingBackgroundCount, int backgroundInFlightCount) {
+            _interactiveLatencies = interactiveLatencies;
+            _backgroundLatencies = backgroundLatencies;
+            _shedCount = shedCount;
+            _expiredCount = expiredCount;
+            _pendingBackgroundCount = pendingBackgroundCount;
+            _backgroundInFlightCount = backgroundInFlightCount;
+        }
+
+        /**
+         * @return the 50th percentile latency of interactive requests in ms, or -1 if none
+         */
+        public long getInteractiveP50Ms() {
+            return _interactiveLatencies.getCount() == 0 ? -1 : _interactiveLatencies.getP50();
+        }
+
+        /**
+         * @return the 99th percentile latency of interactive requests in ms, or -1 if none
+         */
+        public long getInteractiveP99Ms() {
+            return _interactiveLatencies.getCount() == 0 ? -1 : _interactiveLatencies.getP99();
+        }
+
+        /**
+         * @return the 50th percentile latency of background requests in ms, or -1 if none
+         */
+        public long getBackgroundP50Ms() {
+            return _backgroundLatencies.getCount() == 0 ? -1 : _backgroundLatencies.getP50();
+        }
+
+        /**
+         * @return the 99th percentile latency of background requests in ms, or -1 if none
+         */
+        public long getBackgroundP99Ms() {
+            return _backgroundLatencies.getCount() == 0 ? -1 : _backgroundLatencies.getP99();
+        }
+
+        /**
+         * @return the number of background requests dropped because their deadline passed
+         * while waiting for a dispatcher slot
+         */
+        public long getShedCount() {
+            return _shedCount;
+        }
+
+        /**
+         * @return the number of requests, across all priority queues, failed because their
+         * deadline had passed when a dispatcher picked them up
+         */
+        public long getExpiredCount() {
+            return _expiredCount;
+        }
+
+        /**
+         * @return the number of background requests waiting for a dispatcher slot
+         */
+        public int getPendingBackgroundCount() {
+            return _pendingBackgroundCount;
+        }
+
+        /**
+         * @return the number of background requests currently dispatched
+         */
+        public int getBackgroundInFlightCount() {
+            return _backgroundInFlightCount;
+        }
+
+        @Override
+        public String toString() {
+            return "interactive p50/p99: " + getInteractiveP50Ms() + "/" +
+                    getInteractiveP99Ms() + " ms, background p50/p99: " + getBackgroundP50Ms() +
+                    "/" + getBackgroundP99Ms() + " ms, shed: " + _shedCount + ", expired: " +
+                    _expiredCount + ", pending background: " + _pendingBackgroundCount;
+        }
+    }
+}
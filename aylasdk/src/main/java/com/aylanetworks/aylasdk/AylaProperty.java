@@ -5,8 +5,7 @@ package com.aylanetworks.aylasdk;
  * Copyright 2015 Ayla Networks, all rights reserved
  */
 
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.volley.NetworkResponse;
@@ -22,14 +21,13 @@ import com.aylanetworks.aylasdk.error.InternalError;
 import com.aylanetworks.aylasdk.error.InvalidArgumentError;
 import com.aylanetworks.aylasdk.error.JsonError;
 import com.aylanetworks.aylasdk.error.PreconditionError;
-import com.aylanetworks.aylasdk.error.PropertyAckTimeoutError;
-import com.aylanetworks.aylasdk.error.ServerError;
 import com.aylanetworks.aylasdk.lan.AylaLanModule;
 import com.aylanetworks.aylasdk.lan.AylaLanRequest;
 import com.aylanetworks.aylasdk.lan.CreateDatapointCommand;
 import com.aylanetworks.aylasdk.metrics.AylaMetricsManager;
 import com.aylanetworks.aylasdk.metrics.AylaMetric;
 import com.aylanetworks.aylasdk.metrics.AylaDevicePropertyMetric;
+import com.aylanetworks.aylasdk.util.AylaTimestamp;
 import com.aylanetworks.aylasdk.util.DateUtils;
 import com.aylanetworks.aylasdk.util.EmptyListener;
 import com.aylanetworks.aylasdk.util.ObjectUtils;
@@ -54,8 +52,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
-import fi.iki.elonen.NanoHTTPD;
-
 /**
  * An AylaProperty represents a "property" of an {@link AylaDevice}. Properties are used to
  * control devices as well as obtain information about their current state. Properties are
@@ -123,7 +119,7 @@ public class AylaProperty<T> {
     @Expose
     protected T value;
     @Expose
-    protected String dataUpdatedAt;           // Timestamp of when the property object was updated
+    protected AylaTimestamp dataUpdatedAt;    // Timestamp of when the property object was updated
     @Expose
     protected String name;
     @Expose
@@ -139,7 +135,7 @@ public class AylaProperty<T> {
     @Expose
     protected int ackMessage;
     @Expose
-    protected String ackedAt;
+    protected AylaTimestamp ackedAt;
 
     private AylaDevice.DataSource _lastUpdateSource = AylaDevice.DataSource.CLOUD;
 
@@ -152,7 +148,7 @@ public class AylaProperty<T> {
     }
 
     public Date getDataUpdatedAt() {
-        return DateUtils.fromJsonString(dataUpdatedAt);
+        return AylaTimestamp.toDate(dataUpdatedAt);
     }
 
     public String getName() {
@@ -204,7 +200,7 @@ public class AylaProperty<T> {
      * @return The timestamp of the acknowledgement of the datapoint from the device
      */
     public Date getAckedAt() {
-        return DateUtils.fromJsonString(ackedAt);
+        return AylaTimestamp.toDate(ackedAt);
     }
 
     /**
@@ -289,6 +285,11 @@ public class AylaProperty<T> {
             return null;
         }
 
+        AylaDeviceManager deviceManager = device.getDeviceManager();
+        if (deviceManager != null) {
+            deviceManager.getLanSessionOrchestrator().deviceUsed(device);
+        }
+
         // If we can do this over the LAN, let's.
         if (device.isLanModeActive() && isLanModeSupported()) {
             return createDatapointLAN(value, metadata, ackEnabledTimeout, successListener,
@@ -365,6 +366,12 @@ public class AylaProperty<T> {
             return null;
         }
 
+        AylaDatapointWriteCoalescer coalescer = deviceManager.getDatapointWriteCoalescer();
+        if (coalescer != null && AylaDatapointWriteCoalescer.canBatch(this, value, metadata)) {
+            return coalescer.add(this, value, ackEnabledTimeout, successListener,
+                    errorListener);
+        }
+
         String url = deviceManager.deviceServiceUrl(createDatapointEndpoint());
         String payload = createDatapointPayload(value, metadata);
         Map<String, String> headers = new HashMap<>();
@@ -445,14 +452,14 @@ public class AylaProperty<T> {
                         }
 
                         if (isAckEnabled()) {
-                            new AylaDatapointAckPoller(
-                                    _owningDevice.get(),
-                                    AylaProperty.this,
-                                    datapoint.getId(),
-                                    this,
-                                    ackEnabledTimeout,
-                                    successListener,
-                                    errorListener).startPolling();
+                            // Completed when the ack arrives from the datastream, or polled
+                            // for if no datastream is connected
+                            AylaDeviceManager deviceManager = getDeviceManager(errorListener);
+                            if (deviceManager != null) {
+                                deviceManager.getAckTracker().track(AylaProperty.this,
+                                        datapoint, this, ackEnabledTimeout, successListener,
+                                        errorListener);
+                            }
                         } else {
                             // Update ourselves using the datapoint
                             updateFrom(datapoint, AylaDevice.DataSource.CLOUD);
@@ -522,7 +529,19 @@ public class AylaProperty<T> {
                 metadata, ackEnabledTimeout);
 
         if (isAckEnabled()) {
-            cmd.prepareForAck(ackEnabledTimeout, successListener, errorListener);
+            final AylaDeviceManager deviceManager = device.getDeviceManager();
+            final long sentAt = SystemClock.elapsedRealtime();
+            cmd.prepareForAck(ackEnabledTimeout, new Response.Listener<AylaDatapoint<T>>() {
+                @Override
+                public void onResponse(AylaDatapoint<T> response) {
+                    if (deviceManager != null) {
+                        deviceManager.getAckTracker().recordLatency(getName(),
+                                SystemClock.elapsedRealtime() - sentAt,
+                                AylaDatapointAckTracker.AckSource.LAN);
+                    }
+                    successListener.onResponse(response);
+                }
+            }, errorListener);
         }
 
         final AylaLanRequest request = new AylaLanRequest(device, cmd, getSessionManager(),
@@ -627,218 +646,110 @@ public class AylaProperty<T> {
     }
 
     /**
-     * Class controlling the polling logic for creating Datapoint on ack_enabled properties in
-     * Cloud Mode.
+     * Fetches one datapoint of this property by its ID. Used to poll for the ack of a datapoint
+     * created on an ack-enabled property.
+     *
+     * @param datapointId     ID of the datapoint, as returned by the service when it was created
+     * @param originalRequest Request that created the datapoint, to which this one is chained
+     * @param successListener Listener to receive the specified datapoint on success
+     * @param errorListener   Listener to receive error information
+     * @return The AylaAPIRequest used to fetch the datapoint
      */
-    private static class AylaDatapointAckPoller<T> {
-
-        private int _pollingMaxCount = 5;
-        private static final int __pollingInterval = 1000; // ms
-
-        private int _currentIteration;
-        private AylaDevice _device;
-        private AylaProperty<T> _property;
-        private String _datapointID;
-        private AylaAPIRequest _originalRequest;
-        private Response.Listener _successListener;
-        private ErrorListener _errorListener;
-
-        AylaDatapointAckPoller(
-                AylaDevice d
-                , AylaProperty ap
-                , final String adpID
-                , final AylaAPIRequest oriRequest
-                , int maxPolling
-                , final Response.Listener successListener
-                , final ErrorListener errorListener){
-            _currentIteration = 0;
-            _device = d;
-            _property = ap;
-            _datapointID = adpID;
-            _originalRequest = oriRequest;
-            _pollingMaxCount = maxPolling;
-
-            _successListener = successListener;
-            _errorListener = errorListener;
+    AylaAPIRequest fetchDatapointById(String datapointId, AylaAPIRequest originalRequest,
+                                      final Response.Listener<AylaDatapoint> successListener,
+                                      ErrorListener errorListener) {
+        if (TextUtils.isEmpty(getName())) {
+            errorListener.onErrorResponse(
+                    new InternalError("Property is null or property name is empty"));
+            return null;
         }
-
-        public AylaAPIRequest startPolling() {
-            return fetchDatapointByID(_successListener, _errorListener);
+        if (TextUtils.isEmpty(datapointId)) {
+            errorListener.onErrorResponse(new InternalError("Datapoint ID is empty or null"));
+            return null;
         }
 
-        /**
-         * Fetches one datapoint specified by _datapointID, which is returned from cloud.
-         *
-         * @param successListener Listener to receive the specified datapoint on success
-         * @param errorListener   Listener to receive error information
-         * @return The AylaAPIRequest used to fetch the datapoints
-         */
-        private AylaAPIRequest fetchDatapointByID(
-                final Response.Listener<AylaDatapoint> successListener
-                , final ErrorListener errorListener) {
-            if (_originalRequest == null ||
-                    (_originalRequest!=null && _originalRequest.isCanceled())) {
-                AylaLog.w(LOG_TAG, "AylaDatapointAckPoller.fetchDAtapointByID, _originalRequest " +
-                        "null or is canceled.");
-                return null;
-            }
+        AylaDeviceManager deviceManager = getDeviceManager(errorListener);
+        if (deviceManager == null) {
+            return null;
+        }
 
-            // Form the request
-            if (_device == null) {
-                if (errorListener != null) {
-                    errorListener.onErrorResponse(new PreconditionError("No owning device"));
-                }
-                return null;
-            }
-            if (_property == null || TextUtils.isEmpty( _property.getName() )) {
-                if (errorListener != null) {
-                    errorListener.onErrorResponse(
-                            new InternalError("Property is null or property name is empty"));
-                }
-                return null;
-            }
-            if (TextUtils.isEmpty(_datapointID)) {
-                if (errorListener != null) {
-                    errorListener.onErrorResponse(
-                            new InternalError("Datapoint ID is empty or null"));
+        String url = deviceManager.deviceServiceUrl(createDatapointEndpoint(datapointId));
+        AylaLog.d(LOG_TAG, "getDatapointByID url:" + url);
+
+        AylaAPIRequest<AylaDatapoint.Wrapper> request =
+                new AylaAPIRequest<AylaDatapoint.Wrapper>(
+                        Request.Method.GET
+                        , url
+                        , null
+                        , AylaDatapoint.Wrapper.class
+                        , getSessionManager()
+                        , new Response.Listener<AylaDatapoint.Wrapper>() {
+                    @Override
+                    public void onResponse(AylaDatapoint.Wrapper response) {
+                        successListener.onResponse(response.datapoint);
+                    }
                 }
-                return null;
-            }
-
-            AylaDeviceManager adm = _property.getDeviceManager(errorListener);
-            if (adm == null) {
-                return null;
-            }
+                        , errorListener
+                ){
+                    @Override
+                    protected Response<AylaDatapoint.Wrapper> parseNetworkResponse(NetworkResponse response) {
+                        _networkResponseTimestamp = System.currentTimeMillis();
+                        _networkResponse = response;
 
-            String path = _property.createDatapointEndpoint(_datapointID);
-            String url = adm.deviceServiceUrl(path);
-            AylaLog.d(LOG_TAG, "getDatapointByID url:" + url);
-
-            AylaAPIRequest<AylaDatapoint.Wrapper> request =
-                    new AylaAPIRequest<AylaDatapoint.Wrapper>(
-                            Request.Method.GET
-                            , url
-                            , null
-                            , AylaDatapoint.Wrapper.class
-                            , _property.getSessionManager()
-                            , new Response.Listener<AylaDatapoint.Wrapper>() {
-                        @Override
-                        public void onResponse(AylaDatapoint.Wrapper response) {
-                            AylaDatapoint datapoint = response.datapoint;
-                            if (!TextUtils.isEmpty(datapoint.getAckedAt())) {
-                                if (response.datapoint.getAckStatus() ==
-                                        NanoHTTPD.Response.Status.OK.getRequestStatus()) {
-                                    _property.updateFrom(datapoint, AylaDevice.DataSource.CLOUD);
-                                    successListener.onResponse(datapoint);
-                                    AylaDevicePropertyMetric devicePropertyMetric =
-                                            new AylaDevicePropertyMetric(AylaMetric.LogLevel.INFO,
-                                                    AylaDevicePropertyMetric.MetricType.PROPERTY_ACK,
-                                                    "fetchDatapointByID", _device.getDsn(), _property.getName(),
-                                                    AylaMetric.Result.SUCCESS, null);
-                                    devicePropertyMetric.setAckMessage(String.valueOf(
-                                            datapoint.getAckMessage()));
-                                    devicePropertyMetric.setAckStatus(String.valueOf(
-                                            datapoint.getAckStatus()));
-                                    devicePropertyMetric.setAckTimestamp(datapoint.getAckedAt());
-                                    sendToMetricsManager(devicePropertyMetric);
-                                } else {
-                                    // We got the ack, but failed.
-                                    errorListener.onErrorResponse(new ServerError(response.datapoint
-                                            .getAckStatus(), null, "Datapoint NAK", null));
-                                }
-
-                                return;
-                            }
+                        // Save our response headers
+                        _responseHeaders = response.headers;
 
-                            // We're still waiting for the ACK.
-                            _currentIteration++;
-                            if (_currentIteration > _pollingMaxCount) {
-                                AylaLog.w(LOG_TAG, "Ack enable property time out.");
-                                if (errorListener != null) {
-                                    errorListener.onErrorResponse(new PropertyAckTimeoutError(_property.getName(),
-                                            "Ack enabled property " + _property.getName() + " polling timed out"));
-                                }
-                                AylaDevicePropertyMetric devicePropertyMetric =
-                                        new AylaDevicePropertyMetric(AylaMetric.LogLevel.INFO,
-                                        AylaDevicePropertyMetric.MetricType.PROPERTY_ACK,
-                                        "fetchDatapointByID", _device.getDsn(), _property.getName(),
-                                        AylaMetric.Result.FAILURE, "Ack enabled property " + _property.getName() + " timed out");
-                                sendToMetricsManager(devicePropertyMetric);
-                                return;
+                        // Deserialize the JSON data into an object
+                        String json;
+                        try {
+                            json = new String(
+                                    response.data,
+                                    HttpHeaderParser.parseCharset(response.headers));
+                            if ( _logResponse ) {
+                                String responseString = new String(response.data);
+                                AylaLog.d(getLogTag(), "Request: " + this.toString() +
+                                        " response code: " + response.statusCode +
+                                        " response body: " + responseString);
                             }
+                        } catch (UnsupportedEncodingException e) {
+                            return Response.error(new ParseError(e));
+                        }
 
-                            new Handler(Looper.getMainLooper())
-                                    .postDelayed(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            fetchDatapointByID(successListener, errorListener);
-                                        }
-                                    }, __pollingInterval);
-                        }// end of onResponse
-                    }// end of Response.Listener
-                            , errorListener
-                    ){
-                        @Override
-                        protected Response<AylaDatapoint.Wrapper> parseNetworkResponse(NetworkResponse response) {
-                            _networkResponseTimestamp = System.currentTimeMillis();
-                            _networkResponse = response;
-
-                            // Save our response headers
-                            _responseHeaders = response.headers;
-
-                            // Deserialize the JSON data into an object
-                            String json;
-                            try {
-                                json = new String(
-                                        response.data,
-                                        HttpHeaderParser.parseCharset(response.headers));
-                                if ( _logResponse ) {
-                                    String responseString = new String(response.data);
-                                    AylaLog.d(getLogTag(), "Request: " + this.toString() +
-                                            " response code: " + response.statusCode +
-                                            " response body: " + responseString);
-                                }
-                            } catch (UnsupportedEncodingException e) {
-                                return Response.error(new ParseError(e));
-                            }
 
+                        Type type;
+                        switch (baseType){
+                            case BASE_TYPE_BOOLEAN:
+                            case BASE_TYPE_INTEGER:
+                                type = new TypeToken<AylaDatapoint.Wrapper<Integer>>(){}.getType();
+                                break;
+                            case BASE_TYPE_DECIMAL:
+                                type = new TypeToken<AylaDatapoint.Wrapper<Float>>(){}.getType();
+                                break;
+                            default:
+                                type = new TypeToken<AylaDatapoint.Wrapper<String>>(){}.getType();
+                        }
 
-                            Type type;
-                            switch (_property.baseType){
-                                case BASE_TYPE_BOOLEAN:
-                                case BASE_TYPE_INTEGER:
-                                    type = new TypeToken<AylaDatapoint.Wrapper<Integer>>(){}.getType();
-                                    break;
-                                case BASE_TYPE_DECIMAL:
-                                    type = new TypeToken<AylaDatapoint.Wrapper<Float>>(){}.getType();
-                                    break;
-                                default:
-                                    type = new TypeToken<AylaDatapoint.Wrapper<String>>(){}.getType();
-                            }
+                        AylaDatapoint.Wrapper wrapper = getGson().fromJson(json, type);
 
-                            AylaDatapoint.Wrapper wrapper = getGson().fromJson(json, type);
-
-                            try {
-                                return Response.success(
-                                        wrapper,
-                                        HttpHeaderParser.parseCacheHeaders(response));
-                            } catch (JsonSyntaxException e) {
-                                return Response.error(new ParseError(new AylaError(AylaError.ErrorType.JsonError,
-                                        json, e)));
-                            } catch (JsonParseException e) {
-                                return Response.error(new ParseError(new AylaError(AylaError.ErrorType.JsonError,
-                                        json, e)));
-                            }
+                        try {
+                            return Response.success(
+                                    wrapper,
+                                    HttpHeaderParser.parseCacheHeaders(response));
+                        } catch (JsonSyntaxException e) {
+                            return Response.error(new ParseError(new AylaError(AylaError.ErrorType.JsonError,
+                                    json, e)));
+                        } catch (JsonParseException e) {
+                            return Response.error(new ParseError(new AylaError(AylaError.ErrorType.JsonError,
+                                    json, e)));
                         }
-                    };
-            if (_originalRequest != null) {
-                _originalRequest.setChainedRequest(request);
-            }
-            adm.sendDeviceServiceRequest(request);
-            return request;
-        }// end of fetchDatapointByID
-
-    }// end of AylaDatapointAckPoller class
+                    }
+                };
+        if (originalRequest != null) {
+            originalRequest.setChainedRequest(request);
+        }
+        deviceManager.sendDeviceServiceRequest(request);
+        return request;
+    }
 
 
 
@@ -874,11 +785,11 @@ public class AylaProperty<T> {
 
         String fromString = null;
         if (from != null) {
-            fromString = DateUtils.getISO8601DateFormat().format(from);
+            fromString = DateUtils.toJsonString(from);
         }
         String toString = null;
         if (to != null) {
-            toString = DateUtils.getISO8601DateFormat().format(to);
+            toString = DateUtils.toJsonString(to);
         }
 
         if (fromString != null) {
@@ -1097,13 +1008,13 @@ public class AylaProperty<T> {
 
         if (updateSource == AylaDevice.DataSource.LAN) {
             // The devices do not set timestamps- we need to set these ourselves
-            String nowTimeString = DateUtils.getISO8601DateFormat().format(new Date());
+            AylaTimestamp now = AylaTimestamp.now();
 
             if (isAckEnabled()) {
-                ackedAt = nowTimeString;
+                ackedAt = now;
                 changedFields.add("ackedAt");
             }
-            dataUpdatedAt = nowTimeString;
+            dataUpdatedAt = now;
             changedFields.add("dataUpdatedAt");
         }
 
@@ -1161,29 +1072,30 @@ public class AylaProperty<T> {
 
         if (dataSource == AylaDevice.DataSource.LAN) {
             // The devices do not set timestamps- we need to set these ourselves
-            String nowTimeString = DateUtils.getISO8601DateFormat().format(new Date());
+            AylaTimestamp now = AylaTimestamp.now();
 
-            if (isAckEnabled() && dp.getAckedAt() == null) {
-                dp.setAckedAt(nowTimeString);
+            if (isAckEnabled() && dp.getAckedAtTimestamp() == null) {
+                dp.setAckedAt(now);
             }
 
-            if (dp.getUpdatedAtString() == null) {
-                dp.setUpdatedAt(nowTimeString);
+            if (dp.getUpdatedAtTimestamp() == null) {
+                dp.setUpdatedAt(now);
             }
         }
 
-        if (!ObjectUtils.equals(dp.getUpdatedAtString(), dataUpdatedAt)) {
+        if (!ObjectUtils.equals(dp.getUpdatedAtTimestamp(), dataUpdatedAt)) {
             changedFields.add("dataUpdatedAt");
-            dataUpdatedAt = dp.getUpdatedAtString();
+            dataUpdatedAt = dp.getUpdatedAtTimestamp();
         }
 
         // Assuming the incoming datapoint is always latest.
-        if ( !TextUtils.equals(dp.getAckedAt(), this.ackedAt) && !TextUtils.isEmpty(dp.getAckedAt())) {
+        if (dp.getAckedAtTimestamp() != null &&
+                !ObjectUtils.equals(dp.getAckedAtTimestamp(), this.ackedAt)) {
             changedFields.add("ackedAt");
             changedFields.add("ackMessage");
             changedFields.add("ackStatus");
 
-            this.ackedAt = dp.getAckedAt();
+            this.ackedAt = dp.getAckedAtTimestamp();
             this.ackMessage = dp.getAckMessage();
             this.ackStatus = dp.getAckStatus();
         }
@@ -1225,7 +1137,7 @@ public class AylaProperty<T> {
             key = otherProperty.getKey();
             changedFields.add("key");
         }
-        if (!ObjectUtils.equals(otherProperty.getAckedAt(), this.getAckedAt())) {
+        if (!ObjectUtils.equals(otherProperty.ackedAt, this.ackedAt)) {
             ackedAt = otherProperty.ackedAt;
             changedFields.add("ackedAt");
         }
@@ -1237,7 +1149,7 @@ public class AylaProperty<T> {
             ackStatus = otherProperty.getAckStatus();
             changedFields.add("ackStatus");
         }
-        if (!ObjectUtils.equals(otherProperty.getDataUpdatedAt(), this.getDataUpdatedAt())) {
+        if (!ObjectUtils.equals(otherProperty.dataUpdatedAt, this.dataUpdatedAt)) {
             dataUpdatedAt = otherProperty.dataUpdatedAt;
             changedFields.add("dataUpdatedAt");
         }
@@ -1555,7 +1467,7 @@ public class AylaProperty<T> {
         }
     }
 
-    private static void sendToMetricsManager(AylaMetric metric){
+    static void sendToMetricsManager(AylaMetric metric){
         AylaMetricsManager metricsManager = AylaNetworks.sharedInstance()
                 .getMetricsManager();
         if(metricsManager != null){
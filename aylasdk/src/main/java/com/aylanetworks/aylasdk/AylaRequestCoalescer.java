@@ -0,0 +1,362 @@
+package com.aylanetworks.aylasdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.aylanetworks.aylasdk.error.AylaError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * The AylaRequestCoalescer provides single-flight de-duplication of GET requests sent to a
+ * {@link RequestQueue}. GET requests that are identical to a request that is already in flight,
+ * i.e. that have the same method, URL, authorization, additional headers and priority class, do
+ * not cause another network call. Instead they wait for the in-flight request, and the network response
+ * of that request is parsed and delivered to each of them as if they had made the call
+ * themselves. Each request keeps its own parsing, listeners and cancellation.
+ * <p>
+ * The coalescer needs to see the network responses of the requests it tracks, so the
+ * {@link Network} of the queue must be wrapped via {@link #wrapNetwork(Network)}, and requests
+ * must be submitted through {@link #add(RequestQueue, AylaAPIRequest)} rather than directly to
+ * the queue.
+ * <p>
+ * Coalescing may be turned off via {@link AylaSystemSettings#disableRequestCoalescing}.
+ */
+public class AylaRequestCoalescer {
+    private static final String LOG_TAG = "RequestCoalescer";
+
+    private final Map<String, Flight> _inFlight = new HashMap<>();
+    private final Handler _deliveryHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicLong _requestCount = new AtomicLong();
+    private final AtomicLong _networkCallCount = new AtomicLong();
+    private final AtomicLong _deduplicatedCount = new AtomicLong();
+
+    /**
+     * Returns a Network that performs requests with the given network, and shares the responses
+     * of coalesced requests with the requests waiting on them.
+     *
+     * @param network Network used to perform the requests
+     * @return the wrapped Network to be used to create the RequestQueue
+     */
+    public Network wrapNetwork(final Network network) {
+        return new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                Flight flight = null;
+                if (request instanceof AylaAPIRequest) {
+                    flight = ((AylaAPIRequest<?>) request)._coalescingFlight;
+                }
+
+                if (flight == null) {
+                    return network.performRequest(request);
+                }
+
+                if (((AylaAPIRequest<?>) request).isExpired()) {
+                    // The deadline of the leader does not apply to the requests waiting on it.
+                    // Hand the flight over to the next one; the leader fails on its own.
+                    handleCancel(flight, (AylaAPIRequest<?>) request);
+                    return network.performRequest(request);
+                }
+
+                NetworkResponse response;
+                try {
+                    response = network.performRequest(request);
+                } catch (VolleyError error) {
+                    completeFlight(flight, null, error);
+                    throw error;
+                }
+                completeFlight(flight, response, null);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Adds the request to the queue, or attaches it to an identical request already in flight.
+     *
+     * @param queue Queue the request should be sent on
+     * @param request Request to send
+     * @return the request, which can be used for cancellation
+     */
+    public AylaAPIRequest add(RequestQueue queue, AylaAPIRequest<?> request) {
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        if (request.getMethod() != Request.Method.GET ||
+                (networks != null && networks.isRequestCoalescingDisabled())) {
+            queue.add(request);
+            return request;
+        }
+
+        _requestCount.incrementAndGet();
+        String key = getKey(request);
+        synchronized (_inFlight) {
+            Flight flight = _inFlight.get(key);
+            if (flight != null) {
+                flight.followers.add(request);
+                request._coalescingFlight = flight;
+                _deduplicatedCount.incrementAndGet();
+                AylaLog.d(LOG_TAG, "Coalesced request " + request.getUrl());
+                return request;
+            }
+
+            flight = new Flight(key, queue, request);
+            request._coalescingFlight = flight;
+            _inFlight.put(key, flight);
+        }
+
+        _networkCallCount.incrementAndGet();
+        queue.add(request);
+        return request;
+    }
+
+    /**
+     * Returns a snapshot of the coalescing statistics.
+     *
+     * @return the current Stats
+     */
+    public Stats getStats() {
+        int inFlight;
+        synchronized (_inFlight) {
+            inFlight = _inFlight.size();
+        }
+        return new Stats(_requestCount.get(), _networkCallCount.get(),
+                _deduplicatedCount.get(), inFlight);
+    }
+
+    /**
+     * Called when a request that is part of a flight is canceled, or when the leader of a flight
+     * is found to have expired before being sent. If the request was the one to be sent on the
+     * network, another waiting request is sent in its place.
+     *
+     * @param flight Flight the request is part of
+     * @param request Request that was canceled or expired
+     */
+    private void handleCancel(Flight flight, AylaAPIRequest<?> request) {
+        AylaAPIRequest<?> newLeader = null;
+        synchronized (_inFlight) {
+            if (_inFlight.get(flight.key) != flight) {
+                return;
+            }
+
+            if (flight.leader != request) {
+                flight.followers.remove(request);
+                return;
+            }
+
+            // The leader was canceled before its response arrived. Hand the network call
+            // over to the next waiting request, if there is one.
+            request._coalescingFlight = null;
+            while (!flight.followers.isEmpty()) {
+                AylaAPIRequest<?> candidate = flight.followers.remove(0);
+                if (!candidate.isCanceled()) {
+                    newLeader = candidate;
+                    break;
+                }
+            }
+
+            if (newLeader == null) {
+                _inFlight.remove(flight.key);
+            } else {
+                flight.leader = newLeader;
+            }
+        }
+
+        if (newLeader != null) {
+            _networkCallCount.incrementAndGet();
+            _deduplicatedCount.decrementAndGet();
+            flight.queue.add(newLeader);
+        }
+    }
+
+    private void completeFlight(Flight flight, NetworkResponse response, VolleyError error) {
+        List<AylaAPIRequest<?>> followers;
+        synchronized (_inFlight) {
+            if (_inFlight.get(flight.key) == flight) {
+                _inFlight.remove(flight.key);
+            }
+            followers = new ArrayList<>(flight.followers);
+            flight.followers.clear();
+            flight.leader._coalescingFlight = null;
+        }
+
+        for (AylaAPIRequest<?> follower : followers) {
+            follower._coalescingFlight = null;
+            if (follower.isCanceled()) {
+                continue;
+            }
+            if (response != null) {
+                deliverResponse(follower, response);
+            } else {
+                deliverError(follower, error);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverResponse(final AylaAPIRequest follower, NetworkResponse networkResponse) {
+        // Parse on this (network dispatcher) thread, just as Volley does for the leader
+        Response<?> parsed;
+        try {
+            parsed = follower.parseNetworkResponse(networkResponse);
+        } catch (RuntimeException e) {
+            AylaLog.e(LOG_TAG, "Failed to parse coalesced response for " + follower.getUrl());
+            parsed = Response.error(new ParseError(new AylaError(AylaError.ErrorType.JsonError,
+                    "Failed to parse coalesced response", e)));
+        }
+
+        final Response<?> response = parsed;
+        _deliveryHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (follower.isCanceled()) {
+                    return;
+                }
+                if (response.isSuccess()) {
+                    follower.deliverResponse(response.result);
+                } else {
+                    follower.deliverError(response.error);
+                }
+            }
+        });
+    }
+
+    private void deliverError(final AylaAPIRequest<?> follower, VolleyError error) {
+        final VolleyError parsedError = follower.parseNetworkError(error);
+        _deliveryHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!follower.isCanceled()) {
+                    follower.deliverError(parsedError);
+                }
+            }
+        });
+    }
+
+    private static String getKey(AylaAPIRequest<?> request) {
+        String authorization = null;
+        AylaSessionManager sessionManager = request._sessionManagerRef.get();
+        if (sessionManager != null) {
+            authorization = sessionManager.getAuthHeaderValue();
+        }
+        return getKey(request.getMethod(), request.getUrl(), authorization,
+                request._additionalHeaders, request.getPriorityClass());
+    }
+
+    /**
+     * Returns the key identifying identical requests. The full authorization value is part of
+     * the key, so requests made with different credentials are never coalesced. So is the
+     * priority class, so that an interactive request never waits on a background request held
+     * back by the {@link AylaPriorityRequestQueue}.
+     */
+    static String getKey(int method, String url, String authorization,
+                         Map<String, String> additionalHeaders,
+                         AylaAPIRequest.PriorityClass priorityClass) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(priorityClass)
+                .append(' ')
+                .append(method)
+                .append(' ')
+                .append(url)
+                .append(' ')
+                .append(authorization == null ? "none" : "auth " + authorization);
+        if (additionalHeaders != null && !additionalHeaders.isEmpty()) {
+            builder.append(' ').append(new TreeMap<>(additionalHeaders));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A network call shared by one leader request and the identical requests waiting on it.
+     */
+    class Flight {
+        private final String key;
+        private final RequestQueue queue;
+        private AylaAPIRequest<?> leader;
+        private final List<AylaAPIRequest<?>> followers = new ArrayList<>();
+
+        Flight(String key, RequestQueue queue, AylaAPIRequest<?> leader) {
+            this.key = key;
+            this.queue = queue;
+            this.leader = leader;
+        }
+
+        /**
+         * Called by {@link AylaAPIRequest#cancel()} for requests that are part of this flight.
+         *
+         * @param request Request that was canceled
+         */
+        void onRequestCanceled(AylaAPIRequest<?> request) {
+            handleCancel(this, request);
+        }
+    }
+
+    /**
+     * Statistics on the requests seen by an AylaRequestCoalescer.
+     */
+    public static class Stats {
+        private final long _requestCount;
+        private final long _networkCallCount;
+        private final long _deduplicatedCount;
+        private final int _inFlightCount;
+
+        Stats(long requestCount, long networkCallCount, long deduplicatedCount,
+              int inFlightCount) {
+            _requestCount = requestCount;
+            _networkCallCount = networkCallCount;
+            _deduplicatedCount = deduplicatedCount;
+            _inFlightCount = inFlightCount;
+        }
+
+        /**
+         * @return the number of GET requests submitted to the coalescer
+         */
+        public long getRequestCount() {
+            return _requestCount;
+        }
+
+        /**
+         * @return the number of GET requests actually sent on the network
+         */
+        public long getNetworkCallCount() {
+            return _networkCallCount;
+        }
+
+        /**
+         * @return the number of GET requests that were served by another request's network call
+         */
+        public long getDeduplicatedCount() {
+            return _deduplicatedCount;
+        }
+
+        /**
+         * @return the number of network calls currently in flight
+         */
+        public int getInFlightCount() {
+            return _inFlightCount;
+        }
+
+        @Override
+        public String toString() {
+            return "requests: " + _requestCount + ", network calls: " + _networkCallCount +
+                    ", deduplicated: " + _deduplicatedCount + ", in flight: " + _inFlightCount;
+        }
+    }
+}
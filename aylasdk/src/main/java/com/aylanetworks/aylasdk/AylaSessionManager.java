@@ -148,7 +148,7 @@ public class AylaSessionManager {
 
         AylaCollectionManager cm = new AylaCollectionManagerImp(this);
         _groupManager = new AylaGroupManagerImp(cm);
-        _sceneManager = new AylaSceneManagerImp(cm);
+        _sceneManager = new AylaSceneManagerImp(cm, this);
     }
 
     /**
@@ -600,8 +600,9 @@ public class AylaSessionManager {
     public AylaAPIRequest sendUserServiceRequest(AylaAPIRequest<?> request) {
         request.setShouldCache(false);
         request.logResponse();
-        AylaNetworks.sharedInstance().getUserServiceRequestQueue().add(request);
-        return request;
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        return networks.getUserServiceRequestCoalescer().add(
+                networks.getUserServiceRequestQueue(), request);
     }
 
     /**
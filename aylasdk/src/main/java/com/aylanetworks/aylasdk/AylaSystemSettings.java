@@ -9,6 +9,10 @@ package com.aylanetworks.aylasdk;
 
 import android.content.Context;
 
+import com.aylanetworks.aylasdk.transport.AylaHttpTransport;
+
+import java.util.concurrent.Executor;
+
 import static com.aylanetworks.aylasdk.AylaDSManager.AylaDSSubscriptionType.AylaDSSubscriptionTypeDatapoint;
 import static com.aylanetworks.aylasdk.AylaDSManager.AylaDSSubscriptionType.AylaDSSubscriptionTypeDatapointAck;
 
@@ -83,6 +87,59 @@ public class AylaSystemSettings {
      */
     public boolean disableUncaughtExceptionHandler;
 
+    /**
+     * To enable or disable coalescing of identical in-flight GET requests, enabled by default.
+     * See {@link AylaRequestCoalescer}.
+     */
+    public boolean disableRequestCoalescing;
+
+    /**
+     * To enable or disable adaptive device list polling, enabled by default. When enabled, the
+     * AylaDeviceManager polls the device list less often while the list does not change, and
+     * more often for a short while after a device has been registered or unregistered.
+     */
+    public boolean disableAdaptivePolling;
+
+    /**
+     * If true, the Device Stream Service connection runs on a selector thread shared with any
+     * other such connections in the process, rather than on threads of its own. Disabled by
+     * default. See {@link io.crossbar.autobahn.websocket.nio.NioWebSocketConnection}.
+     */
+    public boolean useSharedWebSocketSelector;
+
+    /**
+     * Maximum number of devices served by one Device Stream Service subscription and websocket.
+     * If greater than 0, the AylaDSManager spreads the account's devices over as many
+     * subscriptions as needed, and updates only the affected subscriptions as devices are added
+     * or removed. 0, the default, keeps all devices on a single subscription. Best combined with
+     * {@link #useSharedWebSocketSelector}, so the websockets do not need threads of their own.
+     */
+    public int dssShardSize;
+
+    /**
+     * Time in milliseconds for which datapoints created in the cloud are held so they can be
+     * sent together in one batch request. If greater than 0, datapoints created without
+     * metadata within this window, such as while a slider is dragged or for a group of devices,
+     * are merged into batch requests, and only the last value for each property is sent. 0, the
+     * default, sends each datapoint as it is created. See {@link AylaDatapointWriteCoalescer}.
+     */
+    public int datapointBatchWindowMs;
+
+    /**
+     * Executor used to notify DeviceChangeListeners, DeviceManagerListeners and
+     * DSManagerListeners. If not set, listeners are notified on the main thread. Headless or
+     * service users may set {@link AylaListenerDelivery#background()} to receive changes without
+     * involving the main thread, or {@link AylaListenerDelivery#direct()} to receive them on the
+     * thread that detected them.
+     */
+    public Executor listenerExecutor;
+
+    /**
+     * Transport shared by all network requests of the SDK. If not set, the SDK creates an
+     * {@link com.aylanetworks.aylasdk.transport.AylaOkHttpTransport} with default settings.
+     */
+    public AylaHttpTransport httpTransport;
+
     /**
      * The default timeout for network operations
      */
@@ -95,6 +152,15 @@ public class AylaSystemSettings {
      */
     public int metricsSampleRatio = 10;
 
+    /**
+     * Interval in milliseconds at which a snapshot of the
+     * {@link com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry}, with the latency percentiles
+     * of each cloud endpoint, is uploaded to the log service. Snapshots are cumulative, so one
+     * dropped by {@link #metricsSampleRatio} is covered by the next. Default 0, which means
+     * snapshots are not uploaded.
+     */
+    public long metricsExportIntervalMs = 0;
+
     /**
      * Sender ID for push notifications. Android-specific.
      */
@@ -164,6 +230,14 @@ public class AylaSystemSettings {
         this.disableUncaughtExceptionHandler = other.disableUncaughtExceptionHandler;
         this.autoFetchMessageContent = other.autoFetchMessageContent;
         this.metricsSampleRatio = other.metricsSampleRatio;
+        this.metricsExportIntervalMs = other.metricsExportIntervalMs;
+        this.disableRequestCoalescing = other.disableRequestCoalescing;
+        this.disableAdaptivePolling = other.disableAdaptivePolling;
+        this.httpTransport = other.httpTransport;
+        this.useSharedWebSocketSelector = other.useSharedWebSocketSelector;
+        this.dssShardSize = other.dssShardSize;
+        this.datapointBatchWindowMs = other.datapointBatchWindowMs;
+        this.listenerExecutor = other.listenerExecutor;
     }
 
     /** ServiceType enumeration */
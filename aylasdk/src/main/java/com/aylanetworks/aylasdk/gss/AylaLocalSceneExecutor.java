@@ -0,0 +1,594 @@
+package com.aylanetworks.aylasdk.gss;
+/*
+ * AylaSDK
+ *
+ * Copyright 2020 Ayla Networks, all rights reserved
+ */
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+import com.aylanetworks.aylasdk.AylaDatapoint;
+import com.aylanetworks.aylasdk.AylaDatapointBatchRequest;
+import com.aylanetworks.aylasdk.AylaDatapointBatchResponse;
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaDeviceManager;
+import com.aylanetworks.aylasdk.AylaLog;
+import com.aylanetworks.aylasdk.AylaProperty;
+import com.aylanetworks.aylasdk.AylaSessionManager;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.InvalidArgumentError;
+import com.aylanetworks.aylasdk.error.PreconditionError;
+import com.aylanetworks.aylasdk.error.ServerError;
+import com.aylanetworks.aylasdk.gss.model.AylaChildCollection;
+import com.aylanetworks.aylasdk.gss.model.AylaCollection;
+import com.aylanetworks.aylasdk.gss.model.AylaCollectionDevice;
+import com.aylanetworks.aylasdk.gss.model.AylaCollectionProperty;
+import com.aylanetworks.aylasdk.gss.model.AylaCollectionTriggerResponse;
+import com.aylanetworks.aylasdk.util.TypeUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Executes the device states of a scene directly against the devices, preferring the LAN
+ * connection wherever one is available.
+ * <p>
+ * The states of the scene (including the states of any child collections) are resolved to the
+ * devices known by the session's {@link AylaDeviceManager}. Devices with an active LAN session
+ * have their datapoints created in parallel over their {@link com.aylanetworks.aylasdk.lan.AylaLanModule}.
+ * The states of the remaining devices are sent to the cloud together in a single
+ * batch_datapoints request.
+ * <p>
+ * If any device of the scene could not be resolved locally, only the cloud knows how to apply
+ * its states. The group and scene service always applies a triggered scene to all of its
+ * devices, so in that case the whole scene is triggered in the cloud and nothing is written
+ * locally, rather than writing the states of some devices twice.
+ * <p>
+ * Completion is reported for every device through the {@link DeviceCompletionListener} as soon
+ * as all of that device's states have been applied, and the final success listener receives the
+ * results of all devices once the whole scene has been executed.
+ */
+public class AylaLocalSceneExecutor {
+
+    private static final String LOG_TAG = "LocalSceneExecutor";
+    private static final int DATAPOINT_CREATED = 201;
+
+    private final AylaCollectionManager _collectionManager;
+    private final WeakReference<AylaSessionManager> _sessionManagerRef;
+
+    /**
+     * Listener notified as each device of a scene completes.
+     */
+    public interface DeviceCompletionListener {
+        /**
+         * Called when all states of a device of the scene have been applied, or have failed.
+         *
+         * @param result Result of the device.
+         */
+        void onDeviceCompleted(DeviceResult result);
+    }
+
+    /**
+     * Result of executing the states of a scene on a single device.
+     */
+    public static class DeviceResult {
+        private final String _dsn;
+        private final AylaDevice.DataSource _dataSource;
+        private final long _startTime;
+        private long _completionTime;
+        private int _pendingCount;
+        private AylaError _error;
+        private final List<AylaDatapoint> _datapoints = new ArrayList<>();
+
+        DeviceResult(String dsn, AylaDevice.DataSource dataSource, long startTime) {
+            _dsn = dsn;
+            _dataSource = dataSource;
+            _startTime = startTime;
+        }
+
+        public String getDsn() {
+            return _dsn;
+        }
+
+        /**
+         * @return {@link AylaDevice.DataSource#LAN} if the states were applied over the LAN,
+         * otherwise {@link AylaDevice.DataSource#CLOUD}.
+         */
+        public AylaDevice.DataSource getDataSource() {
+            return _dataSource;
+        }
+
+        /**
+         * @return the error of the first state that failed for this device, or null if all
+         * the states of this device were applied successfully.
+         */
+        public AylaError getError() {
+            return _error;
+        }
+
+        public boolean isSuccess() {
+            return _error == null;
+        }
+
+        /**
+         * @return the datapoints created on this device. Datapoints are not available for
+         * devices whose states were applied by the cloud scene trigger.
+         */
+        public List<AylaDatapoint> getDatapoints() {
+            return new ArrayList<>(_datapoints);
+        }
+
+        /**
+         * @return the time in milliseconds it took to apply all states of this device.
+         */
+        public long getElapsedTimeMs() {
+            return _completionTime - _startTime;
+        }
+    }
+
+    public AylaLocalSceneExecutor(@NonNull AylaCollectionManager collectionManager,
+                                  @NonNull AylaSessionManager sessionManager) {
+        _collectionManager = collectionManager;
+        _sessionManagerRef = new WeakReference<>(sessionManager);
+    }
+
+    /**
+     * Executes the states of the given scene, sending them over the LAN to devices that are
+     * in LAN mode and through the cloud for the remaining devices.
+     *
+     * @param scene The scene to execute. Its devices and states must be populated, for example
+     *              by a prior call to {@link AylaSceneManager#fetchScene}.
+     * @param deviceCompletionListener Optional listener notified as each device completes.
+     * @param successListener Listener called once all devices have completed, with the results
+     *                        of every device. Individual device failures are reported in the
+     *                        results rather than to the error listener.
+     * @param errorListener Listener called if the scene could not be executed at all.
+     *
+     * @return An AylaAPIRequest that may be used to cancel the outstanding operations.
+     */
+    public AylaAPIRequest execute(
+            @NonNull AylaCollection scene,
+            @Nullable DeviceCompletionListener deviceCompletionListener,
+            @NonNull Response.Listener<DeviceResult[]> successListener,
+            @NonNull ErrorListener errorListener) {
+
+        if (scene.collectionUuid == null) {
+            errorListener.onErrorResponse(new InvalidArgumentError("scene uuid is required"));
+            return null;
+        }
+
+        AylaSessionManager sessionManager = _sessionManagerRef.get();
+        AylaDeviceManager deviceManager = sessionManager == null ? null :
+                sessionManager.getDeviceManager();
+        if (deviceManager == null) {
+            errorListener.onErrorResponse(new PreconditionError("No device manager is available"));
+            return null;
+        }
+
+        Map<String, List<AylaCollectionProperty>> statesByDsn = new LinkedHashMap<>();
+        collectStates(scene.devices, scene.childCollections, statesByDsn);
+
+        SceneExecution execution = new SceneExecution(deviceCompletionListener,
+                successListener, errorListener);
+
+        final AylaDeviceManager dm = deviceManager;
+        ScenePlan plan = plan(statesByDsn, new DeviceResolver() {
+            @Override
+            public AylaDevice deviceWithDsn(String dsn) {
+                return dm.deviceWithDSN(dsn);
+            }
+
+            @Override
+            public boolean isLanModeActive(AylaDevice device) {
+                return device.isLanModeActive();
+            }
+        });
+
+        // Register every device before sending anything so that early responses can not
+        // complete the scene while other devices are still being dispatched
+        for (Map.Entry<String, Integer> entry : plan.stateCounts.entrySet()) {
+            AylaDevice.DataSource source = plan.lanDsns.contains(entry.getKey()) ?
+                    AylaDevice.DataSource.LAN : AylaDevice.DataSource.CLOUD;
+            execution.addDevice(entry.getKey(), source, entry.getValue());
+        }
+
+        if (statesByDsn.isEmpty()) {
+            execution.finishIfDone();
+            return execution.getRequest();
+        }
+
+        if (plan.triggerInCloud) {
+            AylaLog.d(LOG_TAG, "Triggering scene " + scene.collectionUuid + " in the cloud, " +
+                    "it has devices that are not known locally");
+            triggerInCloud(execution, scene.collectionUuid,
+                    new ArrayList<>(plan.stateCounts.keySet()));
+            return execution.getRequest();
+        }
+
+        for (PlannedState state : plan.invalidStates) {
+            execution.onStateCompleted(state.dsn, null, new InvalidArgumentError(
+                    "Invalid value " + state.state.propertyValue + " for property "
+                            + state.state.propertyName));
+        }
+        for (PlannedState state : plan.lanStates) {
+            applyOverLan(execution, state);
+        }
+        if (!plan.cloudStates.isEmpty()) {
+            applyInCloud(execution, deviceManager, plan.cloudStates);
+        }
+
+        return execution.getRequest();
+    }
+
+    /**
+     * Looks up the devices of a scene. Implemented by the device manager, and by tests.
+     */
+    interface DeviceResolver {
+        AylaDevice deviceWithDsn(String dsn);
+
+        boolean isLanModeActive(AylaDevice device);
+    }
+
+    /**
+     * A state of the scene resolved to a property of a known device
+     */
+    static class PlannedState {
+        final String dsn;
+        final AylaCollectionProperty state;
+        final AylaProperty property;
+        final Object value;
+
+        PlannedState(String dsn, AylaCollectionProperty state, AylaProperty property,
+                     Object value) {
+            this.dsn = dsn;
+            this.state = state;
+            this.property = property;
+            this.value = value;
+        }
+    }
+
+    /**
+     * How the states of a scene are to be applied. Either the whole scene is triggered in the
+     * cloud, or every state is in exactly one of the LAN, cloud or invalid lists.
+     */
+    static class ScenePlan {
+        boolean triggerInCloud;
+        final Map<String, Integer> stateCounts = new LinkedHashMap<>();
+        final Set<String> lanDsns = new HashSet<>();
+        final List<PlannedState> lanStates = new ArrayList<>();
+        final List<PlannedState> cloudStates = new ArrayList<>();
+        final List<PlannedState> invalidStates = new ArrayList<>();
+    }
+
+    static ScenePlan plan(Map<String, List<AylaCollectionProperty>> statesByDsn,
+                          DeviceResolver resolver) {
+        ScenePlan plan = new ScenePlan();
+        Map<String, AylaDevice> devices = new LinkedHashMap<>();
+        for (String dsn : statesByDsn.keySet()) {
+            AylaDevice device = resolver.deviceWithDsn(dsn);
+            if (device == null || !hasAllProperties(device, statesByDsn.get(dsn))) {
+                plan.triggerInCloud = true;
+            }
+            devices.put(dsn, device);
+        }
+
+        if (plan.triggerInCloud) {
+            // One trigger completes every device of the scene
+            for (String dsn : statesByDsn.keySet()) {
+                plan.stateCounts.put(dsn, 1);
+            }
+            return plan;
+        }
+
+        for (Map.Entry<String, List<AylaCollectionProperty>> entry : statesByDsn.entrySet()) {
+            String dsn = entry.getKey();
+            AylaDevice device = devices.get(dsn);
+            boolean lan = resolver.isLanModeActive(device);
+            plan.stateCounts.put(dsn, entry.getValue().size());
+
+            for (AylaCollectionProperty state : entry.getValue()) {
+                AylaProperty property = device.getProperty(state.propertyName);
+                Object value = convertValue(property, state.propertyValue);
+                PlannedState planned = new PlannedState(dsn, state, property, value);
+                if (value == null) {
+                    plan.invalidStates.add(planned);
+                } else if (lan && property.isLanModeSupported()) {
+                    plan.lanStates.add(planned);
+                    plan.lanDsns.add(dsn);
+                } else {
+                    plan.cloudStates.add(planned);
+                }
+            }
+        }
+        return plan;
+    }
+
+    static void collectStates(AylaCollectionDevice[] devices,
+                              AylaChildCollection[] childCollections,
+                              Map<String, List<AylaCollectionProperty>> statesByDsn) {
+        if (devices != null) {
+            for (AylaCollectionDevice collectionDevice : devices) {
+                if (collectionDevice == null || collectionDevice.dsn == null
+                        || collectionDevice.states == null) {
+                    continue;
+                }
+
+                List<AylaCollectionProperty> states = statesByDsn.get(collectionDevice.dsn);
+                if (states == null) {
+                    states = new ArrayList<>();
+                    statesByDsn.put(collectionDevice.dsn, states);
+                }
+                for (AylaCollectionProperty state : collectionDevice.states) {
+                    if (state != null && state.propertyName != null) {
+                        states.add(state);
+                    }
+                }
+                if (states.isEmpty()) {
+                    statesByDsn.remove(collectionDevice.dsn);
+                }
+            }
+        }
+
+        if (childCollections != null) {
+            for (AylaChildCollection child : childCollections) {
+                if (child != null) {
+                    collectStates(child.devices, child.childCollections, statesByDsn);
+                }
+            }
+        }
+    }
+
+    private static boolean hasAllProperties(AylaDevice device, List<AylaCollectionProperty> states) {
+        for (AylaCollectionProperty state : states) {
+            if (device.getProperty(state.propertyName) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyOverLan(final SceneExecution execution, final PlannedState state) {
+        state.property.createDatapointLAN(state.value, null,
+                new Response.Listener<AylaDatapoint>() {
+                    @Override
+                    public void onResponse(AylaDatapoint response) {
+                        execution.onStateCompleted(state.dsn, response, null);
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        execution.onStateCompleted(state.dsn, null, error);
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyInCloud(final SceneExecution execution,
+                              AylaDeviceManager deviceManager,
+                              final List<PlannedState> states) {
+        AylaDatapointBatchRequest[] requests = new AylaDatapointBatchRequest[states.size()];
+        for (int i = 0; i < requests.length; i++) {
+            PlannedState state = states.get(i);
+            requests[i] = new AylaDatapointBatchRequest(state.value, state.property);
+        }
+
+        AylaAPIRequest request = deviceManager.createDatapointBatch(requests,
+                new Response.Listener<AylaDatapointBatchResponse[]>() {
+                    @Override
+                    public void onResponse(AylaDatapointBatchResponse[] response) {
+                        completeBatch(execution, states, response);
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        for (PlannedState state : states) {
+                            execution.onStateCompleted(state.dsn, null, error);
+                        }
+                    }
+                });
+        execution.setCloudRequest(request);
+    }
+
+    /**
+     * Completes the states sent in a batch from the results of the batch, which the service
+     * returns for each datapoint
+     */
+    static void completeBatch(SceneExecution execution, List<PlannedState> states,
+                              AylaDatapointBatchResponse[] responses) {
+        List<AylaDatapointBatchResponse> remaining = new ArrayList<>();
+        if (responses != null) {
+            for (AylaDatapointBatchResponse response : responses) {
+                if (response != null) {
+                    remaining.add(response);
+                }
+            }
+        }
+
+        for (PlannedState state : states) {
+            AylaDatapointBatchResponse result = null;
+            for (AylaDatapointBatchResponse response : remaining) {
+                if (state.dsn.equals(response.getDsn()) &&
+                        state.state.propertyName.equals(response.getName())) {
+                    result = response;
+                    break;
+                }
+            }
+
+            if (result == null) {
+                execution.onStateCompleted(state.dsn, null, new ServerError(0, null,
+                        "No batch result for property " + state.state.propertyName, null));
+                continue;
+            }
+            remaining.remove(result);
+            if (result.getStatus() == DATAPOINT_CREATED) {
+                execution.onStateCompleted(state.dsn, result.getDatapoint(), null);
+            } else {
+                execution.onStateCompleted(state.dsn, null, new ServerError(result.getStatus(),
+                        null, "Scene datapoint failed for property " +
+                        state.state.propertyName, null));
+            }
+        }
+    }
+
+    private void triggerInCloud(final SceneExecution execution,
+                                String sceneUUID,
+                                final List<String> dsns) {
+        AylaAPIRequest request = _collectionManager.triggerCollection(sceneUUID,
+                new Response.Listener<AylaCollectionTriggerResponse[]>() {
+                    @Override
+                    public void onResponse(AylaCollectionTriggerResponse[] response) {
+                        for (String dsn : dsns) {
+                            execution.onStateCompleted(dsn, null, findTriggerError(response, dsn));
+                        }
+                    }
+                }, new ErrorListener() {
+                    @Override
+                    public void onErrorResponse(AylaError error) {
+                        for (String dsn : dsns) {
+                            execution.onStateCompleted(dsn, null, error);
+                        }
+                    }
+                });
+        execution.setCloudRequest(request);
+    }
+
+    private static AylaError findTriggerError(AylaCollectionTriggerResponse[] responses,
+                                              String dsn) {
+        if (responses == null) {
+            return null;
+        }
+
+        for (AylaCollectionTriggerResponse response : responses) {
+            if (response == null || !dsn.equals(response.dsn) || response.status == null) {
+                continue;
+            }
+            try {
+                int status = Integer.parseInt(response.status);
+                if (status >= 300) {
+                    return new ServerError(status, null, "Scene trigger failed for property "
+                            + response.name, null);
+                }
+            } catch (NumberFormatException e) {
+                AylaLog.w(LOG_TAG, "Unexpected trigger status " + response.status);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts a state value, as parsed from the scene JSON, to the type expected by the
+     * property's base type.
+     */
+    private static Object convertValue(AylaProperty property, Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        String baseType = property.getBaseType();
+        if (AylaProperty.BASE_TYPE_INTEGER.equals(baseType) ||
+                AylaProperty.BASE_TYPE_BOOLEAN.equals(baseType)) {
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1 : 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+        } else if (AylaProperty.BASE_TYPE_DECIMAL.equals(baseType) && value instanceof Number) {
+            return ((Number) value).floatValue();
+        }
+
+        return TypeUtils.getTypeConvertedValue(baseType, String.valueOf(value));
+    }
+
+    /**
+     * Tracks the outstanding states of a single execution of a scene.
+     */
+    static class SceneExecution {
+        private final DeviceCompletionListener _deviceCompletionListener;
+        private final Response.Listener<DeviceResult[]> _successListener;
+        private final Map<String, DeviceResult> _results = new LinkedHashMap<>();
+        private final AylaAPIRequest _request;
+        private int _pendingDevices;
+        private boolean _finished;
+
+        SceneExecution(DeviceCompletionListener deviceCompletionListener,
+                       Response.Listener<DeviceResult[]> successListener,
+                       ErrorListener errorListener) {
+            _deviceCompletionListener = deviceCompletionListener;
+            _successListener = successListener;
+            _request = AylaAPIRequest.dummyRequest(DeviceResult[].class, successListener,
+                    errorListener);
+        }
+
+        AylaAPIRequest getRequest() {
+            return _request;
+        }
+
+        synchronized void addDevice(String dsn, AylaDevice.DataSource source, int stateCount) {
+            DeviceResult result = new DeviceResult(dsn, source, System.currentTimeMillis());
+            result._pendingCount = stateCount;
+            _results.put(dsn, result);
+            _pendingDevices++;
+        }
+
+        /**
+         * Chains the cloud request of the scene to the request of the execution, so that
+         * canceling the execution cancels it as well. LAN commands are not canceled, their
+         * results are ignored once the execution has been canceled.
+         */
+        void setCloudRequest(AylaAPIRequest request) {
+            if (request != null) {
+                _request.setChainedRequest(request);
+            }
+        }
+
+        void onStateCompleted(String dsn, AylaDatapoint datapoint, AylaError error) {
+            DeviceResult completedDevice = null;
+            synchronized (this) {
+                DeviceResult result = _results.get(dsn);
+                if (result == null || result._pendingCount == 0 || _request.isCanceled()) {
+                    return;
+                }
+
+                if (datapoint != null) {
+                    result._datapoints.add(datapoint);
+                }
+                if (error != null && result._error == null) {
+                    result._error = error;
+                }
+                if (--result._pendingCount == 0) {
+                    result._completionTime = System.currentTimeMillis();
+                    _pendingDevices--;
+                    completedDevice = result;
+                }
+            }
+
+            if (completedDevice != null) {
+                if (_deviceCompletionListener != null) {
+                    _deviceCompletionListener.onDeviceCompleted(completedDevice);
+                }
+                finishIfDone();
+            }
+        }
+
+        void finishIfDone() {
+            DeviceResult[] results;
+            synchronized (this) {
+                if (_finished || _pendingDevices > 0 || _request.isCanceled()) {
+                    return;
+                }
+                _finished = true;
+                results = _results.values().toArray(new DeviceResult[_results.size()]);
+            }
+            _successListener.onResponse(results);
+        }
+    }
+}
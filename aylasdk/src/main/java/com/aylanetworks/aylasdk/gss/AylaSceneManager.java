@@ -564,6 +564,24 @@ public interface AylaSceneManager {
             @NonNull Response.Listener<AylaCollectionTriggerResponse[]> successListener,
             @NonNull ErrorListener errorListener);
 
+    /**
+     * Trigger a scene manually (Tap-to-Run), applying its states directly to the devices.
+     * Devices with an active LAN session are updated over the LAN in parallel, the remaining
+     * devices are updated through the cloud. See {@link AylaLocalSceneExecutor} for details.
+     *
+     * @param scene the scene, it must have a valid scene uuid and its devices and states.
+     * @param deviceCompletionListener Optional listener called as each device completes.
+     * @param successListener Listener called with the results of all devices upon completion.
+     * @param errorListener Listener called with an error should one occur.
+     *
+     * @return An AylaAPIRequest object representing this request.
+     */
+    AylaAPIRequest triggerSceneLocally(
+            @NonNull AylaCollection scene,
+            @Nullable AylaLocalSceneExecutor.DeviceCompletionListener deviceCompletionListener,
+            @NonNull Response.Listener<AylaLocalSceneExecutor.DeviceResult[]> successListener,
+            @NonNull ErrorListener errorListener);
+
     /**
      * Enable/disable a scene from executing
      *
@@ -10,8 +10,10 @@ import androidx.annotation.Nullable;
 import com.android.volley.Response;
 import com.aylanetworks.aylasdk.AylaAPIRequest;
 import com.aylanetworks.aylasdk.AylaSchedule;
+import com.aylanetworks.aylasdk.AylaSessionManager;
 import com.aylanetworks.aylasdk.AylaShare;
 import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.PreconditionError;
 import com.aylanetworks.aylasdk.gss.model.AylaChildCollection;
 import com.aylanetworks.aylasdk.gss.model.AylaCollection;
 import com.aylanetworks.aylasdk.gss.model.AylaCollectionDevice;
@@ -23,9 +25,17 @@ import java.util.Map;
 public class AylaSceneManagerImp implements AylaSceneManager {
 
     private final AylaCollectionManager collectionManager;
+    private final AylaLocalSceneExecutor localSceneExecutor;
 
     public AylaSceneManagerImp(AylaCollectionManager collectionManager) {
+        this(collectionManager, null);
+    }
+
+    public AylaSceneManagerImp(AylaCollectionManager collectionManager,
+                               AylaSessionManager sessionManager) {
         this.collectionManager = collectionManager;
+        this.localSceneExecutor = sessionManager == null ? null :
+                new AylaLocalSceneExecutor(collectionManager, sessionManager);
     }
 
     @Override
@@ -472,6 +482,24 @@ public class AylaSceneManagerImp implements AylaSceneManager {
                 errorListener);
     }
 
+    @Override
+    public AylaAPIRequest triggerSceneLocally(
+            @NonNull AylaCollection scene,
+            @Nullable AylaLocalSceneExecutor.DeviceCompletionListener deviceCompletionListener,
+            @NonNull Response.Listener<AylaLocalSceneExecutor.DeviceResult[]> successListener,
+            @NonNull ErrorListener errorListener) {
+        if (localSceneExecutor == null) {
+            errorListener.onErrorResponse(new PreconditionError("No session is available " +
+                    "for local scene execution"));
+            return null;
+        }
+        return localSceneExecutor.execute(
+                scene,
+                deviceCompletionListener,
+                successListener,
+                errorListener);
+    }
+
     @Override
     public AylaAPIRequest enableTriggerScene(
             @NonNull String sceneUUID,
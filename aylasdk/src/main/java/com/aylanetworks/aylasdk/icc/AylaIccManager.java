@@ -1,5 +1,6 @@
 package com.aylanetworks.aylasdk.icc;
 
+import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -11,6 +12,7 @@ import com.aylanetworks.aylasdk.AylaDeviceManager;
 import com.aylanetworks.aylasdk.AylaJsonRequest;
 import com.aylanetworks.aylasdk.AylaLog;
 import com.aylanetworks.aylasdk.AylaNetworks;
+import com.aylanetworks.aylasdk.AylaPageCursor;
 import com.aylanetworks.aylasdk.AylaSessionManager;
 import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.error.InvalidArgumentError;
@@ -27,6 +29,7 @@ import org.json.JSONObject;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -92,6 +95,67 @@ public class AylaIccManager {
     }
 
 
+    /**
+     * Returns a cursor that streams all available user consent OTA jobs that are associated
+     * with the specified devices one page at a time, fetching the following page ahead while
+     * the current one is being consumed. Unlike {@link #fetchUserConsentOTAJobs(String[],
+     * Response.Listener, ErrorListener)}, jobs spanning multiple pages are all returned.
+     *
+     * @param dsns Device DSNs for the target user consent jobs, passing null to
+     *             fetch all device jobs that belong to the current user.
+     * @param perPage Number of devices per page.
+     * @return an AylaPageCursor delivering, for each page, an array of devices which each
+     * contains available user consent jobs. Call {@link AylaPageCursor#close()} once no more
+     * pages are needed.
+     */
+    public AylaPageCursor<AylaUserConsentJob.Device> fetchUserConsentOTAJobPages(
+            @Nullable String[] dsns,
+            @IntRange(from = 5, to = 200) int perPage) {
+        AylaUserConsentJob.FiltersBuilder builder = new AylaUserConsentJob.FiltersBuilder()
+                .withStatus(new String[]{AylaUserConsentJob.DeviceStatus.CONSENT})
+                .withJobType(AylaUserConsentJob.JobType.OTA)
+                .withDSNs(dsns)
+                .withPerPage(perPage);
+        return fetchDeviceJobPages(builder);
+    }
+
+    /**
+     * Returns a cursor that streams the device jobs matching the given filters one page at a
+     * time, starting with the start page of the filters and fetching the following page ahead
+     * while the current one is being consumed.
+     *
+     * @param filtersBuilder builder for query parameters.
+     * @return an AylaPageCursor delivering, for each page, an array of devices which each
+     * contains matching jobs. Call {@link AylaPageCursor#close()} once no more pages are needed.
+     */
+    @SuppressWarnings("unchecked")
+    public AylaPageCursor<AylaUserConsentJob.Device> fetchDeviceJobPages(
+            @NonNull AylaUserConsentJob.FiltersBuilder filtersBuilder) {
+        final Map<String, String> filters = filtersBuilder.map();
+        int firstPage = Integer.parseInt(filters.get("page"));
+
+        return new AylaPageCursor<>(new AylaPageCursor.PageFetcher<AylaUserConsentJob.Device>() {
+            @Override
+            public AylaAPIRequest fetchPage(
+                    final int pageNumber,
+                    final Response.Listener<AylaPageCursor.Page<AylaUserConsentJob.Device>>
+                            successListener,
+                    ErrorListener errorListener) {
+                Map<String, String> pageFilters = new HashMap<>(filters);
+                pageFilters.put("page", String.valueOf(pageNumber));
+                return fetchDeviceJobsPage(pageFilters,
+                        new Response.Listener<AylaUserConsentJob>() {
+                            @Override
+                            public void onResponse(AylaUserConsentJob response) {
+                                boolean hasNext = response != null && response.next_page > 0;
+                                successListener.onResponse(new AylaPageCursor.Page<>(
+                                        devicesWithJobs(response), pageNumber, hasNext));
+                            }
+                        }, errorListener);
+            }
+        }, firstPage, true);
+    }
+
     /**
      * Fetches device jobs that match the specified query parameters.
      * @param filters a map of pre-defined job filters in a key-value format.
@@ -105,7 +169,23 @@ public class AylaIccManager {
      */
     protected AylaAPIRequest fetchDeviceJobs(
             @Nullable Map<String, String> filters,
-            @NonNull  Response.Listener<AylaUserConsentJob.Device[]> successListener,
+            @NonNull  final Response.Listener<AylaUserConsentJob.Device[]> successListener,
+            @NonNull  ErrorListener errorListener) {
+        return fetchDeviceJobsPage(filters, new Response.Listener<AylaUserConsentJob>() {
+            @Override
+            public void onResponse(AylaUserConsentJob response) {
+                successListener.onResponse(devicesWithJobs(response));
+            }
+        }, errorListener);
+    }
+
+    /**
+     * Fetches a page of device jobs that match the specified query parameters, with the
+     * paging information of the response.
+     */
+    private AylaAPIRequest fetchDeviceJobsPage(
+            @Nullable Map<String, String> filters,
+            @NonNull  Response.Listener<AylaUserConsentJob> successListener,
             @NonNull  ErrorListener errorListener) {
         String url = getICCServiceUrl("icc/v1/users/device_jobs");
         if (filters != null && filters.size() > 0) {
@@ -115,28 +195,30 @@ public class AylaIccManager {
         AylaAPIRequest<AylaUserConsentJob> request = new AylaAPIRequest<>(
                 Request.Method.GET, url, null,
                 AylaUserConsentJob.class, getSessionManager(),
-                new Response.Listener<AylaUserConsentJob>() {
-                    @Override
-                    public void onResponse(AylaUserConsentJob response) {
-                        List<AylaUserConsentJob.Device> devices = new ArrayList<>();
-                        if (response != null && response.devices != null
-                                && response.devices.length > 0) {
-                            for (AylaUserConsentJob.Device device : response.devices) {
-                                if (device.device_jobs != null && device.device_jobs.length > 0) {
-                                    devices.add(device);
-                                }
-                            }
-                        }
-                        int len = devices.size();
-                        AylaUserConsentJob.Device[] resultsArray = new AylaUserConsentJob.Device[len];
-                        successListener.onResponse(devices.toArray(resultsArray));
-                    }
-                }, errorListener);
+                successListener, errorListener);
 
         sendRequest(request);
         return request;
     }
 
+    /**
+     * Returns the devices of a device jobs response that have jobs.
+     */
+    private static AylaUserConsentJob.Device[] devicesWithJobs(AylaUserConsentJob response) {
+        List<AylaUserConsentJob.Device> devices = new ArrayList<>();
+        if (response != null && response.devices != null
+                && response.devices.length > 0) {
+            for (AylaUserConsentJob.Device device : response.devices) {
+                if (device.device_jobs != null && device.device_jobs.length > 0) {
+                    devices.add(device);
+                }
+            }
+        }
+        int len = devices.size();
+        AylaUserConsentJob.Device[] resultsArray = new AylaUserConsentJob.Device[len];
+        return devices.toArray(resultsArray);
+    }
+
     /**
      * Fetch device jobs with query parameters from the given filters builder.
      * @param filtersBuilder builder for query parameters.
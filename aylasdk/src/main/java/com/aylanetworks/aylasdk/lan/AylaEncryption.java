@@ -80,7 +80,7 @@ class AylaEncryption {
         byte[] bTime_1;
         byte[] bTime_2;
 
-        createdAt = DateUtils.getISO8601DateFormat().format(new Date());
+        createdAt = DateUtils.toJsonString(new Date());
         sessionId = AylaEncryption.nextSessionID++;
 
         AylaDevice device = _device.get();
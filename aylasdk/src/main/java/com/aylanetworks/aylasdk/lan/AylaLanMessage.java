@@ -74,7 +74,17 @@ public class AylaLanMessage {
             throw new InternalError("No data found in request body");
         }
 
-        // Create the LAN message and give it the device reference
+        return fromJson(body, device);
+    }
+
+    /**
+     * Creates an AylaLanMessage object from the JSON body of a request from the device
+     *
+     * @param body   JSON containing the enc and sign fields of the message
+     * @param device Device this message is intended for
+     * @return an AylaLanMessage with the given device reference, or null if the body was empty
+     */
+    static AylaLanMessage fromJson(String body, AylaDevice device) {
         AylaLanMessage lanMessage = AylaNetworks.sharedInstance().getGson().fromJson(body,
                 AylaLanMessage.class);
         if (lanMessage != null) {
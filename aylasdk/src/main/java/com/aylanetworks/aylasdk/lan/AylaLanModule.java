@@ -91,12 +91,42 @@ public class AylaLanModule {
      * Default MDNS query interval is 1 second
      */
     private static final int DEFAULT_MDNS_INTERVAL = 1000;
+    /**
+     * Ayla modules always listen on port 80
+     */
+    static final int DEFAULT_MODULE_PORT = 80;
+
+    /**
+     * Port that modules created from now on are reached at. Only changed by tests, to reach
+     * simulated modules, which can't bind a privileged port on the phone.
+     */
+    private static volatile int __modulePort = DEFAULT_MODULE_PORT;
+
+    /**
+     * Sets the port that LAN modules created from now on are reached at. For tests only.
+     *
+     * @param port Port of the modules' HTTP server, or {@link #DEFAULT_MODULE_PORT}
+     * @throws IllegalArgumentException if the port is not between 1 and 65535
+     */
+    static void setModulePort(int port) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid module port " + port);
+        }
+        __modulePort = port;
+    }
+
     private final ArrayDeque<LanCommand> _pendingLanCommands;
     private final ArrayList<LanCommand> _commandsPendingResponses;
 
     private RequestQueue _lanRequestQueue;
     private WeakReference<AylaDevice> _deviceRef;
     private AylaEncryption _encryption;
+
+    /**
+     * Port of the module's HTTP server, read from {@link #__modulePort} when the module is
+     * created
+     */
+    private final int _modulePort;
     private AylaLocalNetwork _aylaLocalNetwork;
     private boolean _isActive;
     private boolean _processingCommandBlock;
@@ -130,6 +160,7 @@ public class AylaLanModule {
 
         _encryption = new AylaEncryption(device);
         _httpServerRef = new WeakReference<>(httpServer);
+        _modulePort = __modulePort;
 
         _mdnsListener = new MDNSListener() {
             @Override
@@ -173,7 +204,8 @@ public class AylaLanModule {
         Context context = AylaNetworks.sharedInstance().getContext();
         Cache cache = new DiskBasedCache(context.getCacheDir(), 1024 * 1024);
         _aylaLocalNetwork = new AylaLocalNetwork(new BasicNetwork(new HurlStack()));
-        _lanRequestQueue = new RequestQueue(cache, _aylaLocalNetwork);
+        _lanRequestQueue = new RequestQueue(cache,
+                AylaAPIRequest.meteredNetwork(_aylaLocalNetwork));
         AylaLanConfig config = device.getLanConfig();
         if (config != null && config.keepAlive != null) {
             // Use the config's LAN timeout (which is in seconds) / 3 for our keep-alive interval
@@ -213,6 +245,10 @@ public class AylaLanModule {
     public void stop() {
         stopKeepalive();
         stopMDNSQuery();
+        if (_netThread != null) {
+            _netThread.submitQuit();
+            _netThread = null;
+        }
         _lanRequestQueue.cancelAll(new RequestQueue.RequestFilter() {
             @Override
             public boolean apply(Request<?> request) {
@@ -418,6 +454,17 @@ public class AylaLanModule {
             return getParseFailedError(command, aylaError);
         }
 
+        return handlePropertyUpdate(command, lanMessage);
+    }
+
+    /**
+     * Decrypts a property update message from the device and updates the property with it.
+     *
+     * @param command    Command the message is a response to, or null if it is a new datapoint
+     * @param lanMessage Message received from the device
+     * @return a Response object for the request to be returned to the device
+     */
+    NanoHTTPD.Response handlePropertyUpdate(LanCommand command, AylaLanMessage lanMessage) {
         AylaLanMessage.Payload payload;
         try {
             payload = lanMessage.getPayload(_encryption);
@@ -842,6 +889,13 @@ public class AylaLanModule {
         _lanRequestQueue.add(request);
     }
 
+    /**
+     * @return the encryption of the LAN session of this module
+     */
+    AylaEncryption getEncryption() {
+        return _encryption;
+    }
+
     /**
      * Returns either PARTIAL_CONTENT or OK, depending on the size of our queue of pending LAN
      * commands. The device will make a new request for commands if we return PARTIAL_CONTENT as
@@ -1172,6 +1226,9 @@ public class AylaLanModule {
         if (deviceIP == null) {
             return null;
         }
+        if (_modulePort != DEFAULT_MODULE_PORT) {
+            deviceIP += ":" + _modulePort;
+        }
         return "http://" + deviceIP + "/" + path;
     }
 
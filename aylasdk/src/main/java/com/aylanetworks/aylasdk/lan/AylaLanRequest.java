@@ -13,6 +13,7 @@ import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.metrics.AylaLatencyMetric;
 import com.aylanetworks.aylasdk.metrics.AylaMetric;
 import com.aylanetworks.aylasdk.metrics.AylaMetricsManager;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -96,6 +97,12 @@ public class AylaLanRequest extends AylaAPIRequest<AylaLanRequest.LanResponse> {
         return _deviceRef.get();
     }
 
+    @Override
+    protected String getMetricName() {
+        return AylaMetricsRegistry.LAN_REQUEST_PREFIX +
+                AylaMetricsRegistry.endpointTemplate(getMethodName(), getUrl());
+    }
+
     @Override
     protected Response<LanResponse> parseNetworkResponse(NetworkResponse response) {
         _networkResponseTimestamp = System.currentTimeMillis();
@@ -346,15 +346,22 @@ public class AylaBLEDemoBoard extends AylaBLEDevice {
             return;
         }
 
-        BluetoothGattCharacteristic c = _notifyCharcteristics.remove(0);
+        final BluetoothGattCharacteristic c = _notifyCharcteristics.remove(0);
         _bluetoothGatt.setCharacteristicNotification(c, true);
         BluetoothGattDescriptor enableDescriptor =
                 c.getDescriptor(CHARACTERISTIC_UPDATE_NOTIFICATION_DESCRIPTOR);
         enableDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        if (!_bluetoothGatt.writeDescriptor(enableDescriptor)) {
-            AylaLog.e(LOG_TAG, "Failed to enable notification for " + c.getUuid());
-            enableNextNotify();
-        }
+        getGattQueue().writeDescriptor(enableDescriptor,
+                new AylaGattOperationQueue.OperationListener() {
+            @Override
+            public void onOperationComplete(int status) {
+                // GATT results arrive in onDescriptorWrite, which enables the next one
+                if (status < 0) {
+                    AylaLog.e(LOG_TAG, "Failed to enable notification for " + c.getUuid());
+                    enableNextNotify();
+                }
+            }
+        });
     }
 
     @Override
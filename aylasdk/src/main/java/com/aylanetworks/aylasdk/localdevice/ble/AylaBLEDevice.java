@@ -96,18 +96,33 @@ public class AylaBLEDevice extends AylaLocalDevice {
 
     protected String _oemHostVersion;
 
+    // Signal strength when last seen in a scan
+    private int _rssi;
+
     protected List<BluetoothGattCharacteristic> _characteristicsToFetch;
 
     // List of listeners waiting for a connect event
     protected final List<EmptyListener> _pendingConnectListeners = new ArrayList<>();
 
-    // Maps of characteristics to read / write requests
+    /**
+     * @deprecated Read and write requests are tracked by the {@link AylaGattOperationQueue} of
+     * the device, see {@link #getGattQueue()}. This map is no longer used and stays empty.
+     */
+    @Deprecated
     protected final Map<BluetoothGattCharacteristic, AylaBLERequest> _pendingWriteRequests =
             new HashMap<>();
 
+    /**
+     * @deprecated Read and write requests are tracked by the {@link AylaGattOperationQueue} of
+     * the device, see {@link #getGattQueue()}. This map is no longer used and stays empty.
+     */
+    @Deprecated
     protected final Map<BluetoothGattCharacteristic, AylaBLERequest> _pendingReadRequests =
             new HashMap<>();
 
+    // Handler used to report the results of queued operations on the main thread
+    private final Handler _uiHandler = new Handler(Looper.getMainLooper());
+
     protected boolean _isConnected = false;
 
     // Runnable to be run after bonding state changes
@@ -142,6 +157,7 @@ public class AylaBLEDevice extends AylaLocalDevice {
                 rssi +
         " scanData: " + (scanData == null ? "absent" : "present"));
         _bluetoothDevice = discoveredDevice;
+        _rssi = rssi;
         ParcelUuid uuids[] = discoveredDevice.getUuids();
         if (uuids == null) {
             AylaLog.d(LOG_TAG, "No UUIDs");
@@ -243,6 +259,18 @@ public class AylaBLEDevice extends AylaLocalDevice {
         return null;
     }
 
+    /**
+     * Returns the signal strength of this device when it was last seen in a scan
+     * @return the RSSI in dBm, or 0 if the device has not been seen in a scan
+     */
+    public int getRssi() {
+        return _rssi;
+    }
+
+    void setRssi(int rssi) {
+        _rssi = rssi;
+    }
+
     protected void fetchCharacteristics() {
        _characteristicsToFetch = getCharacteristicsToFetch();
         fetchNextCharacteristic();
@@ -255,18 +283,61 @@ public class AylaBLEDevice extends AylaLocalDevice {
             return;
         }
 
-        BluetoothGattCharacteristic characteristic = _characteristicsToFetch.remove(0);
-        if (!_bluetoothGatt.readCharacteristic(characteristic)) {
-            AylaLog.e(LOG_TAG, "Failed to read characteristic: " + characteristic.getUuid());
-            fetchNextCharacteristic();
-        }
+        final BluetoothGattCharacteristic characteristic = _characteristicsToFetch.remove(0);
+        getGattQueue().readCharacteristic(characteristic,
+                new AylaGattOperationQueue.OperationListener() {
+            @Override
+            public void onOperationComplete(int status) {
+                // GATT results arrive in onCharacteristicRead, which fetches the next one
+                if (status < 0) {
+                    AylaLog.e(LOG_TAG, "Failed to read characteristic: " +
+                            characteristic.getUuid() + " status: " + status);
+                    fetchNextCharacteristic();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the queue that serializes operations on the BluetoothGatt of this device. All
+     * reads and writes of characteristics and descriptors should be made through this queue.
+     *
+     * @return the operation queue, or null if the device is not connected
+     */
+    protected AylaGattOperationQueue getGattQueue() {
+        BluetoothGatt gatt = _bluetoothGatt;
+        return gatt == null ? null : AylaGattOperationQueue.forGatt(gatt);
+    }
+
+    private AylaGattOperationQueue.OperationListener requestListener(
+            final AylaBLERequest request, final String operation) {
+        return new AylaGattOperationQueue.OperationListener() {
+            @Override
+            public void onOperationComplete(final int status) {
+                _uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCanceled()) {
+                            return;
+                        }
+                        if (status == BluetoothGatt.GATT_SUCCESS) {
+                            request.reportBLEResponse();
+                        } else {
+                            request.reportBLEError(status, operation +
+                                    " characteristic failed: " + status);
+                        }
+                    }
+                });
+            }
+        };
     }
 
     protected AylaAPIRequest writeCharacteristic(BluetoothGattCharacteristic characteristic,
                                                  Response.Listener<BluetoothGattCharacteristic> successListener,
                                                  final ErrorListener errorListener) {
-        if (_bluetoothGatt == null) {
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaGattOperationQueue queue = getGattQueue();
+        if (queue == null) {
+            _uiHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     errorListener.onErrorResponse(new PreconditionError("Bluetooth is not connected"));
@@ -275,14 +346,10 @@ public class AylaBLEDevice extends AylaLocalDevice {
             return null;
         }
 
-        // Create a request and save it
+        // Create a request and queue the write. The queue copies the value being written.
         AylaBLERequest request = new AylaBLERequest(characteristic,
                  getSessionManager(), successListener, errorListener);
-        synchronized (_pendingWriteRequests) {
-            _pendingWriteRequests.put(characteristic, request);
-        }
-
-        _bluetoothGatt.writeCharacteristic(characteristic);
+        queue.writeCharacteristic(characteristic, requestListener(request, "Write"));
 
         return request;
     }
@@ -292,8 +359,9 @@ public class AylaBLEDevice extends AylaLocalDevice {
                                                 Response.Listener<BluetoothGattCharacteristic>
                                                         successListener,
                                                 final ErrorListener errorListener) {
-        if (_bluetoothGatt == null) {
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+        AylaGattOperationQueue queue = getGattQueue();
+        if (queue == null) {
+            _uiHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     errorListener.onErrorResponse(new PreconditionError("Bluetooth is not connected"));
@@ -302,14 +370,10 @@ public class AylaBLEDevice extends AylaLocalDevice {
             return null;
         }
 
-        // Create a request and save it
+        // Create a request and queue the read
         AylaBLERequest request = new AylaBLERequest(characteristic,
                 getSessionManager(), successListener, errorListener);
-        synchronized (_pendingReadRequests) {
-            _pendingReadRequests.put(characteristic, request);
-        }
-
-        _bluetoothGatt.readCharacteristic(characteristic);
+        queue.readCharacteristic(characteristic, requestListener(request, "Read"));
 
         return request;
     }
@@ -442,6 +506,7 @@ public class AylaBLEDevice extends AylaLocalDevice {
         }
 
         _bluetoothGatt.disconnect();
+        AylaGattOperationQueue.release(_bluetoothGatt);
         _bluetoothGatt = null;
         _isConnected = false;
         successListener.onResponse(new AylaAPIRequest.EmptyResponse());
@@ -531,10 +596,11 @@ public class AylaBLEDevice extends AylaLocalDevice {
         if (_isConnected && !wasConnected) {
             onDeviceConnected(gatt);
             // Set the connected at field
-            connectedAt = DateUtils.getISO8601DateFormat().format(new Date());
+            connectedAt = DateUtils.toJsonString(new Date());
             changedFields.add("connectedAt");
         } else if (!_isConnected){
             notifyConnectionFailure(new PreconditionError("failed to connect with status " + status));
+            AylaGattOperationQueue.release(gatt);
             gatt.close();
             _bluetoothGatt = null;
         }
@@ -580,12 +646,13 @@ public class AylaBLEDevice extends AylaLocalDevice {
                                      final BluetoothGattCharacteristic characteristic,
                                      final int status) {
         AylaLog.d(BTCB_TAG, "onCharacteristicRead: " + characteristic.getUuid() + " status: " + status);
+        final AylaGattOperationQueue queue = AylaGattOperationQueue.forGatt(gatt);
         if (status == 137 || status == 135 || status == 133) {
             // This is undocumented. Seems that we should re-try the read.
             if (++_errorCount > MAX_ERROR_RETRIES) {
                 AylaLog.e(LOG_TAG, "Not retrying status " + status + " - too many retries");
             } else {
-                _bluetoothGatt.readCharacteristic(characteristic);
+                queue.retryInFlight();
                 return;
             }
         }
@@ -603,37 +670,20 @@ public class AylaBLEDevice extends AylaLocalDevice {
             AylaNetworks.sharedInstance().getContext().registerReceiver(_pairingReceiver,
                     new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED));
 
-            // Add an action to perform when the bonding changes
+            // Keep the read in flight while bonding, and retry it once the bonding changes
+            queue.holdInFlight();
             _postBondingRunnable = new Runnable() {
                 @Override
                 public void run() {
-                    _bluetoothGatt.readCharacteristic(characteristic);
+                    queue.retryInFlight();
                 }
             };
             _bluetoothDevice.createBond();
             return;
         }
 
-        // See if we have pending read requests and notify listeners
-        AylaBLERequest request;
-        synchronized (_pendingReadRequests) {
-            // Find the original read request
-            request = _pendingReadRequests.remove(characteristic);
-        }
-
-        if (request != null) {
-            final AylaBLERequest finalRequest = request;
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        finalRequest.reportBLEResponse();
-                    } else {
-                        finalRequest.reportBLEError(status, "Write characteristic failed: " + status);
-                    }
-                }
-            });
-        }
+        // Notify anybody waiting on the read and start the next queued operation
+        queue.onCharacteristicRead(characteristic, status);
 
         UUID uuid = characteristic.getUuid();
         if (status != BluetoothGatt.GATT_SUCCESS) {
@@ -659,28 +709,10 @@ public class AylaBLEDevice extends AylaLocalDevice {
     public void onCharacteristicWrite(BluetoothGatt gatt,
                                       final BluetoothGattCharacteristic characteristic,
                                       final int status) {
-        AylaBLERequest request;
-        synchronized (_pendingWriteRequests) {
-            // Find the original write request
-            request = _pendingWriteRequests.remove(characteristic);
-        }
-
-        if (request == null) {
+        // Notify anybody waiting on the write and start the next queued operation
+        if (!AylaGattOperationQueue.forGatt(gatt).onCharacteristicWrite(characteristic, status)) {
             AylaLog.e(LOG_TAG, "Write response without a request: " + characteristic);
-            return;
         }
-
-        final AylaBLERequest finalRequest = request;
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    finalRequest.getSuccessListener().onResponse(characteristic);
-                } else {
-                    finalRequest.reportBLEError(status, "Write characteristic failed: " + status);
-                }
-            }
-        });
     }
 
     @Override
@@ -747,11 +779,13 @@ public class AylaBLEDevice extends AylaLocalDevice {
     @SuppressWarnings("unused")
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         AylaLog.d(BTCB_TAG, "onDescriptorRead: " + descriptor + " status: " + status);
+        AylaGattOperationQueue.forGatt(gatt).onDescriptorRead(descriptor, status);
     }
 
     @SuppressWarnings("unused")
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         AylaLog.d(BTCB_TAG, "onDescriptorWrite: " + descriptor + " status: " + status);
+        AylaGattOperationQueue.forGatt(gatt).onDescriptorWrite(descriptor, status);
     }
 
 
@@ -3,9 +3,14 @@ package com.aylanetworks.aylasdk.localdevice.ble;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelUuid;
 import android.text.TextUtils;
 
 import com.android.volley.Request;
@@ -30,7 +35,9 @@ import com.aylanetworks.aylasdk.util.EmptyListener;
 import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +61,9 @@ public class AylaBLEDeviceManager implements AylaLocalDeviceManager, AylaDeviceM
 
     private BluetoothAdapter _bluetoothAdapter;
     private WeakReference<AylaDeviceManager> _deviceManager;
+    private int _scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private long _scanReportDelayMs;
+    private int _rssiThresholdDb = ScanResultDeduplicator.DEFAULT_RSSI_THRESHOLD_DB;
 
     /**
      * AylaBLEDeviceManager constructor.
@@ -89,18 +99,60 @@ public class AylaBLEDeviceManager implements AylaLocalDeviceManager, AylaDeviceM
 
     }
 
+    /**
+     * Sets the scan mode used by findLocalDevices, one of the ScanSettings.SCAN_MODE_ values.
+     * The default is {@link ScanSettings#SCAN_MODE_LOW_LATENCY}.
+     *
+     * @param scanMode the scan mode
+     */
+    public void setScanMode(int scanMode) {
+        _scanMode = scanMode;
+    }
+
+    /**
+     * Sets the delay with which the Bluetooth controller reports scan results. With a delay
+     * greater than 0 results are batched by the controller, which saves power and callbacks in
+     * crowded environments. The delay is ignored if the controller does not support batching.
+     * The default is 0, to report each result as it is found.
+     *
+     * @param delayMs report delay in milliseconds
+     */
+    public void setScanReportDelay(long delayMs) {
+        _scanReportDelayMs = delayMs;
+    }
+
+    /**
+     * Sets how much the RSSI of a device already found must change, in dB, before another of
+     * its advertisements is handled during a scan.
+     *
+     * @param thresholdDb RSSI change in dB
+     */
+    public void setRssiThreshold(int thresholdDb) {
+        _rssiThresholdDb = thresholdDb;
+    }
+
     public interface ScanFilter {
         boolean filter(ScanRecordHelper scanRecord);
     }
 
     /**
-     * Filter for service scans that filters based on discvered service UUIDs
+     * Filter for service scans that filters based on discvered service UUIDs. The service UUIDs
+     * are also given to the Bluetooth controller as hardware scan filters, so that other
+     * advertisements are not reported at all.
      */
     public static class ServiceScanFilter implements ScanFilter {
         private UUID[] _scanServices;
         public ServiceScanFilter(UUID[] scanServices) {
             _scanServices = scanServices;
         }
+
+        /**
+         * @return the service UUIDs to scan for, or null to not filter in hardware
+         */
+        public UUID[] getServiceUuids() {
+            return _scanServices;
+        }
+
         public boolean filter(ScanRecordHelper scanRecord) {
             for (UUID uuid : _scanServices) {
                 if (scanRecord.containsService(uuid)) {
@@ -164,35 +216,104 @@ public class AylaBLEDeviceManager implements AylaLocalDeviceManager, AylaDeviceM
             return null;
         }
 
-        final Map<String, AylaLocalDevice> discoveredDevices = new HashMap<>();
-        final BluetoothAdapter.LeScanCallback callback = new BluetoothAdapter.LeScanCallback() {
+        final BluetoothLeScanner scanner = _bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            errorListener.onErrorResponse(new PreconditionError("Bluetooth LE scanner not " +
+                    "available"));
+            return null;
+        }
+
+        final Map<String, AylaBLEDevice> discoveredDevices = new HashMap<>();
+        final ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(_rssiThresholdDb);
+        final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+
+        // Scan results are delivered on the main thread, so keep the work done per
+        // advertisement small: repeats are dropped before the record is looked at, and the
+        // record is only decoded as far as the filter needs.
+        final ScanCallback callback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                handleScanResult(result);
+            }
+
             @Override
-            public void onLeScan(BluetoothDevice bluetoothDevice, int rssi, byte[] scanRecord) {
-                ScanRecordHelper srh = ScanRecordHelper.parseFromBytes(scanRecord);
-                boolean notAdded = !discoveredDevices.containsKey(bluetoothDevice.getAddress());
-                boolean shouldAdd = (scanFilter != null) ? (scanFilter.filter(srh) && notAdded) : notAdded;
-                if (shouldAdd) {
-                    AylaBLEDevice foundDevice = createLocalDevice(bluetoothDevice, rssi, scanRecord);
-                    discoveredDevices.put(bluetoothDevice.getAddress(), foundDevice);
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (ScanResult result : results) {
+                    handleScanResult(result);
                 }
             }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                AylaLog.e(LOG_TAG, "BLE scan failed: " + errorCode);
+                timeoutHandler.removeCallbacksAndMessages(null);
+                errorListener.onErrorResponse(new BLEError(errorCode, "BLE scan failed"));
+            }
+
+            private void handleScanResult(ScanResult result) {
+                BluetoothDevice bluetoothDevice = result.getDevice();
+                String address = bluetoothDevice.getAddress();
+                if (!deduplicator.offer(address, result.getRssi())) {
+                    return;
+                }
+
+                AylaBLEDevice foundDevice = discoveredDevices.get(address);
+                if (foundDevice != null) {
+                    foundDevice.setRssi(result.getRssi());
+                    return;
+                }
+
+                byte[] scanRecord = result.getScanRecord() == null ? null :
+                        result.getScanRecord().getBytes();
+                if (scanFilter != null) {
+                    ScanRecordHelper srh = ScanRecordHelper.parseFromBytes(scanRecord);
+                    if (srh == null || !scanFilter.filter(srh)) {
+                        return;
+                    }
+                }
+                discoveredDevices.put(address, createLocalDevice(bluetoothDevice,
+                        result.getRssi(), scanRecord));
+            }
         };
 
-        final Handler timeoutHandler = new Handler(Looper.getMainLooper());
         timeoutHandler.postDelayed(
                 new Runnable() {
                     @Override
                     public void run() {
-                        //noinspection deprecation
-                        _bluetoothAdapter.stopLeScan(callback);
-                        Collection<AylaLocalDevice> devices = discoveredDevices.values();
-                        successListener.onResponse(devices.toArray(new AylaLocalDevice[devices.size()]));
+                        stopScan(scanner, callback);
+                        // Results flushed from the controller are delivered to the callback on
+                        // the main thread, so finish the scan in a message queued behind them.
+                        // Cancelling the request removes this message as well.
+                        timeoutHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                AylaLog.d(LOG_TAG, "Scan found " + discoveredDevices.size() +
+                                        " devices, ignored " + deduplicator.getSuppressedCount() +
+                                        " repeated advertisements");
+                                List<AylaBLEDevice> devices =
+                                        new ArrayList<>(discoveredDevices.values());
+                                // Strongest signal first
+                                Collections.sort(devices, new Comparator<AylaBLEDevice>() {
+                                    @Override
+                                    public int compare(AylaBLEDevice lhs, AylaBLEDevice rhs) {
+                                        return rhs.getRssi() - lhs.getRssi();
+                                    }
+                                });
+                                successListener.onResponse(
+                                        devices.toArray(new AylaLocalDevice[devices.size()]));
+                            }
+                        });
                     }
                 }, timeoutInMs);
 
         // Start the BLE scan
-        //noinspection deprecation
-        _bluetoothAdapter.startLeScan(callback);
+        long reportDelay = _scanReportDelayMs > 0 &&
+                _bluetoothAdapter.isOffloadedScanBatchingSupported() ? _scanReportDelayMs : 0;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(_scanMode)
+                .setReportDelay(reportDelay)
+                .build();
+        scanner.startScan(getHardwareFilters(scanFilter), settings, callback);
 
         // Create an AylaAPIRequest to handle cancellation
         return new AylaAPIRequest<AylaLocalDevice[]>(
@@ -205,12 +326,48 @@ public class AylaBLEDeviceManager implements AylaLocalDeviceManager, AylaDeviceM
             public void cancel() {
                 super.cancel();
                 timeoutHandler.removeCallbacksAndMessages(null);
-                //noinspection deprecation
-                _bluetoothAdapter.stopLeScan(callback);
+                stopScan(scanner, callback);
             }
         };
     }
 
+    /**
+     * Returns the filters the Bluetooth controller should apply for the given scan filter, or
+     * null to have the controller report every advertisement. Subclasses using their own
+     * {@link ScanFilter} may override this to filter in hardware as well.
+     *
+     * @param scanFilter the filter passed to findLocalDevices
+     * @return the hardware scan filters, or null
+     */
+    protected List<android.bluetooth.le.ScanFilter> getHardwareFilters(ScanFilter scanFilter) {
+        if (!(scanFilter instanceof ServiceScanFilter)) {
+            return null;
+        }
+        UUID[] services = ((ServiceScanFilter) scanFilter).getServiceUuids();
+        if (services == null || services.length == 0) {
+            return null;
+        }
+        List<android.bluetooth.le.ScanFilter> filters = new ArrayList<>(services.length);
+        for (UUID service : services) {
+            filters.add(new android.bluetooth.le.ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(service))
+                    .build());
+        }
+        return filters;
+    }
+
+    private void stopScan(BluetoothLeScanner scanner, ScanCallback callback) {
+        if (!_bluetoothAdapter.isEnabled()) {
+            // The scanner throws if Bluetooth was turned off during the scan
+            return;
+        }
+        if (_scanReportDelayMs > 0) {
+            // Deliver results still batched in the controller
+            scanner.flushPendingScanResults(callback);
+        }
+        scanner.stopScan(callback);
+    }
+
     @Override
     public AylaAPIRequest registerLocalDevice(final AylaSessionManager sessionManager,
                                               final AylaLocalDevice localDevice,
@@ -0,0 +1,618 @@
+package com.aylanetworks.aylasdk.localdevice.ble;
+
+/*
+ * Ayla SDK
+ *
+ * Copyright 2017 Ayla Networks, all rights reserved
+ */
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.aylanetworks.aylasdk.AylaLog;
+import com.aylanetworks.aylasdk.metrics.AylaMetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Serializes the GATT operations made on a single BluetoothGatt.
+ * <p>
+ * Android only allows one characteristic or descriptor read or write to be outstanding on a
+ * BluetoothGatt; any operation started while another is in flight fails or is silently dropped.
+ * AylaBLEDevice and AylaBaseGattCharacteristic therefore queue their operations here. Each
+ * operation is started once the previous one has completed, which happens when the matching
+ * callback arrives from the BluetoothGattCallback, or when the operation times out.
+ * <p>
+ * In addition:
+ * <ul>
+ * <li>A read of a characteristic that is already queued or in flight does not start a new
+ * read. The listener joins the existing operation and is told the same result.</li>
+ * <li>The value of a characteristic or descriptor is captured when a write is queued, so two
+ * writes queued on the same characteristic each send their own value.</li>
+ * <li>Writes of type {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE} are reported
+ * to their listener as soon as the stack accepts them, as the remote device sends no
+ * acknowledgement. The queue only waits for the local flow control callback, with a short
+ * timeout, before starting the next operation.</li>
+ * </ul>
+ * The queue for a BluetoothGatt is obtained from {@link #forGatt(BluetoothGatt)}, and the
+ * owner of the BluetoothGatt passes each read and write callback to the queue.
+ */
+public class AylaGattOperationQueue {
+    private static final String LOG_TAG = "GattQueue";
+
+    /**
+     * Time to wait for the callback of a read or a write with response
+     */
+    public static final int DEFAULT_OPERATION_TIMEOUT_MS = 5000;
+
+    /**
+     * Time to wait for the local callback of a write without response
+     */
+    public static final int NO_RESPONSE_WRITE_TIMEOUT_MS = 500;
+
+    /**
+     * Status reported when an operation's callback did not arrive in time
+     */
+    public static final int STATUS_TIMEOUT = -1;
+
+    /**
+     * Status reported when the BluetoothGatt refused to start an operation
+     */
+    public static final int STATUS_NOT_STARTED = -2;
+
+    /**
+     * Status reported for operations still queued when the queue is cleared
+     */
+    public static final int STATUS_CANCELED = -3;
+
+    /**
+     * The GATT operations used by the queue. Implemented over a BluetoothGatt, or by a fake in
+     * tests.
+     */
+    public interface GattClient {
+        boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+        boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+        boolean readDescriptor(BluetoothGattDescriptor descriptor);
+        boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+    }
+
+    /**
+     * Told the result of a queued operation
+     */
+    public interface OperationListener {
+        /**
+         * Called once the operation has completed.
+         *
+         * @param status the GATT status of the operation, or one of {@link #STATUS_TIMEOUT},
+         *               {@link #STATUS_NOT_STARTED} or {@link #STATUS_CANCELED}
+         */
+        void onOperationComplete(int status);
+    }
+
+    private static final Map<BluetoothGatt, AylaGattOperationQueue> __queues =
+            new WeakHashMap<>();
+
+    private static final int OP_READ = 0;
+    private static final int OP_WRITE = 1;
+    private static final int OP_READ_DESCRIPTOR = 2;
+    private static final int OP_WRITE_DESCRIPTOR = 3;
+
+    private final GattClient _client;
+    private final Handler _handler;
+    private final int _timeoutMs;
+    private final ArrayDeque<Operation> _queue = new ArrayDeque<>();
+    private Operation _inFlight;
+
+    private long _operationCount;
+    private long _coalescedReadCount;
+    private long _timeoutCount;
+    private long _failedCount;
+    private int _maxQueueDepth;
+
+    private final Runnable _timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            timeoutInFlight();
+        }
+    };
+
+    /**
+     * Creates a queue over the given client.
+     *
+     * @param client    client used to start operations
+     * @param handler   handler used for operation timeouts. If null, operations never time out.
+     * @param timeoutMs time to wait for each read or write with response to complete
+     */
+    public AylaGattOperationQueue(GattClient client, Handler handler, int timeoutMs) {
+        _client = client;
+        _handler = handler;
+        _timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Returns the queue for the given BluetoothGatt, creating it if needed. Every user of the
+     * BluetoothGatt must obtain the queue from here so that they share it.
+     */
+    public static AylaGattOperationQueue forGatt(BluetoothGatt gatt) {
+        synchronized (__queues) {
+            AylaGattOperationQueue queue = __queues.get(gatt);
+            if (queue == null) {
+                queue = new AylaGattOperationQueue(new BluetoothGattClient(gatt),
+                        new Handler(Looper.getMainLooper()), DEFAULT_OPERATION_TIMEOUT_MS);
+                __queues.put(gatt, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Forgets the queue for the given BluetoothGatt, usually once it has been closed. Operations
+     * still waiting are completed with {@link #STATUS_CANCELED}.
+     */
+    public static void release(BluetoothGatt gatt) {
+        AylaGattOperationQueue queue;
+        synchronized (__queues) {
+            queue = __queues.remove(gatt);
+        }
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Queues a read of the given characteristic. If a read of the characteristic is already
+     * queued or in flight, and no write of the characteristic is queued after it, the listener
+     * is told the result of that read instead.
+     *
+     * @param characteristic characteristic to read
+     * @param listener       listener told the result, may be null
+     */
+    public void readCharacteristic(BluetoothGattCharacteristic characteristic,
+                                   OperationListener listener) {
+        synchronized (this) {
+            Operation existing = findRead(characteristic);
+            if (existing != null) {
+                _coalescedReadCount++;
+                existing.addListener(listener);
+                return;
+            }
+            enqueue(new Operation(OP_READ, characteristic, null, null, 0, listener));
+        }
+        startNext();
+    }
+
+    /**
+     * Queues a write of the current value of the given characteristic, using its current write
+     * type.
+     *
+     * @param characteristic characteristic to write
+     * @param listener       listener told the result, may be null
+     */
+    public void writeCharacteristic(BluetoothGattCharacteristic characteristic,
+                                    OperationListener listener) {
+        synchronized (this) {
+            enqueue(new Operation(OP_WRITE, characteristic, null,
+                    copy(characteristic.getValue()), characteristic.getWriteType(), listener));
+        }
+        startNext();
+    }
+
+    /**
+     * Queues a read of the given descriptor
+     *
+     * @param descriptor descriptor to read
+     * @param listener   listener told the result, may be null
+     */
+    public void readDescriptor(BluetoothGattDescriptor descriptor, OperationListener listener) {
+        synchronized (this) {
+            enqueue(new Operation(OP_READ_DESCRIPTOR, null, descriptor, null, 0, listener));
+        }
+        startNext();
+    }
+
+    /**
+     * Queues a write of the current value of the given descriptor
+     *
+     * @param descriptor descriptor to write
+     * @param listener   listener told the result, may be null
+     */
+    public void writeDescriptor(BluetoothGattDescriptor descriptor, OperationListener listener) {
+        synchronized (this) {
+            enqueue(new Operation(OP_WRITE_DESCRIPTOR, null, descriptor,
+                    copy(descriptor.getValue()), 0, listener));
+        }
+        startNext();
+    }
+
+    /**
+     * Passes the result of a characteristic read from the BluetoothGattCallback
+     *
+     * @return true if the result completed the operation in flight
+     */
+    public boolean onCharacteristicRead(BluetoothGattCharacteristic characteristic, int status) {
+        return complete(OP_READ, characteristic, null, status);
+    }
+
+    /**
+     * Passes the result of a characteristic write from the BluetoothGattCallback
+     *
+     * @return true if the result completed the operation in flight
+     */
+    public boolean onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        return complete(OP_WRITE, characteristic, null, status);
+    }
+
+    /**
+     * Passes the result of a descriptor read from the BluetoothGattCallback
+     *
+     * @return true if the result completed the operation in flight
+     */
+    public boolean onDescriptorRead(BluetoothGattDescriptor descriptor, int status) {
+        return complete(OP_READ_DESCRIPTOR, null, descriptor, status);
+    }
+
+    /**
+     * Passes the result of a descriptor write from the BluetoothGattCallback
+     *
+     * @return true if the result completed the operation in flight
+     */
+    public boolean onDescriptorWrite(BluetoothGattDescriptor descriptor, int status) {
+        return complete(OP_WRITE_DESCRIPTOR, null, descriptor, status);
+    }
+
+    /**
+     * Stops the timeout of the operation in flight, for example while the device is being
+     * bonded. The operation stays in flight until {@link #retryInFlight()} is called or its
+     * result arrives.
+     */
+    public void holdInFlight() {
+        synchronized (this) {
+            if (_handler != null) {
+                _handler.removeCallbacks(_timeoutRunnable);
+            }
+        }
+    }
+
+    /**
+     * Starts the operation in flight again, for example after the device reported a transient
+     * error or has been bonded. If the operation cannot be started, it completes with
+     * {@link #STATUS_NOT_STARTED}.
+     */
+    public void retryInFlight() {
+        List<OperationListener> listeners = null;
+        synchronized (this) {
+            if (_inFlight == null) {
+                return;
+            }
+            if (!issue(_inFlight)) {
+                _failedCount++;
+                listeners = finishInFlight();
+            }
+        }
+        if (listeners != null) {
+            notifyListeners(listeners, STATUS_NOT_STARTED);
+            startNext();
+        }
+    }
+
+    /**
+     * Completes the operation in flight and all queued operations with
+     * {@link #STATUS_CANCELED}. Called when the connection is lost.
+     */
+    public void clear() {
+        List<OperationListener> listeners = new ArrayList<>();
+        synchronized (this) {
+            if (_inFlight != null) {
+                listeners.addAll(finishInFlight());
+            }
+            for (Operation operation : _queue) {
+                listeners.addAll(operation.listeners);
+            }
+            _queue.clear();
+        }
+        notifyListeners(listeners, STATUS_CANCELED);
+    }
+
+    /**
+     * Returns the number of operations queued or in flight
+     */
+    public synchronized int getPendingCount() {
+        return _queue.size() + (_inFlight == null ? 0 : 1);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(_operationCount, _coalescedReadCount, _timeoutCount, _failedCount,
+                _maxQueueDepth);
+    }
+
+    /**
+     * Completes the operation in flight with {@link #STATUS_TIMEOUT}. Run from the handler when
+     * the callback for the operation did not arrive in time.
+     */
+    void timeoutInFlight() {
+        List<OperationListener> listeners;
+        synchronized (this) {
+            if (_inFlight == null) {
+                return;
+            }
+            AylaLog.e(LOG_TAG, "Timed out waiting for " + _inFlight);
+            if (!_inFlight.reported) {
+                _timeoutCount++;
+            }
+            listeners = finishInFlight();
+        }
+        notifyListeners(listeners, STATUS_TIMEOUT);
+        startNext();
+    }
+
+    private boolean complete(int type, BluetoothGattCharacteristic characteristic,
+                             BluetoothGattDescriptor descriptor, int status) {
+        List<OperationListener> listeners;
+        synchronized (this) {
+            if (_inFlight == null || !_inFlight.matches(type, characteristic, descriptor)) {
+                AylaLog.d(LOG_TAG, "Result without an operation in flight: " +
+                        (characteristic != null ? characteristic.getUuid() :
+                                descriptor.getUuid()));
+                return false;
+            }
+            if (_inFlight.reported && status != BluetoothGatt.GATT_SUCCESS) {
+                AylaLog.e(LOG_TAG, "Write without response failed with status " + status);
+            }
+            listeners = finishInFlight();
+        }
+        notifyListeners(listeners, status);
+        startNext();
+        return true;
+    }
+
+    private void startNext() {
+        List<OperationListener> failed = new ArrayList<>();
+        List<OperationListener> accepted = null;
+        synchronized (this) {
+            while (_inFlight == null && !_queue.isEmpty()) {
+                Operation operation = _queue.poll();
+                _inFlight = operation;
+                if (issue(operation)) {
+                    _operationCount++;
+                    if (operation.isWriteWithoutResponse()) {
+                        // Nothing will come back from the remote device, so there is no
+                        // reason to keep the caller waiting for the local callback
+                        accepted = new ArrayList<>(operation.listeners);
+                        operation.listeners.clear();
+                        operation.reported = true;
+                    }
+                } else {
+                    AylaLog.e(LOG_TAG, "Failed to start " + operation);
+                    _failedCount++;
+                    failed.addAll(finishInFlight());
+                }
+            }
+        }
+        if (accepted != null) {
+            notifyListeners(accepted, BluetoothGatt.GATT_SUCCESS);
+        }
+        notifyListeners(failed, STATUS_NOT_STARTED);
+    }
+
+    // Must be called while holding the lock
+    private boolean issue(Operation operation) {
+        boolean started;
+        switch (operation.type) {
+            case OP_READ:
+                started = _client.readCharacteristic(operation.characteristic);
+                break;
+            case OP_WRITE:
+                operation.characteristic.setValue(operation.value);
+                operation.characteristic.setWriteType(operation.writeType);
+                started = _client.writeCharacteristic(operation.characteristic);
+                break;
+            case OP_READ_DESCRIPTOR:
+                started = _client.readDescriptor(operation.descriptor);
+                break;
+            default:
+                operation.descriptor.setValue(operation.value);
+                started = _client.writeDescriptor(operation.descriptor);
+                break;
+        }
+
+        if (started && _handler != null) {
+            _handler.removeCallbacks(_timeoutRunnable);
+            _handler.postDelayed(_timeoutRunnable, operation.isWriteWithoutResponse() ?
+                    NO_RESPONSE_WRITE_TIMEOUT_MS : _timeoutMs);
+        }
+        return started;
+    }
+
+    // Must be called while holding the lock
+    private List<OperationListener> finishInFlight() {
+        if (_handler != null) {
+            _handler.removeCallbacks(_timeoutRunnable);
+        }
+        List<OperationListener> listeners = _inFlight.listeners;
+        _inFlight = null;
+        return listeners;
+    }
+
+    // Must be called while holding the lock
+    private void enqueue(Operation operation) {
+        _queue.add(operation);
+        _maxQueueDepth = Math.max(_maxQueueDepth, getPendingCount());
+        AylaMetricsRegistry.sharedInstance().histogram(AylaMetricsRegistry.GATT_QUEUE_DEPTH)
+                .record(getPendingCount());
+    }
+
+    // Must be called while holding the lock. Returns the read of the characteristic a new read
+    // may share, which is one with no write of the characteristic queued after it, as a shared
+    // read must return the value written before it was queued.
+    private Operation findRead(BluetoothGattCharacteristic characteristic) {
+        Iterator<Operation> iterator = _queue.descendingIterator();
+        while (iterator.hasNext()) {
+            Operation operation = iterator.next();
+            if (operation.matches(OP_READ, characteristic, null)) {
+                return operation;
+            }
+            if (operation.matches(OP_WRITE, characteristic, null)) {
+                return null;
+            }
+        }
+        if (_inFlight != null && _inFlight.matches(OP_READ, characteristic, null)) {
+            return _inFlight;
+        }
+        return null;
+    }
+
+    private static void notifyListeners(List<OperationListener> listeners, int status) {
+        for (OperationListener listener : listeners) {
+            listener.onOperationComplete(status);
+        }
+    }
+
+    private static byte[] copy(byte[] value) {
+        return value == null ? null : value.clone();
+    }
+
+    private static class Operation {
+        final int type;
+        final BluetoothGattCharacteristic characteristic;
+        final BluetoothGattDescriptor descriptor;
+        final byte[] value;
+        final int writeType;
+        final List<OperationListener> listeners = new ArrayList<>(1);
+
+        // Set once the listeners of a write without response have been told it was sent
+        boolean reported;
+
+        Operation(int type, BluetoothGattCharacteristic characteristic,
+                  BluetoothGattDescriptor descriptor, byte[] value, int writeType,
+                  OperationListener listener) {
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.writeType = writeType;
+            addListener(listener);
+        }
+
+        void addListener(OperationListener listener) {
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+
+        boolean isWriteWithoutResponse() {
+            return type == OP_WRITE &&
+                    writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        }
+
+        boolean matches(int type, BluetoothGattCharacteristic characteristic,
+                        BluetoothGattDescriptor descriptor) {
+            return this.type == type && this.characteristic == characteristic &&
+                    this.descriptor == descriptor;
+        }
+
+        @Override
+        public String toString() {
+            String[] names = {"read", "write", "descriptor read", "descriptor write"};
+            return names[type] + " of " + (characteristic != null ? characteristic.getUuid() :
+                    descriptor.getUuid());
+        }
+    }
+
+    private static class BluetoothGattClient implements GattClient {
+        private final BluetoothGatt _gatt;
+
+        BluetoothGattClient(BluetoothGatt gatt) {
+            _gatt = gatt;
+        }
+
+        @Override
+        public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return _gatt.readCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return _gatt.writeCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+            return _gatt.readDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+            return _gatt.writeDescriptor(descriptor);
+        }
+    }
+
+    /**
+     * Counters describing how the queue has been used
+     */
+    public static class Stats {
+        private final long _operationCount;
+        private final long _coalescedReadCount;
+        private final long _timeoutCount;
+        private final long _failedCount;
+        private final int _maxQueueDepth;
+
+        Stats(long operationCount, long coalescedReadCount, long timeoutCount, long failedCount,
+              int maxQueueDepth) {
+            _operationCount = operationCount;
+            _coalescedReadCount = coalescedReadCount;
+            _timeoutCount = timeoutCount;
+            _failedCount = failedCount;
+            _maxQueueDepth = maxQueueDepth;
+        }
+
+        /**
+         * @return the number of operations started on the BluetoothGatt
+         */
+        public long getOperationCount() {
+            return _operationCount;
+        }
+
+        /**
+         * @return the number of reads that joined a read already queued or in flight
+         */
+        public long getCoalescedReadCount() {
+            return _coalescedReadCount;
+        }
+
+        /**
+         * @return the number of operations whose callback did not arrive in time
+         */
+        public long getTimeoutCount() {
+            return _timeoutCount;
+        }
+
+        /**
+         * @return the number of operations the BluetoothGatt refused to start
+         */
+        public long getFailedCount() {
+            return _failedCount;
+        }
+
+        /**
+         * @return the largest number of operations queued or in flight at once
+         */
+        public int getMaxQueueDepth() {
+            return _maxQueueDepth;
+        }
+
+        @Override
+        public String toString() {
+            return "operations: " + _operationCount + ", coalesced reads: " +
+                    _coalescedReadCount + ", timeouts: " + _timeoutCount + ", failed: " +
+                    _failedCount + ", max depth: " + _maxQueueDepth;
+        }
+    }
+}
@@ -11,8 +11,6 @@ import android.os.ParcelUuid;
 import android.util.Log;
 import android.util.SparseArray;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -46,6 +44,8 @@ public class ScanRecordHelper {
 
     public static final ParcelUuid BASE_UUID =
             ParcelUuid.fromString("00000000-0000-1000-8000-00805F9B34FB");
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
 
     /** Length of bytes for 16 bit UUID */
     public static final int UUID_BYTES_16_BIT = 2;
@@ -60,7 +60,10 @@ public class ScanRecordHelper {
     private int _advertiseFlag;
     private int _txPowerLevel;
     private String _localName;
-    private byte[] _scanRecord;
+    private final byte[] _scanRecord;
+
+    // Fields are decoded from _scanRecord the first time one of them is asked for
+    private boolean _decoded;
 
     public ScanRecordHelper(List<ParcelUuid> serviceUuids,
                             SparseArray<byte[]> manufacturerData,
@@ -76,29 +79,40 @@ public class ScanRecordHelper {
         _txPowerLevel = txPowerLevel;
         _localName = localName;
         _scanRecord = scanRecord;
+        _decoded = true;
+    }
+
+    private ScanRecordHelper(byte[] scanRecord) {
+        _scanRecord = scanRecord;
     }
 
     public List<ParcelUuid> getServiceUuids() {
+        decode();
         return _serviceUuids;
     }
 
     public SparseArray<byte[]> getManufacturerData() {
+        decode();
         return _manufacturerData;
     }
 
     public Map<ParcelUuid, byte[]> getServiceData() {
+        decode();
         return _serviceData;
     }
 
     public int getAdvertiseFlag() {
+        decode();
         return _advertiseFlag;
     }
 
     public int getTxPowerLevel() {
+        decode();
         return _txPowerLevel;
     }
 
     public String getLocalName() {
+        decode();
         return _localName;
     }
 
@@ -106,11 +120,29 @@ public class ScanRecordHelper {
         return _scanRecord;
     }
 
+    /**
+     * Returns a ScanRecordHelper for the given advertisement. The record is not decoded until
+     * one of its fields is asked for, and {@link #containsService(UUID)} reads the record
+     * directly, so that advertisements that are filtered out cost no allocations beyond the
+     * helper itself.
+     *
+     * @param scanRecord raw advertisement and scan response data
+     * @return the helper, or null if scanRecord is null
+     */
     public static ScanRecordHelper parseFromBytes(byte[] scanRecord) {
         if (scanRecord == null) {
             return null;
         }
+        return new ScanRecordHelper(scanRecord);
+    }
+
+    private synchronized void decode() {
+        if (_decoded) {
+            return;
+        }
+        _decoded = true;
 
+        byte[] scanRecord = _scanRecord;
         int currentPos = 0;
         int advertiseFlag = -1;
         List<ParcelUuid> serviceUuids = new ArrayList<>();
@@ -131,6 +163,9 @@ public class ScanRecordHelper {
                 int dataLength = length - 1;
                 // fieldType is unsigned int.
                 int fieldType = scanRecord[currentPos++] & 0xFF;
+                if (currentPos + dataLength > scanRecord.length) {
+                    throw new IllegalArgumentException("field extends past the record");
+                }
                 switch (fieldType) {
                     case DATA_TYPE_FLAGS:
                         advertiseFlag = scanRecord[currentPos] & 0xFF;
@@ -152,8 +187,7 @@ public class ScanRecordHelper {
                         break;
                     case DATA_TYPE_LOCAL_NAME_SHORT:
                     case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                        localName = new String(
-                                extractBytes(scanRecord, currentPos, dataLength));
+                        localName = new String(scanRecord, currentPos, dataLength);
                         break;
                     case DATA_TYPE_TX_POWER_LEVEL:
                         txPowerLevel = scanRecord[currentPos];
@@ -162,9 +196,8 @@ public class ScanRecordHelper {
                         // The first two bytes of the service data are service data UUID in little
                         // endian. The rest bytes are service data.
                         int serviceUuidLength = UUID_BYTES_16_BIT;
-                        byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
-                                serviceUuidLength);
-                        ParcelUuid serviceDataUuid = parseUuidFrom(serviceDataUuidBytes);
+                        ParcelUuid serviceDataUuid = new ParcelUuid(uuidFrom(scanRecord,
+                                currentPos, serviceUuidLength));
                         byte[] serviceDataArray = extractBytes(scanRecord,
                                 currentPos + serviceUuidLength, dataLength - serviceUuidLength);
                         serviceData.put(serviceDataUuid, serviceDataArray);
@@ -188,22 +221,29 @@ public class ScanRecordHelper {
             if (serviceUuids.isEmpty()) {
                 serviceUuids = null;
             }
-            return new ScanRecordHelper(serviceUuids, manufacturerData, serviceData,
-                    advertiseFlag, txPowerLevel, localName, scanRecord);
+            _serviceUuids = serviceUuids;
+            _manufacturerData = manufacturerData;
+            _serviceData = serviceData;
+            _advertiseFlag = advertiseFlag;
+            _txPowerLevel = txPowerLevel;
+            _localName = localName;
         } catch (Exception e) {
             Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
             // As the record is invalid, ignore all the parsed results for this packet
-            // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecordHelper(null, null, null, -1, Integer.MIN_VALUE, null, scanRecord);
+            // and leave an empty record with raw scanRecord bytes in results
+            _advertiseFlag = -1;
+            _txPowerLevel = Integer.MIN_VALUE;
         }
     }
 
     private static int parseServiceUuid(byte[] scanRecord, int currentPos, int dataLength,
                                         int uuidLength, List<ParcelUuid> serviceUuids) {
+        if (dataLength % uuidLength != 0) {
+            throw new IllegalArgumentException("service UUID list length invalid - " +
+                    dataLength);
+        }
         while (dataLength > 0) {
-            byte[] uuidBytes = extractBytes(scanRecord, currentPos,
-                    uuidLength);
-            serviceUuids.add(parseUuidFrom(uuidBytes));
+            serviceUuids.add(new ParcelUuid(uuidFrom(scanRecord, currentPos, uuidLength)));
             dataLength -= uuidLength;
             currentPos += uuidLength;
         }
@@ -230,45 +270,116 @@ public class ScanRecordHelper {
         if (uuidBytes == null) {
             throw new IllegalArgumentException("uuidBytes cannot be null");
         }
-        int length = uuidBytes.length;
+        return new ParcelUuid(uuidFrom(uuidBytes, 0, uuidBytes.length));
+    }
+
+    /**
+     * Reads a little endian 16-bit, 32-bit or 128-bit UUID from the given bytes, returning it in
+     * 128-bit format.
+     */
+    private static UUID uuidFrom(byte[] bytes, int offset, int length) {
         if (length != UUID_BYTES_16_BIT && length != UUID_BYTES_32_BIT &&
                 length != UUID_BYTES_128_BIT) {
             throw new IllegalArgumentException("uuidBytes length invalid - " + length);
         }
+        if (offset < 0 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("uuidBytes out of range");
+        }
         // Construct a 128 bit UUID.
         if (length == UUID_BYTES_128_BIT) {
-            ByteBuffer buf = ByteBuffer.wrap(uuidBytes).order(ByteOrder.LITTLE_ENDIAN);
-            long msb = buf.getLong(8);
-            long lsb = buf.getLong(0);
-            return new ParcelUuid(new UUID(msb, lsb));
+            return new UUID(readLittleEndian(bytes, offset + 8, 8),
+                    readLittleEndian(bytes, offset, 8));
         }
         // For 16 bit and 32 bit UUID we need to convert them to 128 bit value.
         // 128_bit_value = uuid * 2^96 + BASE_UUID
-        long shortUuid;
-        if (length == UUID_BYTES_16_BIT) {
-            shortUuid = uuidBytes[0] & 0xFF;
-            shortUuid += (uuidBytes[1] & 0xFF) << 8;
-        } else {
-            shortUuid = uuidBytes[0] & 0xFF ;
-            shortUuid += (uuidBytes[1] & 0xFF) << 8;
-            shortUuid += (uuidBytes[2] & 0xFF) << 16;
-            shortUuid += (uuidBytes[3] & 0xFF) << 24;
+        long shortUuid = readLittleEndian(bytes, offset, length);
+        return new UUID(BASE_UUID_MSB + (shortUuid << 32), BASE_UUID_LSB);
+    }
+
+    private static long readLittleEndian(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
         }
-        long msb = BASE_UUID.getUuid().getMostSignificantBits() + (shortUuid << 32);
-        long lsb = BASE_UUID.getUuid().getLeastSignificantBits();
-        return new ParcelUuid(new UUID(msb, lsb));
+        return value;
     }
 
+    /**
+     * Returns true if the record lists the given service UUID. Records that have not been
+     * decoded yet are searched in place without being decoded. As with the decoded fields, a
+     * malformed record contains no services.
+     */
     public boolean containsService(UUID serviceId) {
-        if (_serviceUuids == null) {
-            return false;
+        synchronized (this) {
+            if (_decoded) {
+                if (_serviceUuids == null) {
+                    return false;
+                }
+                for (ParcelUuid uuid : _serviceUuids) {
+                    if (uuid.getUuid().equals(serviceId)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
         }
-        for (ParcelUuid uuid : _serviceUuids) {
-            if (uuid.getUuid().equals(serviceId)) {
-                return true;
+
+        byte[] scanRecord = _scanRecord;
+        long msb = serviceId.getMostSignificantBits();
+        long lsb = serviceId.getLeastSignificantBits();
+        // 16 and 32-bit UUIDs can only match UUIDs built on the base UUID
+        boolean shortForm = lsb == BASE_UUID_LSB && (msb & 0xFFFFFFFFL) == (BASE_UUID_MSB &
+                0xFFFFFFFFL);
+        long shortUuid = (msb - BASE_UUID_MSB) >>> 32;
+
+        boolean found = false;
+        int currentPos = 0;
+        while (currentPos < scanRecord.length) {
+            int length = scanRecord[currentPos++] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            int dataLength = length - 1;
+            if (currentPos + length > scanRecord.length) {
+                return false;
+            }
+            int fieldType = scanRecord[currentPos++] & 0xFF;
+            int uuidLength;
+            switch (fieldType) {
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_16_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_32_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_128_BIT;
+                    break;
+                default:
+                    uuidLength = 0;
+                    break;
+            }
+            if (uuidLength != 0) {
+                if (dataLength % uuidLength != 0) {
+                    return false;
+                }
+                for (int pos = currentPos; !found && pos < currentPos + dataLength;
+                     pos += uuidLength) {
+                    if (uuidLength == UUID_BYTES_128_BIT) {
+                        found = readLittleEndian(scanRecord, pos + 8, 8) == msb &&
+                                readLittleEndian(scanRecord, pos, 8) == lsb;
+                    } else {
+                        found = shortForm &&
+                                readLittleEndian(scanRecord, pos, uuidLength) == shortUuid;
+                    }
+                }
             }
+            currentPos += dataLength;
         }
-        return false;
+        return found;
     }
 
     public String toString() {
@@ -0,0 +1,60 @@
+package com.aylanetworks.aylasdk.localdevice.ble;
+
+/*
+ * Ayla SDK
+ *
+ * Copyright 2017 Ayla Networks, all rights reserved
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Suppresses repeated advertisements from the same device during a scan. An advertisement is
+ * passed on the first time an address is seen, and again only when its RSSI has moved by at
+ * least the threshold from the last one passed on, so that a device moving closer or further
+ * away is still noticed while a device advertising many times a second is handled once.
+ * <p>
+ * Not thread-safe; scan callbacks are delivered on a single thread.
+ */
+class ScanResultDeduplicator {
+    /**
+     * Default change in RSSI, in dB, for a repeated advertisement to be passed on
+     */
+    static final int DEFAULT_RSSI_THRESHOLD_DB = 6;
+
+    private final int _thresholdDb;
+    private final Map<String, Integer> _lastRssi = new HashMap<>();
+    private int _passedCount;
+    private int _suppressedCount;
+
+    ScanResultDeduplicator(int thresholdDb) {
+        _thresholdDb = thresholdDb;
+    }
+
+    /**
+     * Returns true if the advertisement should be handled, or false if it repeats one already
+     * handled
+     *
+     * @param address Bluetooth address of the advertiser
+     * @param rssi    RSSI of the advertisement in dBm
+     */
+    boolean offer(String address, int rssi) {
+        Integer last = _lastRssi.get(address);
+        if (last != null && Math.abs(rssi - last) < _thresholdDb) {
+            _suppressedCount++;
+            return false;
+        }
+        _lastRssi.put(address, rssi);
+        _passedCount++;
+        return true;
+    }
+
+    int getPassedCount() {
+        return _passedCount;
+    }
+
+    int getSuppressedCount() {
+        return _suppressedCount;
+    }
+}
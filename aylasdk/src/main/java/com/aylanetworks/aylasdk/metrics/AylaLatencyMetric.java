@@ -20,7 +20,8 @@ public class AylaLatencyMetric extends AylaMetric {
      */
     public enum MetricType {
         CLOUD_LATENCY("CloudLatency"),
-        LAN_LATENCY("LANModeLatency");
+        LAN_LATENCY("LANModeLatency"),
+        DSS_RECONNECT_LATENCY("DSSReconnectLatency");
 
         private String _stringValue;
         public String stringValue(){
@@ -1,17 +1,13 @@
 package com.aylanetworks.aylasdk.metrics;
 
 import android.content.Context;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
-import com.android.volley.Cache;
-import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.HurlStack;
 import com.aylanetworks.aylasdk.AylaAPIRequest;
 import com.aylanetworks.aylasdk.AylaJsonRequest;
 import com.aylanetworks.aylasdk.AylaLog;
@@ -67,6 +63,8 @@ public class AylaMetricsManager {
     private boolean _isUploadPaused;
     private boolean _isUploadFinished;
     private boolean _enabled;
+    private final Handler _exportHandler = new Handler(Looper.getMainLooper());
+    private long _lastExportTime;
 
     public enum LogType{
         METRIC("Metric"),
@@ -103,10 +101,9 @@ public class AylaMetricsManager {
     public AylaMetricsManager(){
         _context = AylaNetworks.sharedInstance().getContext();
         _pendingMetricsQueue = new ArrayDeque<>();
-        Cache cache = new DiskBasedCache(_context.getCacheDir(), 1024 * 1024);
-        // Set up the HTTPURLConnection network stack
-        Network network = new BasicNetwork(new HurlStack());
-        _logserviceRequestQueue = new RequestQueue(cache, network);
+        // Metrics uploads are infrequent, a single dispatcher on the shared transport is enough
+        _logserviceRequestQueue = AylaNetworks.sharedInstance().getHttpTransport()
+                .newRequestQueue(1);
         _logserviceRequestQueue.start();
     }
 
@@ -300,6 +297,7 @@ public class AylaMetricsManager {
         addStoredLogsInQueue();
         _isUploadPaused = false;
         uploadMetrics();
+        scheduleMetricsExport();
         AylaLog.uploadCrashLogsToLogService(new EmptyListener<>(), new ErrorListener() {
             @Override
             public void onErrorResponse(AylaError error) {
@@ -314,6 +312,52 @@ public class AylaMetricsManager {
      */
     public void stopMetricsUpload() {
         _isUploadPaused = true;
+        _exportHandler.removeCallbacks(_exportRunnable);
+    }
+
+    private final Runnable _exportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            exportMetrics();
+            scheduleMetricsExport();
+        }
+    };
+
+    /**
+     * Schedules the next upload of a snapshot of the AylaMetricsRegistry, if
+     * AylaSystemSettings.metricsExportIntervalMs is set
+     */
+    private void scheduleMetricsExport() {
+        _exportHandler.removeCallbacks(_exportRunnable);
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        if (networks == null || !_enabled || _isUploadPaused) {
+            return;
+        }
+        long interval = networks.getSystemSettings().metricsExportIntervalMs;
+        if (interval > 0) {
+            if (_lastExportTime == 0) {
+                _lastExportTime = System.currentTimeMillis();
+            }
+            _exportHandler.postDelayed(_exportRunnable, interval);
+        }
+    }
+
+    /**
+     * Adds a snapshot of the AylaMetricsRegistry to the uploads queue
+     */
+    public void exportMetrics() {
+        AylaNetworks networks = AylaNetworks.sharedInstance();
+        if (networks == null || !networks.getUserDataGrants().isEnabled(
+                AylaUserDataGrant.AYLA_USER_DATA_GRANT_METRICS_SERVICE)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        AylaMetricsRegistry.Snapshot snapshot = AylaMetricsRegistry.sharedInstance().snapshot();
+        AylaLog.d(LOG_TAG, "Exporting metrics snapshot\n" + snapshot);
+        addMessageToUploadsQueue(new AylaMetricsSnapshotMetric(snapshot,
+                _lastExportTime == 0 ? 0 : now - _lastExportTime));
+        _lastExportTime = now;
     }
 
     /**
@@ -401,6 +445,7 @@ public class AylaMetricsManager {
 
     public void onPause(){
         _isUploadPaused = true;
+        _exportHandler.removeCallbacks(_exportRunnable);
         if(isEnabled()){
             saveMetrics();
         }
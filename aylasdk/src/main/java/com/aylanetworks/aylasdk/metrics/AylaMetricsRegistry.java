@@ -0,0 +1,418 @@
+package com.aylanetworks.aylasdk.metrics;
+
+import com.google.gson.annotations.Expose;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * AylaSDK
+ * <p>
+ * Copyright 2017 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Registry of the counters, gauges and histograms the SDK records as it runs, such as the
+ * network time of each cloud endpoint, LAN command round trips, datastream event lag and queue
+ * depths. Recording is lock-free and does not allocate once a metric exists, so it may be done
+ * on any thread for every request.
+ *
+ * A {@link Snapshot} of every metric may be taken at any time. The AylaMetricsManager uploads
+ * one to the log service every
+ * {@link com.aylanetworks.aylasdk.AylaSystemSettings#metricsExportIntervalMs} if set.
+ *
+ * The number of metrics is capped at {@link #MAX_METRICS}. Values recorded under new names
+ * past the cap are recorded under {@link #OVERFLOW_NAME} instead.
+ */
+public class AylaMetricsRegistry {
+
+    /** Names of the metrics recorded by the SDK */
+    public static final String CLOUD_REQUEST_PREFIX = "cloud ";
+    public static final String LAN_REQUEST_PREFIX = "lan ";
+    /** Service timestamp of a datapoint to its arrival, including any phone clock offset */
+    public static final String DSS_EVENT_LAG = "dss event lag";
+    public static final String BACKGROUND_QUEUE_DEPTH = "background queue depth";
+    public static final String GATT_QUEUE_DEPTH = "gatt queue depth";
+
+    public static final int MAX_METRICS = 512;
+    public static final String OVERFLOW_NAME = "other";
+
+    private static final AylaMetricsRegistry __sharedInstance = new AylaMetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> _counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> _gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> _histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry the SDK records its metrics in
+     */
+    public static AylaMetricsRegistry sharedInstance() {
+        return __sharedInstance;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed
+     */
+    public Counter counter(String name) {
+        Counter counter = _counters.get(name);
+        if (counter == null) {
+            if (_counters.size() >= MAX_METRICS) {
+                name = OVERFLOW_NAME;
+            }
+            Counter created = new Counter();
+            counter = _counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it if needed
+     */
+    public Gauge gauge(String name) {
+        Gauge gauge = _gauges.get(name);
+        if (gauge == null) {
+            if (_gauges.size() >= MAX_METRICS) {
+                name = OVERFLOW_NAME;
+            }
+            Gauge created = new Gauge();
+            gauge = _gauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = _histograms.get(name);
+        if (histogram == null) {
+            if (_histograms.size() >= MAX_METRICS) {
+                name = OVERFLOW_NAME;
+            }
+            Histogram created = new Histogram();
+            histogram = _histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the name under which requests to the given URL are recorded. The scheme, host and
+     * query are dropped, and path segments that look like identifiers, such as numeric ids,
+     * DSNs and UUIDs, are replaced with "{id}" so that requests to the same endpoint share a
+     * histogram. For example, https://ads-dev.aylanetworks.com/apiv1/dsns/AC000W000000001/
+     * properties.json?names[]=a becomes GET /apiv1/dsns/{id}/properties.json.
+     *
+     * @param method HTTP method name
+     * @param url URL of the request
+     * @return the endpoint template
+     */
+    public static String endpointTemplate(String method, String url) {
+        if (url == null) {
+            return method;
+        }
+
+        int scheme = url.indexOf("://");
+        int start = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        if (start < 0) {
+            return method + " /";
+        }
+        int end = url.indexOf('?', start);
+        if (end < 0) {
+            end = url.length();
+        }
+
+        StringBuilder sb = new StringBuilder(method).append(' ');
+        int segmentStart = start + 1;
+        while (segmentStart <= end) {
+            int segmentEnd = url.indexOf('/', segmentStart);
+            if (segmentEnd < 0 || segmentEnd > end) {
+                segmentEnd = end;
+            }
+            sb.append('/');
+            appendSegment(sb, url, segmentStart, segmentEnd);
+            segmentStart = segmentEnd + 1;
+        }
+        return sb.toString();
+    }
+
+    private static void appendSegment(StringBuilder sb, String url, int start, int end) {
+        // Keep a suffix such as .json
+        int nameEnd = end;
+        int dot = url.lastIndexOf('.', end - 1);
+        if (dot > start) {
+            nameEnd = dot;
+        }
+
+        int length = nameEnd - start;
+        int digits = 0;
+        for (int i = start; i < nameEnd; i++) {
+            if (Character.isDigit(url.charAt(i))) {
+                digits++;
+            }
+        }
+
+        if (length > 0 && (digits == length || (digits > 0 && length >= 8))) {
+            sb.append("{id}").append(url, nameEnd, end);
+        } else {
+            sb.append(url, start, end);
+        }
+    }
+
+    /**
+     * Returns the values of every metric
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : _counters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, Long> gauges = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : _gauges.entrySet()) {
+            gauges.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : _histograms.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(counters, gauges, histograms);
+    }
+
+    /**
+     * Removes every metric
+     */
+    public void clear() {
+        _counters.clear();
+        _gauges.clear();
+        _histograms.clear();
+    }
+
+    /**
+     * A count of events
+     */
+    public static class Counter {
+        private final AtomicLong _count = new AtomicLong();
+
+        public void increment() {
+            _count.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            _count.addAndGet(delta);
+        }
+
+        public long get() {
+            return _count.get();
+        }
+    }
+
+    /**
+     * The last value set, such as a queue depth
+     */
+    public static class Gauge {
+        private final AtomicLong _value = new AtomicLong();
+
+        public void set(long value) {
+            _value.set(value);
+        }
+
+        public long get() {
+            return _value.get();
+        }
+    }
+
+    /**
+     * Distribution of recorded values, such as latencies in milliseconds. Values are counted in
+     * buckets whose bounds grow exponentially, four buckets per power of two, so percentiles are
+     * reported within 25% of the recorded values using a fixed 2 KB per histogram. Negative
+     * values are recorded as 0.
+     */
+    public static class Histogram {
+        static final int SUB_BUCKETS_BITS = 2;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+        static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+
+        private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong _count = new AtomicLong();
+        private final AtomicLong _sum = new AtomicLong();
+        private final AtomicLong _max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            _buckets.incrementAndGet(bucketIndex(value));
+            _count.incrementAndGet();
+            _sum.addAndGet(value);
+
+            long max = _max.get();
+            while (value > max && !_max.compareAndSet(max, value)) {
+                max = _max.get();
+            }
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKETS_BITS)) & (SUB_BUCKETS - 1);
+            return exponent * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return the largest value counted in the given bucket
+         */
+        static long bucketUpperBound(int index) {
+            // Values below SUB_BUCKETS have a bucket each, values above start at exponent 2
+            if (index < SUB_BUCKETS * SUB_BUCKETS_BITS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS;
+            long subBucket = index % SUB_BUCKETS;
+            long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKETS_BITS);
+            return lower + (1L << (exponent - SUB_BUCKETS_BITS)) - 1;
+        }
+
+        public HistogramSnapshot snapshot() {
+            long[] buckets = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = _buckets.get(i);
+                total += buckets[i];
+            }
+            long max = _max.get();
+            return new HistogramSnapshot(total, _sum.get(), max,
+                    percentile(buckets, total, 0.5, max),
+                    percentile(buckets, total, 0.9, max),
+                    percentile(buckets, total, 0.99, max));
+        }
+
+        private static long percentile(long[] buckets, long total, double fraction, long max) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Summary of a histogram when the snapshot was taken
+     */
+    public static class HistogramSnapshot {
+        @Expose
+        private final long count;
+        @Expose
+        private final long mean;
+        @Expose
+        private final long max;
+        @Expose
+        private final long p50;
+        @Expose
+        private final long p90;
+        @Expose
+        private final long p99;
+
+        HistogramSnapshot(long count, long sum, long max, long p50, long p90, long p99) {
+            this.count = count;
+            this.mean = count == 0 ? 0 : sum / count;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", mean: " + mean + ", p50: " + p50 + ", p90: " + p90 +
+                    ", p99: " + p99 + ", max: " + max;
+        }
+    }
+
+    /**
+     * Values of every metric of the registry when the snapshot was taken, sorted by name
+     */
+    public static class Snapshot {
+        private final Map<String, Long> _counters;
+        private final Map<String, Long> _gauges;
+        private final Map<String, HistogramSnapshot> _histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, Long> gauges,
+                 Map<String, HistogramSnapshot> histograms) {
+            _counters = counters;
+            _gauges = gauges;
+            _histograms = histograms;
+        }
+
+        public Map<String, Long> getCounters() {
+            return _counters;
+        }
+
+        public Map<String, Long> getGauges() {
+            return _gauges;
+        }
+
+        public Map<String, HistogramSnapshot> getHistograms() {
+            return _histograms;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Long> entry : _counters.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, Long> entry : _gauges.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, HistogramSnapshot> entry : _histograms.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.aylanetworks.aylasdk.metrics;
+
+import com.google.gson.annotations.Expose;
+
+import java.util.Map;
+
+/**
+ * AylaSDK
+ * <p>
+ * Copyright 2017 Ayla Networks, all rights reserved
+ */
+
+/**
+ * Metric carrying a snapshot of the {@link AylaMetricsRegistry}, uploaded periodically by the
+ * AylaMetricsManager. Subclassed from {@link AylaMetric}.
+ */
+public class AylaMetricsSnapshotMetric extends AylaMetric {
+
+    public static final String METRIC_TYPE = "MetricsSnapshot";
+
+    @Expose
+    private Map<String, Long> counters;
+    @Expose
+    private Map<String, Long> gauges;
+    @Expose
+    private Map<String, AylaMetricsRegistry.HistogramSnapshot> histograms;
+    @Expose
+    private long intervalMs;      // time since the previous snapshot was exported
+
+    /**
+     * Constructor
+     * @param snapshot Snapshot of the registry to upload.
+     * @param intervalMs Time in milliseconds since the previous snapshot.
+     */
+    public AylaMetricsSnapshotMetric(AylaMetricsRegistry.Snapshot snapshot, long intervalMs) {
+        super(LogLevel.INFO, METRIC_TYPE, "exportMetrics");
+        this.counters = snapshot.getCounters();
+        this.gauges = snapshot.getGauges();
+        this.histograms = snapshot.getHistograms();
+        this.intervalMs = intervalMs;
+    }
+}
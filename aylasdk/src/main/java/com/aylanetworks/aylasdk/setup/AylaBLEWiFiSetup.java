@@ -37,12 +37,12 @@ import com.aylanetworks.aylasdk.util.PermissionUtils;
 import com.aylanetworks.aylasdk.util.ServiceUrls;
 import com.aylanetworks.aylasdk.util.URLHelper;
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.aylanetworks.aylasdk.setup.ble.listeners.OnConnectStatusChangedListener;
 import com.aylanetworks.aylasdk.setup.ble.listeners.OnScanResultChangedListener;
@@ -94,8 +94,22 @@ public class AylaBLEWiFiSetup {
     private final AylaSessionManager _sessionManager;
     private final AylaBLESetupDeviceManager _bleDeviceManager;
 
+    // Polling waits this long before reading again while the device has no scan results,
+    // doubling up to the maximum. Results are read back to back once they are available.
     private static final int DEFAULT_SCAN_RESULTS_POLL_INTERVAL = 100;
-    private static final int DEFAULT_CONNECTION_STATUS_POLL_INTERVAL = 1000;
+    private static final int MAX_SCAN_RESULTS_POLL_INTERVAL = 1000;
+
+    // Connection status polling backs off while the state stays the same
+    private static final int DEFAULT_CONNECTION_STATUS_POLL_INTERVAL = 250;
+    private static final int MAX_CONNECTION_STATUS_POLL_INTERVAL = 2000;
+
+    // Scan results notified are taken as complete once none has arrived for this long, in case
+    // the notification ending the list is lost
+    private static final int SCAN_RESULTS_QUIET_PERIOD = 1000;
+
+    // Connection status is also polled if no notification has arrived this long after the
+    // connect request was written
+    private static final int CONNECT_STATUS_NOTIFICATION_GRACE_PERIOD = 5000;
 
     private static final int DEFAULT_CONFIRM_POLL_INTERVAL = 1000;
     private int _confirmPollInterval = DEFAULT_CONFIRM_POLL_INTERVAL;
@@ -203,7 +217,9 @@ public class AylaBLEWiFiSetup {
 
     /**
      * Sets the interval used to poll the device service to determine if the device has
-     * successfully connected to the service after joining the WiFi network.
+     * successfully connected to the service after joining the WiFi network. The interval
+     * doubles after each request that did not find the device only while the data stream can
+     * report the device online, see {@link AylaConnectionConfirmation}.
      *
      * @param timeInMs Time in milliseconds between requests to look for the device
      */
@@ -268,13 +284,16 @@ public class AylaBLEWiFiSetup {
      *     {@link AylaScanResultCharacteristic#onCharacteristicChanged(
      *     BluetoothGatt, BluetoothGattCharacteristic)}</li>, one scan result per callback.
      *
-     *     <li>Reading, at fixed interval, the Scan Results characteristic for the scan results.</li>
+     *     <li>Reading the Scan Results characteristic for the scan results.</li>
      * </ol>
      *
-     * The notification based scan results retrieval way is preferred, however, if the
-     * notification way didn't work(for example, failed to write notification descriptor)), then
-     * automatically fallback to the polling way, by calling {@link #fetchScanResults(int, long,
-     * Response.Listener, ErrorListener) fetchScanResults}.
+     * The notification based scan results retrieval way is preferred, and is used when the MTU
+     * negotiated with the device is large enough for a scan result to fit in a notification.
+     * Results repeated by the device are dropped, and the list is taken as complete once the
+     * device ends it, or once no new result has arrived for a short while. If the notification
+     * way didn't work (for example, failed to write notification descriptor), or the MTU is too
+     * small, then automatically fallback to the polling way, by calling {@link
+     * #fetchScanResults(int, long, Response.Listener, ErrorListener) fetchScanResults}.
      *
      * @param timeoutInSeconds  the specified period of seconds the operation will last at most.
      * @param successListener Listener to be notified if the scan results are available.
@@ -292,10 +311,63 @@ public class AylaBLEWiFiSetup {
         }
 
         Handler timeoutHandler = new Handler(Looper.getMainLooper());
-        long targetTime = System.currentTimeMillis() + timeoutInSeconds * 1000;
+        AtomicBoolean finished = new AtomicBoolean();
 
         AylaAPIRequest originalRequest = AylaAPIRequest.dummyRequest(
                 AylaWifiScanResults.class, successListener, errorListener);
+
+        // The scan ends once, by whichever of the results, an error or the timeout comes first
+        Response.Listener<AylaWifiScanResults> finishListener = new Response.Listener<AylaWifiScanResults>() {
+            @Override
+            public void onResponse(AylaWifiScanResults response) {
+                if (finished.compareAndSet(false, true)) {
+                    timeoutHandler.removeCallbacksAndMessages(null);
+                    disableScanResultNotification(scanResultCharacteristic);
+                    if (!originalRequest.isCanceled()) {
+                        successListener.onResponse(response);
+                    }
+                }
+            }
+        };
+        ErrorListener finishErrorListener = new ErrorListener() {
+            @Override
+            public void onErrorResponse(AylaError error) {
+                if (finished.compareAndSet(false, true)) {
+                    timeoutHandler.removeCallbacksAndMessages(null);
+                    disableScanResultNotification(scanResultCharacteristic);
+                    if (!originalRequest.isCanceled()) {
+                        errorListener.onErrorResponse(error);
+                    }
+                }
+            }
+        };
+
+        timeoutHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                finishErrorListener.onErrorResponse(new TimeoutError(
+                        "fetching scan results timed out"));
+            }
+        }, timeoutInSeconds * 1000L);
+
+        int notificationSize = getSetupDevice().getMtu() - AylaBLEWiFiSetupDevice.ATT_HEADER_SIZE;
+        if (notificationSize < AylaScanResultCharacteristic.RECORD_SIZE) {
+            AylaLog.i(LOG_TAG, "MTU " + getSetupDevice().getMtu() + " is too small for scan " +
+                    "result notifications, polling scan results");
+            originalRequest.setChainedRequest(startScanAndPoll(timeoutInSeconds,
+                    originalRequest, finishListener, finishErrorListener));
+            return originalRequest;
+        }
+
+        Runnable quietPeriodRunnable = new Runnable() {
+            @Override
+            public void run() {
+                AylaLog.i(LOG_TAG, "no scan result for " + SCAN_RESULTS_QUIET_PERIOD +
+                        "ms, completing the list");
+                scanResultCharacteristic.completeScanResults();
+            }
+        };
+
         AylaAPIRequest enableNotificationRequest = scanResultCharacteristic.enableCharacteristicNotification(
                 getSetupDevice().getBluetoothGatt(),
                 true,
@@ -303,11 +375,17 @@ public class AylaBLEWiFiSetup {
                     @Override
                     public void onResponse(AylaBaseGattCharacteristic response) {
                         AylaLog.d(LOG_TAG, "scan results notification enabled");
+                        scanResultCharacteristic.resetScanResults();
                         scanResultCharacteristic.setOnScanResultChangedListener(
                                 new OnScanResultChangedListener() {
                                     @Override
                                     public void onScanResultAvailable(AylaWifiScanResults.Result result) {
                                         AylaLog.i(LOG_TAG, "new scan result:" + result);
+                                        if (!finished.get()) {
+                                            timeoutHandler.removeCallbacks(quietPeriodRunnable);
+                                            timeoutHandler.postDelayed(quietPeriodRunnable,
+                                                    SCAN_RESULTS_QUIET_PERIOD);
+                                        }
                                         if (getOnScanResultChangedListener() != null) {
                                             getOnScanResultChangedListener().onScanResultAvailable(result);
                                         }
@@ -316,23 +394,17 @@ public class AylaBLEWiFiSetup {
                                     @Override
                                     public void onScanResultsAvailable(AylaWifiScanResults results) {
                                         AylaLog.i(LOG_TAG, "got all scan result. len = " + results.results.length);
-                                        timeoutHandler.removeCallbacksAndMessages(null);
-                                        successListener.onResponse(results);
+                                        finishListener.onResponse(results);
                                         if (getOnScanResultChangedListener() != null) {
                                             getOnScanResultChangedListener().onScanResultsAvailable(results);
                                         }
-
-                                        // disable notification for scan results.
-                                        scanResultCharacteristic.enableCharacteristicNotification(
-                                                getSetupDevice().getBluetoothGatt(),false,
-                                                new EmptyListener<>(), new EmptyListener<>());
                                     }
 
                                     @Override
                                     public void onScanResultError(AylaError error) {
-                                        timeoutHandler.removeCallbacksAndMessages(null);
+                                        finishErrorListener.onErrorResponse(error);
                                         if (getOnScanResultChangedListener() != null) {
-                                            errorListener.onErrorResponse(error);
+                                            getOnScanResultChangedListener().onScanResultError(error);
                                         }
                                     }
                                 });
@@ -342,7 +414,7 @@ public class AylaBLEWiFiSetup {
                             public void onResponse(AylaScanCharacteristic response) {
                                 AylaLog.d(LOG_TAG, "AP scan started, waiting for scan results notification.");
                             }
-                        }, errorListener));
+                        }, finishErrorListener));
                     }
                 },
                 new ErrorListener() {
@@ -350,39 +422,39 @@ public class AylaBLEWiFiSetup {
                     public void onErrorResponse(AylaError error) {
                         AylaLog.e(LOG_TAG, "failed to enable scan results notification cause "
                                 + error + ", fallback to polling scan results");
-                        originalRequest.setChainedRequest(startScan(new Response.Listener<AylaScanCharacteristic>() {
-                            @Override
-                            public void onResponse(AylaScanCharacteristic response) {
-                                AylaLog.d(LOG_TAG, "AP scan started, start polling for scan results");
-                                originalRequest.setChainedRequest(
-                                        fetchScanResults(timeoutInSeconds, DEFAULT_SCAN_RESULTS_POLL_INTERVAL,
-                                                new Response.Listener<AylaWifiScanResults>() {
-                                                    @Override
-                                                    public void onResponse(AylaWifiScanResults response) {
-                                                        timeoutHandler.removeCallbacksAndMessages(null);
-                                                        successListener.onResponse(response);
-                                                    }
-                                                }, errorListener));
-                            }
-                        }, errorListener));
+                        originalRequest.setChainedRequest(startScanAndPoll(timeoutInSeconds,
+                                originalRequest, finishListener, finishErrorListener));
                     }
                 }
         );
 
-        timeoutHandler.postDelayed(new Runnable() {
+        originalRequest.setChainedRequest(enableNotificationRequest);
+        return originalRequest;
+    }
+
+    /**
+     * Starts a scan on the device and polls for its results
+     */
+    private AylaAPIRequest startScanAndPoll(int timeoutInSeconds,
+                                            AylaAPIRequest originalRequest,
+                                            Response.Listener<AylaWifiScanResults> successListener,
+                                            ErrorListener errorListener) {
+        return startScan(new Response.Listener<AylaScanCharacteristic>() {
             @Override
-            public void run() {
-                errorListener.onErrorResponse(new TimeoutError(
-                        "fetching scan results timed out"));
-                // disable notification for scan results.
-                scanResultCharacteristic.enableCharacteristicNotification(
-                        getSetupDevice().getBluetoothGatt(),false,
-                        new EmptyListener<>(), new EmptyListener<>());
+            public void onResponse(AylaScanCharacteristic response) {
+                AylaLog.d(LOG_TAG, "AP scan started, start polling for scan results");
+                originalRequest.setChainedRequest(
+                        fetchScanResults(timeoutInSeconds, DEFAULT_SCAN_RESULTS_POLL_INTERVAL,
+                                successListener, errorListener));
             }
-        }, targetTime);
+        }, errorListener);
+    }
 
-        originalRequest.setChainedRequest(enableNotificationRequest);
-        return originalRequest;
+    private void disableScanResultNotification(AylaScanResultCharacteristic scanResultCharacteristic) {
+        scanResultCharacteristic.setOnScanResultChangedListener(null);
+        scanResultCharacteristic.enableCharacteristicNotification(
+                getSetupDevice().getBluetoothGatt(), false,
+                new EmptyListener<>(), new EmptyListener<>());
     }
 
     /**
@@ -425,8 +497,12 @@ public class AylaBLEWiFiSetup {
      *     check {@link #scanForAccessPoints(int, Response.Listener, ErrorListener)} for more details.</li>
      * </ol>
      *
+     * <p>Results are read back to back while the device has them. While it has none yet, reads
+     * are spaced by intervalInMilliSeconds, doubling up to a second. Reading an index that was
+     * already read means the device started over, and also ends the list.</p>
+     *
      * @param timeoutInSeconds  the specified period of seconds the operation will last at most.
-     * @param intervalInMilliSeconds the interval between two consecutive characteristic reading.
+     * @param intervalInMilliSeconds the initial interval between reads while no result is available.
      * @param successListener   Listener to be notified if the scan results are available.
      * @param errorListener     Listener to receive the error should one occur.
      * @return a cancelable AylaAPIRequest
@@ -452,7 +528,8 @@ public class AylaBLEWiFiSetup {
         handler.post(new Runnable() {
 
             private Runnable fetchScanResultRunnable = this;
-            private List<AylaWifiScanResults.Result> scanResultsList = new ArrayList<>();
+            private SortedMap<Integer, AylaWifiScanResults.Result> scanResults = new TreeMap<>();
+            private long interval = intervalInMilliSeconds;
 
             @Override
             public void run() {
@@ -473,19 +550,24 @@ public class AylaBLEWiFiSetup {
                             @Override
                             public void onResponse(AylaBaseGattCharacteristic response) {
                                 AylaWifiScanResults.Result result = scanResultCharacteristic.getScanResult();
-                                if ((result.ssid != null && !result.ssid.trim().isEmpty())) {
-                                    scanResultsList.add(result);
-                                    handler.postDelayed(fetchScanResultRunnable, intervalInMilliSeconds);
-                                } else if (scanResultsList.size() > 0) {
-                                    int size = scanResultsList.size();
-                                    AylaWifiScanResults scanResults = new AylaWifiScanResults();
-                                    scanResults.results = scanResultsList.toArray(new AylaWifiScanResults.Result[size]);
-                                    successListener.onResponse(scanResults);
-                                    scanResultsList.clear();
+                                boolean hasResult = result.ssid != null && !result.ssid.trim().isEmpty();
+                                if (hasResult && !scanResults.containsKey(scanResultCharacteristic.getIndex())) {
+                                    // Read the next one right away
+                                    scanResults.put(scanResultCharacteristic.getIndex(), result);
+                                    interval = intervalInMilliSeconds;
+                                    handler.post(fetchScanResultRunnable);
+                                } else if (scanResults.size() > 0) {
+                                    // End of the list, or the device started over
+                                    int size = scanResults.size();
+                                    AylaWifiScanResults results = new AylaWifiScanResults();
+                                    results.results = scanResults.values().toArray(new AylaWifiScanResults.Result[size]);
+                                    scanResults.clear();
                                     scanResultCharacteristic.setOnScanResultChangedListener(null);
+                                    successListener.onResponse(results);
                                 } else {
                                     // might get unexpected scan result here, just ignore and continue polling
-                                    handler.postDelayed(fetchScanResultRunnable, intervalInMilliSeconds);
+                                    handler.postDelayed(fetchScanResultRunnable, interval);
+                                    interval = Math.min(interval * 2, MAX_SCAN_RESULTS_POLL_INTERVAL);
                                 }
                             }
                         },
@@ -536,8 +618,7 @@ public class AylaBLEWiFiSetup {
     }
 
     /**
-     * Fetches connection status from the device till the device is connected or the
-     * operation timed out, report the connection status if the connection is still in progress.
+     * Polls connection status from the device till the connect request has finished.
      *
      * Note: This method is intended for polling purpose only in case characteristic
      * notification didn't work(for example, failed to write notification descriptor).
@@ -545,49 +626,31 @@ public class AylaBLEWiFiSetup {
      * check {@link #connectDeviceToAP(int, String, String, AylaSetup.WifiSecurityType,
      * Response.Listener, ErrorListener)} for more details.
      *
-     * @param successListener Listener to receive the result of reading connection status
-     *                        characteristic. The connection result can be got by either:
-     *                        <ol><li>registering connection status changed listener if one was set by call
-     *                        {@link #setOnConnectStatusChangedListener(OnConnectStatusChangedListener)}</li>
-     *                        <li>checking the corresponding methods of AylaConnectStatusCharacteristic returned
-     *                        in the success listener, by calling {@link AylaConnectStatusCharacteristic#getState()} and
-     *                        {@link AylaConnectStatusCharacteristic#getError()} respectively.</li></ol>
-     * @param timeoutInSeconds the specified period of seconds the operation will last at most.
-     * @param intervalInMilliSeconds the interval between two consecutive characteristic reading.
-     * @param errorListener Listener to receive error information should an error occur.
-     * @return cancelable AylaAPIRequest
+     * Each status read is reported to the OnConnectStatusChangedListener set on the
+     * connect status characteristic, as a notification would be. Reads are spaced by
+     * intervalInMilliSeconds, doubling up to two seconds while the state stays the same.
+     *
+     * @param intervalInMilliSeconds the initial interval between two consecutive reads.
+     * @param originalRequest the connect request; polling stops once it is canceled.
+     * @param finished set once the connect request has finished; polling stops then.
+     * @param errorListener Listener to receive error information should a read fail.
      */
-    private AylaAPIRequest fetchConnectionStatus(int timeoutInSeconds,
-                                                 long intervalInMilliSeconds,
-                                                 Response.Listener<AylaConnectStatusCharacteristic> successListener,
-                                                 ErrorListener errorListener) {
+    private void fetchConnectionStatus(long intervalInMilliSeconds,
+                                       AylaAPIRequest originalRequest,
+                                       AtomicBoolean finished,
+                                       ErrorListener errorListener) {
         AylaConnectStatusCharacteristic connectStatusCharacteristic = (AylaConnectStatusCharacteristic)
                 getSetupDevice().getManagedCharacteristic(AylaConnectStatusCharacteristic.CHAR_UUID);
-        if (connectStatusCharacteristic == null) {
-            errorListener.onErrorResponse(new PreconditionError("connect characteristic not available"));
-            return null;
-        } else {
-            connectStatusCharacteristic.setOnConnectStatusChangedListener(getOnConnectStatusChangedListener());
-        }
-
-        AylaAPIRequest originalRequest = AylaAPIRequest.dummyRequest(
-                AylaConnectStatusCharacteristic.class, successListener, errorListener);
-        long targetTime = System.currentTimeMillis() + timeoutInSeconds * 1000;
         Handler handler = new Handler(Looper.getMainLooper());
         handler.post(new Runnable() {
 
             private final Runnable fetchConnectStatusRunnable = this;
+            private long interval = intervalInMilliSeconds;
+            private State lastState;
 
             @Override
             public void run() {
-                if (originalRequest.isCanceled()) {
-                    connectStatusCharacteristic.setOnConnectStatusChangedListener(null);
-                    return;
-                }
-
-                if (System.currentTimeMillis() >= targetTime) {
-                    connectStatusCharacteristic.setOnConnectStatusChangedListener(null);
-                    errorListener.onErrorResponse(new TimeoutError("timed out polling connection status"));
+                if (originalRequest.isCanceled() || finished.get()) {
                     return;
                 }
 
@@ -596,41 +659,33 @@ public class AylaBLEWiFiSetup {
                         new Response.Listener<AylaBaseGattCharacteristic>() {
                             @Override
                             public void onResponse(AylaBaseGattCharacteristic response) {
-                                AylaWifiStatus.HistoryItem.Error error = connectStatusCharacteristic.getError();
                                 State state = connectStatusCharacteristic.getState();
-                                switch (error) {
-                                    case NoError:
-                                    case InProgress:
-                                        if (state == State.CONNECTED) {
-                                            handler.removeCallbacksAndMessages(null);
-                                            successListener.onResponse(connectStatusCharacteristic);
-                                        } else {
-                                            handler.postDelayed(fetchConnectStatusRunnable, intervalInMilliSeconds);
-                                        }
-                                        break;
-
-                                    default:
-                                        errorListener.onErrorResponse(new PreconditionError(error.name()));
+                                if (state != lastState) {
+                                    lastState = state;
+                                    interval = intervalInMilliSeconds;
+                                } else {
+                                    interval = Math.min(interval * 2,
+                                            MAX_CONNECTION_STATUS_POLL_INTERVAL);
                                 }
+                                handler.postDelayed(fetchConnectStatusRunnable, interval);
                             }
                         }, errorListener);
                 originalRequest.setChainedRequest(connectStatusReadRequest);
             }
         });
-
-        return originalRequest;
     }
 
     /**
      * Connects device to selected Wifi access point. Internally, it will try first to enable
      * characteristic notification to receive connection status, however, if notification
-     * doesn't work(for example, failed to write notification descriptor), it will fall
-     * back to polling the connection status automatically.
+     * doesn't work(for example, failed to write notification descriptor, or no status was
+     * notified shortly after the connect request was sent), it will fall back to polling the
+     * connection status automatically.
      *
      * @param timeoutInSeconds the specified period of seconds the connection will last at most.
      * @param ssid SSID of the access point to connect the device to.
      * @param password password for the access point.
-     * @param successListener Listener to be notified with results.
+     * @param successListener Listener to be notified once the device has connected.
      * @param errorListener Listener to receive an error should one occur.
      * @return a cancelable AylaAPIRequest
      */
@@ -645,6 +700,7 @@ public class AylaBLEWiFiSetup {
                 getSetupDevice().getManagedCharacteristic(AylaConnectStatusCharacteristic.CHAR_UUID);
         if (connectStatusCharacteristic == null) {
             errorListener.onErrorResponse(new PreconditionError("connect status characteristic not available"));
+            return null;
         }
 
         AylaConnectCharacteristic connectCharacteristic = (AylaConnectCharacteristic)
@@ -661,6 +717,77 @@ public class AylaBLEWiFiSetup {
         AylaAPIRequest originalRequest = AylaAPIRequest.dummyRequest(
                 AylaConnectStatusCharacteristic.class, successListener, errorListener);
 
+        Handler timeoutHandler = new Handler(Looper.getMainLooper());
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicBoolean statusReceived = new AtomicBoolean();
+
+        // The connect request ends once, when the device reports it connected or failed, a
+        // read or write fails, or the timeout expires
+        ErrorListener finishErrorListener = new ErrorListener() {
+            @Override
+            public void onErrorResponse(AylaError error) {
+                if (finished.compareAndSet(false, true)) {
+                    timeoutHandler.removeCallbacksAndMessages(null);
+                    connectStatusCharacteristic.setOnConnectStatusChangedListener(
+                            getOnConnectStatusChangedListener());
+                    if (!originalRequest.isCanceled()) {
+                        errorListener.onErrorResponse(error);
+                    }
+                }
+            }
+        };
+
+        // Receives the status from notifications and from polling, passing state changes on
+        // to the OnConnectStatusChangedListener set by the app
+        OnConnectStatusChangedListener statusListener = new OnConnectStatusChangedListener() {
+            private State lastState;
+
+            @Override
+            public void onConnected(String ssid) {
+                if (getOnConnectStatusChangedListener() != null) {
+                    getOnConnectStatusChangedListener().onConnected(ssid);
+                }
+                if (finished.compareAndSet(false, true)) {
+                    timeoutHandler.removeCallbacksAndMessages(null);
+                    connectStatusCharacteristic.setOnConnectStatusChangedListener(
+                            getOnConnectStatusChangedListener());
+                    if (!originalRequest.isCanceled()) {
+                        successListener.onResponse(connectStatusCharacteristic);
+                    }
+                }
+            }
+
+            @Override
+            public void onConnectionStateChanged(State state) {
+                statusReceived.set(true);
+                if (state == lastState) {
+                    return;
+                }
+                lastState = state;
+                if (getOnConnectStatusChangedListener() != null) {
+                    getOnConnectStatusChangedListener().onConnectionStateChanged(state);
+                }
+            }
+
+            @Override
+            public void onConnectionError(String ssid, AylaWifiStatus.HistoryItem.Error error) {
+                statusReceived.set(true);
+                if (getOnConnectStatusChangedListener() != null) {
+                    getOnConnectStatusChangedListener().onConnectionError(ssid, error);
+                }
+                finishErrorListener.onErrorResponse(new PreconditionError(error.name()));
+            }
+        };
+        connectStatusCharacteristic.setOnConnectStatusChangedListener(statusListener);
+
+        timeoutHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                finishErrorListener.onErrorResponse(new TimeoutError(
+                        "timed out connecting device to " + ssid));
+            }
+        }, timeoutInSeconds * 1000L);
+
         AylaAPIRequest enableNotificationRequest = connectStatusCharacteristic.enableCharacteristicNotification(
                 getSetupDevice().getBluetoothGatt(),
                 true,
@@ -668,7 +795,6 @@ public class AylaBLEWiFiSetup {
                     @Override
                     public void onResponse(AylaBaseGattCharacteristic response) {
                         AylaLog.d(LOG_TAG, "connect status notification enabled");
-                        connectStatusCharacteristic.setOnConnectStatusChangedListener(getOnConnectStatusChangedListener());
                         originalRequest.setChainedRequest(connectCharacteristic.writeCharacteristic(
                                 getSetupDevice().getBluetoothGatt(),
                                 new Response.Listener<AylaBaseGattCharacteristic>() {
@@ -676,8 +802,21 @@ public class AylaBLEWiFiSetup {
                                     public void onResponse(AylaBaseGattCharacteristic response) {
                                         AylaLog.d(LOG_TAG, "connect request sent, " +
                                                 "waiting for connection status notification");
+                                        timeoutHandler.postDelayed(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                if (!statusReceived.get() && !finished.get()) {
+                                                    AylaLog.i(LOG_TAG, "no connection status " +
+                                                            "notified, polling connection status");
+                                                    fetchConnectionStatus(
+                                                            DEFAULT_CONNECTION_STATUS_POLL_INTERVAL,
+                                                            originalRequest, finished,
+                                                            finishErrorListener);
+                                                }
+                                            }
+                                        }, CONNECT_STATUS_NOTIFICATION_GRACE_PERIOD);
                                     }
-                                }, errorListener));
+                                }, finishErrorListener));
                     }
                 }, new ErrorListener() {
                     @Override
@@ -690,11 +829,11 @@ public class AylaBLEWiFiSetup {
                                     @Override
                                     public void onResponse(AylaBaseGattCharacteristic response) {
                                         AylaLog.d(LOG_TAG, "connect request sent, " +
-                                                "polling for connection status notification");
-                                        fetchConnectionStatus(timeoutInSeconds,
-                                                DEFAULT_CONNECTION_STATUS_POLL_INTERVAL, successListener, errorListener);
+                                                "polling for connection status");
+                                        fetchConnectionStatus(DEFAULT_CONNECTION_STATUS_POLL_INTERVAL,
+                                                originalRequest, finished, finishErrorListener);
                                     }
-                                }, errorListener));
+                                }, finishErrorListener));
                     }
                 });
 
@@ -738,11 +877,7 @@ public class AylaBLEWiFiSetup {
         String base = AylaNetworks.sharedInstance().getServiceUrl(
                 ServiceUrls.CloudService.Device, "apiv1/devices/connected.json");
 
-        final Date startTime = new Date();
-
         final String url = URLHelper.appendParameters(base, params);
-        // Create our internal listener object here. We're creating it outside the request object
-        // so we can re-use it when we poll.
         final Response.Listener<AylaDevice.Wrapper> internalListener = new Response.Listener<AylaDevice.Wrapper>() {
             @Override
             public void onResponse(AylaDevice.Wrapper response) {
@@ -753,54 +888,33 @@ public class AylaBLEWiFiSetup {
             }
         };
 
-        List<AylaAPIRequest> compoundRequests = new ArrayList<>();
-        AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<AylaDevice.Wrapper>(
-                Request.Method.GET,
-                url,
-                null,
-                AylaDevice.Wrapper.class,
-                getSessionManager(),
-                internalListener,
-                new ErrorListener() {
-                    @Override
-                    public void onErrorResponse(AylaError error) {
-                        // Did we time out?
-                        if (new Date().getTime() - startTime.getTime() >
-                                (timeoutInSeconds * 1000)) {
-                            errorListener.onErrorResponse(error);
-                        } else {
-                            // We need to try again
-                            final AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<>(
-                                    Request.Method.GET,
-                                    url,
-                                    null,
-                                    AylaDevice.Wrapper.class,
-                                    getSessionManager(),
-                                    internalListener,
-                                    this);
-
-                            compoundRequests.add(request);
-                            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                                @Override
-                                public void run() {
-                                    AylaNetworks.sharedInstance().getLoginManager()
-                                            .sendUserServiceRequest(request);
-                                }
-                            }, getConfirmPollInterval());
-                        }
-                    }
-                }) {
-            @Override
-            public void cancel() {
-                super.cancel();
-                for (AylaAPIRequest req : compoundRequests) {
-                    req.cancel();
-                }
-            }
-        };
-        // We don't have a session to use, so we will send this out via the LoginManager's queue.
-        AylaNetworks.sharedInstance().getLoginManager().sendUserServiceRequest(request);
-        return request;
+        // Checks for the device each time it may have connected, as reported by the data
+        // stream or by polling
+        AylaConnectionConfirmation<AylaDevice.Wrapper> confirmation =
+                new AylaConnectionConfirmation<>(getSetupDevice().getDsn(),
+                        getSessionManager().getDSManager(),
+                        new AylaConnectionConfirmation.Check<AylaDevice.Wrapper>() {
+                            @Override
+                            public AylaAPIRequest check(
+                                    Response.Listener<AylaDevice.Wrapper> checkSuccessListener,
+                                    ErrorListener checkErrorListener) {
+                                AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<>(
+                                        Request.Method.GET,
+                                        url,
+                                        null,
+                                        AylaDevice.Wrapper.class,
+                                        getSessionManager(),
+                                        checkSuccessListener,
+                                        checkErrorListener);
+                                // We don't have a session to use, so we will send this out
+                                // via the LoginManager's queue.
+                                AylaNetworks.sharedInstance().getLoginManager()
+                                        .sendUserServiceRequest(request);
+                                return request;
+                            }
+                        });
+        confirmation.setInitialPollInterval(getConfirmPollInterval());
+        return confirmation.start(timeoutInSeconds, internalListener, errorListener);
     }
 
     /**
@@ -49,6 +49,18 @@ public class AylaBLEWiFiSetupDevice extends AylaBLEDevice {
      */
     public static final int REQUIRED_ATT_MTU_SIZE = 108;
 
+    /**
+     * The MTU size every BLE connection starts with
+     */
+    public static final int DEFAULT_ATT_MTU_SIZE = 23;
+
+    /**
+     * Bytes of each ATT packet taken by the opcode and handle, and not available for the value
+     */
+    public static final int ATT_HEADER_SIZE = 3;
+
+    private int _mtu = DEFAULT_ATT_MTU_SIZE;
+
     private Map<UUID, AylaBaseGattCharacteristic> _cachedCharacteristics = new HashMap<>();
 
     public BluetoothDevice getBluetoothDevice() {
@@ -101,14 +113,30 @@ public class AylaBLEWiFiSetupDevice extends AylaBLEDevice {
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
         AylaLog.d(BTCB_TAG, "onMtuChanged: " + mtu + " status: " + status);
         if (status == BluetoothGatt.GATT_SUCCESS) {
+            _mtu = mtu;
             if (mtu < REQUIRED_ATT_MTU_SIZE) {
                 AylaLog.e(LOG_TAG, "Too small MTU size:" + mtu + "/" + REQUEST_ATT_MTU_SIZE);
             } else {
                 discoverMoreServices(gatt);
             }
+        } else {
+            // Carry on with the default MTU. Values longer than it are read with long reads,
+            // and notifications that would not fit are not used.
+            AylaLog.e(LOG_TAG, "MTU request failed with status " + status);
+            discoverMoreServices(gatt);
         }
     }
 
+    /**
+     * Returns the MTU negotiated with the device. Notifications carry at most
+     * {@code getMtu() - ATT_HEADER_SIZE} bytes of a characteristic value.
+     *
+     * @return the negotiated MTU, or {@link #DEFAULT_ATT_MTU_SIZE} if none was negotiated
+     */
+    public int getMtu() {
+        return _mtu;
+    }
+
     @Override
     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
 
@@ -204,7 +232,7 @@ public class AylaBLEWiFiSetupDevice extends AylaBLEDevice {
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        //super.onCharacteristicWrite(gatt, characteristic, status);
+        super.onCharacteristicWrite(gatt, characteristic, status);
         AylaLog.d(LOG_TAG, "onCharacteristicWrite " + characteristic.getUuid() + ", with status " + status);
 
         AylaBaseGattCharacteristic mapping = getManagedCharacteristic(characteristic);
@@ -215,7 +243,7 @@ public class AylaBLEWiFiSetupDevice extends AylaBLEDevice {
 
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-        //super.onDescriptorRead(gatt, descriptor, status);
+        super.onDescriptorRead(gatt, descriptor, status);
         AylaLog.d(LOG_TAG, "onDescriptorRead " +  descriptor.getUuid() + ", with status " + status);
 
         AylaBaseGattCharacteristic mapping = getManagedCharacteristic(descriptor.getCharacteristic());
@@ -226,7 +254,7 @@ public class AylaBLEWiFiSetupDevice extends AylaBLEDevice {
 
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-        //super.onDescriptorWrite(gatt, descriptor, status);
+        super.onDescriptorWrite(gatt, descriptor, status);
         AylaLog.d(LOG_TAG, "onDescriptorWrite " +  descriptor.getUuid() + ", with status " + status);
 
         AylaBaseGattCharacteristic mapping = getManagedCharacteristic(descriptor.getCharacteristic());
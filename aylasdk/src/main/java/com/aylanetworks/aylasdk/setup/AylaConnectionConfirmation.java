@@ -0,0 +1,282 @@
+package com.aylanetworks.aylasdk.setup;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+import com.aylanetworks.aylasdk.AylaDSManager;
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaLog;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.TimeoutError;
+
+/**
+ * Waits for a device being set up to show up in the cloud, for example by fetching
+ * devices/connected.json until the device has connected.
+ *
+ * The confirmation checks periodically at the initial poll interval. It also listens to the
+ * connectivity events of the data stream of the session, and checks right away when the device
+ * comes online. Devices being set up are usually not subscribed to yet, so their events do not
+ * arrive. Only while the device is subscribed to on a connected stream, see
+ * {@link AylaDSManager#isSubscribed(String)}, does the interval double after each miss, up to
+ * {@link #STREAM_MAX_POLL_INTERVAL}. Only one check is outstanding at a time, and it is
+ * canceled as soon as the device is confirmed.
+ *
+ * @param <T> type of the response the check returns once the device is found
+ */
+public class AylaConnectionConfirmation<T> {
+    private static final String LOG_TAG = "ConnectionConfirmation";
+
+    public static final int DEFAULT_INITIAL_POLL_INTERVAL = 1000;
+    public static final int STREAM_MAX_POLL_INTERVAL = 30000;
+
+    /**
+     * Checks once whether the device has shown up
+     */
+    public interface Check<T> {
+        /**
+         * Sends one request for the device. The success listener is called once the device
+         * was found, the error listener if it was not found yet or the request failed.
+         *
+         * @return the request sent, which is canceled if the confirmation ends first
+         */
+        AylaAPIRequest check(Response.Listener<T> successListener, ErrorListener errorListener);
+    }
+
+    private final String _dsn;
+    private final AylaDSManager _dsManager;
+    private final Check<T> _check;
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private int _initialPollInterval = DEFAULT_INITIAL_POLL_INTERVAL;
+
+    private boolean _finished;
+    private boolean _checkInFlight;
+    private boolean _checkAgain;
+    private AylaAPIRequest _request;
+    private AylaAPIRequest _checkRequest;
+    private Response.Listener<T> _successListener;
+    private AylaError _lastError;
+    private long _interval;
+    private int _checkCount;
+    private int _pushCount;
+
+    /**
+     * Creates a confirmation for the given device
+     *
+     * @param dsn DSN of the device being set up
+     * @param dsManager data stream manager of the session to listen to, or null to only poll
+     * @param check the check to run until the device is found
+     */
+    public AylaConnectionConfirmation(String dsn, AylaDSManager dsManager, Check<T> check) {
+        _dsn = dsn;
+        _dsManager = dsManager;
+        _check = check;
+    }
+
+    /**
+     * Sets the interval between checks, which doubles after each miss while the device is
+     * subscribed to on the data stream
+     *
+     * @param timeInMs interval in milliseconds
+     */
+    public void setInitialPollInterval(int timeInMs) {
+        _initialPollInterval = timeInMs;
+    }
+
+    /**
+     * @return the number of checks sent
+     */
+    public int getCheckCount() {
+        return _checkCount;
+    }
+
+    /**
+     * @return the number of checks sent because the stream reported the device online
+     */
+    public int getPushCount() {
+        return _pushCount;
+    }
+
+    private final AylaDSManager.ConnectivityEventListener _connectivityEventListener =
+            new AylaDSManager.ConnectivityEventListener() {
+                @Override
+                public void deviceConnectivityChanged(String dsn,
+                                                      AylaDevice.ConnectionStatus status) {
+                    if (!_dsn.equals(dsn) || status != AylaDevice.ConnectionStatus.Online) {
+                        return;
+                    }
+                    deviceReportedOnline();
+                }
+            };
+
+    /**
+     * Checks right away, as the data stream reported the device online. May be called on any
+     * thread.
+     */
+    void deviceReportedOnline() {
+        _handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (_finished) {
+                    return;
+                }
+                AylaLog.d(LOG_TAG, _dsn + " reported online, checking now");
+                _pushCount++;
+                checkNow();
+            }
+        });
+    }
+
+    /**
+     * @return true if the data stream can report the device online, in which case checks are
+     * spaced out further
+     */
+    boolean isSubscribed() {
+        return _dsManager != null && _dsManager.isSubscribed(_dsn);
+    }
+
+    /**
+     * @return the interval before the next check if the one in flight misses
+     */
+    long getPollInterval() {
+        return _interval;
+    }
+
+    private final Runnable _pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkNow();
+        }
+    };
+
+    /**
+     * Checks for the device until it is found or the timeout expires. Must be called on the
+     * main thread, and only once.
+     *
+     * @param timeoutInSeconds Timeout for the confirmation
+     * @param successListener Listener called with the response of the check that found the device
+     * @param errorListener Listener called with the last error of the check if the timeout
+     *                      expires, or a TimeoutError if there was none
+     * @return a request that may be canceled to stop the confirmation
+     */
+    public AylaAPIRequest start(int timeoutInSeconds,
+                                final Response.Listener<T> successListener,
+                                final ErrorListener errorListener) {
+        // Canceling the request cancels the check in flight, which is chained to it, and the
+        // confirmation stops the next time it would check
+        final AylaAPIRequest request = AylaAPIRequest.dummyRequest(Object.class,
+                successListener, errorListener);
+        _request = request;
+
+        _interval = _initialPollInterval;
+        if (_dsManager != null) {
+            _dsManager.addConnectivityEventListener(_connectivityEventListener);
+        }
+
+        _handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (_finished) {
+                    return;
+                }
+                if (request.isCanceled()) {
+                    finish();
+                    return;
+                }
+                AylaLog.i(LOG_TAG, _dsn + " not confirmed after " + _checkCount + " checks");
+                finish();
+                errorListener.onErrorResponse(_lastError != null ? _lastError :
+                        new TimeoutError("Timed out confirming " + _dsn));
+            }
+        }, timeoutInSeconds * 1000L);
+
+        _successListener = new Response.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                if (_finished) {
+                    return;
+                }
+                AylaLog.d(LOG_TAG, _dsn + " confirmed after " + _checkCount + " checks, " +
+                        _pushCount + " pushed");
+                _checkInFlight = false;
+                _checkRequest = null;
+                finish();
+                if (!request.isCanceled()) {
+                    successListener.onResponse(response);
+                }
+            }
+        };
+
+        checkNow();
+        return request;
+    }
+
+    private final ErrorListener _missListener = new ErrorListener() {
+        @Override
+        public void onErrorResponse(AylaError error) {
+            if (_finished) {
+                return;
+            }
+            _lastError = error;
+            _checkInFlight = false;
+            _checkRequest = null;
+            if (_checkAgain) {
+                // The device came online while this check was outstanding
+                checkNow();
+                return;
+            }
+
+            _handler.postDelayed(_pollRunnable, _interval);
+            if (isSubscribed()) {
+                _interval = Math.min(_interval * 2, STREAM_MAX_POLL_INTERVAL);
+            } else {
+                // The device may come online without an event, so keep checking as often
+                _interval = _initialPollInterval;
+            }
+        }
+    };
+
+    private void checkNow() {
+        if (_finished) {
+            return;
+        }
+        if (_request.isCanceled()) {
+            finish();
+            return;
+        }
+        if (_checkInFlight) {
+            _checkAgain = true;
+            return;
+        }
+
+        _checkAgain = false;
+        _handler.removeCallbacks(_pollRunnable);
+        _checkCount++;
+        _checkInFlight = true;
+        AylaAPIRequest checkRequest = _check.check(_successListener, _missListener);
+        if (_checkInFlight) {
+            // Otherwise the check has completed already
+            _checkRequest = checkRequest;
+            _request.setChainedRequest(checkRequest);
+        }
+    }
+
+    private void finish() {
+        _finished = true;
+        _handler.removeCallbacksAndMessages(null);
+        if (_dsManager != null) {
+            _dsManager.removeConnectivityEventListener(_connectivityEventListener);
+        }
+        if (_checkRequest != null) {
+            _checkRequest.cancel();
+            _checkRequest = null;
+        }
+    }
+}
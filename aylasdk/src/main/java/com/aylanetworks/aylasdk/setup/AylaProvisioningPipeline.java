@@ -0,0 +1,660 @@
+package com.aylanetworks.aylasdk.setup;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import com.android.volley.Response;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaListenerDelivery;
+import com.aylanetworks.aylasdk.AylaLog;
+import com.aylanetworks.aylasdk.error.AylaError;
+import com.aylanetworks.aylasdk.error.ErrorListener;
+import com.aylanetworks.aylasdk.error.InternalError;
+import com.aylanetworks.aylasdk.error.PreconditionError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Provisions a batch of setup devices, overlapping the stages of different devices. A typical
+ * pipeline has a local stage that connects the device to the Wi-Fi network over AP mode or BLE,
+ * and cloud stages that confirm the device connected and register it:
+ *
+ * <pre>
+ * AylaProvisioningPipeline pipeline = new AylaProvisioningPipeline(listener)
+ *         .addStage("connect", 1, connectStage)
+ *         .addStage("confirm", 4, confirmStage)
+ *         .addStage("register", 4, AylaProvisioningPipeline.registrationStage(
+ *                 sessionManager.getDeviceManager().getAylaRegistration(),
+ *                 AylaDevice.RegistrationType.APMode));
+ * for (String ssid : ssids) {
+ *     pipeline.submit(ssid);
+ * }
+ * </pre>
+ *
+ * Each stage runs at most as many units at once as its concurrency allows. The phone can only
+ * join one device access point or hold a few BLE connections at a time, so the local stage
+ * usually has a concurrency of one, while cloud confirmation and registration of earlier units
+ * carry on while the next unit is being connected. Stages run in the order they were added, and
+ * a unit that fails a stage does not go on to the next.
+ *
+ * Stages are started and listeners are called on the executor given to the constructor, the
+ * main thread by default. The pipeline must only be used from that executor's thread.
+ */
+public class AylaProvisioningPipeline {
+    private static final String LOG_TAG = "ProvisioningPipeline";
+
+    /**
+     * One step of provisioning a unit, such as connecting it to Wi-Fi or registering it.
+     */
+    public interface Stage {
+        /**
+         * Runs this stage for the given unit. Exactly one of the listeners must be called once
+         * the stage has finished. The stage may update the unit, for example with the DSN of
+         * the device, for later stages to use.
+         *
+         * @param unit the unit to run the stage for
+         * @param successListener Listener to be called once the stage succeeded
+         * @param errorListener Listener to be called if the stage failed
+         * @return a cancelable AylaAPIRequest, or null if the stage cannot be canceled
+         */
+        AylaAPIRequest run(Unit unit, Response.Listener<Unit> successListener,
+                           ErrorListener errorListener);
+    }
+
+    /**
+     * Listener notified of the progress of the units in the pipeline
+     */
+    public interface Listener {
+        /**
+         * Called whenever a unit starts a stage, waits for one or finishes
+         */
+        void unitStateChanged(Unit unit);
+
+        /**
+         * Called once all units submitted so far have finished
+         */
+        void pipelineIdle(Stats stats);
+    }
+
+    public enum State {
+        /** Waiting for a free slot in its next stage */
+        Waiting,
+        /** Running a stage */
+        Running,
+        /** All stages succeeded */
+        Provisioned,
+        /** A stage failed, see {@link Unit#getError()} */
+        Failed,
+        /** The pipeline was canceled before the unit finished */
+        Canceled
+    }
+
+    /**
+     * A device being provisioned. Units are identified by the SSID of the device access point
+     * or the address of its BLE peripheral, and collect what the stages learn about the device.
+     */
+    public static class Unit {
+        private final String _id;
+        private State _state = State.Waiting;
+        private int _stageIndex;
+        private String _stageName;
+        private AylaError _error;
+        private String _dsn;
+        private String _setupToken;
+        private AylaRegistrationCandidate _candidate;
+        private AylaDevice _device;
+        private Object _tag;
+        private long _submitTime;
+        private long _finishTime;
+        private AylaAPIRequest _request;
+
+        public Unit(String id) {
+            _id = id;
+        }
+
+        public String getId() {
+            return _id;
+        }
+
+        public State getState() {
+            return _state;
+        }
+
+        /**
+         * @return the name of the stage the unit is running or waiting for, or the stage that
+         * failed or was canceled
+         */
+        public String getStageName() {
+            return _stageName;
+        }
+
+        public AylaError getError() {
+            return _error;
+        }
+
+        public String getDsn() {
+            return _dsn;
+        }
+
+        public void setDsn(String dsn) {
+            _dsn = dsn;
+        }
+
+        public String getSetupToken() {
+            return _setupToken;
+        }
+
+        public void setSetupToken(String setupToken) {
+            _setupToken = setupToken;
+        }
+
+        /**
+         * @return the registration candidate for the device, used by {@link #registrationStage}
+         * if set
+         */
+        public AylaRegistrationCandidate getCandidate() {
+            return _candidate;
+        }
+
+        public void setCandidate(AylaRegistrationCandidate candidate) {
+            _candidate = candidate;
+        }
+
+        /**
+         * @return the registered device, once {@link #registrationStage} has run
+         */
+        public AylaDevice getDevice() {
+            return _device;
+        }
+
+        public void setDevice(AylaDevice device) {
+            _device = device;
+        }
+
+        /**
+         * @return an object the app's stages may attach to the unit, such as the AylaSetup or
+         * AylaBLEWiFiSetup instance used for it
+         */
+        public Object getTag() {
+            return _tag;
+        }
+
+        public void setTag(Object tag) {
+            _tag = tag;
+        }
+
+        /**
+         * @return how long the unit has been in the pipeline, or took to finish, in milliseconds
+         */
+        public long getElapsedTime() {
+            long end = _finishTime != 0 ? _finishTime : System.currentTimeMillis();
+            return end - _submitTime;
+        }
+
+        public boolean isFinished() {
+            return _state == State.Provisioned || _state == State.Failed ||
+                    _state == State.Canceled;
+        }
+
+        @Override
+        public String toString() {
+            return _id + " " + _state + (_stageName != null ? " (" + _stageName + ")" : "");
+        }
+    }
+
+    private static class StageSlot {
+        final String name;
+        final int concurrency;
+        final Stage stage;
+        final ArrayDeque<Unit> waiting = new ArrayDeque<>();
+        int running;
+        long completedCount;
+        long totalTime;
+
+        StageSlot(String name, int concurrency, Stage stage) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.stage = stage;
+        }
+    }
+
+    private final Executor _executor;
+    private final Listener _listener;
+    private final List<StageSlot> _stages = new ArrayList<>();
+    private final List<Unit> _units = new ArrayList<>();
+    private boolean _scheduling;
+    private boolean _rescheduleNeeded;
+    private boolean _canceled;
+    private long _firstSubmitTime;
+    private long _lastFinishTime;
+
+    /**
+     * Creates a pipeline running its stages on the main thread
+     *
+     * @param listener Listener to be notified of the progress of the units, may be null
+     */
+    public AylaProvisioningPipeline(Listener listener) {
+        this(listener, AylaListenerDelivery.mainThread());
+    }
+
+    /**
+     * Creates a pipeline running its stages on the given executor, which must run tasks in order
+     *
+     * @param listener Listener to be notified of the progress of the units, may be null
+     * @param executor Executor the stages are started and the listener is called on
+     */
+    public AylaProvisioningPipeline(Listener listener, Executor executor) {
+        _listener = listener;
+        _executor = executor;
+    }
+
+    /**
+     * Adds a stage after the stages already added. Stages must be added before the first unit
+     * is submitted.
+     *
+     * @param name name of the stage, used in logs and unit states
+     * @param concurrency the number of units that may run this stage at once
+     * @param stage the stage
+     * @return this pipeline
+     */
+    public AylaProvisioningPipeline addStage(String name, int concurrency, Stage stage) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if (!_units.isEmpty()) {
+            throw new IllegalStateException("stages must be added before units are submitted");
+        }
+        _stages.add(new StageSlot(name, concurrency, stage));
+        return this;
+    }
+
+    /**
+     * Submits a unit to be provisioned
+     *
+     * @param id SSID of the device access point or address of its BLE peripheral
+     * @return the unit, which is updated as it goes through the pipeline
+     */
+    public Unit submit(String id) {
+        return submit(new Unit(id));
+    }
+
+    /**
+     * Submits a unit to be provisioned
+     *
+     * @param unit the unit, with any information the first stage needs
+     * @return the unit, which is updated as it goes through the pipeline
+     */
+    public Unit submit(final Unit unit) {
+        if (_stages.isEmpty()) {
+            throw new IllegalStateException("no stage has been added");
+        }
+
+        unit._submitTime = System.currentTimeMillis();
+        if (_firstSubmitTime == 0) {
+            _firstSubmitTime = unit._submitTime;
+        }
+        _units.add(unit);
+
+        if (_canceled) {
+            unit._state = State.Canceled;
+            unit._finishTime = unit._submitTime;
+            notifyStateChanged(unit);
+            return unit;
+        }
+
+        enqueue(unit, 0);
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        });
+        return unit;
+    }
+
+    /**
+     * Cancels the stages running and marks every unfinished unit as canceled. Units submitted
+     * afterwards are canceled right away.
+     */
+    public void cancel() {
+        _canceled = true;
+        for (StageSlot slot : _stages) {
+            slot.waiting.clear();
+        }
+        for (Unit unit : _units) {
+            if (!unit.isFinished()) {
+                if (unit._request != null) {
+                    unit._request.cancel();
+                    unit._request = null;
+                }
+                finish(unit, State.Canceled, null);
+            }
+        }
+    }
+
+    /**
+     * @return the units submitted, in the order they were submitted
+     */
+    public List<Unit> getUnits() {
+        return Collections.unmodifiableList(_units);
+    }
+
+    /**
+     * @return true if every unit submitted has finished
+     */
+    public boolean isIdle() {
+        for (Unit unit : _units) {
+            if (!unit.isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void enqueue(Unit unit, int stageIndex) {
+        StageSlot slot = _stages.get(stageIndex);
+        unit._stageIndex = stageIndex;
+        unit._stageName = slot.name;
+        unit._state = State.Waiting;
+        slot.waiting.add(unit);
+        notifyStateChanged(unit);
+    }
+
+    /**
+     * Starts waiting units in every stage that has a free slot. Later stages go first so that
+     * units close to finishing are not held up by new ones.
+     */
+    private void schedule() {
+        if (_scheduling) {
+            // A stage finished while being started, go round again once done
+            _rescheduleNeeded = true;
+            return;
+        }
+
+        _scheduling = true;
+        try {
+            do {
+                _rescheduleNeeded = false;
+                for (int i = _stages.size() - 1; i >= 0 && !_canceled; i--) {
+                    StageSlot slot = _stages.get(i);
+                    while (slot.running < slot.concurrency && !slot.waiting.isEmpty()) {
+                        start(slot.waiting.poll(), slot);
+                    }
+                }
+            } while (_rescheduleNeeded);
+        } finally {
+            _scheduling = false;
+        }
+    }
+
+    private void start(final Unit unit, final StageSlot slot) {
+        final int stageIndex = unit._stageIndex;
+        final long startTime = System.currentTimeMillis();
+        // Guards against a stage calling back more than once, or after being canceled
+        final boolean[] done = new boolean[1];
+
+        slot.running++;
+        unit._state = State.Running;
+        notifyStateChanged(unit);
+        AylaLog.d(LOG_TAG, unit.getId() + " starting " + slot.name);
+
+        Response.Listener<Unit> successListener = new Response.Listener<Unit>() {
+            @Override
+            public void onResponse(Unit response) {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (done[0] || unit.isFinished()) {
+                            return;
+                        }
+                        done[0] = true;
+                        stageFinished(unit, slot, startTime);
+                        if (stageIndex + 1 < _stages.size()) {
+                            enqueue(unit, stageIndex + 1);
+                        } else {
+                            finish(unit, State.Provisioned, null);
+                        }
+                        schedule();
+                    }
+                });
+            }
+        };
+
+        ErrorListener errorListener = new ErrorListener() {
+            @Override
+            public void onErrorResponse(final AylaError error) {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (done[0] || unit.isFinished()) {
+                            return;
+                        }
+                        done[0] = true;
+                        stageFinished(unit, slot, startTime);
+                        AylaLog.e(LOG_TAG, unit.getId() + " failed " + slot.name + ": " + error);
+                        finish(unit, State.Failed, error);
+                        schedule();
+                    }
+                });
+            }
+        };
+
+        AylaAPIRequest request;
+        try {
+            request = slot.stage.run(unit, successListener, errorListener);
+        } catch (RuntimeException e) {
+            AylaLog.e(LOG_TAG, unit.getId() + " " + slot.name + " threw " + e);
+            errorListener.onErrorResponse(new InternalError(
+                    slot.name + " failed to start", e));
+            return;
+        }
+
+        if (!done[0]) {
+            unit._request = request;
+        }
+    }
+
+    private void stageFinished(Unit unit, StageSlot slot, long startTime) {
+        slot.running--;
+        slot.completedCount++;
+        slot.totalTime += System.currentTimeMillis() - startTime;
+        unit._request = null;
+    }
+
+    private void finish(Unit unit, State state, AylaError error) {
+        unit._state = state;
+        unit._error = error;
+        unit._finishTime = System.currentTimeMillis();
+        _lastFinishTime = unit._finishTime;
+        notifyStateChanged(unit);
+
+        if (_listener != null && isIdle()) {
+            _listener.pipelineIdle(getStats());
+        }
+    }
+
+    private void notifyStateChanged(Unit unit) {
+        if (_listener != null) {
+            _listener.unitStateChanged(unit);
+        }
+    }
+
+    /**
+     * Returns a stage that registers the unit's device to the user with
+     * {@link AylaRegistration#registerCandidate}. The unit's registration candidate is used if
+     * an earlier stage set one, otherwise a candidate is made from the unit's DSN and setup
+     * token. The registered device is set on the unit.
+     *
+     * @param registration AylaRegistration of the user's device manager
+     * @param registrationType registration type of candidates made from the DSN
+     * @return the registration stage
+     */
+    public static Stage registrationStage(final AylaRegistration registration,
+                                          final AylaDevice.RegistrationType registrationType) {
+        return new Stage() {
+            @Override
+            public AylaAPIRequest run(final Unit unit,
+                                      final Response.Listener<Unit> successListener,
+                                      ErrorListener errorListener) {
+                AylaRegistrationCandidate candidate = unit.getCandidate();
+                if (candidate == null) {
+                    if (unit.getDsn() == null) {
+                        errorListener.onErrorResponse(new PreconditionError(
+                                "DSN is required to register " + unit.getId()));
+                        return null;
+                    }
+                    candidate = new AylaRegistrationCandidate();
+                    candidate.setDsn(unit.getDsn());
+                    candidate.setSetupToken(unit.getSetupToken());
+                    candidate.setRegistrationType(registrationType);
+                    unit.setCandidate(candidate);
+                }
+
+                return registration.registerCandidate(candidate,
+                        new Response.Listener<AylaDevice>() {
+                            @Override
+                            public void onResponse(AylaDevice response) {
+                                unit.setDevice(response);
+                                successListener.onResponse(unit);
+                            }
+                        }, errorListener);
+            }
+        };
+    }
+
+    /**
+     * @return counters describing the units provisioned and the time spent in each stage
+     */
+    public Stats getStats() {
+        int provisioned = 0;
+        int failed = 0;
+        int canceled = 0;
+        for (Unit unit : _units) {
+            if (unit._state == State.Provisioned) {
+                provisioned++;
+            } else if (unit._state == State.Failed) {
+                failed++;
+            } else if (unit._state == State.Canceled) {
+                canceled++;
+            }
+        }
+
+        long end = isIdle() ? _lastFinishTime : System.currentTimeMillis();
+        long elapsed = _firstSubmitTime == 0 ? 0 : end - _firstSubmitTime;
+
+        List<String> stageNames = new ArrayList<>();
+        List<Long> averageStageTimes = new ArrayList<>();
+        for (StageSlot slot : _stages) {
+            stageNames.add(slot.name);
+            averageStageTimes.add(slot.completedCount == 0 ? 0 :
+                    slot.totalTime / slot.completedCount);
+        }
+
+        return new Stats(_units.size(), provisioned, failed, canceled, elapsed, stageNames,
+                averageStageTimes);
+    }
+
+    /**
+     * Counters describing the progress of the pipeline
+     */
+    public static class Stats {
+        private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+        private final int _submittedCount;
+        private final int _provisionedCount;
+        private final int _failedCount;
+        private final int _canceledCount;
+        private final long _elapsedTime;
+        private final List<String> _stageNames;
+        private final List<Long> _averageStageTimes;
+
+        Stats(int submittedCount, int provisionedCount, int failedCount, int canceledCount,
+              long elapsedTime, List<String> stageNames, List<Long> averageStageTimes) {
+            _submittedCount = submittedCount;
+            _provisionedCount = provisionedCount;
+            _failedCount = failedCount;
+            _canceledCount = canceledCount;
+            _elapsedTime = elapsedTime;
+            _stageNames = stageNames;
+            _averageStageTimes = averageStageTimes;
+        }
+
+        /**
+         * @return the number of units submitted
+         */
+        public int getSubmittedCount() {
+            return _submittedCount;
+        }
+
+        /**
+         * @return the number of units that went through every stage
+         */
+        public int getProvisionedCount() {
+            return _provisionedCount;
+        }
+
+        /**
+         * @return the number of units a stage failed for
+         */
+        public int getFailedCount() {
+            return _failedCount;
+        }
+
+        /**
+         * @return the number of units canceled before they finished
+         */
+        public int getCanceledCount() {
+            return _canceledCount;
+        }
+
+        /**
+         * @return milliseconds from the first unit submitted until the last one finished, or
+         * until now if units are still in the pipeline
+         */
+        public long getElapsedTime() {
+            return _elapsedTime;
+        }
+
+        /**
+         * @return the number of units provisioned per hour over the elapsed time
+         */
+        public double getUnitsPerHour() {
+            if (_elapsedTime <= 0) {
+                return 0;
+            }
+            return _provisionedCount * (double) MILLIS_PER_HOUR / _elapsedTime;
+        }
+
+        /**
+         * @param stageName name of a stage
+         * @return the average milliseconds a unit spent running the stage, or 0 if none has
+         * finished it
+         */
+        public long getAverageStageTime(String stageName) {
+            int index = _stageNames.indexOf(stageName);
+            return index < 0 ? 0 : _averageStageTimes.get(index);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("submitted: ").append(_submittedCount)
+                    .append(", provisioned: ").append(_provisionedCount)
+                    .append(", failed: ").append(_failedCount)
+                    .append(", canceled: ").append(_canceledCount)
+                    .append(", units/hour: ").append(String.format("%.1f", getUnitsPerHour()));
+            for (int i = 0; i < _stageNames.size(); i++) {
+                sb.append(", ").append(_stageNames.get(i)).append(" avg ms: ")
+                        .append(_averageStageTimes.get(i));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -298,6 +298,49 @@ public class AylaRegistration {
         return fetchCandidate(dsn, null, registrationType, successListener, errorListener);
     }
 
+    /**
+     * This method gets a Registration Candidate from the server, fetching it again until the
+     * device has connected to the service and become a candidate, or the timeout expires. The
+     * candidate is fetched right away when the data stream reports the device online, and
+     * otherwise polled, see {@link AylaConnectionConfirmation}.
+     *
+     * @param dsn dsn of the device
+     * @param registrationType Registration type
+     * @param timeoutInSeconds Maximum time to wait for the candidate
+     * @param successListener Listener to receive the candidate
+     * @param errorListener   Listener to receive the last AylaError if the timeout expires
+     * @return the AylaAPIRequest that may be canceled to stop fetching the candidate
+     */
+    public AylaAPIRequest fetchCandidate(
+            final String dsn,
+            final RegistrationType registrationType,
+            int timeoutInSeconds,
+            final Response.Listener<AylaRegistrationCandidate> successListener,
+            final ErrorListener errorListener) {
+        AylaDeviceManager deviceManager = _deviceManagerRef.get();
+        if (deviceManager == null || deviceManager.getSessionManager() == null) {
+            if (errorListener != null) {
+                errorListener.onErrorResponse(new AylaError(AylaError.ErrorType.AylaError,
+                        "No session is active"));
+            }
+            return null;
+        }
+
+        AylaConnectionConfirmation<AylaRegistrationCandidate> confirmation =
+                new AylaConnectionConfirmation<>(dsn,
+                        deviceManager.getSessionManager().getDSManager(),
+                        new AylaConnectionConfirmation.Check<AylaRegistrationCandidate>() {
+                            @Override
+                            public AylaAPIRequest check(
+                                    Response.Listener<AylaRegistrationCandidate> checkSuccessListener,
+                                    ErrorListener checkErrorListener) {
+                                return fetchCandidate(dsn, registrationType,
+                                        checkSuccessListener, checkErrorListener);
+                            }
+                        });
+        return confirmation.start(timeoutInSeconds, successListener, errorListener);
+    }
+
     /**
      * This method is invoked to get a Registration Token from the device.When the token is
      * received successfully this method then calls register Device. If the token is fetched from
@@ -1645,7 +1645,9 @@ public class AylaSetup {
 
     /**
      * Sets the interval used to poll the device service to determine if the device has
-     * successfully connected to the service after joining the WiFi network.
+     * successfully connected to the service after joining the WiFi network. The interval
+     * doubles after each request that did not find the device only while the data stream can
+     * report the device online, see {@link AylaConnectionConfirmation}.
      *
      * @param timeInMs Time in milliseconds between requests to look for the device
      */
@@ -1694,11 +1696,6 @@ public class AylaSetup {
 
         final String CONFIRM_DEVICE_CONNECTED = "confirmDeviceConnected";
 
-        long startTime = System.currentTimeMillis();
-        long timeoutInMills = timeoutInSeconds * 1000;
-
-        List<AylaAPIRequest> compoundRequests = new ArrayList<>();
-
         Map<String, String> params = new HashMap<>();
         params.put("dsn", dsn);
         if (setupToken != null) {
@@ -1736,57 +1733,44 @@ public class AylaSetup {
         ErrorListener internalErrorListener = new ErrorListener() {
             @Override
             public void onErrorResponse(AylaError error) {
-                if (System.currentTimeMillis() - startTime > timeoutInMills) {
-                    errorListener.onErrorResponse(error);
-                    if (shouldSendMetrics()) {
-                        AylaSetupMetric setupMetric = new AylaSetupMetric(
-                                AylaMetric.LogLevel.INFO,
-                                AylaSetupMetric.MetricType.SETUP_FAILURE,
-                                CONFIRM_DEVICE_CONNECTED,
-                                getSetupSessionId(),
-                                AylaMetric.Result.FAILURE, error.getMessage());
-                        setupMetric.secureSetup(isSecureSetup());
-                        sendToMetricsManager(setupMetric);
-                    }
-                } else {
-                    AylaLog.d(LOG_TAG, "try again to confirm device connection");
-                    AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<>(
-                            Request.Method.GET,
-                            url,
-                            null,
-                            AylaDevice.Wrapper.class,
-                            getSessionManager(),
-                            internalSuccessListener,this);
-                    compoundRequests.add(request);
-
-                    getUiHandler().postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            getSessionManager().getDeviceManager().sendDeviceServiceRequest(request);
-                        }
-                    }, getConfirmPollInterval());
+                errorListener.onErrorResponse(error);
+                if (shouldSendMetrics()) {
+                    AylaSetupMetric setupMetric = new AylaSetupMetric(
+                            AylaMetric.LogLevel.INFO,
+                            AylaSetupMetric.MetricType.SETUP_FAILURE,
+                            CONFIRM_DEVICE_CONNECTED,
+                            getSetupSessionId(),
+                            AylaMetric.Result.FAILURE, error.getMessage());
+                    setupMetric.secureSetup(isSecureSetup());
+                    sendToMetricsManager(setupMetric);
                 }
             }
         };
 
-        AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<AylaDevice.Wrapper>(
-                Request.Method.GET,
-                url,
-                null,
-                AylaDevice.Wrapper.class,
-                getSessionManager(),
-                internalSuccessListener, internalErrorListener) {
-                    @Override
-                    public void cancel() {
-                        super.cancel();
-                        for (AylaAPIRequest req : compoundRequests) {
-                            req.cancel();
-                        }
-                    }
-        };
-
-        getSessionManager().getDeviceManager().sendDeviceServiceRequest(request);
-        return request;
+        // Checks for the device each time it may have connected, as reported by the data
+        // stream or by polling
+        AylaConnectionConfirmation<AylaDevice.Wrapper> confirmation =
+                new AylaConnectionConfirmation<>(dsn, getSessionManager().getDSManager(),
+                        new AylaConnectionConfirmation.Check<AylaDevice.Wrapper>() {
+                            @Override
+                            public AylaAPIRequest check(
+                                    Listener<AylaDevice.Wrapper> checkSuccessListener,
+                                    ErrorListener checkErrorListener) {
+                                AylaAPIRequest<AylaDevice.Wrapper> request = new AylaAPIRequest<>(
+                                        Request.Method.GET,
+                                        url,
+                                        null,
+                                        AylaDevice.Wrapper.class,
+                                        getSessionManager(),
+                                        checkSuccessListener, checkErrorListener);
+                                getSessionManager().getDeviceManager()
+                                        .sendDeviceServiceRequest(request);
+                                return request;
+                            }
+                        });
+        confirmation.setInitialPollInterval(getConfirmPollInterval());
+        return confirmation.start(timeoutInSeconds, internalSuccessListener,
+                internalErrorListener);
     }
 
     /**
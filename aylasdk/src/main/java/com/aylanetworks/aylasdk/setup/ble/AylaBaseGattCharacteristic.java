@@ -17,6 +17,7 @@ import com.aylanetworks.aylasdk.AylaAPIRequest;
 import com.aylanetworks.aylasdk.AylaLog;
 import com.aylanetworks.aylasdk.error.ErrorListener;
 import com.aylanetworks.aylasdk.error.PreconditionError;
+import com.aylanetworks.aylasdk.localdevice.ble.AylaGattOperationQueue;
 import com.aylanetworks.aylasdk.localdevice.ble.BLEError;
 
 import java.lang.ref.WeakReference;
@@ -173,21 +174,17 @@ public class AylaBaseGattCharacteristic {
 
         AylaLog.i(TAG, "reading characteristic " + getName());
 
-        if (gatt.readCharacteristic(getOwner())) {
-            AylaBLEBaseRequest request = new AylaBLEBaseRequest(successListener, errorListener) {
-                @Override
-                public void cancel() {
-                    super.cancel();
-                    _pendingReads.remove(this);
-                }
-            };
-            _pendingReads.add(request);
-            return request;
-        } else {
-            errorListener.onErrorResponse(new PreconditionError(
-                    "failed to initialize characteristic read"));
-            return null;
-        }
+        AylaBLEBaseRequest request = new AylaBLEBaseRequest(successListener, errorListener) {
+            @Override
+            public void cancel() {
+                super.cancel();
+                _pendingReads.remove(this);
+            }
+        };
+        _pendingReads.add(request);
+        AylaGattOperationQueue.forGatt(gatt).readCharacteristic(getOwner(),
+                queueListener(_pendingReads, request, "characteristic read"));
+        return request;
     }
 
     /**
@@ -211,7 +208,7 @@ public class AylaBaseGattCharacteristic {
             }
         }
 
-        if (shouldHandleWrite() && gatt.writeCharacteristic(getOwner())) {
+        if (shouldHandleWrite()) {
             AylaBLEBaseRequest request = new AylaBLEBaseRequest(successListener, errorListener) {
                 @Override
                 public void cancel() {
@@ -220,6 +217,8 @@ public class AylaBaseGattCharacteristic {
                 }
             };
             _pendingWrites.add(request);
+            AylaGattOperationQueue.forGatt(gatt).writeCharacteristic(getOwner(),
+                    queueListener(_pendingWrites, request, "characteristic write"));
             return request;
         } else {
             errorListener.onErrorResponse(new PreconditionError("failed to write characteristic " + getUUID()));
@@ -278,11 +277,6 @@ public class AylaBaseGattCharacteristic {
             return null;
         }
 
-        if (!gatt.readDescriptor(descriptor)) {
-            errorListener.onErrorResponse(new PreconditionError("failed to read descriptor"));
-            return null;
-        }
-
         AylaBLEBaseRequest request = new AylaBLEBaseRequest(successListener, errorListener) {
             @Override
             public void cancel() {
@@ -297,6 +291,9 @@ public class AylaBaseGattCharacteristic {
             _pendingDescriptorReads.put(descriptor, new HashSet<>());
         }
         _pendingDescriptorReads.get(descriptor).add(request);
+        AylaGattOperationQueue.forGatt(gatt).readDescriptor(descriptor,
+                queueListener(_pendingDescriptorReads.get(descriptor), request,
+                        "descriptor read"));
 
         return request;
     }
@@ -314,13 +311,6 @@ public class AylaBaseGattCharacteristic {
             return null;
         }
 
-        if (!gatt.writeDescriptor(descriptor)) {
-            errorListener.onErrorResponse(new PreconditionError(
-                    "failed to write descriptor on characteristic "
-                            + descriptor.getCharacteristic().getUuid()));
-            return null;
-        }
-
         AylaBLEBaseRequest request = new AylaBLEBaseRequest(successListener, errorListener) {
             @Override
             public void cancel() {
@@ -335,6 +325,9 @@ public class AylaBaseGattCharacteristic {
             _pendingDescriptorWrites.put(descriptor, new HashSet<>());
         }
         _pendingDescriptorWrites.get(descriptor).add(request);
+        AylaGattOperationQueue.forGatt(gatt).writeDescriptor(descriptor,
+                queueListener(_pendingDescriptorWrites.get(descriptor), request,
+                        "descriptor write"));
 
         return request;
     }
@@ -481,6 +474,35 @@ public class AylaBaseGattCharacteristic {
         }
     }
 
+    /**
+     * Returns a listener for an operation queued on the AylaGattOperationQueue. Results from the
+     * remote device are delivered through the GATT callbacks above; the listener only reports
+     * operations that could not be started or timed out.
+     */
+    private AylaGattOperationQueue.OperationListener queueListener(
+            final Set<AylaBLEBaseRequest> pendingRequests,
+            final AylaBLEBaseRequest request,
+            final String operation) {
+        return new AylaGattOperationQueue.OperationListener() {
+            @Override
+            public void onOperationComplete(final int status) {
+                if (status >= 0) {
+                    return;
+                }
+                getUiHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pendingRequests.remove(request)) {
+                            request.reportBLEError(new BLEError(status, operation + " on " +
+                                    getName() + (status == AylaGattOperationQueue.STATUS_TIMEOUT ?
+                                    " timed out" : " failed")));
+                        }
+                    }
+                });
+            }
+        };
+    }
+
     private void notifyCharacteristicOperationResult(boolean readOperation, BLEError error) {
         getUiHandler().post(new Runnable() {
             @Override
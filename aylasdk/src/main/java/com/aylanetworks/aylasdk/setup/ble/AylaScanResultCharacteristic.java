@@ -11,9 +11,9 @@ import com.aylanetworks.aylasdk.setup.AylaWifiScanResults;
 import com.aylanetworks.aylasdk.setup.ble.listeners.OnScanResultChangedListener;
 
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -31,7 +31,8 @@ import java.util.UUID;
  * provide the next scan result in the list.
  * Alternatively, this characteristic may never be written to if notifications are enabled.
  * Just requesting a scan will produce a list of scan results in the form of notifications.
- * This is the preferred method of operation.
+ * This is the preferred method of operation. A scan result split over several notifications
+ * shorter than {@link #RECORD_SIZE} is joined back together before it is handled.
  *
  * <pre>
  *
@@ -63,6 +64,11 @@ public final class AylaScanResultCharacteristic extends AylaBaseGattCharacterist
 
     public static final UUID CHAR_UUID = UUID.fromString("1F80AF6E-2B71-4E35-94E5-00F854D8F16F");
 
+    /**
+     * Size in bytes of a scan result value
+     */
+    public static final int RECORD_SIZE = 43;
+
     private final static char[] HEX_CHARACTERS_ARRAY = "0123456789ABCDEF".toCharArray();
 
     private int _index;
@@ -72,8 +78,19 @@ public final class AylaScanResultCharacteristic extends AylaBaseGattCharacterist
     private int _rssi;
     private AylaSetup.WifiSecurityType _securityType;
 
+    // Set if the last value read or notified held a complete scan result
+    private boolean _valid;
+
     private OnScanResultChangedListener _onScanResultChangedListener;
-    private List<AylaWifiScanResults.Result> _scanResultsList = new ArrayList<>();
+
+    // Results received for the current scan, by index. Devices may send an index more than
+    // once, for example when a notification is repeated; only the latest is kept.
+    private final SortedMap<Integer, AylaWifiScanResults.Result> _scanResults = new TreeMap<>();
+
+    // Bytes received so far of a scan result split over several notifications. Guarded by
+    // _scanResults.
+    private final byte[] _fragment = new byte[RECORD_SIZE];
+    private int _fragmentLength;
 
     public void setOnScanResultChangedListener(OnScanResultChangedListener listener) {
         _onScanResultChangedListener = listener;
@@ -95,49 +112,133 @@ public final class AylaScanResultCharacteristic extends AylaBaseGattCharacterist
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt,
                                         BluetoothGattCharacteristic characteristic) {
+        byte[] value = getValue();
+        if (value != null && value.length < RECORD_SIZE) {
+            byte[] record = appendFragment(value);
+            if (record == null) {
+                return;
+            }
+            setValue(record);
+        } else {
+            dropFragment();
+        }
+
         // Call super method to ensure shouldHandleRead() method gets called.
         super.onCharacteristicChanged(gatt, characteristic);
-        notifyScanResult(getScanResult());
+        notifyScanResult();
     }
 
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         if (super.onCharacteristicRead(gatt, characteristic, status)) {
-            notifyScanResult(getScanResult());
+            notifyScanResult();
         }
         return true;
     }
 
-    private void notifyScanResult(AylaWifiScanResults.Result result) {
-        if (getOnScanResultChangedListener() == null) {
+    /**
+     * Appends part of a scan result received in a notification to the bytes received so far.
+     *
+     * @return the whole scan result once all of its bytes have been received, or null
+     */
+    private byte[] appendFragment(byte[] value) {
+        synchronized (_scanResults) {
+            int length = Math.min(value.length, RECORD_SIZE - _fragmentLength);
+            System.arraycopy(value, 0, _fragment, _fragmentLength, length);
+            _fragmentLength += length;
+            if (_fragmentLength < RECORD_SIZE) {
+                return null;
+            }
+            _fragmentLength = 0;
+            return _fragment.clone();
+        }
+    }
+
+    private void dropFragment() {
+        synchronized (_scanResults) {
+            if (_fragmentLength > 0) {
+                AylaLog.e(TAG, "dropping incomplete scan result of " + _fragmentLength +
+                        " bytes");
+                _fragmentLength = 0;
+            }
+        }
+    }
+
+    private void notifyScanResult() {
+        if (getOnScanResultChangedListener() == null || !_valid) {
             return;
         }
 
+        AylaWifiScanResults.Result result = getScanResult();
+
         if (getSSID().trim().isEmpty() && getSSIDLength() == 0) {
-            int length = _scanResultsList.size();
-            AylaWifiScanResults scanResults = new AylaWifiScanResults();
-            scanResults.results = _scanResultsList.toArray(new AylaWifiScanResults.Result[length]);
-            _scanResultsList.clear();
-            getUiHandler().post(new Runnable() {
-                @Override
-                public void run() {
-                    getOnScanResultChangedListener().onScanResultsAvailable(scanResults);
-                }
-            });
+            // An empty result marks the end of the list
+            completeScanResults();
         } else {
-            _scanResultsList.add(result);
+            boolean isNew;
+            synchronized (_scanResults) {
+                isNew = _scanResults.put(getIndex(), result) == null;
+            }
+            if (!isNew) {
+                AylaLog.d(TAG, "repeated scan result " + getIndex());
+                return;
+            }
             getUiHandler().post(new Runnable() {
                 @Override
                 public void run() {
-                    getOnScanResultChangedListener().onScanResultAvailable(result);
+                    OnScanResultChangedListener listener = getOnScanResultChangedListener();
+                    if (listener != null) {
+                        listener.onScanResultAvailable(result);
+                    }
                 }
             });
         }
     }
 
+    /**
+     * Delivers the scan results received so far to the OnScanResultChangedListener as the
+     * complete list, and starts collecting a new list. This happens when the device sends the
+     * empty result that ends the list, but may be called when the end of the list is assumed
+     * to have been missed, as notifications are not acknowledged.
+     */
+    public void completeScanResults() {
+        AylaWifiScanResults scanResults = new AylaWifiScanResults();
+        synchronized (_scanResults) {
+            scanResults.results = _scanResults.values().toArray(
+                    new AylaWifiScanResults.Result[_scanResults.size()]);
+            _scanResults.clear();
+        }
+        getUiHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                OnScanResultChangedListener listener = getOnScanResultChangedListener();
+                if (listener != null) {
+                    listener.onScanResultsAvailable(scanResults);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops scan results collected so far, before a new scan is started
+     */
+    public void resetScanResults() {
+        synchronized (_scanResults) {
+            _scanResults.clear();
+            _fragmentLength = 0;
+        }
+    }
+
     @Override
     protected boolean shouldHandleRead() {
         byte[] values = getValue();
+        _valid = values != null && values.length >= RECORD_SIZE;
+        if (!_valid) {
+            AylaLog.e(TAG, "incomplete scan result of " + (values == null ? 0 : values.length) +
+                    " bytes");
+            return false;
+        }
+
         int offset = 0;
         int len = 1;
         _index = values[offset];
@@ -0,0 +1,165 @@
+package com.aylanetworks.aylasdk.transport;
+/*
+ * AylaSDK
+ *
+ * Copyright 2020 Ayla Networks, all rights reserved
+ */
+
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.NoCache;
+import com.aylanetworks.aylasdk.AylaAPIRequest;
+
+/**
+ * AylaHttpTransport is the network layer shared by all of the SDK's request queues: the user
+ * service queue, the device service queue, the datastream service queue and the log service
+ * queues. Sharing one transport means sharing one connection pool, so connections (and HTTP/2
+ * sessions) to a cloud host are reused by every component that talks to that host.
+ * <p>
+ * The SDK uses an {@link AylaOkHttpTransport} by default. Applications may provide their own
+ * transport via {@link com.aylanetworks.aylasdk.AylaSystemSettings#httpTransport}, for example
+ * to share a connection pool with the rest of the application.
+ */
+public abstract class AylaHttpTransport {
+
+    /**
+     * Ayla requests are never cached (see {@link com.aylanetworks.aylasdk.AylaAPIRequest}), so
+     * the queues share a cache that does nothing rather than each opening a disk cache.
+     */
+    private final Cache _cache = new NoCache();
+
+    /**
+     * Returns the Volley Network used to perform requests over this transport.
+     *
+     * @return the shared Network
+     */
+    public abstract Network getNetwork();
+
+    /**
+     * Returns statistics on the requests performed by this transport.
+     *
+     * @return the current Stats
+     */
+    public abstract Stats getStats();
+
+    /**
+     * Releases the resources held by this transport. Called when the SDK is shut down.
+     */
+    public abstract void shutDown();
+
+    /**
+     * Returns the cache shared by the request queues of this transport, for use by callers that
+     * create their own RequestQueue subclass over this transport.
+     *
+     * @return the shared Cache
+     */
+    public Cache getCache() {
+        return _cache;
+    }
+
+    /**
+     * Creates a request queue using the shared network of this transport, wrapped by
+     * {@link AylaAPIRequest#meteredNetwork(Network)}. The queue must be started by the caller.
+     *
+     * @param threadPoolSize Number of network dispatcher threads of the queue
+     * @return the new RequestQueue
+     */
+    public RequestQueue newRequestQueue(int threadPoolSize) {
+        return newRequestQueue(AylaAPIRequest.meteredNetwork(getNetwork()), threadPoolSize);
+    }
+
+    /**
+     * Creates a request queue using the supplied network, which is expected to delegate to the
+     * network of this transport, e.g. a network wrapped by
+     * {@link com.aylanetworks.aylasdk.AylaRequestCoalescer#wrapNetwork(Network)}. The network
+     * should include one returned from {@link AylaAPIRequest#meteredNetwork(Network)}, so that
+     * the requests are recorded in the metrics registry. The queue must be started by the caller.
+     *
+     * @param network Network for the queue
+     * @param threadPoolSize Number of network dispatcher threads of the queue
+     * @return the new RequestQueue
+     */
+    public RequestQueue newRequestQueue(Network network, int threadPoolSize) {
+        return new RequestQueue(_cache, network, threadPoolSize);
+    }
+
+    /**
+     * Statistics on the requests performed by a transport.
+     */
+    public static class Stats {
+        private final long _requestCount;
+        private final long _failedRequestCount;
+        private final long _connectionCount;
+        private final long _http2ConnectionCount;
+        private final long _bytesSent;
+        private final long _bytesReceived;
+
+        public Stats(long requestCount, long failedRequestCount, long connectionCount,
+                     long http2ConnectionCount, long bytesSent, long bytesReceived) {
+            _requestCount = requestCount;
+            _failedRequestCount = failedRequestCount;
+            _connectionCount = connectionCount;
+            _http2ConnectionCount = http2ConnectionCount;
+            _bytesSent = bytesSent;
+            _bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return the number of requests performed
+         */
+        public long getRequestCount() {
+            return _requestCount;
+        }
+
+        /**
+         * @return the number of requests that failed without a response
+         */
+        public long getFailedRequestCount() {
+            return _failedRequestCount;
+        }
+
+        /**
+         * @return the number of new connections that were established
+         */
+        public long getConnectionCount() {
+            return _connectionCount;
+        }
+
+        /**
+         * @return the number of new connections that negotiated HTTP/2
+         */
+        public long getHttp2ConnectionCount() {
+            return _http2ConnectionCount;
+        }
+
+        /**
+         * @return the number of requests that were sent on an already established connection
+         */
+        public long getReusedConnectionCount() {
+            return Math.max(0, _requestCount - _failedRequestCount - _connectionCount);
+        }
+
+        /**
+         * @return the number of request body bytes sent, after compression
+         */
+        public long getBytesSent() {
+            return _bytesSent;
+        }
+
+        /**
+         * @return the number of response body bytes received, after decompression
+         */
+        public long getBytesReceived() {
+            return _bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "requests: " + _requestCount + ", failed: " + _failedRequestCount +
+                    ", connections: " + _connectionCount + " (http/2: " + _http2ConnectionCount +
+                    "), reused: " + getReusedConnectionCount() + ", sent: " + _bytesSent +
+                    ", received: " + _bytesReceived;
+        }
+    }
+}
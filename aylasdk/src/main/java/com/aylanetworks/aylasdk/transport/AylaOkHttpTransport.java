@@ -0,0 +1,451 @@
+package com.aylanetworks.aylasdk.transport;
+/*
+ * AylaSDK
+ *
+ * Copyright 2020 Ayla Networks, all rights reserved
+ */
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HttpResponse;
+import com.aylanetworks.aylasdk.AylaLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * The default {@link AylaHttpTransport} of the SDK, built on OkHttp. A single OkHttpClient, and
+ * therefore a single connection pool, is shared by every request queue of the SDK:
+ * <ul>
+ *     <li>Connections are kept alive and reused across queues.</li>
+ *     <li>HTTP/2 is negotiated with hosts that support it, multiplexing concurrent requests to
+ *     the same host over one connection.</li>
+ *     <li>Responses are transparently gzip-decoded, and request bodies may optionally be
+ *     gzip-encoded.</li>
+ *     <li>The number of concurrent requests to a host can be limited, either for all hosts or
+ *     for specific hosts.</li>
+ * </ul>
+ * Transports are created with an {@link AylaOkHttpTransport.Builder}.
+ */
+public class AylaOkHttpTransport extends AylaHttpTransport {
+    private static final String LOG_TAG = "AylaOkHttpTransport";
+
+    /**
+     * Request bodies smaller than this are sent as-is even if gzip encoding is enabled.
+     */
+    private static final int MIN_GZIP_BODY_SIZE = 1024;
+
+    private final OkHttpClient _client;
+    private final Network _network;
+    private final boolean _gzipRequestBodies;
+    private final int _maxRequestsPerHost;
+    private final Map<String, Integer> _hostRequestLimits;
+    private final ConcurrentHashMap<String, Semaphore> _hostSemaphores =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong _requestCount = new AtomicLong();
+    private final AtomicLong _failedRequestCount = new AtomicLong();
+    private final AtomicLong _connectionCount = new AtomicLong();
+    private final AtomicLong _http2ConnectionCount = new AtomicLong();
+    private final AtomicLong _bytesSent = new AtomicLong();
+    private final AtomicLong _bytesReceived = new AtomicLong();
+
+    private AylaOkHttpTransport(Builder builder) {
+        _gzipRequestBodies = builder._gzipRequestBodies;
+        _maxRequestsPerHost = builder._maxRequestsPerHost;
+        _hostRequestLimits = new HashMap<>(builder._hostRequestLimits);
+
+        OkHttpClient.Builder clientBuilder = builder._client != null ?
+                builder._client.newBuilder() : new OkHttpClient.Builder();
+        List<Protocol> protocols = builder._http2Enabled ?
+                Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) :
+                Arrays.asList(Protocol.HTTP_1_1);
+        _client = clientBuilder
+                .connectionPool(new ConnectionPool(builder._maxIdleConnections,
+                        builder._keepAliveDurationMs, TimeUnit.MILLISECONDS))
+                .protocols(protocols)
+                .retryOnConnectionFailure(true)
+                .eventListener(new StatsEventListener())
+                .build();
+        _network = new BasicNetwork(new OkHttpStack());
+    }
+
+    @Override
+    public Network getNetwork() {
+        return _network;
+    }
+
+    /**
+     * @return the OkHttpClient used by this transport
+     */
+    public OkHttpClient getClient() {
+        return _client;
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(_requestCount.get(), _failedRequestCount.get(), _connectionCount.get(),
+                _http2ConnectionCount.get(), _bytesSent.get(), _bytesReceived.get());
+    }
+
+    @Override
+    public void shutDown() {
+        _client.dispatcher().cancelAll();
+        _client.connectionPool().evictAll();
+    }
+
+    private Semaphore getHostSemaphore(String host) {
+        Semaphore semaphore = _hostSemaphores.get(host);
+        if (semaphore == null) {
+            Integer limit = _hostRequestLimits.get(host);
+            semaphore = new Semaphore(limit != null ? limit : _maxRequestsPerHost, true);
+            Semaphore existing = _hostSemaphores.putIfAbsent(host, semaphore);
+            if (existing != null) {
+                semaphore = existing;
+            }
+        }
+        return semaphore;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(bos);
+        try {
+            gzipStream.write(data);
+        } finally {
+            gzipStream.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Volley stack performing requests with the shared OkHttpClient.
+     */
+    private class OkHttpStack extends BaseHttpStack {
+        @Override
+        public HttpResponse executeRequest(Request<?> request,
+                                           Map<String, String> additionalHeaders)
+                throws IOException, AuthFailureError {
+            okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                    .url(request.getUrl());
+
+            Map<String, String> headers = new HashMap<>(request.getHeaders());
+            headers.putAll(additionalHeaders);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+            setMethodAndBody(builder, request);
+
+            int timeoutMs = request.getTimeoutMs();
+            OkHttpClient client = _client;
+            if (timeoutMs > 0 && timeoutMs != _client.readTimeoutMillis()) {
+                client = _client.newBuilder()
+                        .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .build();
+            }
+
+            String host = Uri.parse(request.getUrl()).getHost();
+            final Semaphore semaphore = getHostSemaphore(host == null ? "" : host);
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + host);
+            }
+
+            _requestCount.incrementAndGet();
+            Response response;
+            try {
+                response = client.newCall(builder.build()).execute();
+            } catch (IOException e) {
+                _failedRequestCount.incrementAndGet();
+                semaphore.release();
+                throw e;
+            }
+
+            List<Header> responseHeaders = new ArrayList<>();
+            Headers okHeaders = response.headers();
+            for (int i = 0; i < okHeaders.size(); i++) {
+                responseHeaders.add(new Header(okHeaders.name(i), okHeaders.value(i)));
+            }
+
+            ResponseBody body = response.body();
+            if (body == null || !hasResponseBody(request.getMethod(), response.code()) ||
+                    body.contentLength() == 0) {
+                // BasicNetwork does not read or close the content of a 304 response, so the
+                // host slot of a response without a body is released here rather than on close
+                if (body != null) {
+                    body.close();
+                }
+                semaphore.release();
+                return new HttpResponse(response.code(), responseHeaders);
+            }
+
+            // Keep the host slot until the body has been read and closed by BasicNetwork
+            InputStream content = new ReleasingInputStream(body.byteStream(), semaphore);
+            return new HttpResponse(response.code(), responseHeaders,
+                    (int) body.contentLength(), content);
+        }
+
+        private boolean hasResponseBody(int method, int code) {
+            return method != Request.Method.HEAD &&
+                    !(code >= 100 && code < 200) &&
+                    code != HttpURLConnection.HTTP_NO_CONTENT &&
+                    code != HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        private void setMethodAndBody(okhttp3.Request.Builder builder, Request<?> request)
+                throws IOException, AuthFailureError {
+            switch (request.getMethod()) {
+                case Request.Method.DEPRECATED_GET_OR_POST:
+                    byte[] postBody = request.getBody();
+                    if (postBody != null) {
+                        builder.post(createBody(builder, request, postBody));
+                    }
+                    break;
+                case Request.Method.GET:
+                    builder.get();
+                    break;
+                case Request.Method.DELETE:
+                    byte[] deleteBody = request.getBody();
+                    if (deleteBody != null) {
+                        builder.delete(createBody(builder, request, deleteBody));
+                    } else {
+                        builder.delete();
+                    }
+                    break;
+                case Request.Method.POST:
+                    builder.post(createBody(builder, request, request.getBody()));
+                    break;
+                case Request.Method.PUT:
+                    builder.put(createBody(builder, request, request.getBody()));
+                    break;
+                case Request.Method.HEAD:
+                    builder.head();
+                    break;
+                case Request.Method.OPTIONS:
+                    builder.method("OPTIONS", null);
+                    break;
+                case Request.Method.TRACE:
+                    builder.method("TRACE", null);
+                    break;
+                case Request.Method.PATCH:
+                    builder.patch(createBody(builder, request, request.getBody()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown method type " + request.getMethod());
+            }
+        }
+
+        private RequestBody createBody(okhttp3.Request.Builder builder, Request<?> request,
+                                       byte[] body) throws IOException {
+            if (body == null) {
+                body = new byte[0];
+            }
+
+            if (_gzipRequestBodies && body.length >= MIN_GZIP_BODY_SIZE) {
+                body = gzip(body);
+                builder.header("Content-Encoding", "gzip");
+            }
+
+            _bytesSent.addAndGet(body.length);
+            return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+        }
+    }
+
+    /**
+     * Releases the host slot of a request once its response body has been closed, and counts
+     * the bytes received.
+     */
+    private class ReleasingInputStream extends FilterInputStream {
+        private final Semaphore _semaphore;
+        private final AtomicBoolean _released = new AtomicBoolean();
+
+        ReleasingInputStream(InputStream in, Semaphore semaphore) {
+            super(in);
+            _semaphore = semaphore;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                _bytesReceived.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                _bytesReceived.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (_released.compareAndSet(false, true)) {
+                    _semaphore.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the connections established by the client.
+     */
+    private class StatsEventListener extends EventListener {
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                               Protocol protocol) {
+            _connectionCount.incrementAndGet();
+            if (protocol == Protocol.HTTP_2) {
+                _http2ConnectionCount.incrementAndGet();
+            }
+            AylaLog.d(LOG_TAG, "New " + protocol + " connection to " +
+                    call.request().url().host());
+        }
+    }
+
+    /**
+     * Builder for {@link AylaOkHttpTransport}.
+     */
+    public static class Builder {
+        private OkHttpClient _client;
+        private boolean _http2Enabled = true;
+        private boolean _gzipRequestBodies;
+        private int _maxRequestsPerHost = 8;
+        private int _maxIdleConnections = 5;
+        private long _keepAliveDurationMs = TimeUnit.MINUTES.toMillis(5);
+        private final Map<String, Integer> _hostRequestLimits = new HashMap<>();
+
+        /**
+         * Uses the given client as the base of the transport's client, for example to share
+         * its connection pool or to add interceptors. The connection pool, protocols and event
+         * listener of the client are replaced by those of the transport.
+         *
+         * @param client Base OkHttpClient
+         * @return this builder
+         */
+        public Builder setBaseClient(OkHttpClient client) {
+            _client = client;
+            return this;
+        }
+
+        /**
+         * Enables or disables HTTP/2. When enabled (the default), HTTP/2 is used with hosts
+         * that support it.
+         *
+         * @param enabled true to enable HTTP/2
+         * @return this builder
+         */
+        public Builder setHttp2Enabled(boolean enabled) {
+            _http2Enabled = enabled;
+            return this;
+        }
+
+        /**
+         * Enables gzip encoding of request bodies larger than 1 KB. Disabled by default, as it
+         * requires the service to accept gzip-encoded requests. Responses are always
+         * decoded transparently.
+         *
+         * @param enabled true to gzip request bodies
+         * @return this builder
+         */
+        public Builder setGzipRequestBodies(boolean enabled) {
+            _gzipRequestBodies = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests that may be in flight to a single host.
+         *
+         * @param maxRequests Maximum number of concurrent requests per host
+         * @return this builder
+         */
+        public Builder setMaxRequestsPerHost(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests must be at least 1");
+            }
+            _maxRequestsPerHost = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests that may be in flight to the given host,
+         * overriding {@link #setMaxRequestsPerHost(int)} for that host.
+         *
+         * @param host Host name, e.g. the host of a URL returned by
+         *             {@link com.aylanetworks.aylasdk.util.ServiceUrls#getBaseServiceURL}
+         * @param maxRequests Maximum number of concurrent requests to the host
+         * @return this builder
+         */
+        public Builder setMaxRequestsForHost(String host, int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests must be at least 1");
+            }
+            _hostRequestLimits.put(host, maxRequests);
+            return this;
+        }
+
+        /**
+         * Configures the connection pool of the transport.
+         *
+         * @param maxIdleConnections Maximum number of idle connections kept in the pool
+         * @param keepAliveDurationMs Time an idle connection is kept in the pool
+         * @return this builder
+         */
+        public Builder setConnectionPool(int maxIdleConnections, long keepAliveDurationMs) {
+            _maxIdleConnections = maxIdleConnections;
+            _keepAliveDurationMs = keepAliveDurationMs;
+            return this;
+        }
+
+        public AylaOkHttpTransport build() {
+            return new AylaOkHttpTransport(this);
+        }
+    }
+}
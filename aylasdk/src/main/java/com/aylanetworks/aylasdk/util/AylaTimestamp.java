@@ -0,0 +1,189 @@
+package com.aylanetworks.aylasdk.util;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+/**
+ * An immutable point in time, as used for the timestamps of properties and datapoints.
+ * <p>
+ * Timestamps received from the cloud service keep their original string and are only parsed
+ * when their time is asked for; timestamps made by the SDK, such as for LAN updates, keep their
+ * epoch milliseconds and are only rendered as ISO-8601 when their string is asked for. Either
+ * is computed at most once and cached, so passing timestamps around, comparing them and
+ * serializing them back to JSON costs nothing extra. Instances may be shared between threads.
+ * <p>
+ * Timestamps are written to and read from JSON as the same strings the cloud service uses,
+ * e.g. "2015-12-28T19:35:50Z", or "2015-12-28T19:35:50.123Z" for those made by the SDK.
+ */
+@JsonAdapter(AylaTimestamp.Adapter.class)
+public final class AylaTimestamp implements Comparable<AylaTimestamp> {
+    private static final long NOT_PARSED = Long.MAX_VALUE;
+
+    // Both fields are computed from the other at most once. The computation always gives the
+    // same result, so racing threads may both do it without harm.
+    private volatile String _string;
+    private volatile long _epochMillis;
+
+    private AylaTimestamp(String string, long epochMillis) {
+        _string = string;
+        _epochMillis = epochMillis;
+    }
+
+    /**
+     * Returns a timestamp of the current time
+     */
+    public static AylaTimestamp now() {
+        return fromEpochMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a timestamp of the given time
+     *
+     * @param epochMillis milliseconds since the epoch
+     */
+    public static AylaTimestamp fromEpochMillis(long epochMillis) {
+        return new AylaTimestamp(null, epochMillis);
+    }
+
+    /**
+     * Returns a timestamp for a date string received from the cloud service. The string is
+     * kept as it is and returned by {@link #toString()}.
+     *
+     * @param string ISO-8601 date string
+     * @return the timestamp, or null if the string is null or empty
+     */
+    public static AylaTimestamp fromString(String string) {
+        if (string == null || string.isEmpty()) {
+            return null;
+        }
+        return new AylaTimestamp(string, NOT_PARSED);
+    }
+
+    /**
+     * Returns the string of a timestamp, or null if the timestamp is null
+     */
+    public static String toString(AylaTimestamp timestamp) {
+        return timestamp == null ? null : timestamp.toString();
+    }
+
+    /**
+     * Returns the Date of a timestamp, or null if the timestamp is null or could not be parsed
+     */
+    public static Date toDate(AylaTimestamp timestamp) {
+        return timestamp == null ? null : timestamp.toDate();
+    }
+
+    /**
+     * Returns true if this timestamp's string could be parsed into a time
+     */
+    public boolean isValid() {
+        return getEpochMillis() != UtcDateTypeAdapterUtil.INVALID_TIME;
+    }
+
+    /**
+     * Returns the milliseconds since the epoch, or {@link UtcDateTypeAdapterUtil#INVALID_TIME}
+     * if this timestamp's string could not be parsed
+     */
+    public long getEpochMillis() {
+        long epochMillis = _epochMillis;
+        if (epochMillis == NOT_PARSED) {
+            Date date = DateUtils.fromJsonString(_string);
+            epochMillis = date == null ? UtcDateTypeAdapterUtil.INVALID_TIME : date.getTime();
+            _epochMillis = epochMillis;
+        }
+        return epochMillis;
+    }
+
+    /**
+     * Returns a new Date for this timestamp, or null if this timestamp's string could not be
+     * parsed
+     */
+    public Date toDate() {
+        return isValid() ? new Date(getEpochMillis()) : null;
+    }
+
+    /**
+     * Returns this timestamp as received from the cloud service, or formatted as
+     * yyyy-MM-ddThh:mm:ss.sssZ if it was made by the SDK. Millis are included so that made
+     * timestamps that differ, as {@link #equals(Object)} and {@link #compareTo(AylaTimestamp)}
+     * tell, also differ as strings.
+     */
+    @Override
+    public String toString() {
+        String string = _string;
+        if (string == null) {
+            string = UtcDateTypeAdapterUtil.formatUtc(_epochMillis, true);
+            _string = string;
+        }
+        return string;
+    }
+
+    /**
+     * Timestamps are equal if they are the same time, or if neither could be parsed and their
+     * strings are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AylaTimestamp)) {
+            return false;
+        }
+        AylaTimestamp other = (AylaTimestamp) o;
+        if (isValid() || other.isValid()) {
+            return getEpochMillis() == other.getEpochMillis();
+        }
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return isValid() ? (int) (_epochMillis ^ (_epochMillis >>> 32)) : toString().hashCode();
+    }
+
+    /**
+     * Orders timestamps by time. Timestamps that could not be parsed come first.
+     */
+    @Override
+    public int compareTo(AylaTimestamp other) {
+        long time = getEpochMillis();
+        long otherTime = other.getEpochMillis();
+        return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+    }
+
+    /**
+     * Reads and writes timestamps as JSON strings
+     */
+    public static class Adapter extends TypeAdapter<AylaTimestamp> {
+        @Override
+        public void write(JsonWriter out, AylaTimestamp timestamp) throws IOException {
+            if (timestamp == null) {
+                out.nullValue();
+            } else {
+                out.value(timestamp.toString());
+            }
+        }
+
+        @Override
+        public AylaTimestamp read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return fromString(in.nextString());
+        }
+    }
+}
@@ -347,8 +347,8 @@ public class AylaTypeAdapterFactory implements TypeAdapterFactory
                     if (date == null) {
                         out.nullValue();
                     } else {
-                        String value = UtcDateTypeAdapterUtil.format((Date) date, true,
-                                UtcDateTypeAdapterUtil.UTC_TIME_ZONE);
+                        String value = UtcDateTypeAdapterUtil.formatUtc(((Date) date).getTime(),
+                                true);
                         out.value(value);
                     }
                 }
@@ -363,6 +363,10 @@ public class AylaTypeAdapterFactory implements TypeAdapterFactory
                                 return null;
                             default:
                                 String date = in.nextString();
+                                long time = UtcDateTypeAdapterUtil.parseUtcMillis(date);
+                                if (time != UtcDateTypeAdapterUtil.INVALID_TIME) {
+                                    return (R) new Date(time);
+                                }
                                 return (R) UtcDateTypeAdapterUtil.parse(date, new ParsePosition
                                         (0));
                         }
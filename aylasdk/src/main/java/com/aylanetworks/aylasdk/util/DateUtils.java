@@ -13,29 +13,50 @@ import java.util.Locale;
 import java.util.TimeZone;
 
 public class DateUtils {
-    private static DateFormat __iso8601DateFormat;
-
-    static {
-        // Server returns with a literal 'Z' at the end
-        // "data_updated_at": "2015-12-28T19:35:50Z",
-        __iso8601DateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        __iso8601DateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-    }
+    // SimpleDateFormat is not thread-safe, and dates are parsed on the main thread, the Volley
+    // threads and the LAN server threads alike, so each thread gets its own
+    private static final ThreadLocal<DateFormat> __iso8601DateFormat =
+            new ThreadLocal<DateFormat>() {
+                @Override
+                protected DateFormat initialValue() {
+                    // Server returns with a literal 'Z' at the end
+                    // "data_updated_at": "2015-12-28T19:35:50Z",
+                    DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'",
+                            Locale.US);
+                    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    return format;
+                }
+            };
 
     /**
      * Returns a DateFormat object initialized to deal with date strings returned from the Ayla
      * cloud service
      *
      * @return A DateFormat object used to translate strings to dates and back. The DateFormat
-     * object is configured for UTC time and should not be modified.
+     * object is configured for UTC time, belongs to the calling thread and should not be
+     * modified or passed to other threads.
      */
     public static DateFormat getISO8601DateFormat() {
-        return __iso8601DateFormat;
+        return __iso8601DateFormat.get();
+    }
+
+    /**
+     * Formats a date the way the Ayla cloud service does, e.g. "2015-12-28T19:35:50Z"
+     *
+     * @param date Date to format
+     * @return the formatted date
+     */
+    public static String toJsonString(Date date) {
+        return UtcDateTypeAdapterUtil.formatUtc(date.getTime(), false);
     }
 
     public static Date fromJsonString(String jsonDateString) {
+        long time = UtcDateTypeAdapterUtil.parseUtcMillis(jsonDateString);
+        if (time != UtcDateTypeAdapterUtil.INVALID_TIME) {
+            return new Date(time);
+        }
         try {
-            return __iso8601DateFormat.parse(jsonDateString);
+            return __iso8601DateFormat.get().parse(jsonDateString);
         } catch (ParseException e) {
             return null;
         } catch (NullPointerException e) {
@@ -79,6 +79,157 @@ public final class UtcDateTypeAdapterUtil {
         return formatted.toString();
     }
 
+    /**
+     * Returned by {@link #parseUtcMillis} for strings it does not recognize
+     */
+    public static final long INVALID_TIME = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * Formats epoch milliseconds as yyyy-MM-ddThh:mm:ss[.sss]Z in UTC. Unlike
+     * {@link #format(Date, boolean, TimeZone)}, no Calendar is created, so this may be called
+     * from any thread as often as needed.
+     *
+     * @param epochMillis milliseconds since the epoch
+     * @param millis      true to include millis precision otherwise false
+     * @return the time formatted as yyyy-MM-ddThh:mm:ss[.sss]Z
+     */
+    public static String formatUtc(long epochMillis, boolean millis) {
+        long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (epochMillis - days * MILLIS_PER_DAY);
+
+        // Civil date from days since the epoch, see
+        // http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return format(new Date(epochMillis), millis, UTC_TIME_ZONE);
+        }
+
+        char[] formatted = new char[millis ? 24 : 20];
+        putDigits(formatted, 0, (int) year, 4);
+        formatted[4] = '-';
+        putDigits(formatted, 5, month, 2);
+        formatted[7] = '-';
+        putDigits(formatted, 8, day, 2);
+        formatted[10] = 'T';
+        putDigits(formatted, 11, millisOfDay / 3600000, 2);
+        formatted[13] = ':';
+        putDigits(formatted, 14, millisOfDay / 60000 % 60, 2);
+        formatted[16] = ':';
+        putDigits(formatted, 17, millisOfDay / 1000 % 60, 2);
+        if (millis) {
+            formatted[19] = '.';
+            putDigits(formatted, 20, millisOfDay % 1000, 3);
+        }
+        formatted[formatted.length - 1] = 'Z';
+        return new String(formatted);
+    }
+
+    /**
+     * Parses the yyyy-MM-ddThh:mm:ss[.sss][Z|[+-]hh:mm] form returned by the Ayla cloud service
+     * into epoch milliseconds. This uses the same field parsing as
+     * {@link #parse(String, ParsePosition)} but computes the time directly rather than through
+     * a Calendar and TimeZone, so it allocates nothing and is safe to call from any thread.
+     *
+     * @param date ISO string to parse
+     * @return the epoch milliseconds, or {@link #INVALID_TIME} if the string is not in this form.
+     * Callers wanting the more lenient formats should fall back to
+     * {@link #parse(String, ParsePosition)}.
+     */
+    public static long parseUtcMillis(String date) {
+        if (date == null || date.length() < 20 || !checkOffset(date, 4, '-') ||
+                !checkOffset(date, 7, '-') || !checkOffset(date, 10, 'T') ||
+                !checkOffset(date, 13, ':') || !checkOffset(date, 16, ':')) {
+            return INVALID_TIME;
+        }
+
+        try {
+            int year = parseInt(date, 0, 4);
+            int month = parseInt(date, 5, 7);
+            int day = parseInt(date, 8, 10);
+            int hour = parseInt(date, 11, 13);
+            int minutes = parseInt(date, 14, 16);
+            int seconds = parseInt(date, 17, 19);
+            int offset = 19;
+            int milliseconds = 0;
+            if (checkOffset(date, offset, '.')) {
+                milliseconds = parseInt(date, offset + 1, offset + 4);
+                offset += 4;
+            }
+            if (month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1] ||
+                    (month == 2 && day == 29 && !isLeapYear(year)) || hour > 23 ||
+                    minutes > 59 || seconds > 59) {
+                return INVALID_TIME;
+            }
+
+            if (offset >= date.length()) {
+                return INVALID_TIME;
+            }
+            int zoneOffsetMinutes;
+            char indicator = date.charAt(offset);
+            if (indicator == 'Z' && offset + 1 == date.length()) {
+                zoneOffsetMinutes = 0;
+            } else if ((indicator == '+' || indicator == '-') && offset + 6 == date.length() &&
+                    checkOffset(date, offset + 3, ':')) {
+                zoneOffsetMinutes = parseInt(date, offset + 1, offset + 3) * 60 +
+                        parseInt(date, offset + 4, offset + 6);
+                if (indicator == '-') {
+                    zoneOffsetMinutes = -zoneOffsetMinutes;
+                }
+            } else {
+                return INVALID_TIME;
+            }
+
+            // Days since the epoch from the civil date, see
+            // http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+            int y = month <= 2 ? year - 1 : year;
+            int era = y / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            long days = era * 146097L + dayOfEra - 719468;
+
+            return days * MILLIS_PER_DAY + hour * 3600000L + minutes * 60000L +
+                    seconds * 1000L + milliseconds - zoneOffsetMinutes * 60000L;
+        } catch (NumberFormatException e) {
+            return INVALID_TIME;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * Writes a zero padded number into a char array
+     *
+     * @param buffer buffer to write into
+     * @param offset offset of the first digit
+     * @param value  the non-negative value to write
+     * @param length the number of digits to write
+     */
+    private static void putDigits(char[] buffer, int offset, int value, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
     /**
      * Zero pad a number to a specified length
      *
@@ -0,0 +1,113 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.test.InstrumentationRegistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Initializes the SDK for the benchmarks and loads the recorded fixtures from the assets of the
+ * benchmark APK:
+ * <ul>
+ *     <li>devices.json: a devices.json response with Wifi devices, gateways and nodes</li>
+ *     <li>properties.json: a properties.json response with properties of each base type</li>
+ *     <li>datastream.txt: DSS messages as received, one per line, beginning with their
+ *     length</li>
+ * </ul>
+ * No account or network is needed.
+ */
+public class BenchmarkFixtures {
+    public static final String DEVICES = "devices.json";
+    public static final String PROPERTIES = "properties.json";
+    public static final String DATASTREAM = "datastream.txt";
+
+    /**
+     * Initializes AylaNetworks, which provides the Gson instance used by the SDK. Listeners are
+     * notified on the calling thread, so changes do not queue up on the main thread while a
+     * benchmark runs.
+     */
+    public static void initialize() {
+        AylaSystemSettings systemSettings = new AylaSystemSettings();
+        systemSettings.appId = "benchmark-id";
+        systemSettings.appSecret = "benchmark-secret";
+        systemSettings.serviceLocation = AylaSystemSettings.ServiceLocation.USA;
+        systemSettings.serviceType = AylaSystemSettings.ServiceType.Development;
+        systemSettings.allowDSS = false;
+        systemSettings.listenerExecutor = AylaListenerDelivery.direct();
+        systemSettings.context = InstrumentationRegistry.getTargetContext();
+        AylaNetworks.initialize(systemSettings);
+    }
+
+    /**
+     * Reads a fixture
+     *
+     * @param name file name of the fixture
+     * @return the contents of the fixture
+     */
+    public static String read(String name) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String line : readLines(name)) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a fixture line by line
+     *
+     * @param name file name of the fixture
+     * @return the non-empty lines of the fixture
+     */
+    public static List<String> readLines(String name) throws IOException {
+        List<String> lines = new ArrayList<>();
+        InputStream inputStream = InstrumentationRegistry.getContext().getAssets()
+                .open(name);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream,
+                    Charset.forName("UTF-8")));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a device of the devices.json fixture with the properties of the properties.json
+     * fixture, as the device manager would after fetching both
+     *
+     * @param dsn DSN of the device
+     * @return the device, or null if the fixture has no device with the DSN
+     */
+    public static AylaDevice deviceWithProperties(String dsn) throws IOException {
+        AylaDevice found = null;
+        AylaDevice.Wrapper[] wrappers = AylaNetworks.sharedInstance().getGson().fromJson(
+                read(DEVICES), AylaDevice.Wrapper[].class);
+        for (AylaDevice device : AylaDevice.Wrapper.unwrap(wrappers)) {
+            if (dsn.equals(device.getDsn())) {
+                found = device;
+            }
+        }
+        if (found != null) {
+            AylaProperty.Wrapper[] properties = AylaNetworks.sharedInstance().getGson().fromJson(
+                    read(PROPERTIES), AylaProperty.Wrapper[].class);
+            found.mergeProperties(AylaProperty.Wrapper.unwrap(properties));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,62 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Measures decoding of recorded DSS messages the way AylaDSManager does when a message
+ * arrives: the length prefix is stripped and the message is read as an AylaDataStream. Each
+ * iteration decodes the whole fixture, a mix of datapoint and connectivity events.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatastreamDecodeBenchmark {
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private Gson _gson;
+    private List<String> _messages;
+
+    @Before
+    public void setUp() throws Exception {
+        BenchmarkFixtures.initialize();
+        _gson = AylaNetworks.sharedInstance().getGson();
+        _messages = BenchmarkFixtures.readLines(BenchmarkFixtures.DATASTREAM);
+    }
+
+    @Test
+    public void decodeMessages() {
+        BenchmarkState state = _benchmarkRule.getState();
+        int connectivityEvents = 0;
+        while (state.keepRunning()) {
+            connectivityEvents = 0;
+            for (String payload : _messages) {
+                String dsMessage = payload.substring(payload.indexOf('|') + 1);
+                AylaDataStream dataStream = _gson.fromJson(dsMessage, AylaDataStream.class);
+                if (dataStream.getConnection() != null) {
+                    connectivityEvents++;
+                } else {
+                    assertNotNull(dataStream.getDatapoint());
+                }
+            }
+        }
+        assertEquals(4, connectivityEvents);
+    }
+}
@@ -0,0 +1,63 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures decoding of the devices.json and properties.json responses with the Gson instance
+ * of the SDK, as the device manager does on every poll.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GsonDecodeBenchmark {
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private Gson _gson;
+    private String _devicesJson;
+    private String _propertiesJson;
+
+    @Before
+    public void setUp() throws Exception {
+        BenchmarkFixtures.initialize();
+        _gson = AylaNetworks.sharedInstance().getGson();
+        _devicesJson = BenchmarkFixtures.read(BenchmarkFixtures.DEVICES);
+        _propertiesJson = BenchmarkFixtures.read(BenchmarkFixtures.PROPERTIES);
+    }
+
+    @Test
+    public void decodeDevices() {
+        BenchmarkState state = _benchmarkRule.getState();
+        AylaDevice[] devices = null;
+        while (state.keepRunning()) {
+            devices = AylaDevice.Wrapper.unwrap(_gson.fromJson(_devicesJson,
+                    AylaDevice.Wrapper[].class));
+        }
+        assertEquals(60, devices.length);
+    }
+
+    @Test
+    public void decodeProperties() {
+        BenchmarkState state = _benchmarkRule.getState();
+        AylaProperty[] properties = null;
+        while (state.keepRunning()) {
+            properties = AylaProperty.Wrapper.unwrap(_gson.fromJson(_propertiesJson,
+                    AylaProperty.Wrapper[].class));
+        }
+        assertEquals(40, properties.length);
+    }
+}
@@ -0,0 +1,91 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures AylaProperty.updateFrom, which every datapoint received from the cloud, the data
+ * stream or a LAN session goes through, including the notification of the owning device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PropertyUpdateBenchmark {
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private AylaProperty<Integer> _property;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        BenchmarkFixtures.initialize();
+        AylaDevice device = BenchmarkFixtures.deviceWithProperties("AC000W000001001");
+        _property = device.getProperty("Blue_LED");
+        assertNotNull(_property);
+    }
+
+    @Test
+    public void updateChangedValue() {
+        update(AylaDevice.DataSource.DSS);
+    }
+
+    @Test
+    public void updateChangedValueFromLan() {
+        // LAN updates also set the timestamps, as devices do not send them
+        update(AylaDevice.DataSource.LAN);
+    }
+
+    /**
+     * LAN updates as the app sees them: each update sets the timestamps, which the app then
+     * reads back. This used to format the current time with a SimpleDateFormat and parse it
+     * again on each read.
+     */
+    @Test
+    public void updateChangedValueFromLanAndReadTimestamp() {
+        Integer[] values = new Integer[]{0, 1};
+        int index = 0;
+        long checksum = 0;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            index ^= 1;
+            _property.updateFrom(values[index], null, AylaDevice.DataSource.LAN);
+            checksum += _property.getDataUpdatedAt().getTime();
+        }
+        assertTrue(checksum > 0);
+    }
+
+    @Test
+    public void updateSameValue() {
+        Integer value = _property.getValue();
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            _property.updateFrom(value, null, AylaDevice.DataSource.DSS);
+        }
+        assertNull(_property.updateFrom(value, null, AylaDevice.DataSource.DSS));
+    }
+
+    private void update(AylaDevice.DataSource dataSource) {
+        Integer[] values = new Integer[]{0, 1};
+        int index = 0;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            index ^= 1;
+            _property.updateFrom(values[index], null, dataSource);
+        }
+        assertNotNull(_property.updateFrom(values[index ^ 1], null, dataSource));
+    }
+}
@@ -0,0 +1,99 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures the polymorphic reads of the AylaTypeAdapterFactory, which picks the class of a
+ * device from its device_type and node_type and the type of a property value from its
+ * base_type, for a single object of each kind taken from the recorded fixtures.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TypeAdapterBenchmark {
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private Gson _gson;
+    private JsonArray _devices;
+    private JsonArray _properties;
+
+    @Before
+    public void setUp() throws Exception {
+        BenchmarkFixtures.initialize();
+        _gson = AylaNetworks.sharedInstance().getGson();
+        _devices = new JsonParser().parse(BenchmarkFixtures.read(BenchmarkFixtures.DEVICES))
+                .getAsJsonArray();
+        _properties = new JsonParser().parse(BenchmarkFixtures.read(
+                BenchmarkFixtures.PROPERTIES)).getAsJsonArray();
+    }
+
+    @Test
+    public void readWifiDevice() {
+        readDevice(deviceJson("Wifi"), AylaDevice.class);
+    }
+
+    @Test
+    public void readGateway() {
+        readDevice(deviceJson("Gateway"), AylaDeviceGateway.class);
+    }
+
+    @Test
+    public void readNode() {
+        readDevice(deviceJson("Node"), AylaDeviceNode.class);
+    }
+
+    @Test
+    public void readPropertyOfEachBaseType() {
+        // One property of each of the boolean, integer, string and decimal base types
+        String[] json = new String[4];
+        for (int i = 0; i < json.length; i++) {
+            json[i] = _properties.get(i).getAsJsonObject().get("property").toString();
+        }
+
+        BenchmarkState state = _benchmarkRule.getState();
+        AylaProperty property = null;
+        while (state.keepRunning()) {
+            for (String propertyJson : json) {
+                property = _gson.fromJson(propertyJson, AylaProperty.class);
+            }
+        }
+        assertEquals("decimal", property.getBaseType());
+    }
+
+    private void readDevice(String json, Class<? extends AylaDevice> expectedClass) {
+        BenchmarkState state = _benchmarkRule.getState();
+        AylaDevice device = null;
+        while (state.keepRunning()) {
+            device = _gson.fromJson(json, AylaDevice.class);
+        }
+        assertEquals(expectedClass, device.getClass());
+    }
+
+    private String deviceJson(String deviceType) {
+        for (JsonElement element : _devices) {
+            JsonElement device = element.getAsJsonObject().get("device");
+            if (deviceType.equals(device.getAsJsonObject().get("device_type").getAsString())) {
+                return device.toString();
+            }
+        }
+        throw new IllegalArgumentException("No " + deviceType + " device in the fixture");
+    }
+}
@@ -0,0 +1,130 @@
+package com.aylanetworks.aylasdk;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.crossbar.autobahn.websocket.WebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.nio.NioWebSocketConnection;
+import io.crossbar.autobahn.websocket.nio.WebSocketSelector;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures a round trip of a frame through the NioWebSocketConnection used for the data
+ * stream: the frame is written, echoed by a server on the loopback interface and read back.
+ * The text messages are the recorded DSS messages, so the timings include framing, masking
+ * and UTF-8 validation of realistic payloads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WebSocketFrameBenchmark {
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private final BlockingQueue<Object> _received = new LinkedBlockingQueue<>();
+    private MockWebServer _server;
+    private WebSocketSelector _selector;
+    private NioWebSocketConnection _connection;
+    private List<String> _messages;
+
+    @Before
+    public void setUp() throws Exception {
+        _messages = BenchmarkFixtures.readLines(BenchmarkFixtures.DATASTREAM);
+
+        _server = new MockWebServer();
+        _server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                webSocket.send(text);
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                webSocket.send(bytes);
+            }
+        }));
+        _server.start();
+
+        final CountDownLatch opened = new CountDownLatch(1);
+        _selector = new WebSocketSelector("BenchmarkSelector");
+        _connection = new NioWebSocketConnection(_selector, WebSocketSelector.DIRECT_EXECUTOR);
+        _connection.connect("ws://" + _server.getHostName() + ":" + _server.getPort() +
+                "/stream", new WebSocketConnectionHandler() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(String payload) {
+                _received.add(payload);
+            }
+
+            @Override
+            public void onMessage(byte[] payload, boolean isBinary) {
+                _received.add(payload);
+            }
+        });
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _connection.sendClose();
+        _selector.shutdown();
+        _server.shutdown();
+    }
+
+    @Test
+    public void textRoundTrip() throws Exception {
+        int index = 0;
+        Object echo = null;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            index = (index + 1) % _messages.size();
+            _connection.sendMessage(_messages.get(index));
+            echo = _received.poll(10, TimeUnit.SECONDS);
+        }
+        assertEquals(_messages.get(index), echo);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        // Longer than 125 bytes, so the 16-bit length encoding is used
+        byte[] payload = new byte[1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        Object echo = null;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            _connection.sendMessage(payload, true);
+            echo = _received.poll(10, TimeUnit.SECONDS);
+        }
+        assertEquals(payload.length, ((byte[]) echo).length);
+    }
+}
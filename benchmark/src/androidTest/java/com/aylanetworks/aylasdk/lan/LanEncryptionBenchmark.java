@@ -0,0 +1,156 @@
+package com.aylanetworks.aylasdk.lan;
+/*
+ * AylaSDK
+ *
+ * Copyright 2015 Ayla Networks, all rights reserved
+ */
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.aylanetworks.aylasdk.AylaDevice;
+import com.aylanetworks.aylasdk.AylaProperty;
+import com.aylanetworks.aylasdk.BenchmarkFixtures;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Measures the AylaEncryption of LAN sessions and the handling of a property update sent by the
+ * device. The device side of the session is a second AylaEncryption with the random values and
+ * times of the key exchange swapped, so its app keys are the device keys of the app side.
+ * <p>
+ * The CBC ciphers carry state from one message to the next, so messages from the device are
+ * encrypted in order before the measurement, into a ring of {@link #RING_SIZE} messages. Each
+ * time the ring is replayed, the session keys of the app side are generated again, with the
+ * timing paused, so that its decryption starts over from the state the ring was encrypted with.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LanEncryptionBenchmark {
+    private static final String LAN_KEY = "lanip-key-of-the-benchmark-device";
+    private static final String UPDATE_FORMAT = "{\"name\":\"Blue_LED\",\"value\":%d," +
+            "\"metadata\":{\"source\":\"button\"}}";
+    private static final int RING_SIZE = 256;
+
+    @Rule
+    public BenchmarkRule _benchmarkRule = new BenchmarkRule();
+
+    private AylaDevice _device;
+    private AylaLanModule _lanModule;
+    private byte[] _lanKey;
+    private AylaEncryption _appEncryption;
+    private AylaEncryption _deviceEncryption;
+
+    @Before
+    public void setUp() throws Exception {
+        BenchmarkFixtures.initialize();
+        _device = BenchmarkFixtures.deviceWithProperties("AC000W000001001");
+        assertNotNull(_device);
+
+        // The app side is the session of a LAN module, which handles the property updates
+        _lanKey = LAN_KEY.getBytes(Charset.forName("UTF-8"));
+        _lanModule = new AylaLanModule(_device, null);
+        _appEncryption = _lanModule.getEncryption();
+        _appEncryption.sRnd_1 = AylaEncryption.randomToken(16);
+        _appEncryption.nTime_1 = System.nanoTime();
+        _appEncryption.sRnd_2 = AylaEncryption.randomToken(16);
+        _appEncryption.nTime_2 = System.nanoTime() + 1;
+        assertNull(_appEncryption.generateSessionKeys(AylaEncryption.TYPE_SETUP_RSA, _lanKey));
+
+        _deviceEncryption = new AylaEncryption(_device);
+        _deviceEncryption.sRnd_1 = _appEncryption.sRnd_2;
+        _deviceEncryption.nTime_1 = _appEncryption.nTime_2;
+        _deviceEncryption.sRnd_2 = _appEncryption.sRnd_1;
+        _deviceEncryption.nTime_2 = _appEncryption.nTime_1;
+        assertNull(_deviceEncryption.generateSessionKeys(AylaEncryption.TYPE_SETUP_RSA, _lanKey));
+    }
+
+    /**
+     * Encrypts a ring of updates from the device, with values alternating from 0 to 1
+     */
+    private String[] encryptRing() {
+        String[] ring = new String[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = _deviceEncryption.encryptEncapsulateSign(String.format(UPDATE_FORMAT,
+                    i & 1));
+        }
+        return ring;
+    }
+
+    /**
+     * Starts the decryption of the app side over, to replay the ring from its first message
+     */
+    private void restartSession(BenchmarkState state) {
+        state.pauseTiming();
+        assertNull(_appEncryption.generateSessionKeys(AylaEncryption.TYPE_SETUP_RSA, _lanKey));
+        state.resumeTiming();
+    }
+
+    @Test
+    public void encryptAndSign() {
+        String update = String.format(UPDATE_FORMAT, 1);
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            _appEncryption.encryptEncapsulateSign(update);
+        }
+    }
+
+    @Test
+    public void sign() {
+        byte[] data = String.format(UPDATE_FORMAT, 1).getBytes(Charset.forName("UTF-8"));
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            AylaEncryption.hmacForKeyAndData(_appEncryption.devSignKey, data);
+        }
+    }
+
+    @Test
+    public void decrypt() throws Exception {
+        String[] ring = encryptRing();
+        String[] enc = new String[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            enc[i] = new JSONObject(ring[i]).getString("enc");
+        }
+
+        String decrypted = null;
+        int index = 0;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            if (index == RING_SIZE) {
+                restartSession(state);
+                index = 0;
+            }
+            decrypted = _appEncryption.unencodeDecrypt(enc[index++]);
+        }
+        assertEquals((index - 1) & 1,
+                new JSONObject(decrypted).getJSONObject("data").getInt("value"));
+    }
+
+    @Test
+    public void handlePropertyUpdate() throws Exception {
+        // The body of a datapoint.json request from the device, as handled by the LAN module
+        String[] ring = encryptRing();
+        AylaProperty property = _device.getProperty("Blue_LED");
+        int index = 0;
+        BenchmarkState state = _benchmarkRule.getState();
+        while (state.keepRunning()) {
+            if (index == RING_SIZE) {
+                restartSession(state);
+                index = 0;
+            }
+            _lanModule.handlePropertyUpdate(null, AylaLanMessage.fromJson(ring[index++],
+                    _device));
+        }
+        assertEquals((index - 1) & 1, property.getValue());
+    }
+}
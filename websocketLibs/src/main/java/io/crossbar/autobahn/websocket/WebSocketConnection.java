@@ -118,11 +118,7 @@ public class WebSocketConnection implements IWebSocket {
              * connect TCP socket
 			 */
             try {
-                if (mWsScheme.equals("wss")) {
-                    mSocket = SSLSocketFactory.getDefault().createSocket();
-                } else {
-                    mSocket = SocketFactory.getDefault().createSocket();
-                }
+                mSocket = SocketFactory.getDefault().createSocket();
 
                 // the following will block until connection was established or
                 // an error occurred!
@@ -134,6 +130,14 @@ public class WebSocketConnection implements IWebSocket {
                 mSocket.setSoTimeout(mOptions.getSocketReceiveTimeout());
                 mSocket.setTcpNoDelay(mOptions.getTcpNoDelay());
 
+                if (mWsScheme.equals("wss")) {
+                    // layering TLS over the connected socket with the host and
+                    // port lets the default SSL context resume the session of
+                    // an earlier connection to the same server, and sends SNI
+                    mSocket = ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(mSocket, mWsHost, mWsPort, true);
+                }
+
             } catch (IOException e) {
                 forward(new CannotConnect(e.getMessage()));
                 return;
@@ -0,0 +1,86 @@
+///////////////////////////////////////////////////////////////////////////////
+//
+//   AutobahnJava - http://crossbar.io/autobahn
+//
+//   Copyright (c) Crossbar.io Technologies GmbH and contributors
+//
+//   Licensed under the MIT License.
+//   http://www.opensource.org/licenses/mit-license.php
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package io.crossbar.autobahn.websocket.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Non-blocking byte transport of a NioWebSocketConnection over a connected
+ * SocketChannel. This plain transport passes bytes straight through; the
+ * TLS transport encrypts them with an SSLEngine. Only called on the selector
+ * thread.
+ */
+class ChannelTransport {
+
+    protected final SocketChannel mChannel;
+
+    ChannelTransport(SocketChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Advances the transport handshake, if any.
+     *
+     * @return true once the handshake has completed
+     */
+    boolean handshake() throws IOException {
+        return true;
+    }
+
+    /**
+     * Reads as many bytes as are available into dst.
+     *
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    int read(ByteBuffer dst) throws IOException {
+        return mChannel.read(dst);
+    }
+
+    /**
+     * Writes as many bytes of src as the channel accepts.
+     *
+     * @return true if src and any data buffered by the transport have been
+     * written out, false if the channel must become writable first
+     */
+    boolean write(ByteBuffer src) throws IOException {
+        mChannel.write(src);
+        return !src.hasRemaining();
+    }
+
+    /**
+     * Writes out data buffered by the transport.
+     *
+     * @return true if nothing remains buffered
+     */
+    boolean flush() throws IOException {
+        return true;
+    }
+
+    /**
+     * Returns true if the transport holds data that could not be written out
+     * yet, in which case the channel must be watched for writability.
+     */
+    boolean hasPendingOutput() {
+        return false;
+    }
+
+    void close() {
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+    }
+}
@@ -0,0 +1,1120 @@
+///////////////////////////////////////////////////////////////////////////////
+//
+//   AutobahnJava - http://crossbar.io/autobahn
+//
+//   Copyright (c) Crossbar.io Technologies GmbH and contributors
+//
+//   Licensed under the MIT License.
+//   http://www.opensource.org/licenses/mit-license.php
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package io.crossbar.autobahn.websocket.nio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import io.crossbar.autobahn.utils.ABLogger;
+import io.crossbar.autobahn.utils.IABLogger;
+import io.crossbar.autobahn.websocket.exceptions.WebSocketException;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocket;
+import io.crossbar.autobahn.websocket.interfaces.IWebSocketConnectionHandler;
+import io.crossbar.autobahn.websocket.types.ConnectionResponse;
+import io.crossbar.autobahn.websocket.types.WebSocketOptions;
+import io.crossbar.autobahn.websocket.utils.Utf8Validator;
+
+
+/**
+ * WebSockets connection driven by a shared {@link WebSocketSelector}, as an
+ * alternative to {@link io.crossbar.autobahn.websocket.WebSocketConnection},
+ * which runs four threads and blocking socket I/O for every connection.
+ * <p>
+ * Connecting, the TLS handshake (for wss URIs), the HTTP upgrade, framing
+ * and the auto-ping all run on the selector thread, without blocking, so one
+ * thread can serve hundreds of connections. The send methods may be called
+ * from any thread: frames are encoded and masked on the calling thread and
+ * queued for the selector to write.
+ * <p>
+ * Handler callbacks are made in the same order and with the same close codes
+ * as WebSocketConnection, by default on the main thread. Pings are answered
+ * by the connection itself. As this class is not a WebSocketConnection,
+ * {@link IWebSocketConnectionHandler#setConnection} is not called, so
+ * handlers must keep the reference to the connection they created.
+ */
+public class NioWebSocketConnection implements IWebSocket {
+
+    private static final IABLogger LOGGER = ABLogger.getLogger(NioWebSocketConnection.class.getName());
+
+    private static final String CRLF = "\r\n";
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_UPGRADING = 2;
+    private static final int STATE_OPEN = 3;
+    private static final int STATE_CLOSING = 4;
+
+    private static final int OPCODE_CONTINUATION = 0;
+    private static final int OPCODE_TEXT = 1;
+    private static final int OPCODE_BINARY = 2;
+    private static final int OPCODE_CLOSE = 8;
+    private static final int OPCODE_PING = 9;
+    private static final int OPCODE_PONG = 10;
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+    private static final int MAX_HANDSHAKE_SIZE = 16 * 1024;
+
+    // Same as WebSocketConnection
+    private static final long IDLE_TIMEOUT_MS = 10000;
+    private static final long PING_TIMEOUT_MS = 2000;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private static final SecureRandom RNG = new SecureRandom();
+
+    private final WebSocketSelector mSelector;
+    private final Executor mCallbackExecutor;
+
+    private URI mWsUri;
+    private String mWsScheme;
+    private String mWsHost;
+    private int mWsPort;
+    private String mWsPath;
+    private String mWsQuery;
+    private String[] mWsSubprotocols;
+    private Map<String, String> mWsHeaders;
+
+    private IWebSocketConnectionHandler mWsHandler;
+
+    private WebSocketOptions mOptions;
+
+    private volatile int mState = STATE_CLOSED;
+    private volatile boolean mActive;
+    private volatile boolean mCloseQueued;
+    private boolean mPrevConnected;
+
+    // The following are only accessed on the selector thread
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private ChannelTransport mTransport;
+    private String mHandshakeKey;
+    private ByteBuffer mReadBuffer;
+    private ByteBuffer mCurrentWrite;
+    private boolean mCloseAfterFlush;
+    private int mCloseAfterFlushCode;
+    private String mCloseAfterFlushReason;
+    private long mLastReadTime;
+    private WebSocketSelector.Cancellable mConnectTimer;
+    private WebSocketSelector.Cancellable mPingTimer;
+    private WebSocketSelector.Cancellable mCloseTimer;
+
+    private boolean mInsideMessage;
+    private int mMessageOpcode;
+    private final ByteArrayOutputStream mMessagePayload = new ByteArrayOutputStream();
+    private final Utf8Validator mUtf8Validator = new Utf8Validator();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> mOutgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+
+    private final WebSocketSelector.ChannelListener mChannelListener = this::onReady;
+
+    private final Runnable mFlushTask = () -> {
+        mFlushScheduled.set(false);
+        if (mState == STATE_OPEN || mState == STATE_CLOSING) {
+            try {
+                flushOutgoing();
+            } catch (IOException e) {
+                connectionLost(e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Create a connection on the shared selector, with handler callbacks on
+     * the main thread.
+     */
+    public NioWebSocketConnection() {
+        this(WebSocketSelector.getDefault(), null);
+    }
+
+    /**
+     * Create a connection on the given selector.
+     *
+     * @param selector         Selector to run the connection on.
+     * @param callbackExecutor Executor on which handler callbacks are made,
+     *                         or null to make them on the main thread. Use
+     *                         {@link WebSocketSelector#DIRECT_EXECUTOR} to
+     *                         make them on the selector thread; such
+     *                         callbacks must not block.
+     */
+    public NioWebSocketConnection(WebSocketSelector selector, Executor callbackExecutor) {
+        mSelector = selector;
+        if (callbackExecutor == null) {
+            Handler handler = new Handler(Looper.getMainLooper());
+            callbackExecutor = handler::post;
+        }
+        mCallbackExecutor = callbackExecutor;
+        LOGGER.d("Created");
+    }
+
+    @Override
+    public void connect(String wsUri, IWebSocketConnectionHandler wsHandler)
+            throws WebSocketException {
+        connect(wsUri, null, wsHandler, new WebSocketOptions(), null);
+    }
+
+    @Override
+    public void connect(String wsUri, IWebSocketConnectionHandler wsHandler,
+                        WebSocketOptions options) throws WebSocketException {
+        connect(wsUri, null, wsHandler, options, null);
+    }
+
+    @Override
+    public void connect(String wsUri, String[] wsSubprotocols,
+                        IWebSocketConnectionHandler wsHandler) throws WebSocketException {
+        connect(wsUri, wsSubprotocols, wsHandler, new WebSocketOptions(), null);
+    }
+
+    @Override
+    public void connect(String wsUri, String[] wsSubprotocols,
+                        IWebSocketConnectionHandler wsHandler, WebSocketOptions options,
+                        Map<String, String> headers) throws WebSocketException {
+
+        // don't connect if already connected .. user needs to disconnect first
+        if (mState != STATE_CLOSED) {
+            throw new WebSocketException("already connected");
+        }
+
+        try {
+            mWsUri = new URI(wsUri);
+
+            if (!"ws".equals(mWsUri.getScheme()) && !"wss".equals(mWsUri.getScheme())) {
+                throw new WebSocketException("unsupported scheme for WebSockets URI");
+            }
+
+            mWsScheme = mWsUri.getScheme();
+
+            if (mWsUri.getPort() == -1) {
+                mWsPort = mWsScheme.equals("ws") ? 80 : 443;
+            } else {
+                mWsPort = mWsUri.getPort();
+            }
+
+            if (mWsUri.getHost() == null) {
+                throw new WebSocketException("no host specified in WebSockets URI");
+            }
+            mWsHost = mWsUri.getHost();
+
+            if (mWsUri.getRawPath() == null || mWsUri.getRawPath().equals("")) {
+                mWsPath = "/";
+            } else {
+                mWsPath = mWsUri.getRawPath();
+            }
+
+            if (mWsUri.getRawQuery() == null || mWsUri.getRawQuery().equals("")) {
+                mWsQuery = null;
+            } else {
+                mWsQuery = mWsUri.getRawQuery();
+            }
+
+        } catch (URISyntaxException e) {
+            throw new WebSocketException("invalid WebSockets URI");
+        }
+
+        mWsSubprotocols = wsSubprotocols;
+        mWsHeaders = headers;
+        mWsHandler = wsHandler;
+
+        // make copy of options!
+        mOptions = new WebSocketOptions(options);
+
+        mActive = true;
+        startConnect();
+    }
+
+    /**
+     * Reconnect to the server with the latest options
+     *
+     * @return true if reconnection performed
+     */
+    public boolean reconnect() {
+        if (mState == STATE_CLOSED && mWsUri != null) {
+            startConnect();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        int state = mState;
+        return state == STATE_UPGRADING || state == STATE_OPEN || state == STATE_CLOSING;
+    }
+
+    @Override
+    public void sendClose() {
+        sendClose(1000);
+    }
+
+    @Override
+    public void sendClose(int code) {
+        sendClose(code, null);
+    }
+
+    @Override
+    public void sendClose(int code, String reason) {
+        mActive = false;
+        mPrevConnected = false;
+        mSelector.execute(() -> {
+            if (mState == STATE_OPEN) {
+                if (!queueClose(code, reason)) {
+                    return;
+                }
+                mState = STATE_CLOSING;
+                mCloseTimer = mSelector.schedule(() -> {
+                    if (mState == STATE_CLOSING) {
+                        closeAndNotify(IWebSocketConnectionHandler.CLOSE_NORMAL, reason);
+                    }
+                }, CLOSE_TIMEOUT_MS);
+                scheduleFlush();
+            } else if (mState == STATE_CONNECTING || mState == STATE_UPGRADING) {
+                closeAndNotify(IWebSocketConnectionHandler.CLOSE_NORMAL, reason);
+            } else {
+                LOGGER.d("could not send Close .. not connected");
+            }
+        });
+    }
+
+    @Override
+    public void sendMessage(String payload) {
+        send(OPCODE_TEXT, payload.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    @Override
+    public void sendMessage(byte[] payload, boolean isBinary) {
+        send(isBinary ? OPCODE_BINARY : OPCODE_TEXT, payload, true);
+    }
+
+    @Override
+    public void sendPing() {
+        send(OPCODE_PING, null, false);
+    }
+
+    @Override
+    public void sendPing(byte[] payload) {
+        send(OPCODE_PING, payload, false);
+    }
+
+    @Override
+    public void sendPong() {
+        send(OPCODE_PONG, null, false);
+    }
+
+    @Override
+    public void sendPong(byte[] payload) {
+        send(OPCODE_PONG, payload, false);
+    }
+
+    /**
+     * Encodes a frame on the calling thread and queues it for the selector.
+     */
+    private void send(int opcode, byte[] payload, boolean isMessage) {
+        if (mCloseQueued) {
+            LOGGER.d("Close already sent, not sending further messages");
+            return;
+        }
+
+        int length = payload == null ? 0 : payload.length;
+        if (isMessage ? length > mOptions.getMaxMessagePayloadSize() : length > 125) {
+            final String reason = isMessage ? "message payload exceeds payload limit" :
+                    "control frame payload exceeds 125 octets";
+            mSelector.execute(() -> fail(IWebSocketConnectionHandler.CLOSE_INTERNAL_ERROR,
+                    "WebSockets internal error (" + reason + ")"));
+            return;
+        }
+
+        mOutgoing.add(encodeFrame(opcode, payload));
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mSelector.execute(mFlushTask);
+        }
+    }
+
+    /**
+     * Encodes a single, final frame.
+     */
+    private ByteBuffer encodeFrame(int opcode, byte[] payload) {
+        int length = payload == null ? 0 : payload.length;
+        boolean mask = mOptions.getMaskClientFrames();
+        int headerLength = 2 + (length <= 125 ? 0 : length <= 0xffff ? 2 : 8) + (mask ? 4 : 0);
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+
+        frame.put((byte) (0x80 | opcode));
+        byte b1 = mask ? (byte) 0x80 : 0;
+        if (length <= 125) {
+            frame.put((byte) (b1 | length));
+        } else if (length <= 0xffff) {
+            frame.put((byte) (b1 | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (b1 | 127));
+            frame.putLong(length);
+        }
+
+        if (mask) {
+            // a mask is always needed, even without payload
+            byte[] key = new byte[4];
+            RNG.nextBytes(key);
+            frame.put(key);
+            for (int i = 0; i < length; ++i) {
+                frame.put((byte) (payload[i] ^ key[i & 3]));
+            }
+        } else if (length > 0) {
+            frame.put(payload);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Queues a close frame, if none has been queued yet.
+     *
+     * @return true if the frame was queued
+     */
+    private boolean queueClose(int code, String reason) {
+        if (mCloseQueued) {
+            return false;
+        }
+        byte[] payload = null;
+        if (code > 0) {
+            byte[] reasonBytes = reason == null ? new byte[0] :
+                    reason.getBytes(StandardCharsets.UTF_8);
+            if (reasonBytes.length > 123) {
+                reasonBytes = new byte[0];
+            }
+            payload = new byte[2 + reasonBytes.length];
+            payload[0] = (byte) ((code >> 8) & 0xff);
+            payload[1] = (byte) (code & 0xff);
+            System.arraycopy(reasonBytes, 0, payload, 2, reasonBytes.length);
+        }
+        mOutgoing.add(encodeFrame(OPCODE_CLOSE, payload));
+        mCloseQueued = true;
+        return true;
+    }
+
+    /**
+     * Resolves the host off the selector thread, then opens the channel.
+     */
+    private void startConnect() {
+        mState = STATE_CONNECTING;
+        mCloseQueued = false;
+        mSelector.resolve(() -> {
+            final InetSocketAddress address = new InetSocketAddress(mWsHost, mWsPort);
+            mSelector.execute(() -> openChannel(address));
+        });
+    }
+
+    private void openChannel(InetSocketAddress address) {
+        if (mState != STATE_CONNECTING) {
+            // Closed while resolving
+            return;
+        }
+        if (address.isUnresolved()) {
+            fail(IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT,
+                    "Unable to resolve host " + mWsHost);
+            return;
+        }
+
+        mConnectTimer = mSelector.schedule(() -> {
+            if (mState == STATE_CONNECTING || mState == STATE_UPGRADING) {
+                fail(IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT,
+                        "Could not connect to WebSocket server");
+            }
+        }, mOptions.getSocketConnectTimeout());
+
+        try {
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(mOptions.getTcpNoDelay());
+            boolean connected = mChannel.connect(address);
+            mKey = mSelector.register(mChannel, connected ? SelectionKey.OP_READ :
+                    SelectionKey.OP_CONNECT, mChannelListener);
+            if (connected) {
+                onConnected();
+            }
+        } catch (IOException e) {
+            fail(IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT, e.getMessage());
+        }
+    }
+
+    /**
+     * Called on the selector thread when the channel is ready.
+     */
+    private void onReady(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (!mChannel.finishConnect()) {
+                    return;
+                }
+                onConnected();
+                return;
+            }
+
+            if (mState == STATE_CONNECTING) {
+                if (mTransport == null) {
+                    return;
+                }
+                if (mTransport.handshake()) {
+                    sendUpgrade();
+                } else {
+                    setInterest(mTransport.hasPendingOutput());
+                    return;
+                }
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                flushOutgoing();
+            }
+            if (key.isValid() && key.isReadable()) {
+                readAvailable();
+            }
+        } catch (WebSocketException e) {
+            fail(IWebSocketConnectionHandler.CLOSE_PROTOCOL_ERROR,
+                    "WebSockets protocol violation");
+        } catch (IOException e) {
+            if (mState == STATE_CONNECTING) {
+                fail(IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT, e.getMessage());
+            } else {
+                connectionLost(e.getMessage());
+            }
+        }
+    }
+
+    private void onConnected() throws IOException {
+        mPrevConnected = true;
+        if (mWsScheme.equals("wss")) {
+            SSLEngine engine;
+            try {
+                // Giving the engine the peer allows TLS sessions to be resumed
+                engine = SSLContext.getDefault().createSSLEngine(mWsHost, mWsPort);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            mTransport = new TlsChannelTransport(mChannel, engine, mWsHost);
+            if (!mTransport.handshake()) {
+                setInterest(mTransport.hasPendingOutput());
+                return;
+            }
+        } else {
+            mTransport = new ChannelTransport(mChannel);
+        }
+        sendUpgrade();
+    }
+
+    /**
+     * Sends the HTTP upgrade request.
+     */
+    private void sendUpgrade() throws IOException {
+        byte[] key = new byte[16];
+        RNG.nextBytes(key);
+        mHandshakeKey = Base64.encodeToString(key, Base64.NO_WRAP);
+
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(mWsPath);
+        if (mWsQuery != null) {
+            request.append('?').append(mWsQuery);
+        }
+        request.append(" HTTP/1.1").append(CRLF);
+        request.append("Host: ").append(mWsHost).append(':').append(mWsPort).append(CRLF);
+        request.append("Upgrade: WebSocket").append(CRLF);
+        request.append("Connection: Upgrade").append(CRLF);
+        request.append("Sec-WebSocket-Key: ").append(mHandshakeKey).append(CRLF);
+        if (mWsSubprotocols != null && mWsSubprotocols.length > 0) {
+            request.append("Sec-WebSocket-Protocol: ");
+            for (int i = 0; i < mWsSubprotocols.length; ++i) {
+                if (i > 0) {
+                    request.append(", ");
+                }
+                request.append(mWsSubprotocols[i]);
+            }
+            request.append(CRLF);
+        }
+        request.append("Sec-WebSocket-Version: 13").append(CRLF);
+        if (mWsHeaders != null) {
+            for (Map.Entry<String, String> header : mWsHeaders.entrySet()) {
+                request.append(header.getKey()).append(':').append(header.getValue())
+                        .append(CRLF);
+            }
+        }
+        request.append(CRLF);
+
+        mReadBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        mCurrentWrite = ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.UTF_8));
+        mState = STATE_UPGRADING;
+        flushOutgoing();
+    }
+
+    /**
+     * Writes the frame being written and then, once the connection is open,
+     * the queued frames, until done or the channel stops accepting data.
+     */
+    private void flushOutgoing() throws IOException {
+        if (!mTransport.flush()) {
+            setInterest(true);
+            return;
+        }
+        while (true) {
+            if (mCurrentWrite == null) {
+                if (mState != STATE_OPEN && mState != STATE_CLOSING) {
+                    break;
+                }
+                mCurrentWrite = mOutgoing.poll();
+                if (mCurrentWrite == null) {
+                    break;
+                }
+            }
+            if (!mTransport.write(mCurrentWrite)) {
+                setInterest(true);
+                return;
+            }
+            mCurrentWrite = null;
+        }
+        setInterest(false);
+
+        if (mCloseAfterFlush) {
+            closeAndNotify(mCloseAfterFlushCode, mCloseAfterFlushReason);
+        }
+    }
+
+    private void setInterest(boolean write) {
+        if (mKey != null && mKey.isValid()) {
+            mKey.interestOps(write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+                    SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Reads and processes everything the channel has available.
+     */
+    private void readAvailable() throws IOException, WebSocketException {
+        while (mState != STATE_CLOSED) {
+            if (!mReadBuffer.hasRemaining()) {
+                growReadBuffer();
+            }
+            int count = mTransport.read(mReadBuffer);
+            if (count < 0) {
+                if (mState == STATE_CLOSING) {
+                    closeAndNotify(IWebSocketConnectionHandler.CLOSE_NORMAL, null);
+                } else {
+                    connectionLost("connection closed by peer");
+                }
+                return;
+            }
+            if (count == 0) {
+                return;
+            }
+            mLastReadTime = System.nanoTime();
+
+            boolean more = true;
+            while (more && mState != STATE_CLOSED) {
+                more = mState == STATE_UPGRADING ? processUpgrade() : processFrame();
+            }
+        }
+    }
+
+    private void growReadBuffer() throws WebSocketException {
+        int limit = mState == STATE_UPGRADING ? MAX_HANDSHAKE_SIZE :
+                mOptions.getMaxFramePayloadSize() + 14;
+        if (mReadBuffer.capacity() >= limit) {
+            throw new WebSocketException("frame payload too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(limit, mReadBuffer.capacity() * 2));
+        mReadBuffer.flip();
+        buffer.put(mReadBuffer);
+        mReadBuffer = buffer;
+    }
+
+    /**
+     * Removes the first count bytes of the read buffer.
+     */
+    private void consume(int count) {
+        mReadBuffer.flip();
+        mReadBuffer.position(count);
+        mReadBuffer.compact();
+    }
+
+    /**
+     * Processes the server's response to the upgrade request.
+     *
+     * @return true if data remains to be processed
+     */
+    private boolean processUpgrade() throws WebSocketException {
+        byte[] data = mReadBuffer.array();
+        int end = -1;
+        for (int pos = 0; pos + 3 < mReadBuffer.position(); ++pos) {
+            if (data[pos] == 0x0d && data[pos + 1] == 0x0a &&
+                    data[pos + 2] == 0x0d && data[pos + 3] == 0x0a) {
+                end = pos;
+                break;
+            }
+        }
+        if (end < 0) {
+            // need more data
+            return false;
+        }
+
+        String[] lines = new String(data, 0, end, StandardCharsets.UTF_8).split(CRLF);
+        consume(end + 4);
+
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP")) {
+            throw new WebSocketException("invalid HTTP status line");
+        }
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new WebSocketException("invalid HTTP status line");
+        }
+        String statusMessage = status.length > 2 ? status[2].trim() : "";
+        if (statusCode >= 300) {
+            fail(IWebSocketConnectionHandler.CLOSE_SERVER_ERROR,
+                    "Server error " + statusCode + " (" + statusMessage + ")");
+            return false;
+        }
+        if (statusCode != 101) {
+            throw new WebSocketException("unexpected HTTP status " + statusCode);
+        }
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim(),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        if (!expectedAccept(mHandshakeKey).equals(headers.get("Sec-WebSocket-Accept"))) {
+            throw new WebSocketException("invalid Sec-WebSocket-Accept");
+        }
+
+        if (mConnectTimer != null) {
+            mConnectTimer.cancel();
+            mConnectTimer = null;
+        }
+        mState = STATE_OPEN;
+        mLastReadTime = System.nanoTime();
+        scheduleAutoPing();
+
+        final String protocol = headers.get("Sec-WebSocket-Protocol");
+        final IWebSocketConnectionHandler handler = mWsHandler;
+        if (handler != null) {
+            mCallbackExecutor.execute(() -> {
+                handler.onConnect(new ConnectionResponse(protocol));
+                handler.onOpen();
+            });
+        }
+        LOGGER.d("opening handshake received");
+
+        try {
+            // Send anything queued while connecting
+            flushOutgoing();
+        } catch (IOException e) {
+            connectionLost(e.getMessage());
+            return false;
+        }
+        return mReadBuffer.position() > 0;
+    }
+
+    private static String expectedAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.UTF_8));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Processes the frame at the start of the read buffer, if it has been
+     * completely received.
+     *
+     * @return true if a frame was processed and more data remains
+     */
+    private boolean processFrame() throws IOException, WebSocketException {
+        int available = mReadBuffer.position();
+        if (available < 2) {
+            return false;
+        }
+
+        byte b0 = mReadBuffer.get(0);
+        boolean fin = (b0 & 0x80) != 0;
+        int rsv = (b0 & 0x70) >> 4;
+        int opcode = b0 & 0x0f;
+
+        byte b1 = mReadBuffer.get(1);
+        boolean masked = (b1 & 0x80) != 0;
+        int payloadLen1 = b1 & 0x7f;
+
+        if (rsv != 0) {
+            throw new WebSocketException("RSV != 0 and no extension negotiated");
+        }
+        if (masked) {
+            throw new WebSocketException("masked server frame");
+        }
+        if (opcode > 7) {
+            if (!fin) {
+                throw new WebSocketException("fragmented control frame");
+            }
+            if (payloadLen1 > 125) {
+                throw new WebSocketException("control frame with payload length > 125 octets");
+            }
+            if (opcode != OPCODE_CLOSE && opcode != OPCODE_PING && opcode != OPCODE_PONG) {
+                throw new WebSocketException("control frame using reserved opcode " + opcode);
+            }
+            if (opcode == OPCODE_CLOSE && payloadLen1 == 1) {
+                throw new WebSocketException("received close control frame with payload len 1");
+            }
+        } else {
+            if (opcode != OPCODE_CONTINUATION && opcode != OPCODE_TEXT &&
+                    opcode != OPCODE_BINARY) {
+                throw new WebSocketException("data frame using reserved opcode " + opcode);
+            }
+            if (!mInsideMessage && opcode == OPCODE_CONTINUATION) {
+                throw new WebSocketException("received continuation data frame outside fragmented message");
+            }
+            if (mInsideMessage && opcode != OPCODE_CONTINUATION) {
+                throw new WebSocketException("received non-continuation data frame while inside fragmented message");
+            }
+        }
+
+        int headerLen;
+        long payloadLen;
+        if (payloadLen1 < 126) {
+            headerLen = 2;
+            payloadLen = payloadLen1;
+        } else if (payloadLen1 == 126) {
+            headerLen = 4;
+            if (available < headerLen) {
+                return false;
+            }
+            payloadLen = mReadBuffer.getShort(2) & 0xffff;
+            if (payloadLen < 126) {
+                throw new WebSocketException("invalid data frame length (not using minimal length encoding)");
+            }
+        } else {
+            headerLen = 10;
+            if (available < headerLen) {
+                return false;
+            }
+            payloadLen = mReadBuffer.getLong(2);
+            if (payloadLen < 0) {
+                throw new WebSocketException("invalid data frame length (> 2^63)");
+            }
+            if (payloadLen < 65536) {
+                throw new WebSocketException("invalid data frame length (not using minimal length encoding)");
+            }
+        }
+
+        if (payloadLen > mOptions.getMaxFramePayloadSize()) {
+            throw new WebSocketException("frame payload too large");
+        }
+
+        int totalLen = headerLen + (int) payloadLen;
+        if (available < totalLen) {
+            // need more data
+            return false;
+        }
+
+        byte[] payload = null;
+        if (payloadLen > 0) {
+            payload = new byte[(int) payloadLen];
+            System.arraycopy(mReadBuffer.array(), headerLen, payload, 0, (int) payloadLen);
+        }
+        consume(totalLen);
+
+        if (opcode == OPCODE_CLOSE) {
+            onCloseFrame(payload);
+        } else if (opcode == OPCODE_PING) {
+            if (!mCloseQueued) {
+                mOutgoing.add(encodeFrame(OPCODE_PONG, payload));
+                flushOutgoing();
+            }
+            deliverPing(payload);
+        } else if (opcode == OPCODE_PONG) {
+            deliverPong(payload);
+        } else {
+            onDataFrame(opcode, fin, payload);
+        }
+
+        return mState != STATE_CLOSED && mReadBuffer.position() > 0;
+    }
+
+    private void onDataFrame(int opcode, boolean fin, byte[] payload) throws WebSocketException {
+        if (!mInsideMessage) {
+            // new message started
+            mInsideMessage = true;
+            mMessageOpcode = opcode;
+            if (mMessageOpcode == OPCODE_TEXT && mOptions.getValidateIncomingUtf8()) {
+                mUtf8Validator.reset();
+            }
+        }
+
+        if (payload != null) {
+            if (mMessagePayload.size() + payload.length > mOptions.getMaxMessagePayloadSize()) {
+                throw new WebSocketException("message payload too large");
+            }
+            if (mMessageOpcode == OPCODE_TEXT && mOptions.getValidateIncomingUtf8() &&
+                    !mUtf8Validator.validate(payload)) {
+                throw new WebSocketException("invalid UTF-8 in text message payload");
+            }
+        }
+
+        if (!fin) {
+            if (payload != null) {
+                mMessagePayload.write(payload, 0, payload.length);
+            }
+            return;
+        }
+
+        // Unfragmented messages, the common case, are delivered without copying
+        byte[] message;
+        if (mMessagePayload.size() == 0) {
+            message = payload == null ? new byte[0] : payload;
+        } else {
+            if (payload != null) {
+                mMessagePayload.write(payload, 0, payload.length);
+            }
+            message = mMessagePayload.toByteArray();
+            mMessagePayload.reset();
+        }
+        mInsideMessage = false;
+
+        final IWebSocketConnectionHandler handler = mWsHandler;
+        if (handler == null) {
+            LOGGER.d("could not deliver message .. handler already NULL");
+            return;
+        }
+
+        if (mMessageOpcode == OPCODE_TEXT) {
+            if (mOptions.getValidateIncomingUtf8() && !mUtf8Validator.isValid()) {
+                throw new WebSocketException("UTF-8 text message payload ended within Unicode code point");
+            }
+            if (mOptions.getReceiveTextMessagesRaw()) {
+                mCallbackExecutor.execute(() -> handler.onMessage(message, false));
+            } else {
+                final String text = new String(message, StandardCharsets.UTF_8);
+                mCallbackExecutor.execute(() -> handler.onMessage(text));
+            }
+        } else {
+            mCallbackExecutor.execute(() -> handler.onMessage(message, true));
+        }
+    }
+
+    private void onCloseFrame(byte[] payload) throws IOException, WebSocketException {
+        int code = 1005; // CLOSE_STATUS_CODE_NULL : no status code received
+        String reason = null;
+
+        if (payload != null && payload.length >= 2) {
+            // parse and check close code - see http://tools.ietf.org/html/rfc6455#section-7.4
+            code = (payload[0] & 0xff) * 256 + (payload[1] & 0xff);
+            if (code < 1000
+                    || (code <= 2999 &&
+                    code != 1000 && code != 1001 && code != 1002 && code != 1003 && code != 1007 && code != 1008 && code != 1009 && code != 1010 && code != 1011)
+                    || code >= 5000) {
+                throw new WebSocketException("invalid close code " + code);
+            }
+
+            if (payload.length > 2) {
+                Utf8Validator val = new Utf8Validator();
+                if (!val.validate(payload, 2, payload.length - 2) || !val.isValid()) {
+                    throw new WebSocketException("invalid close reasons (not UTF-8)");
+                }
+                reason = new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8);
+            }
+        }
+
+        LOGGER.d("WebSockets Close received (" + code + " - " + reason + ")");
+        int crossbarCloseCode = (code == 1000) ? IWebSocketConnectionHandler.CLOSE_NORMAL :
+                IWebSocketConnectionHandler.CLOSE_CONNECTION_LOST;
+
+        if (mState == STATE_CLOSING) {
+            // we've initiated disconnect, so ready to close the channel
+            closeAndNotify(crossbarCloseCode, reason);
+        } else {
+            // The server initiated the close: reply, then close once the reply is out
+            mActive = false;
+            queueClose(1000, null);
+            mState = STATE_CLOSING;
+            mCloseAfterFlush = true;
+            mCloseAfterFlushCode = crossbarCloseCode;
+            mCloseAfterFlushReason = reason;
+            flushOutgoing();
+        }
+    }
+
+    private void deliverPing(final byte[] payload) {
+        final IWebSocketConnectionHandler handler = mWsHandler;
+        if (handler != null) {
+            mCallbackExecutor.execute(() -> {
+                if (payload == null) {
+                    handler.onPing();
+                } else {
+                    handler.onPing(payload);
+                }
+            });
+        }
+    }
+
+    private void deliverPong(final byte[] payload) {
+        final IWebSocketConnectionHandler handler = mWsHandler;
+        if (handler != null) {
+            mCallbackExecutor.execute(() -> {
+                if (payload == null) {
+                    handler.onPong();
+                } else {
+                    handler.onPong(payload);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a ping when nothing has been received for a while, and drops the
+     * connection if nothing arrives in response.
+     */
+    private void scheduleAutoPing() {
+        mPingTimer = mSelector.schedule(() -> {
+            if (mState != STATE_OPEN) {
+                return;
+            }
+            long idleMs = (System.nanoTime() - mLastReadTime) / 1000000;
+            if (idleMs >= IDLE_TIMEOUT_MS - 1000) {
+                final long pingTime = System.nanoTime();
+                sendPing();
+                mPingTimer = mSelector.schedule(() -> {
+                    if (mState == STATE_OPEN && mLastReadTime - pingTime < 0) {
+                        connectionLost("AutoPing timed out.");
+                    } else {
+                        scheduleAutoPing();
+                    }
+                }, PING_TIMEOUT_MS);
+            } else {
+                scheduleAutoPing();
+            }
+        }, IDLE_TIMEOUT_MS);
+    }
+
+    private void connectionLost(String reason) {
+        fail(IWebSocketConnectionHandler.CLOSE_CONNECTION_LOST, reason);
+    }
+
+    /**
+     * Closes the connection after a failure, scheduling a reconnect if the
+     * options ask for one.
+     */
+    private void fail(int code, String reason) {
+        LOGGER.d("fail connection [code = " + code + ", reason = " + reason);
+        if (mState == STATE_CLOSED) {
+            return;
+        }
+
+        boolean reconnecting = false;
+        if (code == IWebSocketConnectionHandler.CLOSE_CANNOT_CONNECT ||
+                code == IWebSocketConnectionHandler.CLOSE_CONNECTION_LOST) {
+            int interval = mOptions.getReconnectInterval();
+            reconnecting = mActive && mPrevConnected && interval > 0;
+            if (reconnecting) {
+                LOGGER.d("Reconnection scheduled");
+                mSelector.schedule(() -> {
+                    if (mActive) {
+                        LOGGER.d("Reconnecting...");
+                        reconnect();
+                    }
+                }, interval);
+            }
+        }
+        closeAndNotify(reconnecting ? IWebSocketConnectionHandler.CLOSE_RECONNECT : code,
+                reason);
+    }
+
+    /**
+     * Closes the channel, releases the buffers and calls the handler's
+     * onClose().
+     */
+    private void closeAndNotify(final int code, final String reason) {
+        if (mState == STATE_CLOSED) {
+            return;
+        }
+        mState = STATE_CLOSED;
+
+        for (WebSocketSelector.Cancellable timer : new WebSocketSelector.Cancellable[]{
+                mConnectTimer, mPingTimer, mCloseTimer}) {
+            if (timer != null) {
+                timer.cancel();
+            }
+        }
+        mConnectTimer = mPingTimer = mCloseTimer = null;
+
+        if (mKey != null) {
+            mKey.cancel();
+            mKey = null;
+        }
+        if (mTransport != null) {
+            mTransport.close();
+            mTransport = null;
+        } else if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                LOGGER.v(e.getMessage(), e);
+            }
+        }
+        mChannel = null;
+        mReadBuffer = null;
+        mCurrentWrite = null;
+        mOutgoing.clear();
+        mCloseAfterFlush = false;
+        mInsideMessage = false;
+        mMessagePayload.reset();
+
+        final IWebSocketConnectionHandler handler = mWsHandler;
+        if (handler != null) {
+            mCallbackExecutor.execute(() -> {
+                try {
+                    handler.onClose(code, reason);
+                } catch (Exception e) {
+                    LOGGER.v(e.getMessage(), e);
+                }
+            });
+        } else {
+            LOGGER.d("mWsHandler already NULL");
+        }
+    }
+}
@@ -0,0 +1,242 @@
+///////////////////////////////////////////////////////////////////////////////
+//
+//   AutobahnJava - http://crossbar.io/autobahn
+//
+//   Copyright (c) Crossbar.io Technologies GmbH and contributors
+//
+//   Licensed under the MIT License.
+//   http://www.opensource.org/licenses/mit-license.php
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package io.crossbar.autobahn.websocket.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+
+/**
+ * Transport that runs TLS over a SocketChannel with an SSLEngine.
+ * <p>
+ * All buffers are kept in write mode: data pending in mNetIn has not been
+ * unwrapped yet, data pending in mAppIn has not been read yet, and data
+ * pending in mNetOut has not been written to the channel yet. Delegated
+ * engine tasks are run inline, as they only occur during the handshake.
+ */
+class TlsChannelTransport extends ChannelTransport {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine mEngine;
+    private final String mHost;
+    private final ByteBuffer mNetIn;
+    private final ByteBuffer mNetOut;
+    private final ByteBuffer mAppIn;
+    private boolean mVerified;
+    private boolean mInboundClosed;
+
+    TlsChannelTransport(SocketChannel channel, SSLEngine engine, String host)
+            throws SSLException {
+        super(channel);
+        mEngine = engine;
+        mHost = host;
+        mEngine.setUseClientMode(true);
+        try {
+            SSLParameters parameters = mEngine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            mEngine.setSSLParameters(parameters);
+            mVerified = true;
+        } catch (NoSuchMethodError e) {
+            // Not available before API 24, the host is verified after the handshake instead
+        }
+        int packetSize = engine.getSession().getPacketBufferSize();
+        mNetIn = ByteBuffer.allocate(packetSize);
+        mNetOut = ByteBuffer.allocate(packetSize);
+        mAppIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        mEngine.beginHandshake();
+    }
+
+    @Override
+    boolean handshake() throws IOException {
+        while (true) {
+            HandshakeStatus status = mEngine.getHandshakeStatus();
+            switch (status) {
+                case NEED_WRAP:
+                    if (!flush()) {
+                        return false;
+                    }
+                    wrap(EMPTY);
+                    break;
+
+                case NEED_UNWRAP:
+                    if (mInboundClosed) {
+                        throw new EOFException("connection closed during TLS handshake");
+                    }
+                    if (!unwrap()) {
+                        if (mChannel.read(mNetIn) < 0) {
+                            throw new EOFException("connection closed during TLS handshake");
+                        }
+                        if (!unwrap()) {
+                            // Still need more data, wait until the channel is readable
+                            flush();
+                            return false;
+                        }
+                    }
+                    break;
+
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+
+                default:
+                    // FINISHED or NOT_HANDSHAKING
+                    if (!mVerified) {
+                        verifyHost();
+                    }
+                    return flush();
+            }
+        }
+    }
+
+    @Override
+    int read(ByteBuffer dst) throws IOException {
+        if (mAppIn.position() == 0) {
+            int count = mChannel.read(mNetIn);
+            while (unwrap()) {
+                handleRenegotiation();
+            }
+            if ((count < 0 || mInboundClosed) && mAppIn.position() == 0) {
+                return -1;
+            }
+        }
+        mAppIn.flip();
+        int transferred = Math.min(mAppIn.remaining(), dst.remaining());
+        ByteBuffer slice = mAppIn.duplicate();
+        slice.limit(slice.position() + transferred);
+        dst.put(slice);
+        mAppIn.position(mAppIn.position() + transferred);
+        mAppIn.compact();
+        return transferred;
+    }
+
+    @Override
+    boolean write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!flush()) {
+                return false;
+            }
+            wrap(src);
+        }
+        return flush();
+    }
+
+    @Override
+    boolean flush() throws IOException {
+        if (mNetOut.position() > 0) {
+            mNetOut.flip();
+            mChannel.write(mNetOut);
+            mNetOut.compact();
+        }
+        return mNetOut.position() == 0;
+    }
+
+    @Override
+    boolean hasPendingOutput() {
+        return mNetOut.position() > 0;
+    }
+
+    @Override
+    void close() {
+        mEngine.closeOutbound();
+        try {
+            wrap(EMPTY);
+            flush();
+        } catch (IOException e) {
+            // The connection is going away regardless
+        }
+        super.close();
+    }
+
+    /**
+     * Checks that the server's certificate was issued for the host, where the
+     * engine could not be asked to.
+     */
+    private void verifyHost() throws SSLPeerUnverifiedException {
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(mHost,
+                mEngine.getSession())) {
+            throw new SSLPeerUnverifiedException("certificate does not match " + mHost);
+        }
+        mVerified = true;
+    }
+
+    /**
+     * Wraps src into mNetOut, which must be empty.
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = mEngine.wrap(src, mNetOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            throw new SSLException("TLS record exceeds packet buffer size");
+        }
+    }
+
+    /**
+     * Unwraps buffered network data into mAppIn.
+     *
+     * @return true if any data was unwrapped, false if more network data, or
+     * room in mAppIn, is needed, or the peer has closed the session
+     */
+    private boolean unwrap() throws IOException {
+        if (mNetIn.position() == 0) {
+            return false;
+        }
+        mNetIn.flip();
+        SSLEngineResult result;
+        try {
+            result = mEngine.unwrap(mNetIn, mAppIn);
+        } finally {
+            mNetIn.compact();
+        }
+        switch (result.getStatus()) {
+            case OK:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            case CLOSED:
+                // Data unwrapped before the peer's close_notify is still read
+                mInboundClosed = true;
+                return false;
+            default:
+                // BUFFER_UNDERFLOW: wait for more data, BUFFER_OVERFLOW: wait until read
+                return false;
+        }
+    }
+
+    /**
+     * Handles handshake messages received after the initial handshake, such
+     * as TLS 1.3 session tickets and key updates.
+     */
+    private void handleRenegotiation() throws IOException {
+        HandshakeStatus status = mEngine.getHandshakeStatus();
+        if (status == HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        } else if (status == HandshakeStatus.NEED_WRAP && flush()) {
+            wrap(EMPTY);
+            flush();
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = mEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+///////////////////////////////////////////////////////////////////////////////
+//
+//   AutobahnJava - http://crossbar.io/autobahn
+//
+//   Copyright (c) Crossbar.io Technologies GmbH and contributors
+//
+//   Licensed under the MIT License.
+//   http://www.opensource.org/licenses/mit-license.php
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package io.crossbar.autobahn.websocket.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.crossbar.autobahn.utils.ABLogger;
+import io.crossbar.autobahn.utils.IABLogger;
+
+
+/**
+ * A single thread running a NIO selector, shared by any number of
+ * NioWebSocketConnections. All socket I/O, framing and timers of the
+ * connections registered with a selector run on its thread, so a process
+ * with many connections (several session managers each streaming, or a test
+ * harness with hundreds of simulated clients) needs one thread rather than
+ * four per connection.
+ * <p>
+ * Work handed to the selector must not block. Host names are resolved on a
+ * small resolver pool, as name lookups can't be made non-blocking.
+ */
+public class WebSocketSelector {
+
+    private static final IABLogger LOGGER = ABLogger.getLogger(WebSocketSelector.class.getName());
+
+    /**
+     * Executor that runs tasks on the calling thread. Connections given this
+     * executor call their handlers on the selector thread.
+     */
+    public static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private static WebSocketSelector sDefault;
+
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> mTimers = new PriorityQueue<>();
+    private final ThreadPoolExecutor mResolver;
+
+    private volatile boolean mRunning;
+    private long mTimerSequence;
+
+    /**
+     * Callback of a channel registered with the selector, called on the
+     * selector thread when the channel is ready for the operations of
+     * interest.
+     */
+    interface ChannelListener {
+        void onReady(SelectionKey key);
+    }
+
+    /**
+     * Returns the selector shared by all connections that were not given
+     * one of their own, starting it if needed.
+     *
+     * @return the shared selector
+     */
+    public static synchronized WebSocketSelector getDefault() {
+        if (sDefault == null || !sDefault.mRunning) {
+            try {
+                sDefault = new WebSocketSelector("WebSocketSelector");
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Create and start a new selector thread.
+     *
+     * @param name Name of the selector thread.
+     */
+    public WebSocketSelector(String name) throws IOException {
+        mSelector = Selector.open();
+        mResolver = new ThreadPoolExecutor(0, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-resolver");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        mRunning = true;
+        mThread = new Thread(this::run, name);
+        mThread.setDaemon(true);
+        mThread.start();
+        LOGGER.d("Created");
+    }
+
+    /**
+     * Returns true if the calling thread is the selector thread.
+     */
+    public boolean inSelectorThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Returns the number of channels currently registered with this selector.
+     */
+    public int getChannelCount() {
+        return mSelector.keys().size();
+    }
+
+    /**
+     * Runs a task on the selector thread. Tasks run in the order they were
+     * submitted, and must not block.
+     *
+     * @param task Task to run.
+     */
+    public void execute(Runnable task) {
+        mTasks.add(task);
+        if (!inSelectorThread()) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the selector thread after a delay.
+     *
+     * @param task    Task to run.
+     * @param delayMs Delay in milliseconds.
+     * @return a handle that can be used to cancel the task
+     */
+    public Cancellable schedule(Runnable task, long delayMs) {
+        final Timer timer = new Timer(task, System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(delayMs));
+        execute(() -> {
+            timer.mSequence = mTimerSequence++;
+            mTimers.add(timer);
+        });
+        return timer;
+    }
+
+    /**
+     * Stops the selector thread, closing all channels still registered.
+     */
+    public void shutdown() {
+        synchronized (WebSocketSelector.class) {
+            if (sDefault == this) {
+                sDefault = null;
+            }
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        mResolver.shutdown();
+    }
+
+    /**
+     * Resolves a host name off the selector thread, then hands the result
+     * back to the selector thread.
+     */
+    void resolve(Runnable lookup) {
+        mResolver.execute(lookup);
+    }
+
+    /**
+     * Registers a channel. Must be called on the selector thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, ChannelListener listener)
+            throws ClosedChannelException {
+        return channel.register(mSelector, ops, listener);
+    }
+
+    private void run() {
+        LOGGER.d("Running");
+        while (mRunning) {
+            try {
+                runTasks();
+                long timeoutMs = runTimers();
+                if (!mTasks.isEmpty()) {
+                    mSelector.selectNow();
+                } else {
+                    mSelector.select(timeoutMs);
+                }
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((ChannelListener) key.attachment()).onReady(key);
+                    } catch (RuntimeException e) {
+                        LOGGER.w(e.getMessage(), e);
+                        key.cancel();
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.w(e.getMessage(), e);
+            }
+        }
+
+        for (SelectionKey key : mSelector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                LOGGER.v(e.getMessage(), e);
+            }
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            LOGGER.v(e.getMessage(), e);
+        }
+        LOGGER.d("Ended");
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.w(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs the timers that are due.
+     *
+     * @return the time until the next timer is due in milliseconds, or 0 if
+     * there are no timers
+     */
+    private long runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = mTimers.peek()) != null && timer.mDeadline - now <= 0) {
+            mTimers.poll();
+            if (!timer.mCancelled) {
+                try {
+                    timer.mTask.run();
+                } catch (RuntimeException e) {
+                    LOGGER.w(e.getMessage(), e);
+                }
+            }
+        }
+        if (timer == null) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timer.mDeadline - now));
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public interface Cancellable {
+        void cancel();
+    }
+
+    private static class Timer implements Cancellable, Comparable<Timer> {
+        private final Runnable mTask;
+        private final long mDeadline;
+        private long mSequence;
+        private volatile boolean mCancelled;
+
+        Timer(Runnable task, long deadline) {
+            mTask = task;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long diff = mDeadline - other.mDeadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}